@@ -17,16 +17,22 @@ package org.copperengine.core.persistent.cassandra;
 
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.NullArgumentException;
@@ -38,10 +44,12 @@ import org.copperengine.core.persistent.SerializedWorkflow;
 import org.copperengine.core.persistent.hybrid.HybridDBStorageAccessor;
 import org.copperengine.core.persistent.hybrid.Storage;
 import org.copperengine.core.persistent.hybrid.WorkflowInstance;
+import org.copperengine.core.persistent.hybrid.WorkflowInstances;
 import org.copperengine.management.model.WorkflowInstanceFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.datastax.driver.core.BatchStatement;
 import com.datastax.driver.core.Cluster;
 import com.datastax.driver.core.ConsistencyLevel;
 import com.datastax.driver.core.KeyspaceMetadata;
@@ -50,7 +58,7 @@ import com.datastax.driver.core.ResultSet;
 import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Row;
 import com.datastax.driver.core.Session;
-import com.datastax.driver.core.policies.DefaultRetryPolicy;
+import com.datastax.driver.core.Statement;
 import com.datastax.driver.core.policies.LoggingRetryPolicy;
 import com.datastax.driver.core.policies.RetryPolicy;
 import com.google.common.util.concurrent.ListenableFuture;
@@ -70,14 +78,17 @@ public class CassandraStorage implements Storage {
     private static final String CQL_UPD_WORKFLOW_INSTANCE_WAITING = "UPDATE COP_WORKFLOW_INSTANCE SET PPOOL_ID=?, PRIO=?, CREATION_TS=?, DATA=?, OBJECT_STATE=?, WAIT_MODE=?, TIMEOUT=?, RESPONSE_MAP_JSON=?, STATE=?, LAST_MOD_TS=toTimestamp(now()), CLASSNAME=? WHERE ID=?";
     private static final String CQL_UPD_WORKFLOW_INSTANCE_STATE = "UPDATE COP_WORKFLOW_INSTANCE SET STATE=?, LAST_MOD_TS=toTimestamp(now()) WHERE ID=?";
     private static final String CQL_UPD_WORKFLOW_INSTANCE_STATE_AND_RESPONSE_MAP = "UPDATE COP_WORKFLOW_INSTANCE SET STATE=?, RESPONSE_MAP_JSON=?, LAST_MOD_TS=toTimestamp(now()) WHERE ID=?";
+    private static final String CQL_UPD_WORKFLOW_INSTANCE_WAITING_BINARY = "UPDATE COP_WORKFLOW_INSTANCE SET PPOOL_ID=?, PRIO=?, CREATION_TS=?, DATA=?, OBJECT_STATE=?, WAIT_MODE=?, TIMEOUT=?, RESPONSE_MAP=?, RESPONSE_MAP_JSON=null, STATE=?, LAST_MOD_TS=toTimestamp(now()), CLASSNAME=? WHERE ID=?";
+    private static final String CQL_UPD_WORKFLOW_INSTANCE_STATE_AND_RESPONSE_MAP_BINARY = "UPDATE COP_WORKFLOW_INSTANCE SET STATE=?, RESPONSE_MAP=?, RESPONSE_MAP_JSON=null, LAST_MOD_TS=toTimestamp(now()) WHERE ID=?";
+    private static final String CQL_UPD_WORKFLOW_INSTANCE_STATE_AND_RESPONSE = "UPDATE COP_WORKFLOW_INSTANCE SET STATE=?, RESPONSE_MAP[?]=?, LAST_MOD_TS=toTimestamp(now()) WHERE ID=?";
     private static final String CQL_DEL_WORKFLOW_INSTANCE_WAITING = "DELETE FROM COP_WORKFLOW_INSTANCE WHERE ID=?";
     private static final String CQL_SEL_WORKFLOW_INSTANCE = "SELECT * FROM COP_WORKFLOW_INSTANCE WHERE ID=?";
+    private static final String CQL_SEL_WORKFLOW_INSTANCE_FILTER_COLUMNS = "SELECT ID, CLASSNAME, PPOOL_ID, STATE, CREATION_TS, LAST_MOD_TS FROM COP_WORKFLOW_INSTANCE";
     private static final String CQL_INS_EARLY_RESPONSE = "INSERT INTO COP_EARLY_RESPONSE (CORRELATION_ID, RESPONSE) VALUES (?,?) USING TTL ?";
     private static final String CQL_DEL_EARLY_RESPONSE = "DELETE FROM COP_EARLY_RESPONSE WHERE CORRELATION_ID=?";
     private static final String CQL_SEL_EARLY_RESPONSE = "SELECT RESPONSE FROM COP_EARLY_RESPONSE WHERE CORRELATION_ID=?";
     private static final String CQL_INS_WFI_ID = "INSERT INTO COP_WFI_ID (ID) VALUES (?)";
     private static final String CQL_DEL_WFI_ID = "DELETE FROM COP_WFI_ID WHERE ID=?";
-    private static final String CQL_SEL_WFI_ID_ALL = "SELECT * FROM COP_WFI_ID";
 
     private final Executor executor;
     private final Session session;
@@ -90,6 +101,17 @@ public class CassandraStorage implements Storage {
     private int ttlEarlyResponseSeconds = 1 * 24 * 60 * 60; // one day
     private int initializationTimeoutSeconds = 1 * 24 * 60 * 60; // one day
     private boolean createSchemaOnStartup = true;
+    private boolean backgroundRecovery = false;
+    private int scanParallelism = 8;
+    private boolean asyncWrites = false;
+    private int maxWritesInFlight = 1000;
+    private int maxWriteAttempts = 10;
+    private boolean binaryResponseMap = false;
+    private volatile WritePipeline writePipeline;
+    private ScheduledExecutorService writeRetryScheduler;
+    private volatile boolean shutdown = false;
+    private volatile Thread recoveryThread;
+    private volatile ExecutorService recoveryExecService;
 
     public CassandraStorage(final CassandraSessionManager sessionManager, final Executor executor, final RuntimeStatisticsCollector runtimeStatisticsCollector) {
         this(sessionManager, executor, runtimeStatisticsCollector, ConsistencyLevel.LOCAL_QUORUM);
@@ -117,6 +139,16 @@ public class CassandraStorage implements Storage {
 
     }
 
+    /**
+     * Number of token range queries that run in parallel when reading a complete table, i.e. during startup and in
+     * {@link #queryWorkflowInstances(WorkflowInstanceFilter)}. Defaults to 8.
+     */
+    public void setScanParallelism(int scanParallelism) {
+        if (scanParallelism <= 0)
+            throw new IllegalArgumentException();
+        this.scanParallelism = scanParallelism;
+    }
+
     public void setCreateSchemaOnStartup(boolean createSchemaOnStartup) {
         this.createSchemaOnStartup = createSchemaOnStartup;
     }
@@ -133,7 +165,11 @@ public class CassandraStorage implements Storage {
         prepare(CQL_UPD_WORKFLOW_INSTANCE_STATE_AND_RESPONSE_MAP);
         prepare(CQL_INS_WFI_ID);
         prepare(CQL_DEL_WFI_ID);
-        prepare(CQL_SEL_WFI_ID_ALL, DefaultRetryPolicy.INSTANCE);
+        if (binaryResponseMap) {
+            prepare(CQL_UPD_WORKFLOW_INSTANCE_WAITING_BINARY);
+            prepare(CQL_UPD_WORKFLOW_INSTANCE_STATE_AND_RESPONSE_MAP_BINARY);
+            prepare(CQL_UPD_WORKFLOW_INSTANCE_STATE_AND_RESPONSE);
+        }
     }
 
     protected void createSchema(Session session, Cluster cluster) throws Exception {
@@ -143,6 +179,10 @@ public class CassandraStorage implements Storage {
         final KeyspaceMetadata metaData = cluster.getMetadata().getKeyspace(session.getLoggedKeyspace());
         if (metaData.getTable("COP_WORKFLOW_INSTANCE") != null) {
             logger.info("skipping schema creation");
+            if (binaryResponseMap && metaData.getTable("COP_WORKFLOW_INSTANCE").getColumn("RESPONSE_MAP") == null) {
+                logger.info("Adding column RESPONSE_MAP to COP_WORKFLOW_INSTANCE");
+                session.execute("ALTER TABLE COP_WORKFLOW_INSTANCE ADD RESPONSE_MAP map<text, blob>");
+            }
             return;
         }
 
@@ -184,43 +224,182 @@ public class CassandraStorage implements Storage {
         this.initializationTimeoutSeconds = initializationTimeoutSeconds;
     }
 
+    /**
+     * If set to <code>true</code>, {@link #initialize(HybridDBStorageAccessor, int)} returns as soon as the schema is
+     * ready and the existing workflow instances are resumed in the background, while the engine already accepts new
+     * workflow instances and responses. Responses for instances that are not resumed yet are stored as early
+     * responses and picked up when the instance is resumed. The initialization timeout does not apply in this case.
+     * Default is <code>false</code>.
+     */
+    public void setBackgroundRecovery(boolean backgroundRecovery) {
+        this.backgroundRecovery = backgroundRecovery;
+    }
+
+    /**
+     * If set to <code>true</code>, updates and deletes of workflow instances are written asynchronously, so the
+     * processor threads do not wait for a Cassandra round trip. Writes for the same workflow instance are applied in
+     * order; writes that are issued while an earlier write for the same instance is still in flight are coalesced
+     * into one write (last writer wins). Reads of a workflow instance see the writes that are not yet acknowledged.
+     * Inserts of new workflow instances are still acknowledged only after they have been written.
+     * <p>
+     * Caution: writes that are not yet acknowledged are lost if the JVM terminates, i.e. the affected workflow
+     * instances continue from their previously stored state after a restart. Default is <code>false</code>.
+     */
+    public void setAsyncWrites(boolean asyncWrites) {
+        this.asyncWrites = asyncWrites;
+    }
+
+    /**
+     * Maximum number of asynchronous writes that are accepted but not yet acknowledged, see
+     * {@link #setAsyncWrites(boolean)}. If the limit is reached, the writing threads block. Defaults to 1000.
+     */
+    public void setMaxWritesInFlight(int maxWritesInFlight) {
+        if (maxWritesInFlight <= 0)
+            throw new IllegalArgumentException();
+        this.maxWritesInFlight = maxWritesInFlight;
+    }
+
+    /**
+     * Maximum number of attempts of an asynchronous write, see {@link #setAsyncWrites(boolean)}. Writes failing due to
+     * timeouts or unavailable hosts are retried with an increasing delay of up to five seconds. If the last attempt
+     * fails, the write is discarded and the failure is thrown by the next read or write of the workflow instance.
+     * Defaults to 10.
+     */
+    public void setMaxWriteAttempts(int maxWriteAttempts) {
+        if (maxWriteAttempts <= 0)
+            throw new IllegalArgumentException();
+        this.maxWriteAttempts = maxWriteAttempts;
+    }
+
+    /**
+     * If set to <code>true</code>, the correlation id to response map of waiting workflow instances is stored in the
+     * <code>map&lt;text, blob&gt;</code> column RESPONSE_MAP instead of the JSON text column RESPONSE_MAP_JSON. A
+     * response for a waiting workflow instance is then written as a single map entry together with the new state,
+     * instead of rewriting and re-parsing the whole map. The column is added on startup, if it is missing and
+     * <code>createSchemaOnStartup</code> is set.
+     * <p>
+     * Both columns are read, so existing rows in JSON format stay readable after switching to the binary format.
+     * Switching back to JSON is not supported for workflow instances that are waiting at that time. Default is
+     * <code>false</code>.
+     */
+    public void setBinaryResponseMap(boolean binaryResponseMap) {
+        this.binaryResponseMap = binaryResponseMap;
+    }
+
     @Override
     public void safeWorkflowInstance(final WorkflowInstance cw, final boolean initialInsert) throws Exception {
         logger.debug("safeWorkflow({})", cw);
+        final WritePipeline pipeline = writePipeline;
+        if (pipeline != null) {
+            final ListenableFuture<Void> future = pipeline.save(cw, initialInsert);
+            if (initialInsert) {
+                // the insert has to be durable before it is acknowledged
+                try {
+                    future.get();
+                } catch (ExecutionException e) {
+                    throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                }
+            }
+            return;
+        }
         new CassandraOperation<Void>(logger) {
             @Override
             protected Void execute() throws Exception {
-                if (initialInsert) {
-                    final PreparedStatement pstmt = preparedStatements.get(CQL_INS_WFI_ID);
-                    final long startTS = System.nanoTime();
-                    session.execute(pstmt.bind(cw.id));
-                    runtimeStatisticsCollector.submit("wfii.ins", 1, System.nanoTime() - startTS, TimeUnit.NANOSECONDS);
-                }
-                if (cw.cid2ResponseMap == null || cw.cid2ResponseMap.isEmpty()) {
-                    final PreparedStatement pstmt = preparedStatements.get(CQL_UPD_WORKFLOW_INSTANCE_NOT_WAITING);
-                    final long startTS = System.nanoTime();
-                    session.execute(pstmt.bind(cw.ppoolId, cw.prio, cw.creationTS, cw.serializedWorkflow.getData(), cw.serializedWorkflow.getObjectState(), cw.state.name(), cw.classname, cw.id));
-                    runtimeStatisticsCollector.submit("wfi.update.nowait", 1, System.nanoTime() - startTS, TimeUnit.NANOSECONDS);
+                final long startTS = System.nanoTime();
+                session.execute(createSaveStatement(cw, initialInsert));
+                runtimeStatisticsCollector.submit(initialInsert ? "wfi.insert" : cw.cid2ResponseMap == null || cw.cid2ResponseMap.isEmpty() ? "wfi.update.nowait" : "wfi.update.wait", 1, System.nanoTime() - startTS, TimeUnit.NANOSECONDS);
+                return null;
+            }
+        }.run();
+    }
+
+    @Override
+    public void safeWorkflowInstanceResponse(final WorkflowInstance cw, final String correlationId) throws Exception {
+        logger.debug("safeWorkflowInstanceResponse({}, {})", cw.id, correlationId);
+        final WritePipeline pipeline = writePipeline;
+        if (pipeline != null) {
+            // coalesces with pending writes of this instance
+            pipeline.save(cw, false);
+            return;
+        }
+        new CassandraOperation<Void>(logger) {
+            @Override
+            protected Void execute() throws Exception {
+                final long startTS = System.nanoTime();
+                if (binaryResponseMap) {
+                    session.execute(preparedStatements.get(CQL_UPD_WORKFLOW_INSTANCE_STATE_AND_RESPONSE).bind(cw.state.name(), correlationId, ResponseMaps.toBlob(cw.cid2ResponseMap.get(correlationId)), cw.id));
                 }
                 else {
-                    final PreparedStatement pstmt = preparedStatements.get(CQL_UPD_WORKFLOW_INSTANCE_WAITING);
-                    final String responseMapJson = jsonMapper.toJSON(cw.cid2ResponseMap);
-                    final long startTS = System.nanoTime();
-                    session.execute(pstmt.bind(cw.ppoolId, cw.prio, cw.creationTS, cw.serializedWorkflow.getData(), cw.serializedWorkflow.getObjectState(), cw.waitMode.name(), cw.timeout, responseMapJson, cw.state.name(), cw.classname, cw.id));
-                    runtimeStatisticsCollector.submit("wfi.update.wait", 1, System.nanoTime() - startTS, TimeUnit.NANOSECONDS);
+                    session.execute(preparedStatements.get(CQL_UPD_WORKFLOW_INSTANCE_STATE_AND_RESPONSE_MAP).bind(cw.state.name(), jsonMapper.toJSON(cw.cid2ResponseMap), cw.id));
                 }
+                runtimeStatisticsCollector.submit("wfi.update.response", 1, System.nanoTime() - startTS, TimeUnit.NANOSECONDS);
                 return null;
             }
         }.run();
     }
 
+    /**
+     * The insert into COP_WFI_ID and the update of COP_WORKFLOW_INSTANCE share the same partition key, so they are
+     * sent as one unlogged batch.
+     */
+    private Statement createSaveStatement(final WorkflowInstance cw, final boolean initialInsert) {
+        final Statement update;
+        if (cw.cid2ResponseMap == null || cw.cid2ResponseMap.isEmpty()) {
+            final PreparedStatement pstmt = preparedStatements.get(CQL_UPD_WORKFLOW_INSTANCE_NOT_WAITING);
+            update = pstmt.bind(cw.ppoolId, cw.prio, cw.creationTS, cw.serializedWorkflow.getData(), cw.serializedWorkflow.getObjectState(), cw.state.name(), cw.classname, cw.id);
+        }
+        else if (binaryResponseMap) {
+            final PreparedStatement pstmt = preparedStatements.get(CQL_UPD_WORKFLOW_INSTANCE_WAITING_BINARY);
+            update = pstmt.bind(cw.ppoolId, cw.prio, cw.creationTS, cw.serializedWorkflow.getData(), cw.serializedWorkflow.getObjectState(), cw.waitMode.name(), cw.timeout, ResponseMaps.toBlobMap(cw.cid2ResponseMap), cw.state.name(), cw.classname, cw.id);
+        }
+        else {
+            final PreparedStatement pstmt = preparedStatements.get(CQL_UPD_WORKFLOW_INSTANCE_WAITING);
+            final String responseMapJson = jsonMapper.toJSON(cw.cid2ResponseMap);
+            update = pstmt.bind(cw.ppoolId, cw.prio, cw.creationTS, cw.serializedWorkflow.getData(), cw.serializedWorkflow.getObjectState(), cw.waitMode.name(), cw.timeout, responseMapJson, cw.state.name(), cw.classname, cw.id);
+        }
+        if (!initialInsert) {
+            return update;
+        }
+        return createBatch(preparedStatements.get(CQL_INS_WFI_ID).bind(cw.id), update);
+    }
+
+    private Statement createDeleteStatement(final String wfId) {
+        return createBatch(preparedStatements.get(CQL_DEL_WFI_ID).bind(wfId), preparedStatements.get(CQL_DEL_WORKFLOW_INSTANCE_WAITING).bind(wfId));
+    }
+
+    private BatchStatement createBatch(final Statement... statements) {
+        final BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        for (Statement stmt : statements) {
+            batch.add(stmt);
+        }
+        batch.setConsistencyLevel(consistencyLevel);
+        batch.setRetryPolicy(alwaysRetry);
+        batch.setIdempotent(true);
+        return batch;
+    }
+
+    private ListenableFuture<?> write(final WritePipeline.Op op) {
+        switch (op.kind) {
+        case SAVE:
+            return session.executeAsync(createSaveStatement(op.wfi, op.initialInsert));
+        case STATE:
+            return session.executeAsync(preparedStatements.get(CQL_UPD_WORKFLOW_INSTANCE_STATE).bind(op.state.name(), op.wfId));
+        case DELETE:
+            return session.executeAsync(createDeleteStatement(op.wfId));
+        default:
+            throw new IllegalArgumentException("unsupported write " + op.kind);
+        }
+    }
+
     @Override
     public ListenableFuture<Void> deleteWorkflowInstance(String wfId) throws Exception {
         logger.debug("deleteWorkflowInstance({})", wfId);
-        session.executeAsync(preparedStatements.get(CQL_DEL_WFI_ID).bind(wfId));
-        final PreparedStatement pstmt = preparedStatements.get(CQL_DEL_WORKFLOW_INSTANCE_WAITING);
+        final WritePipeline pipeline = writePipeline;
+        if (pipeline != null) {
+            return pipeline.delete(wfId);
+        }
         final long startTS = System.nanoTime();
-        final ResultSetFuture rsf = session.executeAsync(pstmt.bind(wfId));
+        final ResultSetFuture rsf = session.executeAsync(createDeleteStatement(wfId));
         return createSettableFuture(rsf, "wfi.delete", startTS);
     }
 
@@ -247,6 +426,19 @@ public class CassandraStorage implements Storage {
     @Override
     public WorkflowInstance readWorkflowInstance(final String wfId) throws Exception {
         logger.debug("readCassandraWorkflow({})", wfId);
+        final WritePipeline pipeline = writePipeline;
+        if (pipeline != null) {
+            return pipeline.read(wfId, new Callable<WorkflowInstance>() {
+                @Override
+                public WorkflowInstance call() throws Exception {
+                    return doReadWorkflowInstance(wfId);
+                }
+            });
+        }
+        return doReadWorkflowInstance(wfId);
+    }
+
+    private WorkflowInstance doReadWorkflowInstance(final String wfId) throws Exception {
         return new CassandraOperation<WorkflowInstance>(logger) {
             @Override
             protected WorkflowInstance execute() throws Exception {
@@ -305,44 +497,140 @@ public class CassandraStorage implements Storage {
 
         prepareStatements();
 
-        // TODO instead of blocking the startup until all active workflow instances are read and resumed, it is
-        // sufficient to read just their existing IDs in COP_WFI_ID and resume them in the background while already
-        // starting the engine an accepting new instances.
-
-        if (numberOfThreads <= 0)
-            numberOfThreads = 1;
-        logger.info("Starting to initialize with {} threads ...", numberOfThreads);
-        final ExecutorService execService = Executors.newFixedThreadPool(numberOfThreads);
-        final long startTS = System.currentTimeMillis();
-        final ResultSet rs = session.execute(preparedStatements.get(CQL_SEL_WFI_ID_ALL).bind().setFetchSize(500).setConsistencyLevel(ConsistencyLevel.ONE));
-        int counter = 0;
-        Row row;
-        while ((row = rs.one()) != null) {
-            counter++;
-            final String wfId = row.getString("ID");
-            execService.execute(new Runnable() {
+        if (asyncWrites) {
+            writeRetryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
                 @Override
-                public void run() {
-                    try {
-                        resume(wfId, internalStorageAccessor);
-                    }
-                    catch (Exception e) {
-                        logger.error("resume failed", e);
-                    }
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "copper.CassandraWriteRetry");
+                    t.setDaemon(true);
+                    return t;
                 }
             });
+            writePipeline = new WritePipeline(new WritePipeline.Writer() {
+                @Override
+                public ListenableFuture<?> write(WritePipeline.Op op) {
+                    return CassandraStorage.this.write(op);
+                }
+            }, executor, writeRetryScheduler, runtimeStatisticsCollector, maxWritesInFlight, maxWriteAttempts);
         }
+
+        final int threads = numberOfThreads <= 0 ? 1 : numberOfThreads;
+        if (!backgroundRecovery) {
+            recover(internalStorageAccessor, threads, initializationTimeoutSeconds);
+            return;
+        }
+
+        internalStorageAccessor.recoveryStarted();
+        recoveryThread = new Thread("copper.CassandraRecovery") {
+            @Override
+            public void run() {
+                try {
+                    recover(internalStorageAccessor, threads, Long.MAX_VALUE);
+                } catch (Exception e) {
+                    if (shutdown) {
+                        logger.info("background recovery stopped by shutdown");
+                    } else {
+                        logger.error("background recovery failed", e);
+                    }
+                } finally {
+                    internalStorageAccessor.recoveryFinished();
+                }
+            }
+        };
+        recoveryThread.setDaemon(true);
+        recoveryThread.start();
+    }
+
+    private void recover(final HybridDBStorageAccessor internalStorageAccessor, final int numberOfThreads, final long timeoutSeconds) throws Exception {
+        logger.info("Starting to initialize with {} threads ...", numberOfThreads);
+        // bounded queue - if the resumers fall behind, the reading thread resumes itself instead of buffering IDs
+        final ThreadPoolExecutor execService = new ThreadPoolExecutor(numberOfThreads, numberOfThreads, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(numberOfThreads * 100), new ThreadPoolExecutor.CallerRunsPolicy());
+        recoveryExecService = execService;
+        final long startTS = System.currentTimeMillis();
+        final long counter = createScanner().scan("SELECT ID FROM COP_WFI_ID", "ID", ConsistencyLevel.ONE, new TokenRangeScanner.RowHandler() {
+            @Override
+            public boolean handle(Row row) {
+                if (shutdown)
+                    return false;
+                final String wfId = row.getString("ID");
+                execService.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (shutdown)
+                            return;
+                        try {
+                            resume(wfId, internalStorageAccessor);
+                        }
+                        catch (Exception e) {
+                            logger.error("resume failed", e);
+                        }
+                    }
+                });
+                return true;
+            }
+        });
         logger.info("Read {} IDs in {} msec", counter, System.currentTimeMillis() - startTS);
         execService.shutdown();
-        final boolean timeoutHappened = !execService.awaitTermination(initializationTimeoutSeconds, TimeUnit.SECONDS);
+        final boolean timeoutHappened = !execService.awaitTermination(timeoutSeconds, TimeUnit.SECONDS);
         if (timeoutHappened) {
             throw new CopperRuntimeException("initialize timed out!");
         }
         logger.info("Finished initialization - read {} rows in {} msec", counter, System.currentTimeMillis() - startTS);
-        runtimeStatisticsCollector.submit("storage.init", counter, System.currentTimeMillis() - startTS, TimeUnit.MILLISECONDS);
+        runtimeStatisticsCollector.submit("storage.init", (int) counter, System.currentTimeMillis() - startTS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops a running background recovery and waits for its termination. Waits up to 30 seconds for the pending
+     * asynchronous writes - those still pending afterwards are discarded and their futures fail.
+     */
+    @Override
+    public void shutdown() throws InterruptedException {
+        shutdown = true;
+        final ExecutorService execService = recoveryExecService;
+        if (execService != null) {
+            execService.shutdownNow();
+        }
+        final Thread t = recoveryThread;
+        if (t != null) {
+            t.interrupt();
+            t.join(TimeUnit.SECONDS.toMillis(30));
+            if (t.isAlive()) {
+                logger.warn("background recovery did not stop within 30 seconds");
+            }
+        }
+        final WritePipeline pipeline = writePipeline;
+        if (pipeline != null && !pipeline.awaitPendingWrites(30, TimeUnit.SECONDS)) {
+            logger.warn("{} asynchronous write(s) still pending after 30 seconds", pipeline.getNumberOfPendingWrites());
+        }
+        if (writeRetryScheduler != null) {
+            writeRetryScheduler.shutdownNow();
+        }
+        if (pipeline != null) {
+            final int aborted = pipeline.abort(new IllegalStateException("CassandraStorage has been shut down"));
+            if (aborted > 0) {
+                logger.error("{} asynchronous write(s) discarded on shutdown", aborted);
+            }
+        }
+        logger.info("shutdown finished");
+    }
+
+    private TokenRangeScanner createScanner() {
+        final TokenRangeScanner scanner = new TokenRangeScanner(session);
+        scanner.setMaxInFlight(scanParallelism);
+        return scanner;
     }
 
     private void resume(final String wfId, final HybridDBStorageAccessor internalStorageAccessor) throws Exception {
+        internalStorageAccessor.resume(wfId, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                doResume(wfId, internalStorageAccessor);
+                return null;
+            }
+        });
+    }
+
+    private void doResume(final String wfId, final HybridDBStorageAccessor internalStorageAccessor) throws Exception {
         logger.trace("resume(wfId={})", wfId);
 
         final ResultSet rs = session.execute(preparedStatements.get(CQL_SEL_WORKFLOW_INSTANCE).bind(wfId));
@@ -356,7 +644,7 @@ public class CassandraStorage implements Storage {
         final String ppoolId = row.getString("PPOOL_ID");
         final int prio = row.getInt("PRIO");
         final WaitMode waitMode = toWaitMode(row.getString("WAIT_MODE"));
-        final Map<String, String> responseMap = toResponseMap(row.getString("RESPONSE_MAP_JSON"));
+        final Map<String, String> responseMap = toResponseMap(row);
         final ProcessingState state = ProcessingState.valueOf(row.getString("STATE"));
         final Date timeout = row.getTimestamp("TIMEOUT");
         final boolean timeoutOccured = timeout != null && timeout.getTime() <= System.currentTimeMillis();
@@ -370,6 +658,7 @@ public class CassandraStorage implements Storage {
             return;
         }
 
+        boolean enqueued = false;
         if (responseMap != null) {
             final List<String> missingResponseCorrelationIds = new ArrayList<String>();
             int numberOfAvailableResponses = 0;
@@ -398,19 +687,33 @@ public class CassandraStorage implements Storage {
             }
             if (modified || timeoutOccured) {
                 final ProcessingState newState = (timeoutOccured || numberOfAvailableResponses == responseMap.size() || (numberOfAvailableResponses == 1 && waitMode == WaitMode.FIRST)) ? ProcessingState.ENQUEUED : ProcessingState.WAITING;
-                final String responseMapJson = jsonMapper.toJSON(responseMap);
-                session.execute(preparedStatements.get(CQL_UPD_WORKFLOW_INSTANCE_STATE_AND_RESPONSE_MAP).bind(newState.name(), responseMapJson, wfId));
+                if (binaryResponseMap) {
+                    session.execute(preparedStatements.get(CQL_UPD_WORKFLOW_INSTANCE_STATE_AND_RESPONSE_MAP_BINARY).bind(newState.name(), ResponseMaps.toBlobMap(responseMap), wfId));
+                }
+                else {
+                    final String responseMapJson = jsonMapper.toJSON(responseMap);
+                    session.execute(preparedStatements.get(CQL_UPD_WORKFLOW_INSTANCE_STATE_AND_RESPONSE_MAP).bind(newState.name(), responseMapJson, wfId));
+                }
                 if (newState == ProcessingState.ENQUEUED) {
                     internalStorageAccessor.enqueue(wfId, ppoolId, prio);
+                    enqueued = true;
                 }
             }
 
         }
+
+        if (timeout != null && !enqueued) {
+            internalStorageAccessor.registerTimeout(timeout, wfId);
+        }
     }
 
     @Override
     public ListenableFuture<Void> updateWorkflowInstanceState(final String wfId, final ProcessingState state) throws Exception {
         logger.debug("updateWorkflowInstanceState({}, {})", wfId, state);
+        final WritePipeline pipeline = writePipeline;
+        if (pipeline != null) {
+            return pipeline.updateState(wfId, state);
+        }
         final long startTS = System.nanoTime();
         final ResultSetFuture rsf = session.executeAsync(preparedStatements.get(CQL_UPD_WORKFLOW_INSTANCE_STATE).bind(state.name(), wfId));
         return createSettableFuture(rsf, "wfi.update.state", startTS);
@@ -421,6 +724,11 @@ public class CassandraStorage implements Storage {
         return v == null ? null : jsonMapper.fromJSON(v, HashMap.class);
     }
 
+    private Map<String, String> toResponseMap(Row row) {
+        final Map<String, ByteBuffer> blobMap = row.getColumnDefinitions().contains("RESPONSE_MAP") ? row.getMap("RESPONSE_MAP", String.class, ByteBuffer.class) : null;
+        return ResponseMaps.merge(toResponseMap(row.getString("RESPONSE_MAP_JSON")), blobMap);
+    }
+
     private WaitMode toWaitMode(String v) {
         return v == null ? null : WaitMode.valueOf(v);
     }
@@ -439,68 +747,50 @@ public class CassandraStorage implements Storage {
     }
 
     @Override
-    public List<WorkflowInstance> queryWorkflowInstances(WorkflowInstanceFilter filter) throws Exception {
+    public List<WorkflowInstance> queryWorkflowInstances(final WorkflowInstanceFilter filter) throws Exception {
         final List<WorkflowInstance> resultList = new ArrayList<>();
-        final StringBuilder query = new StringBuilder();
-        final List<Object> values = new ArrayList<>();
-        query.append("SELECT * FROM COP_WORKFLOW_INSTANCE");
-        
-        boolean first = true;
-        if (filter.getWorkflowClassname() != null) {
-            query.append(first ? " WHERE " : " AND ");
-            first=false;
-            query.append("CLASSNAME=?");
-            values.add(filter.getWorkflowClassname());
-        }
-        if (filter.getProcessorPoolId() != null) {
-            query.append(first ? " WHERE " : " AND ");
-            first=false;
-            query.append("PPOOL_ID=?");
-            values.add(filter.getProcessorPoolId());
-        }
-        if (filter.getState() != null) {
-            query.append(first ? " WHERE " : " AND ");
-            first=false;
-            query.append("STATE=?");
-            values.add(filter.getState());
-        }
-        if (filter.getCreationTS() != null && filter.getCreationTS().getFrom() != null) {
-            query.append(first ? " WHERE " : " AND ");
-            first=false;
-            query.append("CREATION_TS>=?");
-            values.add(filter.getCreationTS().getFrom());
-        }
-        if (filter.getCreationTS() != null && filter.getCreationTS().getTo() != null) {
-            query.append(first ? " WHERE " : " AND ");
-            first=false;
-            query.append("CREATION_TS<?");
-            values.add(filter.getCreationTS().getTo());
-        }
-        if (filter.getLastModTS() != null && filter.getLastModTS().getFrom() != null) {
-            query.append(first ? " WHERE " : " AND ");
-            first=false;
-            query.append("LAST_MOD_TS>=?");
-            values.add(filter.getLastModTS().getFrom());
-        }
-        if (filter.getLastModTS() != null && filter.getLastModTS().getTo() != null) {
-            query.append(first ? " WHERE " : " AND ");
-            first=false;
-            query.append("LAST_MOD_TS<?");
-            values.add(filter.getLastModTS().getTo());
+        if (filter.getMax() <= 0) {
+            return resultList;
         }
-        query.append(" LIMIT ").append(filter.getMax());
-        query.append(" ALLOW FILTERING");
-        final String cqlQuery = query.toString();
-        logger.info("queryWorkflowInstances - cqlQuery = {}", cqlQuery);
-        final ResultSet resultSet = session.execute(cqlQuery, values.toArray());
-        Row row;
-        while ((row = resultSet.one()) != null) {
-            final WorkflowInstance cw = row2WorkflowInstance(row);
-            resultList.add(cw);
+        // COP_WORKFLOW_INSTANCE has no secondary indexes, so the filter is applied to the scanned rows. The scan
+        // reads the filter columns only, the token ranges are scanned in parallel and the first filter.getMax()
+        // matches win.
+        final List<String> ids = new ArrayList<>();
+        createScanner().scan(CQL_SEL_WORKFLOW_INSTANCE_FILTER_COLUMNS, "ID", null, new TokenRangeScanner.RowHandler() {
+            @Override
+            public boolean handle(Row row) {
+                if (!WorkflowInstances.matches(filter, row2FilterColumns(row))) {
+                    return true;
+                }
+                synchronized (ids) {
+                    if (ids.size() < filter.getMax()) {
+                        ids.add(row.getString("ID"));
+                    }
+                    return ids.size() < filter.getMax();
+                }
+            }
+        });
+        // read the complete rows of the matches - an instance modified in the meantime may no longer match
+        for (String id : ids) {
+            final WorkflowInstance cw = readWorkflowInstance(id);
+            if (cw != null && WorkflowInstances.matches(filter, cw)) {
+                resultList.add(cw);
+            }
         }
         return resultList;
     }
 
+    private static WorkflowInstance row2FilterColumns(Row row) {
+        final WorkflowInstance cw = new WorkflowInstance();
+        cw.id = row.getString("ID");
+        cw.classname = row.getString("CLASSNAME");
+        cw.ppoolId = row.getString("PPOOL_ID");
+        cw.state = ProcessingState.valueOf(row.getString("STATE"));
+        cw.creationTS = row.getTimestamp("CREATION_TS");
+        cw.lastModTS = row.getTimestamp("LAST_MOD_TS");
+        return cw;
+    }
+
     private WorkflowInstance row2WorkflowInstance(Row row) {
         final WorkflowInstance cw = new WorkflowInstance();
         cw.id = row.getString("ID");
@@ -512,7 +802,7 @@ public class CassandraStorage implements Storage {
         cw.serializedWorkflow = new SerializedWorkflow();
         cw.serializedWorkflow.setData(row.getString("DATA"));
         cw.serializedWorkflow.setObjectState(row.getString("OBJECT_STATE"));
-        cw.cid2ResponseMap = toResponseMap(row.getString("RESPONSE_MAP_JSON"));
+        cw.cid2ResponseMap = toResponseMap(row);
         cw.state = ProcessingState.valueOf(row.getString("STATE"));
         cw.lastModTS = row.getTimestamp("LAST_MOD_TS");
         cw.classname = row.getString("CLASSNAME");
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.cassandra;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * Conversion of a workflow instance's correlation id to response map from and to the <code>map&lt;text, blob&gt;</code>
+ * column RESPONSE_MAP.
+ * <p>
+ * Cassandra does not support <code>null</code> values in collections, so a missing response is stored as an empty
+ * blob. A serialized response is never empty.
+ */
+final class ResponseMaps {
+
+    private static final ByteBuffer NO_RESPONSE = ByteBuffer.allocate(0);
+
+    private ResponseMaps() {
+    }
+
+    static ByteBuffer toBlob(String response) {
+        return response == null ? NO_RESPONSE.duplicate() : ByteBuffer.wrap(response.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String fromBlob(ByteBuffer blob) {
+        if (blob == null || !blob.hasRemaining())
+            return null;
+        if (blob.hasArray()) {
+            return new String(blob.array(), blob.arrayOffset() + blob.position(), blob.remaining(), StandardCharsets.UTF_8);
+        }
+        final byte[] bytes = new byte[blob.remaining()];
+        blob.duplicate().get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static Map<String, ByteBuffer> toBlobMap(Map<String, String> responseMap) {
+        final Map<String, ByteBuffer> blobMap = new HashMap<>(Math.max(16, responseMap.size() * 2));
+        for (Entry<String, String> e : responseMap.entrySet()) {
+            blobMap.put(e.getKey(), toBlob(e.getValue()));
+        }
+        return blobMap;
+    }
+
+    /**
+     * Combines both representations of the response map. Rows written in JSON format may receive single responses
+     * in the blob map afterwards, so a JSON map is completed with the responses found in the blob map. Entries of the
+     * blob map for correlation ids that are not part of the JSON map are outdated and ignored.
+     *
+     * @param jsonMap
+     *        response map parsed from RESPONSE_MAP_JSON, or <code>null</code>
+     * @param blobMap
+     *        content of RESPONSE_MAP, or <code>null</code>
+     * @return the response map or <code>null</code>, if neither column contains one
+     */
+    static Map<String, String> merge(Map<String, String> jsonMap, Map<String, ByteBuffer> blobMap) {
+        if (jsonMap != null) {
+            if (blobMap != null && !blobMap.isEmpty()) {
+                for (Entry<String, String> e : jsonMap.entrySet()) {
+                    if (e.getValue() == null) {
+                        e.setValue(fromBlob(blobMap.get(e.getKey())));
+                    }
+                }
+            }
+            return jsonMap;
+        }
+        if (blobMap == null || blobMap.isEmpty())
+            return null;
+        final Map<String, String> responseMap = new HashMap<>(Math.max(16, blobMap.size() * 2));
+        for (Entry<String, ByteBuffer> e : blobMap.entrySet()) {
+            responseMap.put(e.getKey(), fromBlob(e.getValue()));
+        }
+        return responseMap;
+    }
+}
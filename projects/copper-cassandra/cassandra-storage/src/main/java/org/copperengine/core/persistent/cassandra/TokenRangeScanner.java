@@ -0,0 +1,195 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.cassandra;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.copperengine.core.CopperRuntimeException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.Row;
+import com.datastax.driver.core.Session;
+import com.datastax.driver.core.TokenRange;
+
+/**
+ * Full table scan, split into token ranges that are queried in parallel.
+ * <p>
+ * The token ranges of the ring are split further if there are fewer ranges than parallel queries, so that a small
+ * cluster still profits from parallel paging. At most <code>maxInFlight</code> range queries are running at the same
+ * time, each one paging through its range with the configured fetch size. Rows are handed to a {@link RowHandler},
+ * which is called concurrently from the scanning threads.
+ * <p>
+ * The range queries restrict the partition key only, i.e. every row of the table is read. Filtering on other columns
+ * is up to the {@link RowHandler} - a server side filter would require ALLOW FILTERING.
+ */
+public class TokenRangeScanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(TokenRangeScanner.class);
+
+    /**
+     * Callback for the scanned rows - must be thread safe.
+     */
+    public interface RowHandler {
+        /**
+         * @return <code>false</code> to stop the scan
+         */
+        boolean handle(Row row) throws Exception;
+    }
+
+    private final Session session;
+    private int maxInFlight = 8;
+    private int fetchSize = 500;
+
+    public TokenRangeScanner(Session session) {
+        if (session == null)
+            throw new NullPointerException();
+        this.session = session;
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight <= 0)
+            throw new IllegalArgumentException();
+        this.maxInFlight = maxInFlight;
+    }
+
+    public int getMaxInFlight() {
+        return maxInFlight;
+    }
+
+    public void setFetchSize(int fetchSize) {
+        if (fetchSize <= 0)
+            throw new IllegalArgumentException();
+        this.fetchSize = fetchSize;
+    }
+
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    /**
+     * Scans a table.
+     *
+     * @param select
+     *        the select clause including the table, e.g. <code>SELECT ID FROM COP_WFI_ID</code>
+     * @param partitionKey
+     *        the partition key column(s) of the table, used for the <code>token(...)</code> restriction
+     * @param consistencyLevel
+     *        consistency level of the range queries, or <code>null</code> for the session's default
+     * @return number of rows handed to the handler
+     */
+    public long scan(final String select, final String partitionKey, final ConsistencyLevel consistencyLevel, final RowHandler handler) throws Exception {
+        final long startTS = System.currentTimeMillis();
+        final PreparedStatement rangeStmt = session.prepare(select + " WHERE token(" + partitionKey + ") > ? AND token(" + partitionKey + ") <= ?");
+        final PreparedStatement tailStmt = session.prepare(select + " WHERE token(" + partitionKey + ") > ?");
+
+        final List<TokenRange> ranges = splitRanges();
+        logger.info("Scanning '{}' in {} token ranges with up to {} parallel queries", select, ranges.size(), maxInFlight);
+
+        final AtomicLong counter = new AtomicLong();
+        final AtomicBoolean stopped = new AtomicBoolean(false);
+        final ExecutorService exec = Executors.newFixedThreadPool(Math.min(maxInFlight, ranges.size()));
+        try {
+            final List<Future<?>> futures = new ArrayList<>(ranges.size());
+            for (final TokenRange range : ranges) {
+                futures.add(exec.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        if (stopped.get())
+                            return null;
+                        final BoundStatement stmt;
+                        if (endsAtMinToken(range)) {
+                            stmt = bind(tailStmt, range, false);
+                        } else {
+                            stmt = bind(rangeStmt, range, true);
+                        }
+                        stmt.setFetchSize(fetchSize);
+                        if (consistencyLevel != null) {
+                            stmt.setConsistencyLevel(consistencyLevel);
+                        }
+                        final ResultSet rs = session.execute(stmt);
+                        Row row;
+                        while (!stopped.get() && (row = rs.one()) != null) {
+                            if (rs.getAvailableWithoutFetching() == fetchSize / 5 && !rs.isFullyFetched()) {
+                                rs.fetchMoreResults();
+                            }
+                            counter.incrementAndGet();
+                            if (!handler.handle(row)) {
+                                stopped.set(true);
+                                break;
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    stopped.set(true);
+                    throw new CopperRuntimeException("token range scan failed", e.getCause());
+                }
+            }
+        } finally {
+            exec.shutdownNow();
+        }
+        logger.info("Scanned {} rows of '{}' in {} msec", counter.get(), select, System.currentTimeMillis() - startTS);
+        return counter.get();
+    }
+
+    private List<TokenRange> splitRanges() {
+        final List<TokenRange> ringRanges = new ArrayList<>(session.getCluster().getMetadata().getTokenRanges());
+        final int splits = Math.max(1, (maxInFlight * 4 + ringRanges.size() - 1) / ringRanges.size());
+        final List<TokenRange> result = new ArrayList<>(ringRanges.size() * splits);
+        for (TokenRange ringRange : ringRanges) {
+            for (TokenRange range : splits > 1 ? ringRange.splitEvenly(splits) : Collections.singletonList(ringRange)) {
+                // CQL does not support wrapping ranges
+                result.addAll(range.unwrap());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A range (x, minToken] is not wrapped, but has to be queried with an open upper bound.
+     */
+    private static boolean endsAtMinToken(TokenRange range) {
+        return range.getStart().compareTo(range.getEnd()) >= 0 && !range.isWrappedAround();
+    }
+
+    private static BoundStatement bind(PreparedStatement pstmt, TokenRange range, boolean withEnd) {
+        final BoundStatement stmt = pstmt.bind();
+        stmt.setToken(0, range.getStart());
+        if (withEnd) {
+            stmt.setToken(1, range.getEnd());
+        }
+        return stmt;
+    }
+}
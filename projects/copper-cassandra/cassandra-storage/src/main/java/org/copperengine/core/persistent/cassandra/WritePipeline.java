@@ -0,0 +1,389 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.cassandra;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.CopperRuntimeException;
+import org.copperengine.core.ProcessingState;
+import org.copperengine.core.monitoring.RuntimeStatisticsCollector;
+import org.copperengine.core.persistent.hybrid.WorkflowInstance;
+import org.copperengine.core.persistent.hybrid.WorkflowInstances;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.QueryExecutionException;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Asynchronous write pipeline for the workflow instance mutations of {@link CassandraStorage}.
+ * <p>
+ * At most one write per workflow instance id is in flight at a time, so the writes for an id are applied in order.
+ * Writes that are submitted while a write for the same id is in flight are coalesced into a single pending write, i.e.
+ * the last writer wins. The total number of accepted but not yet acknowledged writes is bounded - callers block if the
+ * limit is reached. Reads of a workflow instance see the pending writes.
+ * <p>
+ * Writes failing with a {@link QueryExecutionException} or {@link NoHostAvailableException} are retried with an
+ * increasing delay, up to <code>maxAttempts</code> attempts. A write that finally fails completes its futures
+ * exceptionally. As the callers of asynchronous updates do not wait for them, the failure is also remembered and
+ * thrown by the next write or read of the same workflow instance.
+ * <p>
+ * On shutdown, {@link #awaitPendingWrites(long, TimeUnit)} waits for the accepted writes, and {@link #abort(Throwable)}
+ * fails the futures of those that are still pending afterwards.
+ */
+class WritePipeline {
+
+    private static final Logger logger = LoggerFactory.getLogger(WritePipeline.class);
+
+    enum Kind {
+        SAVE, STATE, DELETE
+    }
+
+    static final class Op {
+        final String wfId;
+        Kind kind;
+        WorkflowInstance wfi;
+        boolean initialInsert;
+        ProcessingState state;
+        final List<SettableFuture<Void>> futures = new ArrayList<>(1);
+        int attempt;
+        long startTS;
+
+        Op(String wfId, Kind kind) {
+            this.wfId = wfId;
+            this.kind = kind;
+        }
+    }
+
+    interface Writer {
+        ListenableFuture<?> write(Op op) throws Exception;
+    }
+
+    private static final class Slot {
+        Op inFlight;
+        final ArrayDeque<Op> pending = new ArrayDeque<>(2);
+        boolean removed;
+    }
+
+    private final ConcurrentMap<String, Slot> slots = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Throwable> failures = new ConcurrentHashMap<>();
+    private final Semaphore permits;
+    private final int maxWritesInFlight;
+    private final int maxAttempts;
+    private final Writer writer;
+    private final Executor executor;
+    private final ScheduledExecutorService retryScheduler;
+    private final RuntimeStatisticsCollector runtimeStatisticsCollector;
+
+    WritePipeline(Writer writer, Executor executor, ScheduledExecutorService retryScheduler, RuntimeStatisticsCollector runtimeStatisticsCollector, int maxWritesInFlight, int maxAttempts) {
+        if (maxWritesInFlight <= 0 || maxAttempts <= 0)
+            throw new IllegalArgumentException();
+        this.writer = writer;
+        this.executor = executor;
+        this.retryScheduler = retryScheduler;
+        this.runtimeStatisticsCollector = runtimeStatisticsCollector;
+        this.maxWritesInFlight = maxWritesInFlight;
+        this.maxAttempts = maxAttempts;
+        this.permits = new Semaphore(maxWritesInFlight);
+    }
+
+    /**
+     * The pipeline keeps a copy of <code>wfi</code>, so the caller may modify it afterwards.
+     */
+    ListenableFuture<Void> save(WorkflowInstance wfi, boolean initialInsert) throws InterruptedException {
+        final Op op = new Op(wfi.id, Kind.SAVE);
+        op.wfi = WorkflowInstances.copy(wfi);
+        op.initialInsert = initialInsert;
+        return submit(op);
+    }
+
+    ListenableFuture<Void> updateState(String wfId, ProcessingState state) throws InterruptedException {
+        final Op op = new Op(wfId, Kind.STATE);
+        op.state = state;
+        return submit(op);
+    }
+
+    ListenableFuture<Void> delete(String wfId) throws InterruptedException {
+        return submit(new Op(wfId, Kind.DELETE));
+    }
+
+    /**
+     * Reads a workflow instance, taking the writes into account that are not yet acknowledged.
+     */
+    WorkflowInstance read(String wfId, Callable<WorkflowInstance> dbRead) throws Exception {
+        checkFailure(wfId);
+        WorkflowInstance pendingWfi = null;
+        ProcessingState pendingState = null;
+        boolean found = false;
+        final Slot slot = slots.get(wfId);
+        if (slot != null) {
+            synchronized (slot) {
+                final List<Op> ops = new ArrayList<>(slot.pending.size() + 1);
+                if (slot.inFlight != null)
+                    ops.add(slot.inFlight);
+                ops.addAll(slot.pending);
+                for (Op op : ops) {
+                    switch (op.kind) {
+                    case SAVE:
+                        pendingWfi = WorkflowInstances.copy(op.wfi);
+                        pendingState = null;
+                        found = true;
+                        break;
+                    case STATE:
+                        if (pendingWfi != null)
+                            pendingWfi.state = op.state;
+                        else
+                            pendingState = op.state;
+                        break;
+                    case DELETE:
+                        pendingWfi = null;
+                        pendingState = null;
+                        found = true;
+                        break;
+                    }
+                }
+            }
+        }
+        if (found)
+            return pendingWfi;
+        final WorkflowInstance wfi = dbRead.call();
+        if (wfi != null && pendingState != null)
+            wfi.state = pendingState;
+        return wfi;
+    }
+
+    /**
+     * @return number of writes that are accepted but not yet acknowledged. Coalesced writes count as one.
+     */
+    int getNumberOfPendingWrites() {
+        return maxWritesInFlight - permits.availablePermits();
+    }
+
+    /**
+     * Waits until all accepted writes are acknowledged or have finally failed.
+     *
+     * @return <code>false</code>, if there are still pending writes after the timeout
+     */
+    boolean awaitPendingWrites(long timeout, TimeUnit unit) throws InterruptedException {
+        if (!permits.tryAcquire(maxWritesInFlight, timeout, unit))
+            return false;
+        permits.release(maxWritesInFlight);
+        return true;
+    }
+
+    /**
+     * Completes the futures of all pending writes exceptionally, e.g. because their retries are discarded on shutdown.
+     * An acknowledgement of an aborted write that is still in flight is ignored.
+     *
+     * @return number of aborted writes
+     */
+    int abort(Throwable cause) {
+        int aborted = 0;
+        for (Map.Entry<String, Slot> e : slots.entrySet()) {
+            final Slot slot = e.getValue();
+            final List<Op> ops = new ArrayList<>();
+            synchronized (slot) {
+                if (slot.removed)
+                    continue;
+                if (slot.inFlight != null)
+                    ops.add(slot.inFlight);
+                ops.addAll(slot.pending);
+                slot.inFlight = null;
+                slot.pending.clear();
+                slot.removed = true;
+            }
+            slots.remove(e.getKey(), slot);
+            for (Op op : ops) {
+                permits.release();
+                for (SettableFuture<Void> f : op.futures) {
+                    f.setException(cause);
+                }
+                aborted++;
+            }
+        }
+        return aborted;
+    }
+
+    /**
+     * Throws the failure of an earlier asynchronous write of this workflow instance, if there is one. The failure is
+     * thrown only once.
+     */
+    private void checkFailure(String wfId) {
+        final Throwable failure = failures.remove(wfId);
+        if (failure != null) {
+            throw new CopperRuntimeException("asynchronous write of workflow instance " + wfId + " failed", failure);
+        }
+    }
+
+    private ListenableFuture<Void> submit(final Op op) throws InterruptedException {
+        checkFailure(op.wfId);
+        final SettableFuture<Void> future = SettableFuture.create();
+        op.futures.add(future);
+        permits.acquire();
+        boolean send = false;
+        for (;;) {
+            Slot slot = slots.get(op.wfId);
+            if (slot == null) {
+                final Slot newSlot = new Slot();
+                slot = slots.putIfAbsent(op.wfId, newSlot);
+                if (slot == null)
+                    slot = newSlot;
+            }
+            synchronized (slot) {
+                if (slot.removed)
+                    continue;
+                if (slot.inFlight == null) {
+                    slot.inFlight = op;
+                    send = true;
+                }
+                else if (slot.pending.isEmpty() || !merge(slot.pending.getLast(), op)) {
+                    slot.pending.add(op);
+                }
+                else {
+                    permits.release();
+                }
+            }
+            break;
+        }
+        if (send)
+            send(op);
+        return future;
+    }
+
+    /**
+     * Merges <code>op</code> into the pending write <code>last</code>.
+     *
+     * @return <code>false</code>, if the writes cannot be merged.
+     */
+    private static boolean merge(Op last, Op op) {
+        if (op.kind == Kind.DELETE) {
+            last.kind = Kind.DELETE;
+            last.wfi = null;
+            last.initialInsert = false;
+            last.state = null;
+        }
+        else if (last.kind == Kind.DELETE) {
+            // a delete and a subsequent insert must not end up in one write
+            return false;
+        }
+        else if (op.kind == Kind.SAVE) {
+            last.kind = Kind.SAVE;
+            last.wfi = op.wfi;
+            last.initialInsert |= op.initialInsert;
+            last.state = null;
+        }
+        else if (last.kind == Kind.SAVE) {
+            last.wfi.state = op.state;
+        }
+        else {
+            last.state = op.state;
+        }
+        last.futures.addAll(op.futures);
+        return true;
+    }
+
+    private void send(final Op op) {
+        op.startTS = System.nanoTime();
+        final ListenableFuture<?> f;
+        try {
+            f = writer.write(op);
+        } catch (Exception e) {
+            onWriteFailed(op, e);
+            return;
+        }
+        f.addListener(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    f.get();
+                    runtimeStatisticsCollector.submit("wfi.async." + op.kind.name().toLowerCase(), 1, System.nanoTime() - op.startTS, TimeUnit.NANOSECONDS);
+                    complete(op, null);
+                } catch (ExecutionException e) {
+                    onWriteFailed(op, e.getCause());
+                } catch (Throwable e) {
+                    onWriteFailed(op, e);
+                }
+            }
+        }, executor);
+    }
+
+    private void onWriteFailed(final Op op, final Throwable e) {
+        op.attempt++;
+        if ((e instanceof QueryExecutionException || e instanceof NoHostAvailableException) && op.attempt < maxAttempts) {
+            final long delayMSec = Math.min(5000L, 50L << Math.min(op.attempt - 1, 10));
+            logger.warn("Async write of workflow instance " + op.wfId + " failed (attempt " + op.attempt + " of " + maxAttempts + ") - retrying in " + delayMSec + " msec", e);
+            try {
+                retryScheduler.schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        send(op);
+                    }
+                }, delayMSec, TimeUnit.MILLISECONDS);
+                return;
+            } catch (RuntimeException rejected) {
+                logger.warn("Unable to schedule retry of async write of workflow instance " + op.wfId, rejected);
+            }
+        }
+        complete(op, e);
+    }
+
+    private void complete(final Op op, final Throwable error) {
+        final Slot slot = slots.get(op.wfId);
+        if (slot == null)
+            return; // aborted
+        Op next;
+        synchronized (slot) {
+            if (slot.inFlight != op)
+                return; // aborted
+            next = slot.pending.poll();
+            slot.inFlight = next;
+            if (next == null) {
+                slot.removed = true;
+                slots.remove(op.wfId, slot);
+            }
+        }
+
+        if (error != null) {
+            logger.error("Async " + op.kind + " of workflow instance " + op.wfId + " failed after " + op.attempt + " attempt(s)", error);
+            if (op.kind != Kind.DELETE && !op.initialInsert) {
+                // nobody waits for the future of an update
+                failures.put(op.wfId, error);
+            }
+        }
+        permits.release();
+        for (SettableFuture<Void> f : op.futures) {
+            if (error == null)
+                f.set(null);
+            else
+                f.setException(error);
+        }
+        if (next != null)
+            send(next);
+    }
+}
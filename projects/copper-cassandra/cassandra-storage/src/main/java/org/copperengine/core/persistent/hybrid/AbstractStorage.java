@@ -15,23 +15,25 @@
  */
 package org.copperengine.core.persistent.hybrid;
 
-import java.util.Comparator;
+/**
+ * Base class for {@link Storage} implementations, that provides defaults for the methods added to the interface in
+ * COPPER 4.4.
+ */
+public abstract class AbstractStorage implements Storage {
 
-class QueueElementComparator implements Comparator<QueueElement> {
+    /**
+     * Writes the complete workflow instance by calling {@link #safeWorkflowInstance(WorkflowInstance, boolean)}.
+     */
     @Override
-    public int compare(QueueElement o1, QueueElement o2) {
-        if (o1.prio != o2.prio) {
-            return o1.prio - o2.prio;
-        } else {
-            if (o1.enqueueTS == o2.enqueueTS) {
-                return o1.wfId.compareTo(o2.wfId);
-            }
-            else if (o1.enqueueTS > o2.enqueueTS) {
-                return 1;
-            }
-            else {
-                return -1;
-            }
-        }
+    public void safeWorkflowInstanceResponse(WorkflowInstance cw, String correlationId) throws Exception {
+        safeWorkflowInstance(cw, false);
     }
+
+    /**
+     * Does nothing - override it if the storage runs background activities.
+     */
+    @Override
+    public void shutdown() throws Exception {
+    }
+
 }
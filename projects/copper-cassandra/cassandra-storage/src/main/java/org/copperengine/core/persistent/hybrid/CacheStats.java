@@ -38,6 +38,8 @@ public class CacheStats {
     private AtomicLong numberOfReads = new AtomicLong();
     private AtomicLong numberOfCacheHits = new AtomicLong();
     private AtomicLong numberOfCacheMisses = new AtomicLong();
+    private AtomicLong numberOfEvictions = new AtomicLong();
+    private AtomicLong numberOfExpirations = new AtomicLong();
 
     public void incNumberOfReads(boolean hit) {
         numberOfReads.incrementAndGet();
@@ -47,6 +49,14 @@ public class CacheStats {
             numberOfCacheMisses.incrementAndGet();
     }
 
+    public void incNumberOfEvictions() {
+        numberOfEvictions.incrementAndGet();
+    }
+
+    public void incNumberOfExpirations() {
+        numberOfExpirations.incrementAndGet();
+    }
+
     public long getNumberOfCacheHits() {
         return numberOfCacheHits.get();
     }
@@ -59,9 +69,20 @@ public class CacheStats {
         return numberOfReads.get();
     }
 
+    /**
+     * @return number of entries that were removed or not admitted because the cache was full
+     */
+    public long getNumberOfEvictions() {
+        return numberOfEvictions.get();
+    }
+
+    public long getNumberOfExpirations() {
+        return numberOfExpirations.get();
+    }
+
     @Override
     public String toString() {
-        return "CacheStats [numberOfReads=" + numberOfReads + ", numberOfCacheHits=" + numberOfCacheHits + ", numberOfCacheMisses=" + numberOfCacheMisses + "]";
+        return "CacheStats [numberOfReads=" + numberOfReads + ", numberOfCacheHits=" + numberOfCacheHits + ", numberOfCacheMisses=" + numberOfCacheMisses + ", numberOfEvictions=" + numberOfEvictions + ", numberOfExpirations=" + numberOfExpirations + "]";
     }
 
 }
@@ -15,78 +15,287 @@
  */
 package org.copperengine.core.persistent.hybrid;
 
-import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 
-class CorrelationIdMap {
+/**
+ * Bidirectional mapping between correlation ids and the ids of the workflow instances waiting for them.
+ * <p>
+ * This map holds an entry for every waiting workflow instance, so it is kept compact: both directions are open
+ * addressing hash tables made of plain arrays, without entry objects or lists. A correlation id entry references the
+ * workflow id instance of the workflow entry, so each id string is held only once. The tables are split into
+ * segments with a lock each. Operations on a workflow id lock the workflow segment first and then, one after the
+ * other, the segments of its correlation ids, so they are atomic with respect to other operations on the same
+ * workflow id.
+ */
+public class CorrelationIdMap {
+
+    private static final int SEGMENT_SHIFT = 26;
+    private static final int NUMBER_OF_SEGMENTS = 1 << (32 - SEGMENT_SHIFT);
 
-    private final Object mutex = new Object();
-    private final Map<String, String> correlationId2wfIdMap = new HashMap<>();
-    private final Map<String, List<String>> wfId2correlationIdMap = new HashMap<>();
+    private final Table[] correlationId2wfId = createSegments();
+    /** values are either a single correlation id or a String[] of correlation ids */
+    private final Table[] wfId2correlationIds = createSegments();
+
+    private static Table[] createSegments() {
+        final Table[] segments = new Table[NUMBER_OF_SEGMENTS];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Table();
+        }
+        return segments;
+    }
 
     public String getWorkflowId(String correlationId) {
-        synchronized (mutex) {
-            return correlationId2wfIdMap.get(correlationId);
+        final int hash = hash(correlationId);
+        final Table table = segmentFor(correlationId2wfId, hash);
+        synchronized (table) {
+            return (String) table.get(correlationId, hash);
         }
     }
 
     public boolean containsWorkflowId(String workflowId) {
-        synchronized (mutex) {
-            return wfId2correlationIdMap.containsKey(workflowId);
+        final int hash = hash(workflowId);
+        final Table table = segmentFor(wfId2correlationIds, hash);
+        synchronized (table) {
+            return table.get(workflowId, hash) != null;
         }
     }
 
     public void removeAll4Workflow(String workflowId) {
-        synchronized (mutex) {
-            List<String> list = wfId2correlationIdMap.remove(workflowId);
-            if (list == null || list.isEmpty())
-                return;
-            for (String cid : list) {
-                correlationId2wfIdMap.remove(cid);
+        final int hash = hash(workflowId);
+        final Table table = segmentFor(wfId2correlationIds, hash);
+        synchronized (table) {
+            final Object cids = table.remove(workflowId, hash);
+            if (cids instanceof String) {
+                removeCorrelationId((String) cids, workflowId);
+            }
+            else if (cids != null) {
+                for (String cid : (String[]) cids) {
+                    removeCorrelationId(cid, workflowId);
+                }
             }
         }
     }
 
     public void addCorrelationId(String workflowId, String correlationId) {
-        synchronized (mutex) {
-            List<String> list = wfId2correlationIdMap.remove(workflowId);
-            if (list == null) {
-                list = new ArrayList<String>();
-                wfId2correlationIdMap.put(workflowId, list);
-            }
-            list.add(correlationId);
-            correlationId2wfIdMap.put(correlationId, workflowId);
-        }
+        addCorrelationIds(workflowId, new String[] { correlationId });
     }
 
     public void addCorrelationIds(String workflowId, List<String> correlationIds) {
-        synchronized (mutex) {
-            List<String> list = wfId2correlationIdMap.remove(workflowId);
-            if (list == null) {
-                list = new ArrayList<String>(correlationIds.size());
-                wfId2correlationIdMap.put(workflowId, list);
+        addCorrelationIds(workflowId, correlationIds.toArray(new String[correlationIds.size()]));
+    }
+
+    public void addCorrelationIds(String workflowId, String[] correlationIds) {
+        if (correlationIds.length == 0)
+            return;
+        final int hash = hash(workflowId);
+        final Table table = segmentFor(wfId2correlationIds, hash);
+        synchronized (table) {
+            final int idx = table.indexOf(workflowId, hash);
+            final String wfId;
+            Object cids;
+            if (idx < 0) {
+                wfId = workflowId;
+                cids = null;
+            }
+            else {
+                // use the instance that is already referenced by the existing correlation ids
+                wfId = table.keyAt(idx);
+                cids = table.valueAt(idx);
             }
-            list.addAll(correlationIds);
             for (String cid : correlationIds) {
-                correlationId2wfIdMap.put(cid, workflowId);
+                if (contains(cids, cid))
+                    continue;
+                if (cids == null) {
+                    cids = cid;
+                }
+                else if (cids instanceof String) {
+                    cids = new String[] { (String) cids, cid };
+                }
+                else {
+                    final String[] a = (String[]) cids;
+                    final String[] b = new String[a.length + 1];
+                    System.arraycopy(a, 0, b, 0, a.length);
+                    b[a.length] = cid;
+                    cids = b;
+                }
+                final int cidHash = hash(cid);
+                final Table cidTable = segmentFor(correlationId2wfId, cidHash);
+                synchronized (cidTable) {
+                    cidTable.put(cid, cidHash, wfId);
+                }
+            }
+            if (idx < 0) {
+                table.put(wfId, hash, cids);
+            }
+            else {
+                table.setValueAt(idx, cids);
             }
         }
     }
 
-    public void addCorrelationIds(String workflowId, String[] correlationIds) {
-        synchronized (mutex) {
-            List<String> list = wfId2correlationIdMap.remove(workflowId);
-            if (list == null) {
-                list = new ArrayList<String>(correlationIds.length);
-                wfId2correlationIdMap.put(workflowId, list);
+    /**
+     * @return number of registered correlation ids
+     */
+    public int size() {
+        int size = 0;
+        for (Table table : correlationId2wfId) {
+            synchronized (table) {
+                size += table.size;
             }
-            for (String cid : correlationIds) {
-                list.add(cid);
-                correlationId2wfIdMap.put(cid, workflowId);
+        }
+        return size;
+    }
+
+    private void removeCorrelationId(String cid, String workflowId) {
+        final int hash = hash(cid);
+        final Table table = segmentFor(correlationId2wfId, hash);
+        synchronized (table) {
+            final int idx = table.indexOf(cid, hash);
+            // the correlation id might have been registered for another workflow instance meanwhile
+            if (idx >= 0 && workflowId.equals(table.valueAt(idx))) {
+                table.removeAt(idx);
             }
         }
     }
 
+    private static boolean contains(Object cids, String cid) {
+        if (cids == null)
+            return false;
+        if (cids instanceof String)
+            return cids.equals(cid);
+        for (String s : (String[]) cids) {
+            if (s.equals(cid))
+                return true;
+        }
+        return false;
+    }
+
+    private static int hash(String key) {
+        final int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static Table segmentFor(Table[] segments, int hash) {
+        return segments[hash >>> SEGMENT_SHIFT];
+    }
+
+    /**
+     * Open addressing hash table with linear probing and backward shift deletion. Not thread safe. Key and value of an
+     * entry are stored next to each other in one array. The hash codes are kept in a primitive array, so probing and
+     * moving entries does not need to touch the key strings.
+     */
+    static final class Table {
+        private static final int MIN_CAPACITY = 16;
+
+        int[] hashes = new int[MIN_CAPACITY];
+        /** key at 2*i, value at 2*i+1 */
+        Object[] entries = new Object[2 * MIN_CAPACITY];
+        int size;
+
+        int indexOf(String key, int hash) {
+            final Object[] entries = this.entries;
+            final int[] hashes = this.hashes;
+            final int mask = hashes.length - 1;
+            for (int i = hash & mask;; i = (i + 1) & mask) {
+                final Object k = entries[i << 1];
+                if (k == null)
+                    return -1;
+                if (hashes[i] == hash && (k == key || k.equals(key)))
+                    return i;
+            }
+        }
+
+        String keyAt(int idx) {
+            return (String) entries[idx << 1];
+        }
+
+        Object valueAt(int idx) {
+            return entries[(idx << 1) + 1];
+        }
+
+        void setValueAt(int idx, Object value) {
+            entries[(idx << 1) + 1] = value;
+        }
+
+        Object get(String key, int hash) {
+            final int idx = indexOf(key, hash);
+            return idx < 0 ? null : valueAt(idx);
+        }
+
+        Object put(String key, int hash, Object value) {
+            final int mask = hashes.length - 1;
+            for (int i = hash & mask;; i = (i + 1) & mask) {
+                final Object k = entries[i << 1];
+                if (k == null) {
+                    hashes[i] = hash;
+                    entries[i << 1] = key;
+                    entries[(i << 1) + 1] = value;
+                    if (++size * 4 > (mask + 1) * 3) {
+                        resize((mask + 1) * 2);
+                    }
+                    return null;
+                }
+                if (hashes[i] == hash && (k == key || k.equals(key))) {
+                    final Object previous = entries[(i << 1) + 1];
+                    entries[(i << 1) + 1] = value;
+                    return previous;
+                }
+            }
+        }
+
+        Object remove(String key, int hash) {
+            final int idx = indexOf(key, hash);
+            if (idx < 0)
+                return null;
+            final Object value = valueAt(idx);
+            removeAt(idx);
+            return value;
+        }
+
+        void removeAt(int idx) {
+            final Object[] entries = this.entries;
+            final int[] hashes = this.hashes;
+            final int capacity = hashes.length;
+            final int mask = capacity - 1;
+            int gap = idx;
+            for (int i = (idx + 1) & mask; entries[i << 1] != null; i = (i + 1) & mask) {
+                final int home = hashes[i] & mask;
+                // move the entry into the gap, if its home slot is not within (gap, i]
+                if (((i - home) & mask) >= ((i - gap) & mask)) {
+                    hashes[gap] = hashes[i];
+                    entries[gap << 1] = entries[i << 1];
+                    entries[(gap << 1) + 1] = entries[(i << 1) + 1];
+                    gap = i;
+                }
+            }
+            entries[gap << 1] = null;
+            entries[(gap << 1) + 1] = null;
+            size--;
+            if (capacity > MIN_CAPACITY && size * 8 < capacity) {
+                resize(capacity / 2);
+            }
+        }
+
+        private void resize(int capacity) {
+            final int[] oldHashes = hashes;
+            final Object[] oldEntries = entries;
+            final int[] newHashes = new int[capacity];
+            final Object[] newEntries = new Object[2 * capacity];
+            final int mask = capacity - 1;
+            for (int j = 0; j < oldHashes.length; j++) {
+                final Object k = oldEntries[j << 1];
+                if (k != null) {
+                    int i = oldHashes[j] & mask;
+                    while (newEntries[i << 1] != null) {
+                        i = (i + 1) & mask;
+                    }
+                    newHashes[i] = oldHashes[j];
+                    newEntries[i << 1] = k;
+                    newEntries[(i << 1) + 1] = oldEntries[(j << 1) + 1];
+                }
+            }
+            hashes = newHashes;
+            entries = newEntries;
+        }
+    }
 }
@@ -23,6 +23,8 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.TreeMap;
 
+import org.copperengine.core.monitoring.EngineEventRecorder;
+import org.copperengine.core.monitoring.EngineEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -75,6 +77,9 @@ public final class DefaultTimeoutManager extends Thread implements TimeoutManage
         while (!shutdown) {
             try {
                 List<Runnable> expired = new ArrayList<Runnable>(32);
+                final EngineEventRecorder eventRecorder = EngineEvents.recorder();
+                final boolean recordEvent = eventRecorder.isEnabled();
+                final long startNanos = recordEvent ? System.nanoTime() : 0L;
                 synchronized (slots) {
                     if (shutdown)
                         break;
@@ -101,6 +106,9 @@ public final class DefaultTimeoutManager extends Thread implements TimeoutManage
                         logger.error("run failed", e);
                     }
                 }
+                if (recordEvent && !expired.isEmpty()) {
+                    eventRecorder.timeoutsExpired(expired.size(), startNanos);
+                }
 
                 synchronized (slots) {
                     if (shutdown)
@@ -17,16 +17,17 @@ package org.copperengine.core.persistent.hybrid;
 
 import java.sql.Connection;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 
@@ -57,13 +58,15 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
     private final Executor executor;
     private final TimeoutManager timeoutManager;
     private final Blocker startupBlocker = new Blocker(true);
-    private final Map<String, ConcurrentSkipListSet<QueueElement>> ppoolId2queueMap;
+    private final ConcurrentMap<String, ReadyQueue> ppoolId2queueMap;
     private final CorrelationIdMap correlationIdMap = new CorrelationIdMap();
     private final Serializer serializer;
     private final WorkflowRepository wfRepo;
     private final Storage storage;
     private final Object[] mutexArray = new Object[2003];
     private final Set<String> currentlyProcessingEarlyResponses = new HashSet<>();
+    // ids of the workflow instances handled by the engine, that the background recovery has not passed yet
+    private volatile Set<String> enqueuedDuringRecovery = null;
     private boolean started = false;
 
     public HybridDBStorage(Serializer serializer, WorkflowRepository wfRepo, Storage storage, TimeoutManager timeoutManager, final Executor executor) {
@@ -140,6 +143,11 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
                 public void run() {
                     try {
                         future.get();
+                        // the instance is gone - a recovery reaching its id afterwards does not find anything to resume
+                        final Set<String> enqueued = enqueuedDuringRecovery;
+                        if (enqueued != null) {
+                            enqueued.remove(wfId);
+                        }
                         callback.onSuccess();
                     } catch (InterruptedException | ExecutionException e) {
                         logger.error("finish(" + wfId + ") failed", e);
@@ -160,19 +168,21 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
 
         startupBlocker.pass();
 
-        final List<Workflow<?>> wfList = new ArrayList<>(max);
-        while (wfList.size() < max) {
-            // block if we read the first element - since we don't want to return an empty list
-            final QueueElement element = wfList.isEmpty() ? _take(ppoolId) : _poll(ppoolId);
-            if (element == null)
-                break;
+        // block for the first element - since we don't want to return an empty list - and take the rest in one go
+        final List<String> wfIdList = new ArrayList<>(max);
+        wfIdList.add(_take(ppoolId));
+        if (max > 1) {
+            _drainTo(ppoolId, wfIdList, max - 1);
+        }
 
-            synchronized (findMutex(element.wfId)) {
+        final List<Workflow<?>> wfList = new ArrayList<>(wfIdList.size());
+        for (final String wfId : wfIdList) {
+            synchronized (findMutex(wfId)) {
                 try {
-                    correlationIdMap.removeAll4Workflow(element.wfId);
-                    final WorkflowInstance wi = storage.readWorkflowInstance(element.wfId);
+                    correlationIdMap.removeAll4Workflow(wfId);
+                    final WorkflowInstance wi = storage.readWorkflowInstance(wfId);
                     if (wi == null) {
-                        logger.warn("No workflow instance with id {} found in database", element.wfId);
+                        logger.warn("No workflow instance with id {} found in database", wfId);
                         // TODO try again later?
                     }
                     else {
@@ -180,8 +190,8 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
                         try {
                             wf = convert2workflow(wi);
                         } catch (Exception e) {
-                            logger.error("Unable to deserialize workflow instance " + element.wfId + " - setting state to INVALID", e);
-                            storage.updateWorkflowInstanceState(element.wfId, ProcessingState.INVALID);
+                            logger.error("Unable to deserialize workflow instance " + wfId + " - setting state to INVALID", e);
+                            storage.updateWorkflowInstanceState(wfId, ProcessingState.INVALID);
                         }
                         if (wf != null) {
                             timeoutManager.unregisterTimeout(wi.timeout, wi.id);
@@ -189,7 +199,7 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
                         }
                     }
                 } catch (Exception e) {
-                    logger.error("Fatal error: dequeue failed for workflow instance " + element.wfId, e);
+                    logger.error("Fatal error: dequeue failed for workflow instance " + wfId, e);
                 }
             }
         }
@@ -252,19 +262,7 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
         //
         // 1st make sure that all currently working threads writing early responses do NOT write a response with one of
         // our correlationIds
-        synchronized (currentlyProcessingEarlyResponses) {
-            for (;;) {
-                boolean didWait = false;
-                for (String cid : rc.correlationIds) {
-                    if (currentlyProcessingEarlyResponses.contains(cid)) {
-                        currentlyProcessingEarlyResponses.wait();
-                        didWait = true;
-                    }
-                }
-                if (!didWait)
-                    break;
-            }
-        }
+        awaitEarlyResponseProcessing(rc.correlationIds);
         // 2nd read early responses and connect them to the workflow instance
         boolean enqueued = false;
         for (String cid : rc.correlationIds) {
@@ -279,12 +277,7 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
         }
 
         if (cw.timeout != null && !enqueued) {
-            timeoutManager.registerTimeout(cw.timeout, wfId, new Runnable() {
-                @Override
-                public void run() {
-                    onTimeout(wfId);
-                }
-            });
+            _registerTimeout(cw.timeout, wfId);
         }
 
         callback.onSuccess();
@@ -321,7 +314,8 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
                     // correlationId any more...
                     if (correlationIdMap.getWorkflowId(cid) != null) {
                         WorkflowInstance cw = storage.readWorkflowInstance(wfId);
-                        if (cw.cid2ResponseMap.containsKey(cid)) {
+                        final boolean expectedResponse = cw.cid2ResponseMap.containsKey(cid);
+                        if (expectedResponse) {
                             cw.cid2ResponseMap.put(cid, serializer.serializeResponse(response));
                         }
                         final boolean timeoutOccured = cw.timeout != null && cw.timeout.getTime() <= System.currentTimeMillis();
@@ -331,7 +325,12 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
                             cw.state = ProcessingState.ENQUEUED;
                         }
 
-                        storage.safeWorkflowInstance(cw, false);
+                        if (expectedResponse) {
+                            storage.safeWorkflowInstanceResponse(cw, cid);
+                        }
+                        else {
+                            storage.safeWorkflowInstance(cw, false);
+                        }
 
                         if (enqueue) {
                             _enqueue(cw.id, cw.ppoolId, cw.prio);
@@ -347,7 +346,10 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
             throw e;
         }
 
-        handleEarlyResponse(response, ack);
+        if (!handleEarlyResponse(response, ack)) {
+            // the correlation id has been registered concurrently
+            return notifyInternal(response, ack);
+        }
         return false;
     }
 
@@ -374,10 +376,23 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
         }
     }
 
-    private void handleEarlyResponse(final Response<?> response, final Acknowledge ack) throws Exception {
+    /**
+     * @return <code>false</code>, if the correlation id has been registered meanwhile - in this case the response is
+     *         not stored as early response
+     */
+    private boolean handleEarlyResponse(final Response<?> response, final Acknowledge ack) throws Exception {
         synchronized (currentlyProcessingEarlyResponses) {
             currentlyProcessingEarlyResponses.add(response.getCorrelationId());
         }
+        // registerCallback and the recovery register the correlation id before they check
+        // currentlyProcessingEarlyResponses, so either they wait for us or we see their registration here
+        if (correlationIdMap.getWorkflowId(response.getCorrelationId()) != null) {
+            synchronized (currentlyProcessingEarlyResponses) {
+                currentlyProcessingEarlyResponses.remove(response.getCorrelationId());
+                currentlyProcessingEarlyResponses.notifyAll();
+            }
+            return false;
+        }
         final ListenableFuture<Void> future = storage.safeEarlyResponse(response.getCorrelationId(), serializer.serializeResponse(response));
         future.addListener(new Runnable() {
             @Override
@@ -398,6 +413,23 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
                 }
             }
         }, executor);
+        return true;
+    }
+
+    private void awaitEarlyResponseProcessing(String... correlationIds) throws InterruptedException {
+        synchronized (currentlyProcessingEarlyResponses) {
+            for (;;) {
+                boolean didWait = false;
+                for (String cid : correlationIds) {
+                    if (currentlyProcessingEarlyResponses.contains(cid)) {
+                        currentlyProcessingEarlyResponses.wait();
+                        didWait = true;
+                    }
+                }
+                if (!didWait)
+                    break;
+            }
+        }
     }
 
     @Override
@@ -426,12 +458,55 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
                 @Override
                 public void registerCorrelationId(String correlationId, String wfId) {
                     _registerCorrelationId(correlationId, wfId);
+                    try {
+                        awaitEarlyResponseProcessing(correlationId);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new CopperRuntimeException("interrupted", e);
+                    }
                 }
 
                 @Override
                 public void enqueue(String wfId, String ppoolId, int prio) {
                     _enqueue(wfId, ppoolId, prio);
                 }
+
+                @Override
+                public void registerTimeout(Date timeoutTS, String wfId) {
+                    _registerTimeout(timeoutTS, wfId);
+                }
+
+                @Override
+                public boolean resume(String wfId, Callable<Void> resumeCall) throws Exception {
+                    synchronized (findMutex(wfId)) {
+                        final Set<String> enqueued = enqueuedDuringRecovery;
+                        // the recovery passes each id once, so the id is not needed anymore afterwards
+                        if (enqueued != null && enqueued.remove(wfId)) {
+                            logger.debug("workflow instance {} already handled since startup - skipping resume", wfId);
+                            return false;
+                        }
+                        resumeCall.call();
+                        if (enqueued != null) {
+                            // the resume itself may have enqueued the instance
+                            enqueued.remove(wfId);
+                        }
+                        return true;
+                    }
+                }
+
+                @Override
+                public void recoveryStarted() {
+                    logger.info("Background recovery started");
+                    enqueuedDuringRecovery = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                }
+
+                @Override
+                public void recoveryFinished() {
+                    if (enqueuedDuringRecovery != null) {
+                        logger.info("Background recovery finished");
+                        enqueuedDuringRecovery = null;
+                    }
+                }
             }, Runtime.getRuntime().availableProcessors());
         } catch (RuntimeException e) {
             logger.error("startup failed", e);
@@ -450,7 +525,11 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
 
     @Override
     public void shutdown() {
-        // empty
+        try {
+            storage.shutdown();
+        } catch (Exception e) {
+            logger.error("shutdown of storage failed", e);
+        }
     }
 
     @Override
@@ -503,57 +582,60 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
 
     void _enqueue(String wfId, String ppoolId, int prio) {
         logger.trace("enqueue(wfId={}, ppoolId={}, prio={})", wfId, ppoolId, prio);
-        ConcurrentSkipListSet<QueueElement> queue = _findQueue(ppoolId);
-        synchronized (queue) {
-            boolean rv = queue.add(new QueueElement(wfId, prio));
-            assert rv : "queue already contains workflow id " + wfId;
-            queue.notify();
+        // every workflow instance the engine works on passes this point first - remember it, so that a running
+        // background recovery does not resume it again
+        final Set<String> enqueued = enqueuedDuringRecovery;
+        if (enqueued != null) {
+            enqueued.add(wfId);
         }
+        _findQueue(ppoolId).offer(wfId, prio);
     }
 
-    QueueElement _poll(String ppoolId) {
+    String _poll(String ppoolId) {
         logger.trace("_poll({})", ppoolId);
-        ConcurrentSkipListSet<QueueElement> queue = _findQueue(ppoolId);
-        QueueElement qe = queue.pollFirst();
-        if (qe != null) {
-            logger.debug("dequeued for ppoolId={}: wfId={}", ppoolId, qe.wfId);
+        final String wfId = _findQueue(ppoolId).poll();
+        if (wfId != null) {
+            logger.debug("dequeued for ppoolId={}: wfId={}", ppoolId, wfId);
         }
-        return qe;
+        return wfId;
     }
 
-    QueueElement _take(String ppoolId) throws InterruptedException {
+    String _take(String ppoolId) throws InterruptedException {
         logger.trace("_take({})", ppoolId);
-        ConcurrentSkipListSet<QueueElement> queue = _findQueue(ppoolId);
-        synchronized (queue) {
-            for (;;) {
-                QueueElement qe = queue.pollFirst();
-                if (qe != null) {
-                    logger.debug("dequeued for ppoolId={}: wfId={}", ppoolId, qe.wfId);
-                    return qe;
-                }
-                queue.wait(10L);
-            }
-        }
+        final String wfId = _findQueue(ppoolId).take();
+        logger.debug("dequeued for ppoolId={}: wfId={}", ppoolId, wfId);
+        return wfId;
     }
 
-    private ConcurrentSkipListSet<QueueElement> _findQueue(final String ppoolId) {
-        ConcurrentSkipListSet<QueueElement> queue = ppoolId2queueMap.get(ppoolId);
+    int _drainTo(String ppoolId, List<String> target, int max) {
+        logger.trace("_drainTo({},{})", ppoolId, max);
+        final int n = _findQueue(ppoolId).drainTo(target, max);
+        logger.debug("dequeued {} elements for ppoolId={}", n, ppoolId);
+        return n;
+    }
+
+    private ReadyQueue _findQueue(final String ppoolId) {
+        ReadyQueue queue = ppoolId2queueMap.get(ppoolId);
         if (queue != null)
             return queue;
-        synchronized (ppoolId2queueMap) {
-            queue = ppoolId2queueMap.get(ppoolId);
-            if (queue != null)
-                return queue;
-            queue = new ConcurrentSkipListSet<>(new QueueElementComparator());
-            ppoolId2queueMap.put(ppoolId, queue);
-            return queue;
-        }
+        queue = new ReadyQueue();
+        final ReadyQueue existing = ppoolId2queueMap.putIfAbsent(ppoolId, queue);
+        return existing != null ? existing : queue;
     }
 
     private void _registerCorrelationId(String correlationId, String wfId) {
         correlationIdMap.addCorrelationId(wfId, correlationId);
     }
 
+    private void _registerTimeout(Date timeoutTS, final String wfId) {
+        timeoutManager.registerTimeout(timeoutTS, wfId, new Runnable() {
+            @Override
+            public void run() {
+                onTimeout(wfId);
+            }
+        });
+    }
+
     private boolean allResponsesAvailable(WorkflowInstance cw) {
         for (Entry<String, String> e : cw.cid2ResponseMap.entrySet()) {
             if (e.getValue() == null)
@@ -576,7 +658,7 @@ public class HybridDBStorage implements ScottyDBStorageInterface {
 
     @Override
     public int queryQueueSize(String processorPoolId) throws Exception {
-        final ConcurrentSkipListSet<QueueElement> queue = ppoolId2queueMap.get(Objects.requireNonNull(processorPoolId));
+        final ReadyQueue queue = ppoolId2queueMap.get(Objects.requireNonNull(processorPoolId));
         return queue == null ? 0 : queue.size();
     }
 
@@ -15,8 +15,11 @@
  */
 package org.copperengine.core.persistent.hybrid;
 
+import java.util.Date;
+import java.util.concurrent.Callable;
+
 /**
- * Used just for initialization of {@link HybridDBStorage} during startup
+ * Used just for initialization of {@link HybridDBStorage} during startup - or during a background recovery after startup
  * 
  * @author austermann
  *
@@ -25,6 +28,30 @@ public interface HybridDBStorageAccessor {
 
     public void enqueue(String wfId, String ppoolId, int prio);
 
+    /**
+     * Registers a correlation id and returns as soon as no early response for this correlation id is being stored
+     * concurrently, i.e. early responses may be read afterwards.
+     */
     public void registerCorrelationId(String correlationId, String wfId);
 
+    public void registerTimeout(Date timeoutTS, String wfId);
+
+    /**
+     * Runs the resume of a single workflow instance exclusively, i.e. not concurrently to notifies or timeouts for the
+     * same instance.
+     * 
+     * @return <code>false</code> if the resume was skipped, because the engine already handled this instance since the
+     *         background recovery was started
+     */
+    public boolean resume(String wfId, Callable<Void> resumeCall) throws Exception;
+
+    /**
+     * Called by a storage before it returns from <code>initialize</code> while it continues to resume workflow
+     * instances in the background. Until {@link #recoveryFinished()} is called, the {@link HybridDBStorage} tracks the
+     * instances it handles, so that they are not resumed a second time.
+     */
+    public void recoveryStarted();
+
+    public void recoveryFinished();
+
 }
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.hybrid;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.copperengine.core.ProcessingState;
+import org.copperengine.management.model.WorkflowInstanceFilter;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Non-persistent implementation of the {@link Storage} interface, e.g. for measuring the overhead of the
+ * {@link HybridDBStorage} itself or for tests without a database.
+ * <p>
+ * Workflow instances are copied on write and on read, like a database would do. An artificial latency may be
+ * configured for reads and writes: synchronous operations block the calling thread for this time, asynchronous
+ * operations complete their future after this time.
+ */
+public class InMemoryStorage extends AbstractStorage {
+
+    private final Map<String, WorkflowInstance> workflowInstances = new ConcurrentHashMap<>();
+    private final Map<String, String> earlyResponses = new ConcurrentHashMap<>();
+    private long readLatencyNanos = 0L;
+    private long writeLatencyNanos = 0L;
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * Latency of every read operation in microseconds. Defaults to 0.
+     */
+    public void setReadLatencyMicros(long readLatencyMicros) {
+        if (readLatencyMicros < 0)
+            throw new IllegalArgumentException();
+        this.readLatencyNanos = TimeUnit.MICROSECONDS.toNanos(readLatencyMicros);
+    }
+
+    /**
+     * Latency of every write operation in microseconds. Defaults to 0.
+     */
+    public void setWriteLatencyMicros(long writeLatencyMicros) {
+        if (writeLatencyMicros < 0)
+            throw new IllegalArgumentException();
+        this.writeLatencyNanos = TimeUnit.MICROSECONDS.toNanos(writeLatencyMicros);
+    }
+
+    @Override
+    public void initialize(HybridDBStorageAccessor internalStorageAccessor, int numberOfThreads) throws Exception {
+        if (writeLatencyNanos > 0) {
+            scheduler = Executors.newScheduledThreadPool(Math.max(1, numberOfThreads), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    final Thread t = new Thread(r, "copper.InMemoryStorage");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        for (WorkflowInstance cw : workflowInstances.values()) {
+            if (cw.state == ProcessingState.ENQUEUED) {
+                internalStorageAccessor.enqueue(cw.id, cw.ppoolId, cw.prio);
+            }
+            else if (cw.state == ProcessingState.WAITING) {
+                if (cw.cid2ResponseMap != null) {
+                    for (String correlationId : cw.cid2ResponseMap.keySet()) {
+                        internalStorageAccessor.registerCorrelationId(correlationId, cw.id);
+                    }
+                }
+                if (cw.timeout != null) {
+                    internalStorageAccessor.registerTimeout(cw.timeout, cw.id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Stops the thread that completes asynchronous writes, if a write latency is configured.
+     */
+    @Override
+    public void shutdown() {
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+
+    @Override
+    public void safeWorkflowInstance(WorkflowInstance cw, boolean initialInsert) throws Exception {
+        sleep(writeLatencyNanos);
+        final WorkflowInstance copy = WorkflowInstances.copy(cw);
+        copy.lastModTS = new Date();
+        workflowInstances.put(cw.id, copy);
+    }
+
+    @Override
+    public ListenableFuture<Void> deleteWorkflowInstance(String wfId) throws Exception {
+        workflowInstances.remove(wfId);
+        return completeAfterWriteLatency();
+    }
+
+    @Override
+    public WorkflowInstance readWorkflowInstance(String wfId) throws Exception {
+        sleep(readLatencyNanos);
+        final WorkflowInstance cw = workflowInstances.get(wfId);
+        return cw == null ? null : WorkflowInstances.copy(cw);
+    }
+
+    @Override
+    public ListenableFuture<Void> safeEarlyResponse(String correlationId, String serializedResponse) throws Exception {
+        earlyResponses.put(correlationId, serializedResponse);
+        return completeAfterWriteLatency();
+    }
+
+    @Override
+    public String readEarlyResponse(String correlationId) throws Exception {
+        sleep(readLatencyNanos);
+        return earlyResponses.get(correlationId);
+    }
+
+    @Override
+    public ListenableFuture<Void> deleteEarlyResponse(String correlationId) throws Exception {
+        earlyResponses.remove(correlationId);
+        return completeAfterWriteLatency();
+    }
+
+    @Override
+    public ListenableFuture<Void> updateWorkflowInstanceState(String wfId, ProcessingState state) throws Exception {
+        final WorkflowInstance cw = workflowInstances.get(wfId);
+        if (cw != null) {
+            final WorkflowInstance copy = WorkflowInstances.copy(cw);
+            copy.state = state;
+            copy.lastModTS = new Date();
+            workflowInstances.put(wfId, copy);
+        }
+        return completeAfterWriteLatency();
+    }
+
+    @Override
+    public List<WorkflowInstance> queryWorkflowInstances(WorkflowInstanceFilter filter) throws Exception {
+        sleep(readLatencyNanos);
+        final List<WorkflowInstance> resultList = new ArrayList<>();
+        for (WorkflowInstance cw : workflowInstances.values()) {
+            if (resultList.size() >= filter.getMax())
+                break;
+            if (WorkflowInstances.matches(filter, cw)) {
+                resultList.add(WorkflowInstances.copy(cw));
+            }
+        }
+        return resultList;
+    }
+
+    public int getNumberOfWorkflowInstances() {
+        return workflowInstances.size();
+    }
+
+    private ListenableFuture<Void> completeAfterWriteLatency() {
+        if (scheduler == null)
+            return Futures.immediateFuture(null);
+        final SettableFuture<Void> future = SettableFuture.create();
+        scheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                future.set(null);
+            }
+        }, writeLatencyNanos, TimeUnit.NANOSECONDS);
+        return future;
+    }
+
+    private static void sleep(long nanos) {
+        if (nanos <= 0)
+            return;
+        final long deadline = System.nanoTime() + nanos;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+}
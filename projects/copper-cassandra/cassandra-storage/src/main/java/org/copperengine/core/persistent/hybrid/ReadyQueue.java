@@ -0,0 +1,165 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.hybrid;
+
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Concurrent priority queue of workflow instance ids that are ready to be processed by one processor pool.
+ * <p>
+ * There is one lock-free FIFO queue per priority level and a bitmap of the non empty levels, so taking the next
+ * element is a bit scan followed by a poll on the corresponding level. Lower values mean higher priority, as in
+ * {@link org.copperengine.core.Workflow#setPriority(int)}. Priorities are distinguished in the range of 0 to
+ * {@link #MAX_PRIORITY}; smaller or greater priorities are treated like 0 or {@link #MAX_PRIORITY}. Elements with the
+ * same priority are processed in FIFO order.
+ */
+class ReadyQueue {
+
+    static final int MAX_PRIORITY = 63;
+
+    @SuppressWarnings("unchecked")
+    private final Queue<String>[] levels = new Queue[MAX_PRIORITY + 1];
+    private final AtomicLong nonEmptyLevels = new AtomicLong();
+    private final AtomicInteger size = new AtomicInteger();
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private volatile int waiters = 0;
+
+    ReadyQueue() {
+        for (int i = 0; i < levels.length; i++) {
+            levels[i] = new ConcurrentLinkedQueue<>();
+        }
+    }
+
+    void offer(String wfId, int prio) {
+        final int level = prio < 0 ? 0 : Math.min(prio, MAX_PRIORITY);
+        levels[level].offer(wfId);
+        setBit(level);
+        size.incrementAndGet();
+        if (waiters > 0) {
+            lock.lock();
+            try {
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @return the next element or <code>null</code>, if the queue is empty
+     */
+    String poll() {
+        for (;;) {
+            final long bits = nonEmptyLevels.get();
+            if (bits == 0L)
+                return null;
+            final int level = Long.numberOfTrailingZeros(bits);
+            final String wfId = levels[level].poll();
+            if (wfId != null) {
+                size.decrementAndGet();
+                return wfId;
+            }
+            clearBit(level);
+        }
+    }
+
+    /**
+     * Blocks until an element is available.
+     */
+    String take() throws InterruptedException {
+        for (;;) {
+            final String wfId = poll();
+            if (wfId != null)
+                return wfId;
+            lock.lockInterruptibly();
+            try {
+                waiters++;
+                try {
+                    if (size.get() == 0) {
+                        notEmpty.await(100, TimeUnit.MILLISECONDS);
+                    }
+                } finally {
+                    waiters--;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Removes up to <code>max</code> elements in priority order and adds them to <code>target</code>.
+     *
+     * @return number of elements added to <code>target</code>
+     */
+    int drainTo(Collection<String> target, int max) {
+        int n = 0;
+        long bits = nonEmptyLevels.get();
+        while (n < max && bits != 0L) {
+            final int level = Long.numberOfTrailingZeros(bits);
+            final Queue<String> queue = levels[level];
+            String wfId;
+            while (n < max && (wfId = queue.poll()) != null) {
+                size.decrementAndGet();
+                target.add(wfId);
+                n++;
+            }
+            if (n < max) {
+                clearBit(level);
+            }
+            bits &= ~(1L << level);
+            if (bits == 0L && n < max) {
+                // take elements into account that were enqueued meanwhile
+                bits = nonEmptyLevels.get();
+            }
+        }
+        return n;
+    }
+
+    int size() {
+        return size.get();
+    }
+
+    private void setBit(int level) {
+        final long mask = 1L << level;
+        for (;;) {
+            final long bits = nonEmptyLevels.get();
+            if ((bits & mask) != 0L || nonEmptyLevels.compareAndSet(bits, bits | mask))
+                return;
+        }
+    }
+
+    private void clearBit(int level) {
+        final long mask = 1L << level;
+        for (;;) {
+            final long bits = nonEmptyLevels.get();
+            if ((bits & mask) == 0L || nonEmptyLevels.compareAndSet(bits, bits & ~mask))
+                break;
+        }
+        // an element might have been offered after our last poll, but before the bit was cleared
+        if (!levels[level].isEmpty()) {
+            setBit(level);
+        }
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.hybrid;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Concurrent cache, bounded by the estimated size of its values in bytes.
+ * <p>
+ * The cache is split into segments, each guarded by its own lock. A segment consists of a small LRU window, which takes
+ * up every new entry, and a main LRU area. Entries that drop out of the window are only admitted to the main area if
+ * they have been accessed more often than the main area's eviction victim, based on a per segment frequency sketch
+ * (TinyLFU). This keeps frequently read entries cached when a burst of entries that are written once passes through
+ * the cache.
+ *
+ * @param <V>
+ *        type of the cached values
+ */
+final class SizeBoundedCache<V> {
+
+    interface Weigher<V> {
+        /**
+         * @return estimated size of the value in bytes
+         */
+        int weigh(V value);
+    }
+
+    /**
+     * workflow instances are usually read shortly after they have been written, so the window is not too small
+     */
+    private static final int WINDOW_PERCENT = 10;
+
+    private static final class Node<V> {
+        final V value;
+        final int weight;
+        final long expiresAt;
+
+        Node(V value, int weight, long expiresAt) {
+            this.value = value;
+            this.weight = weight;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class Segment<V> {
+        final LinkedHashMap<String, Node<V>> window = new LinkedHashMap<>(16, 0.75f, true);
+        final LinkedHashMap<String, Node<V>> main = new LinkedHashMap<>(16, 0.75f, true);
+        final FrequencySketch sketch = new FrequencySketch(1024);
+        long windowWeight;
+        long mainWeight;
+    }
+
+    private final Segment<V>[] segments;
+    private final Weigher<V> weigher;
+    private final long maxWeight;
+    private final long maxSegmentWeight;
+    private final long maxWindowWeight;
+    private final long ttlMSec;
+    private final CacheStats stats;
+
+    /**
+     * @param ttlMSec
+     *        time to live of an entry after it has been put into the cache, or 0 for no limit
+     */
+    SizeBoundedCache(long maxWeight, long ttlMSec, Weigher<V> weigher, CacheStats stats) {
+        if (maxWeight <= 0)
+            throw new IllegalArgumentException("maxWeight must be > 0");
+        if (ttlMSec < 0)
+            throw new IllegalArgumentException("ttlMSec must be >= 0");
+        this.maxWeight = maxWeight;
+        this.ttlMSec = ttlMSec;
+        this.weigher = weigher;
+        this.stats = stats;
+        int n = 1;
+        while (n < 16 && maxWeight / (n * 2) >= 1024 * 1024) {
+            n *= 2;
+        }
+        @SuppressWarnings("unchecked")
+        final Segment<V>[] s = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            s[i] = new Segment<V>();
+        }
+        this.segments = s;
+        this.maxSegmentWeight = maxWeight / n;
+        this.maxWindowWeight = Math.max(1, maxSegmentWeight * WINDOW_PERCENT / 100);
+    }
+
+    public V get(String key) {
+        final int hash = spread(key.hashCode());
+        final Segment<V> segment = segmentFor(hash);
+        synchronized (segment) {
+            segment.sketch.increment(hash);
+            Node<V> node = segment.window.get(key);
+            if (node == null) {
+                node = segment.main.get(key);
+            }
+            if (node == null) {
+                stats.incNumberOfReads(false);
+                return null;
+            }
+            if (isExpired(node, System.currentTimeMillis())) {
+                removeNode(segment, key);
+                stats.incNumberOfExpirations();
+                stats.incNumberOfReads(false);
+                return null;
+            }
+            stats.incNumberOfReads(true);
+            return node.value;
+        }
+    }
+
+    public void put(String key, V value) {
+        final int hash = spread(key.hashCode());
+        final Segment<V> segment = segmentFor(hash);
+        final int weight = weigher.weigh(value);
+        final long now = System.currentTimeMillis();
+        synchronized (segment) {
+            removeNode(segment, key);
+            segment.sketch.increment(hash);
+            if (weight > maxSegmentWeight - maxWindowWeight) {
+                stats.incNumberOfEvictions();
+                return;
+            }
+            segment.window.put(key, new Node<V>(value, weight, ttlMSec > 0 ? now + ttlMSec : 0));
+            segment.windowWeight += weight;
+            while (segment.windowWeight > maxWindowWeight) {
+                final Iterator<Map.Entry<String, Node<V>>> iterator = segment.window.entrySet().iterator();
+                final Map.Entry<String, Node<V>> candidate = iterator.next();
+                iterator.remove();
+                segment.windowWeight -= candidate.getValue().weight;
+                admit(segment, candidate.getKey(), candidate.getValue(), now);
+            }
+        }
+    }
+
+    public void remove(String key) {
+        final Segment<V> segment = segmentFor(spread(key.hashCode()));
+        synchronized (segment) {
+            removeNode(segment, key);
+        }
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                size += segment.window.size() + segment.main.size();
+            }
+        }
+        return size;
+    }
+
+    public long weight() {
+        long weight = 0;
+        for (Segment<V> segment : segments) {
+            synchronized (segment) {
+                weight += segment.windowWeight + segment.mainWeight;
+            }
+        }
+        return weight;
+    }
+
+    public long getMaxWeight() {
+        return maxWeight;
+    }
+
+    private void admit(Segment<V> segment, String key, Node<V> candidate, long now) {
+        if (isExpired(candidate, now)) {
+            stats.incNumberOfExpirations();
+            return;
+        }
+        final long maxMainWeight = maxSegmentWeight - maxWindowWeight;
+        final int candidateFrequency = segment.sketch.frequency(spread(key.hashCode()));
+        // select the victims first - the main area is only changed once the candidate is admitted
+        int victims = 0;
+        long weight = segment.mainWeight;
+        Iterator<Map.Entry<String, Node<V>>> iterator = segment.main.entrySet().iterator();
+        while (weight + candidate.weight > maxMainWeight) {
+            final Map.Entry<String, Node<V>> victim = iterator.next();
+            if (!isExpired(victim.getValue(), now) && candidateFrequency <= segment.sketch.frequency(spread(victim.getKey().hashCode()))) {
+                // the candidate is rejected
+                stats.incNumberOfEvictions();
+                return;
+            }
+            weight -= victim.getValue().weight;
+            victims++;
+        }
+        iterator = segment.main.entrySet().iterator();
+        for (int i = 0; i < victims; i++) {
+            final Map.Entry<String, Node<V>> victim = iterator.next();
+            if (isExpired(victim.getValue(), now)) {
+                stats.incNumberOfExpirations();
+            }
+            else {
+                stats.incNumberOfEvictions();
+            }
+            iterator.remove();
+            segment.mainWeight -= victim.getValue().weight;
+        }
+        segment.main.put(key, candidate);
+        segment.mainWeight += candidate.weight;
+    }
+
+    private void removeNode(Segment<V> segment, String key) {
+        Node<V> node = segment.window.remove(key);
+        if (node != null) {
+            segment.windowWeight -= node.weight;
+            return;
+        }
+        node = segment.main.remove(key);
+        if (node != null) {
+            segment.mainWeight -= node.weight;
+        }
+    }
+
+    private static boolean isExpired(Node<?> node, long now) {
+        return node.expiresAt != 0 && node.expiresAt <= now;
+    }
+
+    private Segment<V> segmentFor(int hash) {
+        return segments[(hash >>> 16) & (segments.length - 1)];
+    }
+
+    private static int spread(int h) {
+        h ^= (h >>> 20) ^ (h >>> 12);
+        return h ^ (h >>> 7) ^ (h >>> 4);
+    }
+
+    /**
+     * Count-min sketch with 4 bit counters, that are halved periodically so that the sketch follows changes in the
+     * access pattern.
+     */
+    static final class FrequencySketch {
+        private static final long[] SEEDS = { 0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L };
+        private static final long RESET_MASK = 0x7777777777777777L;
+
+        private final long[] table;
+        private final int counterMask;
+        private final int resetAfter;
+        private int additions;
+
+        FrequencySketch(int tableSize) {
+            if (Integer.bitCount(tableSize) != 1)
+                throw new IllegalArgumentException("tableSize must be a power of two");
+            this.table = new long[tableSize];
+            this.counterMask = tableSize * 16 - 1;
+            this.resetAfter = tableSize * 10;
+        }
+
+        int frequency(int hash) {
+            int frequency = Integer.MAX_VALUE;
+            for (int i = 0; i < SEEDS.length; i++) {
+                final int counter = counterIndex(hash, i);
+                frequency = Math.min(frequency, (int) ((table[counter >>> 4] >>> ((counter & 15) << 2)) & 15L));
+            }
+            return frequency;
+        }
+
+        void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                final int counter = counterIndex(hash, i);
+                final int shift = (counter & 15) << 2;
+                final long slot = table[counter >>> 4];
+                if (((slot >>> shift) & 15L) != 15L) {
+                    table[counter >>> 4] = slot + (1L << shift);
+                    added = true;
+                }
+            }
+            if (added && ++additions == resetAfter) {
+                for (int i = 0; i < table.length; i++) {
+                    table[i] = (table[i] >>> 1) & RESET_MASK;
+                }
+                additions = 0;
+            }
+        }
+
+        private int counterIndex(int hash, int i) {
+            long h = (hash + SEEDS[i]) * SEEDS[i];
+            h += h >>> 32;
+            return (int) h & counterMask;
+        }
+    }
+}
@@ -33,6 +33,13 @@ public interface Storage {
 
     public void safeWorkflowInstance(WorkflowInstance cw, boolean initialInsert) throws Exception;
 
+    /**
+     * Stores the response for <code>correlationId</code>, that has already been put into the response map of
+     * <code>cw</code>, together with the state of <code>cw</code>. Implementations may write just this response
+     * instead of the complete workflow instance.
+     */
+    public void safeWorkflowInstanceResponse(WorkflowInstance cw, String correlationId) throws Exception;
+
     public ListenableFuture<Void> deleteWorkflowInstance(String wfId) throws Exception;
 
     public WorkflowInstance readWorkflowInstance(String wfId) throws Exception;
@@ -49,4 +56,10 @@ public interface Storage {
     
     public List<WorkflowInstance> queryWorkflowInstances(WorkflowInstanceFilter filter) throws Exception;
 
+    /**
+     * Stops the background activities of this storage, e.g. a background recovery. Called by
+     * {@link HybridDBStorage#shutdown()}.
+     */
+    public void shutdown() throws Exception;
+
 }
@@ -16,49 +16,103 @@
 
 package org.copperengine.core.persistent.hybrid;
 
-import java.lang.ref.SoftReference;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.commons.lang.NullArgumentException;
 import org.copperengine.core.ProcessingState;
-import org.copperengine.core.Workflow;
+import org.copperengine.management.StorageCacheMXBean;
 import org.copperengine.management.model.WorkflowInstanceFilter;
 import org.slf4j.Logger;
 
 import com.google.common.util.concurrent.ListenableFuture;
 
-public class StorageCache implements Storage {
+public class StorageCache implements Storage, StorageCacheMXBean {
 
     private static final Logger logger = org.slf4j.LoggerFactory.getLogger(StorageCache.class);
 
+    public static final long DEFAULT_MAX_WORKFLOW_INSTANCE_CACHE_BYTES = 128L * 1024 * 1024;
+    public static final long DEFAULT_MAX_EARLY_RESPONSE_CACHE_BYTES = 16L * 1024 * 1024;
+    public static final long DEFAULT_EARLY_RESPONSE_TTL_SECONDS = 60 * 60;
+
+    private static final SizeBoundedCache.Weigher<WorkflowInstance> WORKFLOW_INSTANCE_WEIGHER = new SizeBoundedCache.Weigher<WorkflowInstance>() {
+        @Override
+        public int weigh(WorkflowInstance wfi) {
+            long chars = length(wfi.id) + length(wfi.ppoolId) + length(wfi.classname);
+            if (wfi.serializedWorkflow != null) {
+                chars += length(wfi.serializedWorkflow.getData()) + length(wfi.serializedWorkflow.getObjectState());
+            }
+            long bytes = 160;
+            if (wfi.cid2ResponseMap != null) {
+                for (Map.Entry<String, String> entry : wfi.cid2ResponseMap.entrySet()) {
+                    chars += length(entry.getKey()) + length(entry.getValue());
+                    bytes += 80;
+                }
+            }
+            return (int) Math.min(Integer.MAX_VALUE, bytes + 2 * chars);
+        }
+    };
+
+    private static final SizeBoundedCache.Weigher<String> EARLY_RESPONSE_WEIGHER = new SizeBoundedCache.Weigher<String>() {
+        @Override
+        public int weigh(String serializedResponse) {
+            return (int) Math.min(Integer.MAX_VALUE, 120 + 2L * serializedResponse.length());
+        }
+    };
+
     private final Storage delegate;
-    private final Map<String, SoftReference<WorkflowInstance>> wfCache;
-    private final Map<String, SoftReference<String>> earCache;
+    private final SizeBoundedCache<WorkflowInstance> wfCache;
+    private final SizeBoundedCache<String> earCache;
     private final CacheStats cacheStatsWfCache = new CacheStats();
     private final CacheStats cacheStatsEarCache = new CacheStats();
+    private final long earlyResponseTtlSeconds;
 
     public StorageCache(Storage delegate) {
+        this(delegate, DEFAULT_MAX_WORKFLOW_INSTANCE_CACHE_BYTES, DEFAULT_MAX_EARLY_RESPONSE_CACHE_BYTES, DEFAULT_EARLY_RESPONSE_TTL_SECONDS);
+    }
+
+    /**
+     * @param maxWorkflowInstanceCacheBytes
+     *        upper limit for the estimated memory footprint of the cached workflow instances
+     * @param maxEarlyResponseCacheBytes
+     *        upper limit for the estimated memory footprint of the cached early responses
+     * @param earlyResponseTtlSeconds
+     *        time to live of a cached early response, should not exceed the time to live in the underlying storage
+     */
+    public StorageCache(Storage delegate, long maxWorkflowInstanceCacheBytes, long maxEarlyResponseCacheBytes, long earlyResponseTtlSeconds) {
         if (delegate == null)
             throw new NullArgumentException("delegate");
+        if (earlyResponseTtlSeconds <= 0)
+            throw new IllegalArgumentException("earlyResponseTtlSeconds must be > 0");
         this.delegate = delegate;
+        this.earlyResponseTtlSeconds = earlyResponseTtlSeconds;
+
+        wfCache = new SizeBoundedCache<>(maxWorkflowInstanceCacheBytes, 0, WORKFLOW_INSTANCE_WEIGHER, cacheStatsWfCache);
+        earCache = new SizeBoundedCache<>(maxEarlyResponseCacheBytes, TimeUnit.SECONDS.toMillis(earlyResponseTtlSeconds), EARLY_RESPONSE_WEIGHER, cacheStatsEarCache);
+    }
 
-        wfCache = new ConcurrentHashMap<>();
-        earCache = new ConcurrentHashMap<>();
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
     }
 
     public void logCacheStats() {
-        logger.info("cacheStatsWfCache  = {}", cacheStatsWfCache);
-        logger.info("cacheStatsEarCache = {}", cacheStatsEarCache);
+        logger.info("cacheStatsWfCache  = {}, size={}, bytes={}", cacheStatsWfCache, wfCache.size(), wfCache.weight());
+        logger.info("cacheStatsEarCache = {}, size={}, bytes={}", cacheStatsEarCache, earCache.size(), earCache.weight());
     }
 
     @Override
     public void safeWorkflowInstance(WorkflowInstance wfi, boolean initialInsert) throws Exception {
-        wfCache.put(wfi.id, new SoftReference<WorkflowInstance>(wfi));
+        wfCache.put(wfi.id, wfi);
         delegate.safeWorkflowInstance(wfi, initialInsert);
     }
 
+    @Override
+    public void safeWorkflowInstanceResponse(WorkflowInstance wfi, String correlationId) throws Exception {
+        wfCache.put(wfi.id, wfi);
+        delegate.safeWorkflowInstanceResponse(wfi, correlationId);
+    }
+
     @Override
     public ListenableFuture<Void> deleteWorkflowInstance(String wfId) throws Exception {
         wfCache.remove(wfId);
@@ -67,19 +121,14 @@ public class StorageCache implements Storage {
 
     @Override
     public WorkflowInstance readWorkflowInstance(String wfId) throws Exception {
-        SoftReference<WorkflowInstance> entry = wfCache.get(wfId);
-        if (entry != null) {
-            WorkflowInstance wfi = entry.get();
-            if (wfi != null) {
-                cacheStatsWfCache.incNumberOfReads(true);
-                return wfi;
-            }
+        WorkflowInstance wfi = wfCache.get(wfId);
+        if (wfi != null) {
+            return wfi;
         }
-        WorkflowInstance wfi = delegate.readWorkflowInstance(wfId);
+        wfi = delegate.readWorkflowInstance(wfId);
         if (wfi != null) {
-            wfCache.put(wfi.id, new SoftReference<WorkflowInstance>(wfi));
+            wfCache.put(wfi.id, wfi);
         }
-        cacheStatsWfCache.incNumberOfReads(false);
         return wfi;
     }
 
@@ -88,23 +137,23 @@ public class StorageCache implements Storage {
         delegate.initialize(internalStorageAccessor, numberOfThreads);
     }
 
+    @Override
+    public void shutdown() throws Exception {
+        delegate.shutdown();
+    }
+
     @Override
     public ListenableFuture<Void> safeEarlyResponse(String correlationId, String serializedResponse) throws Exception {
-        earCache.put(correlationId, new SoftReference<String>(serializedResponse));
+        earCache.put(correlationId, serializedResponse);
         return delegate.safeEarlyResponse(correlationId, serializedResponse);
     }
 
     @Override
     public String readEarlyResponse(String correlationId) throws Exception {
-        final SoftReference<String> entry = earCache.get(correlationId);
-        if (entry != null) {
-            String resp = entry.get();
-            if (resp != null) {
-                cacheStatsEarCache.incNumberOfReads(true);
-                return resp;
-            }
+        final String resp = earCache.get(correlationId);
+        if (resp != null) {
+            return resp;
         }
-        cacheStatsEarCache.incNumberOfReads(false);
         return delegate.readEarlyResponse(correlationId);
     }
 
@@ -125,4 +174,74 @@ public class StorageCache implements Storage {
         return delegate.queryWorkflowInstances(filter);
     }
 
+    @Override
+    public int getWorkflowInstanceCacheSize() {
+        return wfCache.size();
+    }
+
+    @Override
+    public long getWorkflowInstanceCacheBytes() {
+        return wfCache.weight();
+    }
+
+    @Override
+    public long getWorkflowInstanceCacheMaxBytes() {
+        return wfCache.getMaxWeight();
+    }
+
+    @Override
+    public long getWorkflowInstanceCacheHits() {
+        return cacheStatsWfCache.getNumberOfCacheHits();
+    }
+
+    @Override
+    public long getWorkflowInstanceCacheMisses() {
+        return cacheStatsWfCache.getNumberOfCacheMisses();
+    }
+
+    @Override
+    public long getWorkflowInstanceCacheEvictions() {
+        return cacheStatsWfCache.getNumberOfEvictions();
+    }
+
+    @Override
+    public int getEarlyResponseCacheSize() {
+        return earCache.size();
+    }
+
+    @Override
+    public long getEarlyResponseCacheBytes() {
+        return earCache.weight();
+    }
+
+    @Override
+    public long getEarlyResponseCacheMaxBytes() {
+        return earCache.getMaxWeight();
+    }
+
+    @Override
+    public long getEarlyResponseCacheHits() {
+        return cacheStatsEarCache.getNumberOfCacheHits();
+    }
+
+    @Override
+    public long getEarlyResponseCacheMisses() {
+        return cacheStatsEarCache.getNumberOfCacheMisses();
+    }
+
+    @Override
+    public long getEarlyResponseCacheEvictions() {
+        return cacheStatsEarCache.getNumberOfEvictions();
+    }
+
+    @Override
+    public long getEarlyResponseCacheExpirations() {
+        return cacheStatsEarCache.getNumberOfExpirations();
+    }
+
+    @Override
+    public long getEarlyResponseCacheTtlSeconds() {
+        return earlyResponseTtlSeconds;
+    }
+
 }
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.hybrid;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.copperengine.core.common.TimingWheel;
+import org.copperengine.core.monitoring.EngineEventRecorder;
+import org.copperengine.core.monitoring.EngineEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of the {@link TimeoutManager} interface based on a hierarchical timing wheel.
+ * <p>
+ * Timeouts are kept as a primitive tick plus workflow id and callback in the array based buckets of a
+ * {@link TimingWheel}, i.e. without a map entry, boxed timestamp or slot object per waiting workflow instance.
+ * Registering and unregistering only appends a command to a concurrent queue, which is applied by the timeout manager
+ * thread. Registrations are accepted before {@link #startup()} is called, so a storage can bulk load the timeouts of
+ * all waiting workflow instances during its initialization - they are inserted into the wheel in one go at startup.
+ */
+public final class TimingWheelTimeoutManager extends Thread implements TimeoutManager {
+
+    private final static Logger logger = LoggerFactory.getLogger(TimeoutManager.class);
+
+    private final Queue<Command> commands = new ConcurrentLinkedQueue<Command>();
+    private long tickMSec = 25;
+    private volatile boolean shutdown = false;
+    private volatile boolean idle = false;
+    private volatile int size;
+
+    public TimingWheelTimeoutManager() {
+        super("copper.Timeoutmanager");
+    }
+
+    /**
+     * Sets the resolution of the timing wheel in milliseconds. Must be called before startup.
+     */
+    public void setTickMSec(long tickMSec) {
+        if (tickMSec <= 0)
+            throw new IllegalArgumentException("tickMSec must be > 0");
+        if (isAlive())
+            throw new IllegalStateException("Timeout manager is already running");
+        this.tickMSec = tickMSec;
+    }
+
+    public long getTickMSec() {
+        return tickMSec;
+    }
+
+    /**
+     * @return the number of pending timeouts, as seen by the timeout manager thread
+     */
+    public int getNumberOfPendingTimeouts() {
+        return size;
+    }
+
+    public synchronized TimeoutManager startup() {
+        if (isAlive())
+            return this;
+        this.setDaemon(true);
+        this.start();
+        return this;
+    }
+
+    public synchronized TimeoutManager shutdown() {
+        if (shutdown)
+            return this;
+        shutdown = true;
+        LockSupport.unpark(this);
+        return this;
+    }
+
+    @Override
+    public void registerTimeout(final Date timeoutTS, final String workflowId, final Runnable onTimeout) {
+        logger.debug("registerTimeout({}, {})", timeoutTS, workflowId);
+        if (timeoutTS == null)
+            return;
+        if (onTimeout == null)
+            throw new NullPointerException("onTimeout");
+        enqueue(new Command(tick(timeoutTS), workflowId, onTimeout));
+    }
+
+    @Override
+    public void unregisterTimeout(final Date timeoutTS, final String workflowId) {
+        logger.debug("unregisterTimeout({}, {})", timeoutTS, workflowId);
+        if (timeoutTS == null)
+            return;
+        enqueue(new Command(tick(timeoutTS), workflowId, null));
+    }
+
+    private long tick(Date timeoutTS) {
+        return (timeoutTS.getTime() / tickMSec) + 1;
+    }
+
+    private void enqueue(Command command) {
+        commands.offer(command);
+        if (idle) {
+            LockSupport.unpark(this);
+        }
+    }
+
+    public void run() {
+        logger.info("started");
+        final TimingWheel<Runnable> wheel = new TimingWheel<Runnable>(System.currentTimeMillis() / tickMSec);
+        final List<String> expiredWorkflowIds = new ArrayList<String>(32);
+        final List<Runnable> expired = new ArrayList<Runnable>(32);
+        while (!shutdown) {
+            try {
+                final EngineEventRecorder eventRecorder = EngineEvents.recorder();
+                final boolean recordEvent = eventRecorder.isEnabled();
+                final long startNanos = recordEvent ? System.nanoTime() : 0L;
+                applyCommands(wheel, expiredWorkflowIds, expired);
+                wheel.advance(System.currentTimeMillis() / tickMSec, expiredWorkflowIds, expired);
+                size = wheel.size();
+
+                if (!expired.isEmpty()) {
+                    if (logger.isDebugEnabled())
+                        logger.debug("Running " + expired.size() + " expired timeouts at tick " + wheel.getCurrentTick());
+                    for (Runnable r : expired) {
+                        try {
+                            r.run();
+                        } catch (Exception e) {
+                            logger.error("run failed", e);
+                        }
+                    }
+                    if (recordEvent) {
+                        eventRecorder.timeoutsExpired(expired.size(), startNanos);
+                    }
+                    expiredWorkflowIds.clear();
+                    expired.clear();
+                }
+
+                if (wheel.size() == 0) {
+                    idle = true;
+                    if (commands.isEmpty() && !shutdown) {
+                        logger.debug("There are currently no timeouts - waiting indefinitely...");
+                        LockSupport.park(this);
+                    }
+                    idle = false;
+                } else {
+                    long delay = (wheel.getCurrentTick() + 1) * tickMSec - System.currentTimeMillis();
+                    if (delay > 0) {
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(delay));
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("Unexpected exception:", e);
+            }
+        }
+        logger.info("stopped");
+    }
+
+    private void applyCommands(TimingWheel<Runnable> wheel, List<String> expiredWorkflowIds, List<Runnable> expired) {
+        Command command;
+        while ((command = commands.poll()) != null) {
+            if (command.onTimeout != null) {
+                if (!wheel.add(command.tick, command.workflowId, command.onTimeout)) {
+                    expiredWorkflowIds.add(command.workflowId);
+                    expired.add(command.onTimeout);
+                }
+            } else if (!wheel.remove(command.tick, command.workflowId) && !expired.isEmpty()) {
+                // registered and unregistered again before the timeout could be run
+                final int idx = expiredWorkflowIds.indexOf(command.workflowId);
+                if (idx >= 0) {
+                    expiredWorkflowIds.remove(idx);
+                    expired.remove(idx);
+                }
+            }
+        }
+    }
+
+    private static final class Command {
+        final long tick;
+        final String workflowId;
+        final Runnable onTimeout;
+
+        Command(long tick, String workflowId, Runnable onTimeout) {
+            this.tick = tick;
+            this.workflowId = workflowId;
+            this.onTimeout = onTimeout;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.hybrid;
+
+import java.util.Date;
+import java.util.HashMap;
+
+import org.copperengine.core.persistent.SerializedWorkflow;
+import org.copperengine.management.model.WorkflowInstanceFilter;
+
+/**
+ * Helper methods for {@link WorkflowInstance}s, shared by the {@link Storage} implementations.
+ */
+public final class WorkflowInstances {
+
+    private WorkflowInstances() {
+    }
+
+    /**
+     * Creates a copy of <code>cw</code>, that may be modified independently of <code>cw</code>.
+     */
+    public static WorkflowInstance copy(WorkflowInstance cw) {
+        final WorkflowInstance c = new WorkflowInstance();
+        c.id = cw.id;
+        c.ppoolId = cw.ppoolId;
+        c.prio = cw.prio;
+        c.creationTS = cw.creationTS;
+        if (cw.serializedWorkflow != null) {
+            c.serializedWorkflow = new SerializedWorkflow();
+            c.serializedWorkflow.setData(cw.serializedWorkflow.getData());
+            c.serializedWorkflow.setObjectState(cw.serializedWorkflow.getObjectState());
+        }
+        c.cid2ResponseMap = cw.cid2ResponseMap == null ? null : new HashMap<>(cw.cid2ResponseMap);
+        c.waitMode = cw.waitMode;
+        c.timeout = cw.timeout;
+        c.state = cw.state;
+        c.lastModTS = cw.lastModTS;
+        c.classname = cw.classname;
+        return c;
+    }
+
+    /**
+     * @return <code>true</code>, if <code>cw</code> matches all criteria of <code>filter</code>. The maximum number
+     *         of results of the filter is not taken into account.
+     */
+    public static boolean matches(WorkflowInstanceFilter filter, WorkflowInstance cw) {
+        if (filter.getWorkflowClassname() != null && !filter.getWorkflowClassname().equals(cw.classname))
+            return false;
+        if (filter.getProcessorPoolId() != null && !filter.getProcessorPoolId().equals(cw.ppoolId))
+            return false;
+        if (filter.getState() != null && (cw.state == null || !filter.getState().equals(cw.state.name())))
+            return false;
+        if (filter.getCreationTS() != null && !inRange(cw.creationTS, filter.getCreationTS().getFrom(), filter.getCreationTS().getTo()))
+            return false;
+        if (filter.getLastModTS() != null && !inRange(cw.lastModTS, filter.getLastModTS().getFrom(), filter.getLastModTS().getTo()))
+            return false;
+        return true;
+    }
+
+    private static boolean inRange(Date ts, Date from, Date to) {
+        if (from != null && (ts == null || ts.before(from)))
+            return false;
+        if (to != null && (ts == null || !ts.before(to)))
+            return false;
+        return true;
+    }
+}
@@ -0,0 +1,707 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.logstorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.ProcessingState;
+import org.copperengine.core.WaitMode;
+import org.copperengine.core.monitoring.NullRuntimeStatisticsCollector;
+import org.copperengine.core.monitoring.RuntimeStatisticsCollector;
+import org.copperengine.core.persistent.hybrid.HybridDBStorageAccessor;
+import org.copperengine.core.persistent.hybrid.Storage;
+import org.copperengine.core.persistent.hybrid.WorkflowInstance;
+import org.copperengine.core.persistent.hybrid.WorkflowInstances;
+import org.copperengine.management.model.WorkflowInstanceFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+
+/**
+ * Implementation of the {@link Storage} interface backed by append-only log files on the local disk - for running a
+ * hybrid engine on a single node without an external database.
+ * <p>
+ * Every modification is appended to the current segment, a preallocated memory-mapped file. An in-memory index maps
+ * workflow instance ids and correlation ids to the offset of their latest record, so reads are served directly from
+ * the mapped segments. State changes are written as small records of their own and applied on top of the indexed
+ * workflow instance.
+ * <p>
+ * Writes are acknowledged as soon as their segment has been forced to disk. A single sync thread forces the segments
+ * for all writes that queued up while the previous force was running, so concurrent writers share the cost of one
+ * fsync. With <code>syncWrites</code> set to <code>false</code> writes are acknowledged immediately and only survive
+ * a crash of the JVM, not of the operating system.
+ * <p>
+ * Segments other than the current one are compacted periodically, oldest first: as soon as the share of live records
+ * in the oldest segment drops below the compaction threshold, the live records are appended again and the segment
+ * file is deleted. Compacting oldest first makes sure that a deleted record cannot reappear from an older segment.
+ * <p>
+ * On {@link #initialize(HybridDBStorageAccessor, int)} the index is rebuilt by scanning all segments, and the
+ * workflow instances are handed over to the {@link org.copperengine.core.persistent.hybrid.HybridDBStorage}.
+ * {@link #shutdown()} stops the background threads and forces all segments.
+ */
+public class LogStorage implements Storage {
+
+    private static final Logger logger = LoggerFactory.getLogger(LogStorage.class);
+
+    private static final ThreadFactory COMPACTOR_THREAD_FACTORY = new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            final Thread t = new Thread(r, "copper.LogStorage.compactor");
+            t.setDaemon(true);
+            return t;
+        }
+    };
+
+    /**
+     * Index entry - immutable. A state change replaces the entry with one that refers to the same record.
+     */
+    private static final class Location {
+        final Segment segment;
+        final int offset;
+        final int size;
+        /** state and last modification timestamp of a subsequent state record, if any */
+        final ProcessingState state;
+        final long lastModTS;
+
+        Location(Segment segment, int offset, int size, ProcessingState state, long lastModTS) {
+            this.segment = segment;
+            this.offset = offset;
+            this.size = size;
+            this.state = state;
+            this.lastModTS = lastModTS;
+        }
+
+        /**
+         * @return the payload or <code>null</code>, if the segment has been compacted and deleted in the meantime
+         */
+        ByteBuffer read() {
+            return segment.read(offset);
+        }
+    }
+
+    private static final class PendingSync {
+        final long ticket;
+        final SettableFuture<Void> future = SettableFuture.create();
+
+        PendingSync(long ticket) {
+            this.ticket = ticket;
+        }
+    }
+
+    private final File directory;
+    private final RuntimeStatisticsCollector runtimeStatisticsCollector;
+    private final Map<String, Location> workflowInstances = new ConcurrentHashMap<>();
+    private final Map<String, Location> earlyResponses = new ConcurrentHashMap<>();
+    private final ConcurrentNavigableMap<Long, Segment> segments = new ConcurrentSkipListMap<>();
+
+    // guarded by appendMutex
+    private final Object appendMutex = new Object();
+    private Segment currentSegment;
+    private long appendTicket;
+    private final Set<Segment> unsyncedSegments = new LinkedHashSet<>();
+
+    // guarded by syncMutex
+    private final Object syncMutex = new Object();
+    private long syncedTicket;
+    private final List<PendingSync> pendingSyncs = new ArrayList<>();
+    private boolean shutdown = false;
+
+    private int segmentSize = 64 * 1024 * 1024;
+    private boolean syncWrites = true;
+    private int compactionIntervalSeconds = 60;
+    private double compactionThreshold = 0.5;
+    private int ttlEarlyResponseSeconds = 1 * 24 * 60 * 60; // one day
+    private Thread syncThread;
+    private ScheduledExecutorService compactor;
+
+    public LogStorage(final File directory) {
+        this(directory, new NullRuntimeStatisticsCollector());
+    }
+
+    public LogStorage(final File directory, final RuntimeStatisticsCollector runtimeStatisticsCollector) {
+        if (directory == null)
+            throw new NullPointerException();
+        if (runtimeStatisticsCollector == null)
+            throw new NullPointerException();
+        this.directory = directory;
+        this.runtimeStatisticsCollector = runtimeStatisticsCollector;
+    }
+
+    /**
+     * Size of newly created segment files in bytes. A record that is larger than this size gets a segment of its own.
+     */
+    public void setSegmentSize(int segmentSize) {
+        if (segmentSize < 4096)
+            throw new IllegalArgumentException();
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * If <code>true</code>, which is the default, writes are acknowledged after they have been forced to disk.
+     */
+    public void setSyncWrites(boolean syncWrites) {
+        this.syncWrites = syncWrites;
+    }
+
+    public void setCompactionIntervalSeconds(int compactionIntervalSeconds) {
+        if (compactionIntervalSeconds <= 0)
+            throw new IllegalArgumentException();
+        this.compactionIntervalSeconds = compactionIntervalSeconds;
+    }
+
+    /**
+     * The oldest segment is compacted, when the share of its live records drops below this value. Defaults to 0.5.
+     */
+    public void setCompactionThreshold(double compactionThreshold) {
+        if (compactionThreshold <= 0.0 || compactionThreshold > 1.0)
+            throw new IllegalArgumentException();
+        this.compactionThreshold = compactionThreshold;
+    }
+
+    public void setTtlEarlyResponseSeconds(int ttlEarlyResponseSeconds) {
+        if (ttlEarlyResponseSeconds <= 0)
+            throw new IllegalArgumentException();
+        this.ttlEarlyResponseSeconds = ttlEarlyResponseSeconds;
+    }
+
+    @Override
+    public void safeWorkflowInstance(WorkflowInstance cw, boolean initialInsert) throws Exception {
+        logger.debug("safeWorkflow({})", cw);
+        final long startTS = System.nanoTime();
+        final long ticket = putWorkflowInstance(cw);
+        awaitSync(ticket);
+        runtimeStatisticsCollector.submit(initialInsert ? "wfi.insert" : cw.cid2ResponseMap == null || cw.cid2ResponseMap.isEmpty() ? "wfi.update.nowait" : "wfi.update.wait", 1, System.nanoTime() - startTS, TimeUnit.NANOSECONDS);
+    }
+
+    @Override
+    public void safeWorkflowInstanceResponse(WorkflowInstance cw, String correlationId) throws Exception {
+        logger.debug("safeWorkflowInstanceResponse({}, {})", cw.id, correlationId);
+        final long startTS = System.nanoTime();
+        awaitSync(putWorkflowInstance(cw));
+        runtimeStatisticsCollector.submit("wfi.update.response", 1, System.nanoTime() - startTS, TimeUnit.NANOSECONDS);
+    }
+
+    private long putWorkflowInstance(WorkflowInstance cw) throws IOException {
+        final long now = System.currentTimeMillis();
+        final byte[] frame = RecordCodec.encodeWorkflowInstance(cw, cw.state, now);
+        synchronized (appendMutex) {
+            final Location location = append(frame, null, now, true);
+            release(workflowInstances.put(cw.id, location));
+            return appendTicket;
+        }
+    }
+
+    @Override
+    public ListenableFuture<Void> deleteWorkflowInstance(String wfId) throws Exception {
+        logger.debug("deleteWorkflowInstance({})", wfId);
+        final byte[] frame = RecordCodec.encodeDelete(RecordCodec.WORKFLOW_INSTANCE_DELETE, wfId);
+        synchronized (appendMutex) {
+            append(frame, null, 0L, false);
+            release(workflowInstances.remove(wfId));
+            return sync(appendTicket);
+        }
+    }
+
+    @Override
+    public WorkflowInstance readWorkflowInstance(String wfId) throws Exception {
+        for (;;) {
+            final Location location = workflowInstances.get(wfId);
+            if (location == null)
+                return null;
+            final WorkflowInstance cw = toWorkflowInstance(location);
+            // otherwise the record has been copied by a compaction and the index refers to the copy
+            if (cw != null)
+                return cw;
+        }
+    }
+
+    private static WorkflowInstance toWorkflowInstance(Location location) {
+        final ByteBuffer payload = location.read();
+        if (payload == null)
+            return null;
+        final WorkflowInstance cw = RecordCodec.decodeWorkflowInstance(payload);
+        if (location.state != null) {
+            cw.state = location.state;
+            cw.lastModTS = new Date(location.lastModTS);
+        }
+        return cw;
+    }
+
+    @Override
+    public ListenableFuture<Void> updateWorkflowInstanceState(String wfId, ProcessingState state) throws Exception {
+        logger.debug("updateWorkflowInstanceState({}, {})", wfId, state);
+        final long now = System.currentTimeMillis();
+        final byte[] frame = RecordCodec.encodeState(wfId, state, now);
+        synchronized (appendMutex) {
+            final Location location = workflowInstances.get(wfId);
+            if (location == null) {
+                logger.warn("updateWorkflowInstanceState: no workflow instance with id {} found", wfId);
+                return Futures.immediateFuture(null);
+            }
+            append(frame, null, 0L, false);
+            workflowInstances.put(wfId, new Location(location.segment, location.offset, location.size, state, now));
+            return sync(appendTicket);
+        }
+    }
+
+    @Override
+    public ListenableFuture<Void> safeEarlyResponse(String correlationId, String serializedResponse) throws Exception {
+        logger.debug("safeEarlyResponse({})", correlationId);
+        final byte[] frame = RecordCodec.encodeEarlyResponse(correlationId, serializedResponse, System.currentTimeMillis() + ttlEarlyResponseSeconds * 1000L);
+        synchronized (appendMutex) {
+            final Location location = append(frame, null, 0L, true);
+            release(earlyResponses.put(correlationId, location));
+            return sync(appendTicket);
+        }
+    }
+
+    @Override
+    public String readEarlyResponse(String correlationId) throws Exception {
+        ByteBuffer payload = null;
+        while (payload == null) {
+            final Location location = earlyResponses.get(correlationId);
+            if (location == null)
+                return null;
+            payload = location.read();
+        }
+        if (RecordCodec.decodeEarlyResponseExpiresTS(payload) <= System.currentTimeMillis())
+            return null;
+        return RecordCodec.decodeEarlyResponse(payload);
+    }
+
+    @Override
+    public ListenableFuture<Void> deleteEarlyResponse(String correlationId) throws Exception {
+        logger.debug("deleteEarlyResponse({})", correlationId);
+        final byte[] frame = RecordCodec.encodeDelete(RecordCodec.EARLY_RESPONSE_DELETE, correlationId);
+        synchronized (appendMutex) {
+            append(frame, null, 0L, false);
+            release(earlyResponses.remove(correlationId));
+            return sync(appendTicket);
+        }
+    }
+
+    @Override
+    public void initialize(HybridDBStorageAccessor internalStorageAccessor, int numberOfThreads) throws Exception {
+        final long startTS = System.currentTimeMillis();
+        open();
+        logger.info("Opened {} segment(s) with {} workflow instance(s) and {} early response(s) in {} msec", segments.size(), workflowInstances.size(), earlyResponses.size(), System.currentTimeMillis() - startTS);
+
+        syncThread = new Thread("copper.LogStorage.sync") {
+            @Override
+            public void run() {
+                syncLoop();
+            }
+        };
+        syncThread.setDaemon(true);
+        syncThread.start();
+
+        compactor = Executors.newSingleThreadScheduledExecutor(COMPACTOR_THREAD_FACTORY);
+        compactor.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compact();
+                } catch (Exception e) {
+                    logger.error("compaction failed", e);
+                }
+            }
+        }, compactionIntervalSeconds, compactionIntervalSeconds, TimeUnit.SECONDS);
+
+        for (String wfId : new ArrayList<>(workflowInstances.keySet())) {
+            resume(wfId, internalStorageAccessor);
+        }
+        logger.info("Initialization finished in {} msec", System.currentTimeMillis() - startTS);
+    }
+
+    /**
+     * Stops the background threads and forces all segments to disk.
+     */
+    @Override
+    public void shutdown() throws InterruptedException {
+        synchronized (syncMutex) {
+            if (shutdown)
+                return;
+            shutdown = true;
+            syncMutex.notifyAll();
+        }
+        if (compactor != null) {
+            compactor.shutdown();
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        }
+        if (syncThread != null) {
+            syncThread.join();
+        }
+        for (Segment segment : segments.values()) {
+            segment.force();
+        }
+        logger.info("shutdown finished");
+    }
+
+    private void open() throws Exception {
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create directory " + directory);
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                if (!Segment.isSegmentFile(file))
+                    continue;
+                final Segment segment = Segment.open(file);
+                segment.scan(new Segment.RecordHandler() {
+                    @Override
+                    public void handle(int offset, int frameSize, ByteBuffer payload) {
+                        replay(segment, offset, frameSize, payload);
+                    }
+                });
+                segments.put(segment.seq, segment);
+            }
+        }
+        synchronized (appendMutex) {
+            currentSegment = segments.isEmpty() ? null : segments.lastEntry().getValue();
+            if (currentSegment == null) {
+                currentSegment = createSegment(1L, segmentSize);
+            }
+        }
+    }
+
+    private void replay(Segment segment, int offset, int frameSize, ByteBuffer payload) {
+        final String key = RecordCodec.key(payload);
+        switch (RecordCodec.type(payload)) {
+        case RecordCodec.WORKFLOW_INSTANCE:
+            segment.liveBytes.addAndGet(frameSize);
+            release(workflowInstances.put(key, new Location(segment, offset, frameSize, null, 0L)));
+            break;
+        case RecordCodec.WORKFLOW_INSTANCE_STATE:
+            final Location location = workflowInstances.get(key);
+            if (location != null) {
+                workflowInstances.put(key, new Location(location.segment, location.offset, location.size, RecordCodec.decodeState(payload), RecordCodec.decodeStateTS(payload)));
+            }
+            break;
+        case RecordCodec.WORKFLOW_INSTANCE_DELETE:
+            release(workflowInstances.remove(key));
+            break;
+        case RecordCodec.EARLY_RESPONSE:
+            segment.liveBytes.addAndGet(frameSize);
+            release(earlyResponses.put(key, new Location(segment, offset, frameSize, null, 0L)));
+            break;
+        case RecordCodec.EARLY_RESPONSE_DELETE:
+            release(earlyResponses.remove(key));
+            break;
+        default:
+            logger.warn("Unknown record type {} in segment {} at offset {}", RecordCodec.type(payload), segment, offset);
+        }
+    }
+
+    private void resume(final String wfId, final HybridDBStorageAccessor internalStorageAccessor) throws Exception {
+        internalStorageAccessor.resume(wfId, new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                doResume(wfId, internalStorageAccessor);
+                return null;
+            }
+        });
+    }
+
+    private void doResume(final String wfId, final HybridDBStorageAccessor internalStorageAccessor) throws Exception {
+        logger.trace("resume(wfId={})", wfId);
+
+        final WorkflowInstance cw = readWorkflowInstance(wfId);
+        if (cw == null)
+            return;
+
+        final boolean timeoutOccured = cw.timeout != null && cw.timeout.getTime() <= System.currentTimeMillis();
+
+        if (cw.state == ProcessingState.ERROR || cw.state == ProcessingState.INVALID) {
+            return;
+        }
+
+        if (cw.state == ProcessingState.ENQUEUED) {
+            internalStorageAccessor.enqueue(wfId, cw.ppoolId, cw.prio);
+            return;
+        }
+
+        boolean enqueued = false;
+        final Map<String, String> responseMap = cw.cid2ResponseMap;
+        if (responseMap != null) {
+            final List<String> missingResponseCorrelationIds = new ArrayList<String>();
+            int numberOfAvailableResponses = 0;
+            for (Entry<String, String> e : responseMap.entrySet()) {
+                final String correlationId = e.getKey();
+                final String response = e.getValue();
+                internalStorageAccessor.registerCorrelationId(correlationId, wfId);
+                if (response != null) {
+                    numberOfAvailableResponses++;
+                }
+                else {
+                    missingResponseCorrelationIds.add(correlationId);
+                }
+            }
+            boolean modified = false;
+            for (String cid : missingResponseCorrelationIds) {
+                String earlyResponse = readEarlyResponse(cid);
+                if (earlyResponse != null) {
+                    responseMap.put(cid, earlyResponse);
+                    numberOfAvailableResponses++;
+                    modified = true;
+                }
+            }
+            if (modified || timeoutOccured) {
+                cw.state = (timeoutOccured || numberOfAvailableResponses == responseMap.size() || (numberOfAvailableResponses == 1 && cw.waitMode == WaitMode.FIRST)) ? ProcessingState.ENQUEUED : ProcessingState.WAITING;
+                awaitSync(putWorkflowInstance(cw));
+                if (cw.state == ProcessingState.ENQUEUED) {
+                    internalStorageAccessor.enqueue(wfId, cw.ppoolId, cw.prio);
+                    enqueued = true;
+                }
+            }
+        }
+
+        if (cw.timeout != null && !enqueued) {
+            internalStorageAccessor.registerTimeout(cw.timeout, wfId);
+        }
+    }
+
+    @Override
+    public List<WorkflowInstance> queryWorkflowInstances(WorkflowInstanceFilter filter) throws Exception {
+        final List<WorkflowInstance> resultList = new ArrayList<>();
+        for (Iterator<String> iter = workflowInstances.keySet().iterator(); iter.hasNext() && resultList.size() < filter.getMax();) {
+            final WorkflowInstance cw = readWorkflowInstance(iter.next());
+            if (cw != null && WorkflowInstances.matches(filter, cw)) {
+                resultList.add(cw);
+            }
+        }
+        return resultList;
+    }
+
+    /**
+     * Appends a frame to the current segment and starts a new segment if required. Caller must hold the appendMutex.
+     *
+     * @return the location of the appended record
+     */
+    private Location append(byte[] frame, ProcessingState state, long lastModTS, boolean live) throws IOException {
+        int offset = currentSegment.append(frame);
+        if (offset < 0) {
+            currentSegment = createSegment(currentSegment.seq + 1, Math.max(segmentSize, frame.length));
+            offset = currentSegment.append(frame);
+        }
+        if (live) {
+            currentSegment.liveBytes.addAndGet(frame.length);
+        }
+        unsyncedSegments.add(currentSegment);
+        appendTicket++;
+        return new Location(currentSegment, offset, frame.length, state, lastModTS);
+    }
+
+    private Segment createSegment(long seq, int capacity) throws IOException {
+        final Segment segment = Segment.create(directory, seq, capacity);
+        segments.put(seq, segment);
+        logger.info("Created segment {}", segment);
+        return segment;
+    }
+
+    private static void release(Location location) {
+        if (location != null) {
+            location.segment.liveBytes.addAndGet(-location.size);
+        }
+    }
+
+    /**
+     * @return a future that is done, when all records up to the specified ticket have been forced to disk
+     */
+    private ListenableFuture<Void> sync(long ticket) {
+        if (!syncWrites)
+            return Futures.immediateFuture(null);
+        synchronized (syncMutex) {
+            if (ticket <= syncedTicket)
+                return Futures.immediateFuture(null);
+            if (shutdown)
+                return Futures.immediateFailedFuture(new IllegalStateException("LogStorage has been shut down"));
+            final PendingSync pendingSync = new PendingSync(ticket);
+            pendingSyncs.add(pendingSync);
+            syncMutex.notify();
+            return pendingSync.future;
+        }
+    }
+
+    private void awaitSync(long ticket) throws Exception {
+        try {
+            sync(ticket).get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        }
+    }
+
+    private void syncLoop() {
+        logger.info("started");
+        for (;;) {
+            synchronized (syncMutex) {
+                while (pendingSyncs.isEmpty() && !shutdown) {
+                    try {
+                        syncMutex.wait();
+                    } catch (InterruptedException e) {
+                        // ignore
+                    }
+                }
+                if (pendingSyncs.isEmpty() && shutdown)
+                    break;
+            }
+            final long ticket;
+            final List<Segment> toForce;
+            synchronized (appendMutex) {
+                ticket = appendTicket;
+                toForce = new ArrayList<>(unsyncedSegments);
+                unsyncedSegments.clear();
+            }
+            final long startTS = System.nanoTime();
+            Exception exception = null;
+            try {
+                for (Segment segment : toForce) {
+                    segment.force();
+                }
+            } catch (Exception e) {
+                logger.error("force failed", e);
+                exception = e;
+            }
+            final List<PendingSync> done = new ArrayList<>();
+            synchronized (syncMutex) {
+                if (exception == null) {
+                    syncedTicket = ticket;
+                }
+                for (Iterator<PendingSync> iter = pendingSyncs.iterator(); iter.hasNext();) {
+                    final PendingSync pendingSync = iter.next();
+                    if (pendingSync.ticket <= ticket) {
+                        done.add(pendingSync);
+                        iter.remove();
+                    }
+                }
+            }
+            runtimeStatisticsCollector.submit("log.sync", done.size(), System.nanoTime() - startTS, TimeUnit.NANOSECONDS);
+            for (PendingSync pendingSync : done) {
+                if (exception == null) {
+                    pendingSync.future.set(null);
+                } else {
+                    pendingSync.future.setException(exception);
+                }
+            }
+        }
+        logger.info("stopped");
+    }
+
+    /**
+     * Compacts the oldest segments as long as their share of live records is below the compaction threshold.
+     */
+    void compact() throws Exception {
+        for (;;) {
+            final Segment oldest = segments.firstEntry().getValue();
+            synchronized (appendMutex) {
+                if (oldest == currentSegment)
+                    return;
+            }
+            final long liveBytes = oldest.liveBytes.get();
+            if (liveBytes >= compactionThreshold * oldest.getWritePosition())
+                return;
+            compact(oldest);
+        }
+    }
+
+    private void compact(final Segment segment) throws Exception {
+        final long startTS = System.currentTimeMillis();
+        final long now = startTS;
+        final int[] copied = new int[1];
+        segment.scan(new Segment.RecordHandler() {
+            @Override
+            public void handle(int offset, int frameSize, ByteBuffer payload) throws Exception {
+                final String key = RecordCodec.key(payload);
+                switch (RecordCodec.type(payload)) {
+                case RecordCodec.WORKFLOW_INSTANCE: {
+                    synchronized (appendMutex) {
+                        // a concurrent state change replaces the index entry, but still refers to this record
+                        final Location location = workflowInstances.get(key);
+                        if (location == null || location.segment != segment || location.offset != offset)
+                            return;
+                        // apply a subsequent state change, so that the state records in this segment may be dropped
+                        final WorkflowInstance cw = toWorkflowInstance(location);
+                        workflowInstances.put(key, append(RecordCodec.encodeWorkflowInstance(cw, cw.state, cw.lastModTS.getTime()), null, 0L, true));
+                        release(location);
+                        copied[0]++;
+                    }
+                    break;
+                }
+                case RecordCodec.EARLY_RESPONSE: {
+                    final Location location = earlyResponses.get(key);
+                    if (location == null || location.segment != segment || location.offset != offset)
+                        return;
+                    final long expiresTS = RecordCodec.decodeEarlyResponseExpiresTS(payload);
+                    final byte[] frame = expiresTS <= now ? null : RecordCodec.encodeEarlyResponse(key, RecordCodec.decodeEarlyResponse(payload), expiresTS);
+                    synchronized (appendMutex) {
+                        if (earlyResponses.get(key) == location) {
+                            if (frame == null) {
+                                // expired - there is no older record left that a delete record would have to mask
+                                earlyResponses.remove(key);
+                            } else {
+                                earlyResponses.put(key, append(frame, null, 0L, true));
+                                copied[0]++;
+                            }
+                            release(location);
+                        }
+                    }
+                    break;
+                }
+                default:
+                    // state changes and deletes are either obsolete or refer to records in this or older segments
+                    break;
+                }
+            }
+        });
+        // the copies have to be durable before the segment is deleted
+        final List<Segment> toForce;
+        synchronized (appendMutex) {
+            toForce = new ArrayList<>(segments.tailMap(segment.seq, false).values());
+        }
+        for (Segment s : toForce) {
+            s.force();
+        }
+        segments.remove(segment.seq);
+        segment.delete();
+        logger.info("Compacted segment {} - copied {} live record(s) in {} msec", segment, copied[0], System.currentTimeMillis() - startTS);
+    }
+
+    int getNumberOfSegments() {
+        return segments.size();
+    }
+}
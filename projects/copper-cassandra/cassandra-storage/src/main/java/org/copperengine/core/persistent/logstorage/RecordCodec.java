@@ -0,0 +1,242 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.logstorage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.copperengine.core.ProcessingState;
+import org.copperengine.core.WaitMode;
+import org.copperengine.core.persistent.SerializedWorkflow;
+import org.copperengine.core.persistent.hybrid.WorkflowInstance;
+
+/**
+ * Binary format of the log records.
+ * <p>
+ * A record is framed as <code>[int length][int crc32][payload]</code>. The payload starts with the record type and
+ * the key, i.e. the workflow instance id or the correlation id, followed by the type specific fields. Strings are
+ * written as UTF-8 with a preceding length, <code>-1</code> stands for <code>null</code>.
+ */
+final class RecordCodec {
+
+    static final int HEADER_SIZE = 8;
+
+    static final byte WORKFLOW_INSTANCE = 1;
+    static final byte WORKFLOW_INSTANCE_STATE = 2;
+    static final byte WORKFLOW_INSTANCE_DELETE = 3;
+    static final byte EARLY_RESPONSE = 4;
+    static final byte EARLY_RESPONSE_DELETE = 5;
+
+    private RecordCodec() {
+    }
+
+    static byte[] encodeWorkflowInstance(WorkflowInstance cw, ProcessingState state, long lastModTS) throws IOException {
+        final Writer w = new Writer(WORKFLOW_INSTANCE, cw.id);
+        w.out.writeUTF8(cw.ppoolId);
+        w.out.writeInt(cw.prio);
+        w.out.writeDate(cw.creationTS);
+        w.out.writeUTF8(cw.serializedWorkflow == null ? null : cw.serializedWorkflow.getData());
+        w.out.writeUTF8(cw.serializedWorkflow == null ? null : cw.serializedWorkflow.getObjectState());
+        if (cw.cid2ResponseMap == null) {
+            w.out.writeInt(-1);
+        } else {
+            w.out.writeInt(cw.cid2ResponseMap.size());
+            for (Map.Entry<String, String> e : cw.cid2ResponseMap.entrySet()) {
+                w.out.writeUTF8(e.getKey());
+                w.out.writeUTF8(e.getValue());
+            }
+        }
+        w.out.writeUTF8(cw.waitMode == null ? null : cw.waitMode.name());
+        w.out.writeDate(cw.timeout);
+        w.out.writeUTF8(state == null ? null : state.name());
+        w.out.writeLong(lastModTS);
+        w.out.writeUTF8(cw.classname);
+        return w.toFrame();
+    }
+
+    static byte[] encodeState(String wfId, ProcessingState state, long lastModTS) throws IOException {
+        final Writer w = new Writer(WORKFLOW_INSTANCE_STATE, wfId);
+        w.out.writeUTF8(state.name());
+        w.out.writeLong(lastModTS);
+        return w.toFrame();
+    }
+
+    static byte[] encodeEarlyResponse(String correlationId, String serializedResponse, long expiresTS) throws IOException {
+        final Writer w = new Writer(EARLY_RESPONSE, correlationId);
+        w.out.writeLong(expiresTS);
+        w.out.writeUTF8(serializedResponse);
+        return w.toFrame();
+    }
+
+    static byte[] encodeDelete(byte type, String key) throws IOException {
+        return new Writer(type, key).toFrame();
+    }
+
+    static byte type(ByteBuffer payload) {
+        return payload.get(0);
+    }
+
+    static String key(ByteBuffer payload) {
+        final ByteBuffer in = payload.duplicate();
+        in.position(1);
+        return readUTF8(in);
+    }
+
+    static WorkflowInstance decodeWorkflowInstance(ByteBuffer payload) {
+        final ByteBuffer in = payload.duplicate();
+        in.position(1);
+        final WorkflowInstance cw = new WorkflowInstance();
+        cw.id = readUTF8(in);
+        cw.ppoolId = readUTF8(in);
+        cw.prio = in.getInt();
+        cw.creationTS = readDate(in);
+        cw.serializedWorkflow = new SerializedWorkflow();
+        cw.serializedWorkflow.setData(readUTF8(in));
+        cw.serializedWorkflow.setObjectState(readUTF8(in));
+        final int n = in.getInt();
+        if (n >= 0) {
+            cw.cid2ResponseMap = new HashMap<>(Math.max(16, n * 2));
+            for (int i = 0; i < n; i++) {
+                cw.cid2ResponseMap.put(readUTF8(in), readUTF8(in));
+            }
+        }
+        final String waitMode = readUTF8(in);
+        cw.waitMode = waitMode == null ? null : WaitMode.valueOf(waitMode);
+        cw.timeout = readDate(in);
+        final String state = readUTF8(in);
+        cw.state = state == null ? null : ProcessingState.valueOf(state);
+        cw.lastModTS = new Date(in.getLong());
+        cw.classname = readUTF8(in);
+        return cw;
+    }
+
+    /**
+     * @return the state of a {@link #WORKFLOW_INSTANCE_STATE} record
+     */
+    static ProcessingState decodeState(ByteBuffer payload) {
+        final ByteBuffer in = payload.duplicate();
+        in.position(1);
+        readUTF8(in);
+        return ProcessingState.valueOf(readUTF8(in));
+    }
+
+    /**
+     * @return the last modification timestamp of a {@link #WORKFLOW_INSTANCE_STATE} record
+     */
+    static long decodeStateTS(ByteBuffer payload) {
+        final ByteBuffer in = payload.duplicate();
+        in.position(1);
+        readUTF8(in);
+        readUTF8(in);
+        return in.getLong();
+    }
+
+    static long decodeEarlyResponseExpiresTS(ByteBuffer payload) {
+        final ByteBuffer in = payload.duplicate();
+        in.position(1);
+        readUTF8(in);
+        return in.getLong();
+    }
+
+    static String decodeEarlyResponse(ByteBuffer payload) {
+        final ByteBuffer in = payload.duplicate();
+        in.position(1);
+        readUTF8(in);
+        in.getLong();
+        return readUTF8(in);
+    }
+
+    static int crc(ByteBuffer payload) {
+        final CRC32 crc = new CRC32();
+        if (payload.hasArray()) {
+            crc.update(payload.array(), payload.arrayOffset() + payload.position(), payload.remaining());
+        } else {
+            final byte[] bytes = new byte[payload.remaining()];
+            payload.duplicate().get(bytes);
+            crc.update(bytes);
+        }
+        return (int) crc.getValue();
+    }
+
+    private static String readUTF8(ByteBuffer in) {
+        final int len = in.getInt();
+        if (len < 0)
+            return null;
+        final String s;
+        if (in.hasArray()) {
+            s = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+        } else {
+            final byte[] bytes = new byte[len];
+            in.duplicate().get(bytes);
+            s = new String(bytes, StandardCharsets.UTF_8);
+        }
+        in.position(in.position() + len);
+        return s;
+    }
+
+    private static Date readDate(ByteBuffer in) {
+        final long ts = in.getLong();
+        return ts == Long.MIN_VALUE ? null : new Date(ts);
+    }
+
+    private static final class Output extends DataOutputStream {
+
+        Output(ByteArrayOutputStream out) {
+            super(out);
+        }
+
+        void writeUTF8(String s) throws IOException {
+            if (s == null) {
+                writeInt(-1);
+            } else {
+                final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                writeInt(bytes.length);
+                write(bytes);
+            }
+        }
+
+        void writeDate(Date d) throws IOException {
+            writeLong(d == null ? Long.MIN_VALUE : d.getTime());
+        }
+    }
+
+    private static final class Writer {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        final Output out = new Output(bytes);
+
+        Writer(byte type, String key) throws IOException {
+            out.writeLong(0L); // placeholder for the header
+            out.writeByte(type);
+            out.writeUTF8(key);
+        }
+
+        byte[] toFrame() throws IOException {
+            out.flush();
+            final byte[] frame = bytes.toByteArray();
+            final ByteBuffer bb = ByteBuffer.wrap(frame);
+            bb.putInt(0, frame.length - HEADER_SIZE);
+            bb.putInt(4, crc(ByteBuffer.wrap(frame, HEADER_SIZE, frame.length - HEADER_SIZE)));
+            return frame;
+        }
+    }
+}
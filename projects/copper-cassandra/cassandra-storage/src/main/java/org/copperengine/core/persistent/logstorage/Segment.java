@@ -0,0 +1,256 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.logstorage;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A memory-mapped, preallocated log file. Records are only appended; the unused rest of the file is zero-filled, so a
+ * zero length marks the end of the log.
+ * <p>
+ * {@link #delete()} unmaps the file right away instead of waiting for the garbage collector. Accesses to the mapping
+ * that may race with the deletion are guarded by a read lock and report the deletion to the caller.
+ */
+final class Segment {
+
+    private static final Logger logger = LoggerFactory.getLogger(Segment.class);
+
+    private static final String PREFIX = "segment-";
+    private static final String SUFFIX = ".log";
+
+    interface RecordHandler {
+        void handle(int offset, int frameSize, ByteBuffer payload) throws Exception;
+    }
+
+    final long seq;
+    final File file;
+    /** bytes of records that are still referenced by the index */
+    final AtomicLong liveBytes = new AtomicLong();
+    private final MappedByteBuffer buffer;
+    private final int capacity;
+    // written by the appending thread, read by the compactor
+    private volatile int writePosition;
+    private final ReadWriteLock unmapLock = new ReentrantReadWriteLock();
+    // guarded by unmapLock
+    private boolean unmapped = false;
+
+    private Segment(long seq, File file, MappedByteBuffer buffer, int capacity) {
+        this.seq = seq;
+        this.file = file;
+        this.buffer = buffer;
+        this.capacity = capacity;
+    }
+
+    static Segment create(File directory, long seq, int capacity) throws IOException {
+        final File file = new File(directory, String.format("%s%020d%s", PREFIX, seq, SUFFIX));
+        if (file.exists())
+            throw new IOException("segment file " + file + " already exists");
+        return map(seq, file, capacity);
+    }
+
+    static Segment open(File file) throws IOException {
+        return map(parseSeq(file), file, -1);
+    }
+
+    static boolean isSegmentFile(File file) {
+        return parseSeq(file) >= 0;
+    }
+
+    static long parseSeq(File file) {
+        final String name = file.getName();
+        if (!name.startsWith(PREFIX) || !name.endsWith(SUFFIX))
+            return -1;
+        try {
+            return Long.parseLong(name.substring(PREFIX.length(), name.length() - SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static Segment map(long seq, File file, int capacity) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            if (capacity < 0) {
+                capacity = (int) Math.min(raf.length(), Integer.MAX_VALUE);
+            } else {
+                raf.setLength(capacity);
+            }
+            // the mapping stays valid after the channel has been closed
+            final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+            return new Segment(seq, file, buffer, capacity);
+        }
+    }
+
+    /**
+     * Appends a frame created by {@link RecordCodec}. Not thread safe, the caller has to synchronize appends.
+     *
+     * @return the offset of the frame or <code>-1</code>, if it does not fit into this segment
+     */
+    int append(byte[] frame) {
+        if (capacity - writePosition < frame.length)
+            return -1;
+        final int offset = writePosition;
+        final ByteBuffer bb = buffer.duplicate();
+        bb.position(offset);
+        bb.put(frame);
+        writePosition += frame.length;
+        return offset;
+    }
+
+    /**
+     * @return a copy of the payload of the record at the specified offset or <code>null</code>, if the segment has
+     *         been deleted in the meantime
+     */
+    ByteBuffer read(int offset) {
+        unmapLock.readLock().lock();
+        try {
+            if (unmapped)
+                return null;
+            final ByteBuffer payload = slice(offset);
+            final ByteBuffer copy = ByteBuffer.allocate(payload.remaining());
+            copy.put(payload);
+            copy.flip();
+            return copy;
+        } finally {
+            unmapLock.readLock().unlock();
+        }
+    }
+
+    private ByteBuffer slice(int offset) {
+        final ByteBuffer bb = buffer.duplicate();
+        final int length = bb.getInt(offset);
+        bb.position(offset + RecordCodec.HEADER_SIZE);
+        bb.limit(offset + RecordCodec.HEADER_SIZE + length);
+        return bb.slice();
+    }
+
+    /**
+     * Reads all valid records and positions the write position behind the last one.
+     *
+     * @return <code>false</code>, if the scan stopped at a torn or corrupt record
+     */
+    boolean scan(RecordHandler handler) throws Exception {
+        final ByteBuffer bb = buffer.duplicate();
+        int pos = 0;
+        boolean clean = true;
+        while (capacity - pos >= RecordCodec.HEADER_SIZE) {
+            final int length = bb.getInt(pos);
+            if (length == 0)
+                break;
+            if (length < 0 || length > capacity - pos - RecordCodec.HEADER_SIZE) {
+                clean = false;
+                break;
+            }
+            final ByteBuffer payload = slice(pos);
+            if (RecordCodec.crc(payload) != bb.getInt(pos + 4)) {
+                clean = false;
+                break;
+            }
+            handler.handle(pos, RecordCodec.HEADER_SIZE + length, payload);
+            pos += RecordCodec.HEADER_SIZE + length;
+        }
+        if (!clean) {
+            logger.warn("Segment {} contains an incomplete or corrupt record at offset {} - ignoring the rest of the segment", file, pos);
+            // make sure that appended records are not hidden behind the garbage
+            final ByteBuffer clear = buffer.duplicate();
+            clear.position(pos);
+            while (clear.hasRemaining()) {
+                clear.put((byte) 0);
+            }
+        }
+        writePosition = pos;
+        return clean;
+    }
+
+    int getWritePosition() {
+        return writePosition;
+    }
+
+    int getCapacity() {
+        return capacity;
+    }
+
+    void force() {
+        unmapLock.readLock().lock();
+        try {
+            if (!unmapped) {
+                buffer.force();
+            }
+        } finally {
+            unmapLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Unmaps and deletes the segment. Must not be called while the segment is scanned or appended to.
+     */
+    void delete() {
+        unmapLock.writeLock().lock();
+        try {
+            unmapped = true;
+            unmap(buffer);
+        } finally {
+            unmapLock.writeLock().unlock();
+        }
+        if (!file.delete()) {
+            logger.warn("Unable to delete segment file {}", file);
+        }
+    }
+
+    private void unmap(MappedByteBuffer buffer) {
+        try {
+            // Java 9 and later
+            final Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            final Method invokeCleaner = unsafeClass.getMethod("invokeCleaner", ByteBuffer.class);
+            final Field theUnsafe = unsafeClass.getDeclaredField("theUnsafe");
+            theUnsafe.setAccessible(true);
+            invokeCleaner.invoke(theUnsafe.get(null), buffer);
+            return;
+        } catch (NoSuchMethodException e) {
+            // Java 8 and earlier, see below
+        } catch (Exception e) {
+            logger.warn("Unable to unmap segment file {} - the mapping is released by the garbage collector", file, e);
+            return;
+        }
+        try {
+            final Method cleanerMethod = buffer.getClass().getMethod("cleaner");
+            cleanerMethod.setAccessible(true);
+            final Object cleaner = cleanerMethod.invoke(buffer);
+            if (cleaner != null) {
+                cleaner.getClass().getMethod("clean").invoke(cleaner);
+            }
+        } catch (Exception e) {
+            logger.warn("Unable to unmap segment file {} - the mapping is released by the garbage collector", file, e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return file.getName();
+    }
+}
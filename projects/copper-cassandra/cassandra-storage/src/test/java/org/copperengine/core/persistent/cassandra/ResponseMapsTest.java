@@ -0,0 +1,57 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+public class ResponseMapsTest {
+
+    @Test
+    public void testRoundTrip() {
+        final Map<String, String> responseMap = new HashMap<>();
+        responseMap.put("cid1", null);
+        responseMap.put("cid2", "rO0ABXNyAB9vcmcuY29wcGVyZW5naW5lLmNvcmUuUmVzcG9uc2U=");
+        responseMap.put("cid3", "äöü");
+        assertEquals(responseMap, ResponseMaps.merge(null, ResponseMaps.toBlobMap(responseMap)));
+        assertNull(ResponseMaps.merge(null, null));
+        assertNull(ResponseMaps.merge(null, new HashMap<String, ByteBuffer>()));
+    }
+
+    @Test
+    public void testMergeWithJson() {
+        final Map<String, String> jsonMap = new HashMap<>();
+        jsonMap.put("cid1", null);
+        jsonMap.put("cid2", "response2");
+        jsonMap.put("cid3", null);
+        final Map<String, ByteBuffer> blobMap = new HashMap<>();
+        blobMap.put("cid1", ResponseMaps.toBlob("response1"));
+        blobMap.put("cid3", ResponseMaps.toBlob(null));
+        blobMap.put("outdated", ResponseMaps.toBlob("outdated"));
+
+        final Map<String, String> result = ResponseMaps.merge(jsonMap, blobMap);
+        assertEquals(3, result.size());
+        assertEquals("response1", result.get("cid1"));
+        assertEquals("response2", result.get("cid2"));
+        assertNull(result.get("cid3"));
+    }
+}
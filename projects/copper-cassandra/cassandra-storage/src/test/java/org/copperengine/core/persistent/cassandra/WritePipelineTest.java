@@ -0,0 +1,270 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.cassandra;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.copperengine.core.CopperRuntimeException;
+import org.copperengine.core.ProcessingState;
+import org.copperengine.core.monitoring.NullRuntimeStatisticsCollector;
+import org.copperengine.core.persistent.hybrid.WorkflowInstance;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+
+public class WritePipelineTest {
+
+    private static class RecordingWriter implements WritePipeline.Writer {
+        final List<WritePipeline.Op> ops = new ArrayList<>();
+        final List<SettableFuture<Void>> futures = new ArrayList<>();
+
+        @Override
+        public synchronized ListenableFuture<?> write(WritePipeline.Op op) {
+            final SettableFuture<Void> f = SettableFuture.create();
+            ops.add(op);
+            futures.add(f);
+            return f;
+        }
+
+        synchronized void ack(int idx) {
+            futures.get(idx).set(null);
+        }
+
+        synchronized int size() {
+            return ops.size();
+        }
+    }
+
+    private static WorkflowInstance wfi(String id, ProcessingState state) {
+        final WorkflowInstance wfi = new WorkflowInstance();
+        wfi.id = id;
+        wfi.state = state;
+        wfi.cid2ResponseMap = new HashMap<>();
+        return wfi;
+    }
+
+    private static final Callable<WorkflowInstance> NOT_FOUND = new Callable<WorkflowInstance>() {
+        @Override
+        public WorkflowInstance call() throws Exception {
+            return null;
+        }
+    };
+
+    private static WritePipeline createPipeline(RecordingWriter writer, int maxWritesInFlight) {
+        return new WritePipeline(writer, MoreExecutors.directExecutor(), Mockito.mock(ScheduledExecutorService.class), new NullRuntimeStatisticsCollector(), maxWritesInFlight, 10);
+    }
+
+    @Test
+    public void testCoalescing() throws Exception {
+        final RecordingWriter writer = new RecordingWriter();
+        final WritePipeline pipeline = createPipeline(writer, 100);
+
+        final ListenableFuture<Void> f1 = pipeline.save(wfi("1", ProcessingState.ENQUEUED), true);
+        final ListenableFuture<Void> f2 = pipeline.save(wfi("1", ProcessingState.WAITING), false);
+        final ListenableFuture<Void> f3 = pipeline.updateState("1", ProcessingState.ENQUEUED);
+        pipeline.save(wfi("2", ProcessingState.WAITING), false);
+
+        // one write per id in flight, the writes for id 1 are coalesced while the first one is in flight
+        assertEquals(2, writer.size());
+        assertEquals(3, pipeline.getNumberOfPendingWrites());
+        assertEquals(ProcessingState.ENQUEUED, pipeline.read("1", NOT_FOUND).state);
+
+        writer.ack(0);
+        assertTrue(f1.isDone());
+        assertFalse(f2.isDone());
+        assertEquals(3, writer.size());
+        final WritePipeline.Op merged = writer.ops.get(2);
+        assertEquals(WritePipeline.Kind.SAVE, merged.kind);
+        assertEquals(ProcessingState.ENQUEUED, merged.wfi.state);
+        assertFalse(merged.initialInsert);
+
+        writer.ack(2);
+        assertTrue(f2.isDone());
+        assertTrue(f3.isDone());
+        writer.ack(1);
+        assertEquals(0, pipeline.getNumberOfPendingWrites());
+        assertNull(pipeline.read("1", NOT_FOUND));
+    }
+
+    @Test
+    public void testDeleteIsNotReordered() throws Exception {
+        final RecordingWriter writer = new RecordingWriter();
+        final WritePipeline pipeline = createPipeline(writer, 100);
+
+        pipeline.save(wfi("1", ProcessingState.WAITING), false);
+        pipeline.updateState("1", ProcessingState.ENQUEUED);
+        pipeline.delete("1");
+        pipeline.save(wfi("1", ProcessingState.ENQUEUED), true);
+        assertEquals(ProcessingState.ENQUEUED, pipeline.read("1", NOT_FOUND).state);
+
+        writer.ack(0);
+        assertEquals(WritePipeline.Kind.DELETE, writer.ops.get(1).kind);
+        writer.ack(1);
+        assertEquals(WritePipeline.Kind.SAVE, writer.ops.get(2).kind);
+        assertTrue(writer.ops.get(2).initialInsert);
+        writer.ack(2);
+        assertEquals(3, writer.size());
+    }
+
+    @Test
+    public void testReadAppliesPendingState() throws Exception {
+        final RecordingWriter writer = new RecordingWriter();
+        final WritePipeline pipeline = createPipeline(writer, 100);
+
+        pipeline.updateState("1", ProcessingState.ERROR);
+        final WorkflowInstance wfi = pipeline.read("1", new Callable<WorkflowInstance>() {
+            @Override
+            public WorkflowInstance call() throws Exception {
+                return wfi("1", ProcessingState.WAITING);
+            }
+        });
+        assertEquals(ProcessingState.ERROR, wfi.state);
+    }
+
+    @Test
+    public void testBoundedWritesInFlight() throws Exception {
+        final RecordingWriter writer = new RecordingWriter();
+        final WritePipeline pipeline = createPipeline(writer, 2);
+
+        pipeline.save(wfi("1", ProcessingState.WAITING), false);
+        pipeline.save(wfi("2", ProcessingState.WAITING), false);
+        final CountDownLatch done = new CountDownLatch(1);
+        final Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    pipeline.save(wfi("3", ProcessingState.WAITING), false);
+                    done.countDown();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        };
+        t.start();
+        assertFalse(done.await(100, TimeUnit.MILLISECONDS));
+        writer.ack(0);
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(3, writer.size());
+    }
+
+    @Test
+    public void testRetriesAreLimited() throws Exception {
+        final AtomicInteger attempts = new AtomicInteger();
+        final WritePipeline.Writer failingWriter = new WritePipeline.Writer() {
+            @Override
+            public ListenableFuture<?> write(WritePipeline.Op op) {
+                attempts.incrementAndGet();
+                return Futures.immediateFailedFuture(new NoHostAvailableException(Collections.<InetSocketAddress, Throwable> emptyMap()));
+            }
+        };
+        final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor();
+        try {
+            final WritePipeline pipeline = new WritePipeline(failingWriter, MoreExecutors.directExecutor(), retryScheduler, new NullRuntimeStatisticsCollector(), 100, 3);
+            final ListenableFuture<Void> future = pipeline.updateState("1", ProcessingState.ENQUEUED);
+            try {
+                future.get(5, TimeUnit.SECONDS);
+                fail("ExecutionException expected");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof NoHostAvailableException);
+            }
+            assertEquals(3, attempts.get());
+            assertEquals(0, pipeline.getNumberOfPendingWrites());
+
+            // the failed update is reported once by the next access of the workflow instance
+            try {
+                pipeline.read("1", NOT_FOUND);
+                fail("CopperRuntimeException expected");
+            } catch (CopperRuntimeException e) {
+                assertTrue(e.getCause() instanceof NoHostAvailableException);
+            }
+            assertNull(pipeline.read("1", NOT_FOUND));
+        } finally {
+            retryScheduler.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testAwaitPendingWrites() throws Exception {
+        final RecordingWriter writer = new RecordingWriter();
+        final WritePipeline pipeline = createPipeline(writer, 100);
+
+        assertTrue(pipeline.awaitPendingWrites(0, TimeUnit.MILLISECONDS));
+        pipeline.save(wfi("1", ProcessingState.WAITING), false);
+        assertFalse(pipeline.awaitPendingWrites(50, TimeUnit.MILLISECONDS));
+        final Thread t = new Thread() {
+            @Override
+            public void run() {
+                writer.ack(0);
+            }
+        };
+        t.start();
+        assertTrue(pipeline.awaitPendingWrites(5, TimeUnit.SECONDS));
+        assertEquals(0, pipeline.getNumberOfPendingWrites());
+    }
+
+    @Test
+    public void testAbort() throws Exception {
+        final RecordingWriter writer = new RecordingWriter();
+        final WritePipeline pipeline = createPipeline(writer, 100);
+
+        final ListenableFuture<Void> f1 = pipeline.save(wfi("1", ProcessingState.WAITING), false);
+        final ListenableFuture<Void> f2 = pipeline.updateState("1", ProcessingState.ENQUEUED);
+        final IllegalStateException cause = new IllegalStateException("shut down");
+        assertEquals(2, pipeline.abort(cause));
+        assertEquals(0, pipeline.getNumberOfPendingWrites());
+        for (ListenableFuture<Void> f : Arrays.asList(f1, f2)) {
+            try {
+                f.get(0, TimeUnit.MILLISECONDS);
+                fail("ExecutionException expected");
+            } catch (ExecutionException e) {
+                assertSame(cause, e.getCause());
+            }
+        }
+
+        // the late acknowledgement of the aborted write is ignored
+        final ListenableFuture<Void> f3 = pipeline.save(wfi("1", ProcessingState.ENQUEUED), false);
+        writer.ack(0);
+        assertFalse(f3.isDone());
+        assertEquals(1, pipeline.getNumberOfPendingWrites());
+        writer.ack(1);
+        assertTrue(f3.isDone());
+        assertEquals(0, pipeline.getNumberOfPendingWrites());
+    }
+}
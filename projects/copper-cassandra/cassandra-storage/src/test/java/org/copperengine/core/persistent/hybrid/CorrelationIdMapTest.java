@@ -0,0 +1,132 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.hybrid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class CorrelationIdMapTest {
+
+    @Test
+    public void testAddAndRemove() throws Exception {
+        final CorrelationIdMap map = new CorrelationIdMap();
+        map.addCorrelationIds("wf1", new String[] { "c1", "c2" });
+        map.addCorrelationId("wf1", "c3");
+        map.addCorrelationIds("wf2", Arrays.asList("c4"));
+        assertEquals("wf1", map.getWorkflowId("c1"));
+        assertEquals("wf1", map.getWorkflowId("c3"));
+        assertEquals("wf2", map.getWorkflowId("c4"));
+        assertTrue(map.containsWorkflowId("wf1"));
+        assertEquals(4, map.size());
+
+        map.removeAll4Workflow("wf1");
+        assertFalse(map.containsWorkflowId("wf1"));
+        assertNull(map.getWorkflowId("c1"));
+        assertNull(map.getWorkflowId("c2"));
+        assertNull(map.getWorkflowId("c3"));
+        assertEquals("wf2", map.getWorkflowId("c4"));
+        assertEquals(1, map.size());
+    }
+
+    @Test
+    public void testCorrelationIdReassigned() throws Exception {
+        final CorrelationIdMap map = new CorrelationIdMap();
+        map.addCorrelationId("wf1", "c1");
+        map.addCorrelationId("wf2", "c1");
+        map.removeAll4Workflow("wf1");
+        assertEquals("wf2", map.getWorkflowId("c1"));
+    }
+
+    @Test
+    public void testAgainstHashMap() throws Exception {
+        final CorrelationIdMap map = new CorrelationIdMap();
+        final Map<String, String> cid2wf = new HashMap<>();
+        final Map<String, List<String>> wf2cids = new HashMap<>();
+        final Random random = new Random(4711);
+        for (int i = 0; i < 200000; i++) {
+            final String wfId = "wf" + random.nextInt(20000);
+            if (random.nextInt(3) == 0) {
+                map.removeAll4Workflow(wfId);
+                final List<String> cids = wf2cids.remove(wfId);
+                if (cids != null) {
+                    for (String cid : cids) {
+                        cid2wf.remove(cid);
+                    }
+                }
+            }
+            else {
+                final String cid = "cid" + i;
+                map.addCorrelationId(wfId, cid);
+                cid2wf.put(cid, wfId);
+                if (!wf2cids.containsKey(wfId)) {
+                    wf2cids.put(wfId, new ArrayList<String>());
+                }
+                wf2cids.get(wfId).add(cid);
+            }
+        }
+        assertEquals(cid2wf.size(), map.size());
+        for (int i = 0; i < 200000; i++) {
+            assertEquals(cid2wf.get("cid" + i), map.getWorkflowId("cid" + i));
+        }
+        for (int i = 0; i < 20000; i++) {
+            assertEquals(wf2cids.containsKey("wf" + i), map.containsWorkflowId("wf" + i));
+        }
+    }
+
+    @Test
+    public void testConcurrentAccess() throws Exception {
+        final CorrelationIdMap map = new CorrelationIdMap();
+        final int numberOfThreads = 4;
+        final CountDownLatch latch = new CountDownLatch(numberOfThreads);
+        final AtomicInteger errors = new AtomicInteger();
+        for (int t = 0; t < numberOfThreads; t++) {
+            final int threadId = t;
+            new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int i = 0; i < 50000; i++) {
+                            final String wfId = "wf-" + threadId + "-" + i;
+                            map.addCorrelationIds(wfId, new String[] { "a-" + wfId, "b-" + wfId });
+                            if (!wfId.equals(map.getWorkflowId("b-" + wfId)))
+                                errors.incrementAndGet();
+                            if (i % 2 == 0)
+                                map.removeAll4Workflow(wfId);
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }.start();
+        }
+        latch.await();
+        assertEquals(0, errors.get());
+        assertEquals(numberOfThreads * 50000, map.size());
+    }
+}
@@ -16,12 +16,17 @@
 package org.copperengine.core.persistent.hybrid;
 
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
+import org.copperengine.core.Acknowledge;
+import org.copperengine.core.Response;
+import org.copperengine.core.Workflow;
 import org.copperengine.core.common.WorkflowRepository;
 import org.copperengine.core.persistent.StandardJavaSerializer;
 import org.junit.AfterClass;
@@ -29,6 +34,10 @@ import org.junit.Assert;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import com.google.common.util.concurrent.Futures;
 
 public class HybridDBStorageTest {
 
@@ -49,8 +58,8 @@ public class HybridDBStorageTest {
             dbStorage._enqueue(Integer.toString(i), ppoolId, max - i);
         }
         for (int i = 0; i < max; i++) {
-            QueueElement qe = dbStorage._poll(ppoolId);
-            Assert.assertNotNull(qe);
+            String wfId = dbStorage._poll(ppoolId);
+            Assert.assertNotNull(wfId);
         }
     }
 
@@ -80,8 +89,8 @@ public class HybridDBStorageTest {
                 @Override
                 public void run() {
                     for (;;) {
-                        QueueElement qe = dbStorage._poll(ppoolId);
-                        if (qe == null) {
+                        String wfId = dbStorage._poll(ppoolId);
+                        if (wfId == null) {
                             break;
                         }
                         else {
@@ -96,4 +105,68 @@ public class HybridDBStorageTest {
 
         Assert.assertEquals(max, counter.intValue());
     }
+
+    @Test
+    public void test_background_recovery() throws Exception {
+        final Storage storage = Mockito.mock(Storage.class);
+        final AtomicReference<HybridDBStorageAccessor> accessor = new AtomicReference<>();
+        Mockito.doAnswer(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                accessor.set((HybridDBStorageAccessor) invocation.getArguments()[0]);
+                accessor.get().recoveryStarted();
+                return null;
+            }
+        }).when(storage).initialize(Mockito.any(HybridDBStorageAccessor.class), Mockito.anyInt());
+        Mockito.when(storage.safeEarlyResponse(Mockito.anyString(), Mockito.anyString())).thenReturn(Futures.<Void> immediateFuture(null));
+        final Executor directExecutor = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                command.run();
+            }
+        };
+        final HybridDBStorage dbStorage = new HybridDBStorage(new StandardJavaSerializer(), Mockito.mock(WorkflowRepository.class), storage, Mockito.mock(TimeoutManager.class), directExecutor);
+        dbStorage.startup();
+
+        // the engine accepts responses while recovering - unknown correlation ids end up as early response
+        final Acknowledge ack = Mockito.mock(Acknowledge.class);
+        dbStorage.notify(new Response<String>("cid-unknown", "data", null), ack);
+        Mockito.verify(storage).safeEarlyResponse(Mockito.eq("cid-unknown"), Mockito.anyString());
+        Mockito.verify(ack).onSuccess();
+
+        // instances enqueued by the running engine are not resumed again
+        dbStorage._enqueue("wf-new", "DEFAULT", 1);
+        final AtomicInteger resumeCalls = new AtomicInteger();
+        final Callable<Void> resumeCall = new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                resumeCalls.incrementAndGet();
+                return null;
+            }
+        };
+        Assert.assertFalse(accessor.get().resume("wf-new", resumeCall));
+        Assert.assertTrue(accessor.get().resume("wf-old", resumeCall));
+        Assert.assertEquals(1, resumeCalls.get());
+
+        // the recovery passes each id once - skipped ids are not tracked any longer
+        Assert.assertTrue(accessor.get().resume("wf-new", resumeCall));
+        Assert.assertEquals(2, resumeCalls.get());
+
+        // finished instances are not tracked any longer
+        Mockito.when(storage.deleteWorkflowInstance("wf-done")).thenReturn(Futures.<Void> immediateFuture(null));
+        dbStorage._enqueue("wf-done", "DEFAULT", 1);
+        final Workflow<?> wf = Mockito.mock(Workflow.class);
+        Mockito.when(wf.getId()).thenReturn("wf-done");
+        dbStorage.finish(wf, ack);
+        Assert.assertTrue(accessor.get().resume("wf-done", resumeCall));
+        Assert.assertEquals(3, resumeCalls.get());
+
+        dbStorage._enqueue("wf-other", "DEFAULT", 1);
+        accessor.get().recoveryFinished();
+        Assert.assertTrue(accessor.get().resume("wf-other", resumeCall));
+        Assert.assertEquals(4, resumeCalls.get());
+
+        dbStorage.shutdown();
+        Mockito.verify(storage).shutdown();
+    }
 }
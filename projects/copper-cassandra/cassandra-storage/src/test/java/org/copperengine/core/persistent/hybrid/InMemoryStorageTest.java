@@ -0,0 +1,72 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.hybrid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+
+import org.copperengine.core.ProcessingState;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import com.google.common.util.concurrent.ListenableFuture;
+
+public class InMemoryStorageTest {
+
+    @Test
+    public void testCopyOnReadAndWrite() throws Exception {
+        final InMemoryStorage storage = new InMemoryStorage();
+        storage.initialize(Mockito.mock(HybridDBStorageAccessor.class), 1);
+        final WorkflowInstance cw = new WorkflowInstance();
+        cw.id = "wf1";
+        cw.state = ProcessingState.WAITING;
+        cw.cid2ResponseMap = new HashMap<>();
+        cw.cid2ResponseMap.put("cid1", null);
+        storage.safeWorkflowInstance(cw, true);
+        cw.cid2ResponseMap.put("cid1", "response");
+
+        final WorkflowInstance read = storage.readWorkflowInstance("wf1");
+        assertNull(read.cid2ResponseMap.get("cid1"));
+        read.state = ProcessingState.ENQUEUED;
+        assertEquals(ProcessingState.WAITING, storage.readWorkflowInstance("wf1").state);
+
+        storage.updateWorkflowInstanceState("wf1", ProcessingState.ERROR).get();
+        assertEquals(ProcessingState.ERROR, storage.readWorkflowInstance("wf1").state);
+        storage.deleteWorkflowInstance("wf1").get();
+        assertNull(storage.readWorkflowInstance("wf1"));
+    }
+
+    @Test
+    public void testWriteLatency() throws Exception {
+        final InMemoryStorage storage = new InMemoryStorage();
+        storage.setWriteLatencyMicros(50000);
+        storage.initialize(Mockito.mock(HybridDBStorageAccessor.class), 1);
+        try {
+            final long startTS = System.nanoTime();
+            final ListenableFuture<Void> future = storage.safeEarlyResponse("cid1", "response");
+            assertFalse(future.isDone());
+            future.get();
+            assertTrue(System.nanoTime() - startTS >= 50000000L);
+            assertEquals("response", storage.readEarlyResponse("cid1"));
+        } finally {
+            storage.shutdown();
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.hybrid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ReadyQueueTest {
+
+    @Test
+    public void testPriorityOrder() throws Exception {
+        final ReadyQueue queue = new ReadyQueue();
+        queue.offer("a5", 5);
+        queue.offer("b1", 1);
+        queue.offer("c5", 5);
+        queue.offer("d100", 100);
+        queue.offer("e1", 1);
+        queue.offer("f-1", -1);
+        assertEquals(6, queue.size());
+        assertEquals("f-1", queue.poll());
+        assertEquals("b1", queue.poll());
+        assertEquals("e1", queue.poll());
+        assertEquals("a5", queue.poll());
+        assertEquals("c5", queue.poll());
+        assertEquals("d100", queue.poll());
+        assertNull(queue.poll());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testDrainTo() throws Exception {
+        final ReadyQueue queue = new ReadyQueue();
+        for (int i = 0; i < 10; i++) {
+            queue.offer("p" + (i % 3) + "-" + i, i % 3);
+        }
+        final List<String> list = new ArrayList<>();
+        assertEquals(5, queue.drainTo(list, 5));
+        assertEquals(Arrays.asList("p0-0", "p0-3", "p0-6", "p0-9", "p1-1"), list);
+        list.clear();
+        assertEquals(5, queue.drainTo(list, 100));
+        assertEquals(Arrays.asList("p1-4", "p1-7", "p2-2", "p2-5", "p2-8"), list);
+        assertEquals(0, queue.drainTo(list, 100));
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testTakeBlocksUntilOffer() throws Exception {
+        final ReadyQueue queue = new ReadyQueue();
+        final ExecutorService exec = Executors.newSingleThreadExecutor();
+        try {
+            final Future<String> f = exec.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return queue.take();
+                }
+            });
+            Thread.sleep(50);
+            queue.offer("wf1", 5);
+            assertEquals("wf1", f.get(1, TimeUnit.SECONDS));
+        } finally {
+            exec.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testConcurrentProducersAndConsumers() throws Exception {
+        final ReadyQueue queue = new ReadyQueue();
+        final int producers = 4;
+        final int perProducer = 20000;
+        final AtomicInteger consumed = new AtomicInteger();
+        final ExecutorService exec = Executors.newFixedThreadPool(producers * 2);
+        for (int p = 0; p < producers; p++) {
+            final int id = p;
+            exec.execute(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < perProducer; i++) {
+                        queue.offer(id + "-" + i, i % 10);
+                    }
+                }
+            });
+            exec.execute(new Runnable() {
+                @Override
+                public void run() {
+                    final List<String> list = new ArrayList<>();
+                    try {
+                        while (consumed.get() < producers * perProducer) {
+                            list.clear();
+                            queue.take();
+                            consumed.addAndGet(1 + queue.drainTo(list, 10));
+                        }
+                    } catch (InterruptedException e) {
+                        // finished
+                    }
+                }
+            });
+        }
+        exec.shutdown();
+        final long deadline = System.currentTimeMillis() + 10000;
+        while (consumed.get() < producers * perProducer && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        exec.shutdownNow();
+        assertEquals(producers * perProducer, consumed.get());
+        assertEquals(0, queue.size());
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.hybrid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class SizeBoundedCacheTest {
+
+    private static final SizeBoundedCache.Weigher<String> LENGTH = new SizeBoundedCache.Weigher<String>() {
+        @Override
+        public int weigh(String value) {
+            return value.length();
+        }
+    };
+
+    private static String value(int length) {
+        final StringBuilder sb = new StringBuilder(length);
+        for (int i = 0; i < length; i++) {
+            sb.append('x');
+        }
+        return sb.toString();
+    }
+
+    @Test
+    public void testWeightIsBounded() throws Exception {
+        final CacheStats stats = new CacheStats();
+        final SizeBoundedCache<String> cache = new SizeBoundedCache<>(10000, 0, LENGTH, stats);
+        for (int i = 0; i < 1000; i++) {
+            cache.put("k" + i, value(100));
+        }
+        assertTrue(cache.weight() <= 10000);
+        assertTrue(cache.size() <= 100);
+        assertEquals(1000 - cache.size(), stats.getNumberOfEvictions());
+
+        // replacing and removing entries keeps the weight in sync
+        cache.put("k999", value(10));
+        cache.remove("k998");
+        long weight = 0;
+        for (int i = 0; i < 1000; i++) {
+            final String v = cache.get("k" + i);
+            if (v != null)
+                weight += v.length();
+        }
+        assertEquals(weight, cache.weight());
+    }
+
+    @Test
+    public void testFrequentlyReadEntriesSurviveScan() throws Exception {
+        final SizeBoundedCache<String> cache = new SizeBoundedCache<>(10000, 0, LENGTH, new CacheStats());
+        for (int i = 0; i < 50; i++) {
+            cache.put("hot" + i, value(100));
+        }
+        for (int r = 0; r < 5; r++) {
+            for (int i = 0; i < 50; i++) {
+                assertNotNull(cache.get("hot" + i));
+            }
+        }
+        // a burst of entries that are written once
+        for (int i = 0; i < 10000; i++) {
+            cache.put("cold" + i, value(100));
+        }
+        int hits = 0;
+        for (int i = 0; i < 50; i++) {
+            if (cache.get("hot" + i) != null)
+                hits++;
+        }
+        assertTrue("hits=" + hits, hits >= 45);
+    }
+
+    @Test
+    public void testRejectedCandidateEvictsNothing() throws Exception {
+        final CacheStats stats = new CacheStats();
+        final SizeBoundedCache<String> cache = new SizeBoundedCache<>(10000, 0, LENGTH, stats);
+        // both entries are larger than the window, so they go straight to the main area
+        cache.put("cold", value(4500));
+        cache.put("hot", value(4500));
+        for (int i = 0; i < 5; i++) {
+            assertNotNull(cache.get("hot"));
+        }
+        // more frequent than "cold", but less frequent than "hot" - both would have to make room
+        cache.get("candidate");
+        cache.get("candidate");
+        cache.put("candidate", value(5000));
+        assertNull(cache.get("candidate"));
+        assertNotNull(cache.get("cold"));
+        assertNotNull(cache.get("hot"));
+        assertEquals(9000, cache.weight());
+        assertEquals(1, stats.getNumberOfEvictions());
+    }
+
+    @Test
+    public void testTimeToLive() throws Exception {
+        final CacheStats stats = new CacheStats();
+        final SizeBoundedCache<String> cache = new SizeBoundedCache<>(10000, 50, LENGTH, stats);
+        cache.put("k", "v");
+        assertEquals("v", cache.get("k"));
+        Thread.sleep(100);
+        assertNull(cache.get("k"));
+        assertEquals(1, stats.getNumberOfExpirations());
+        assertEquals(0, cache.weight());
+    }
+
+    @Test
+    public void testOversizedValueIsNotCached() throws Exception {
+        final SizeBoundedCache<String> cache = new SizeBoundedCache<>(1000, 0, LENGTH, new CacheStats());
+        cache.put("k", "v");
+        cache.put("k", value(2000));
+        assertNull(cache.get("k"));
+        assertEquals(0, cache.weight());
+    }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.hybrid;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.copperengine.core.monitoring.EngineEventRecorder;
+import org.copperengine.core.monitoring.EngineEvents;
+import org.copperengine.core.monitoring.NullEngineEventRecorder;
+import org.junit.Test;
+
+public class TimingWheelTimeoutManagerTest {
+
+    @Test
+    public void testBulkLoadAndTimeout() throws Exception {
+        final int n = 10000;
+        final Set<String> fired = Collections.synchronizedSet(new HashSet<String>());
+        final CountDownLatch latch = new CountDownLatch(n / 2);
+        final TimingWheelTimeoutManager timeoutManager = new TimingWheelTimeoutManager();
+        timeoutManager.setTickMSec(5);
+        final long now = System.currentTimeMillis();
+        // registered before startup, like during the initialization of a storage
+        for (int i = 0; i < n; i++) {
+            final String wfId = "wf" + i;
+            timeoutManager.registerTimeout(new Date(now + 50 + i % 100), wfId, new Runnable() {
+                @Override
+                public void run() {
+                    fired.add(wfId);
+                    latch.countDown();
+                }
+            });
+        }
+        for (int i = 1; i < n; i += 2) {
+            timeoutManager.unregisterTimeout(new Date(now + 50 + i % 100), "wf" + i);
+        }
+        timeoutManager.registerTimeout(null, "ignored", null);
+        timeoutManager.startup();
+        try {
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            Thread.sleep(50);
+            assertEquals(n / 2, fired.size());
+            for (int i = 0; i < n; i += 2) {
+                assertTrue(fired.contains("wf" + i));
+            }
+            assertEquals(0, timeoutManager.getNumberOfPendingTimeouts());
+        } finally {
+            timeoutManager.shutdown();
+        }
+    }
+
+    @Test
+    public void testTimeoutsExpiredEvent() throws Exception {
+        final int n = 100;
+        final AtomicInteger expired = new AtomicInteger();
+        final CountDownLatch latch = new CountDownLatch(n);
+        final EngineEventRecorder previous = EngineEvents.recorder();
+        EngineEvents.setRecorder(new NullEngineEventRecorder() {
+            @Override
+            public boolean isEnabled() {
+                return true;
+            }
+
+            @Override
+            public void timeoutsExpired(int count, long startNanos) {
+                expired.addAndGet(count);
+                for (int i = 0; i < count; i++) {
+                    latch.countDown();
+                }
+            }
+        });
+        final TimingWheelTimeoutManager timeoutManager = new TimingWheelTimeoutManager();
+        timeoutManager.setTickMSec(5);
+        timeoutManager.startup();
+        try {
+            final long now = System.currentTimeMillis();
+            for (int i = 0; i < n; i++) {
+                timeoutManager.registerTimeout(new Date(now + 20 + i % 10), "wf" + i, new Runnable() {
+                    @Override
+                    public void run() {
+                    }
+                });
+            }
+            assertTrue(latch.await(5, TimeUnit.SECONDS));
+            assertEquals(n, expired.get());
+        } finally {
+            timeoutManager.shutdown();
+            EngineEvents.setRecorder(previous);
+        }
+    }
+
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.hybrid;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Date;
+
+import org.copperengine.core.ProcessingState;
+import org.copperengine.management.model.HalfOpenTimeInterval;
+import org.copperengine.management.model.WorkflowInstanceFilter;
+import org.junit.Test;
+
+public class WorkflowInstancesTest {
+
+    private static WorkflowInstance createWorkflowInstance() {
+        final WorkflowInstance cw = new WorkflowInstance();
+        cw.id = "wf-1";
+        cw.ppoolId = "P#DEFAULT";
+        cw.classname = "org.example.TestWorkflow";
+        cw.state = ProcessingState.WAITING;
+        cw.creationTS = new Date(1000);
+        cw.lastModTS = new Date(2000);
+        return cw;
+    }
+
+    @Test
+    public void testMatches() {
+        final WorkflowInstance cw = createWorkflowInstance();
+        assertTrue(WorkflowInstances.matches(new WorkflowInstanceFilter(), cw));
+        assertTrue(WorkflowInstances.matches(new WorkflowInstanceFilter("WAITING", null, null, "P#DEFAULT", "org.example.TestWorkflow", 10), cw));
+        assertFalse(WorkflowInstances.matches(new WorkflowInstanceFilter("ENQUEUED", null, null, null, null, 10), cw));
+        assertFalse(WorkflowInstances.matches(new WorkflowInstanceFilter(null, null, null, "P#OTHER", null, 10), cw));
+        assertFalse(WorkflowInstances.matches(new WorkflowInstanceFilter(null, null, null, null, "org.example.Other", 10), cw));
+    }
+
+    @Test
+    public void testMatchesHalfOpenTimeInterval() {
+        final WorkflowInstance cw = createWorkflowInstance();
+        // from is inclusive, to is exclusive
+        assertTrue(WorkflowInstances.matches(new WorkflowInstanceFilter(null, null, new HalfOpenTimeInterval(new Date(1000), new Date(1001)), null, null, 10), cw));
+        assertFalse(WorkflowInstances.matches(new WorkflowInstanceFilter(null, null, new HalfOpenTimeInterval(new Date(0), new Date(1000)), null, null, 10), cw));
+        assertTrue(WorkflowInstances.matches(new WorkflowInstanceFilter(null, new HalfOpenTimeInterval(new Date(2000), null), null, null, null, 10), cw));
+        assertFalse(WorkflowInstances.matches(new WorkflowInstanceFilter(null, new HalfOpenTimeInterval(null, new Date(2000)), null, null, null, 10), cw));
+    }
+}
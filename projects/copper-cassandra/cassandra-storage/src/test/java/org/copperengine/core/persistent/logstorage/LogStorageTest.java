@@ -0,0 +1,268 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent.logstorage;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.copperengine.core.ProcessingState;
+import org.copperengine.core.WaitMode;
+import org.copperengine.core.persistent.SerializedWorkflow;
+import org.copperengine.core.persistent.hybrid.HybridDBStorageAccessor;
+import org.copperengine.core.persistent.hybrid.WorkflowInstance;
+import org.copperengine.management.model.WorkflowInstanceFilter;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class LogStorageTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static class TestAccessor implements HybridDBStorageAccessor {
+        final List<String> enqueued = new ArrayList<>();
+        final List<String> correlationIds = new ArrayList<>();
+        final List<String> timeouts = new ArrayList<>();
+
+        @Override
+        public void enqueue(String wfId, String ppoolId, int prio) {
+            enqueued.add(wfId);
+        }
+
+        @Override
+        public void registerCorrelationId(String correlationId, String wfId) {
+            correlationIds.add(correlationId);
+        }
+
+        @Override
+        public void registerTimeout(Date timeoutTS, String wfId) {
+            timeouts.add(wfId);
+        }
+
+        @Override
+        public boolean resume(String wfId, Callable<Void> resumeCall) throws Exception {
+            resumeCall.call();
+            return true;
+        }
+
+        @Override
+        public void recoveryStarted() {
+        }
+
+        @Override
+        public void recoveryFinished() {
+        }
+    }
+
+    private static WorkflowInstance createWorkflowInstance(String id, ProcessingState state, String... cids) {
+        final WorkflowInstance cw = new WorkflowInstance();
+        cw.id = id;
+        cw.ppoolId = "P#DEFAULT";
+        cw.prio = 5;
+        cw.creationTS = new Date();
+        cw.serializedWorkflow = new SerializedWorkflow();
+        cw.serializedWorkflow.setData("data-" + id);
+        cw.serializedWorkflow.setObjectState("objectState-" + id);
+        cw.state = state;
+        cw.classname = "org.copperengine.Test";
+        if (cids.length > 0) {
+            cw.waitMode = WaitMode.ALL;
+            cw.cid2ResponseMap = new HashMap<>();
+            for (String cid : cids) {
+                cw.cid2ResponseMap.put(cid, null);
+            }
+        }
+        return cw;
+    }
+
+    private LogStorage createStorage(File dir, TestAccessor accessor) throws Exception {
+        final LogStorage storage = new LogStorage(dir);
+        storage.setSegmentSize(4096);
+        storage.initialize(accessor, 1);
+        return storage;
+    }
+
+    @Test
+    public void testReadWrite() throws Exception {
+        final LogStorage storage = createStorage(folder.newFolder(), new TestAccessor());
+        try {
+            storage.safeWorkflowInstance(createWorkflowInstance("wf1", ProcessingState.ENQUEUED), true);
+            WorkflowInstance cw = storage.readWorkflowInstance("wf1");
+            assertEquals("data-wf1", cw.serializedWorkflow.getData());
+            assertEquals(ProcessingState.ENQUEUED, cw.state);
+            assertNotNull(cw.lastModTS);
+
+            storage.updateWorkflowInstanceState("wf1", ProcessingState.ERROR).get();
+            cw = storage.readWorkflowInstance("wf1");
+            assertEquals(ProcessingState.ERROR, cw.state);
+            assertEquals("objectState-wf1", cw.serializedWorkflow.getObjectState());
+
+            storage.safeEarlyResponse("cid1", "response1").get();
+            assertEquals("response1", storage.readEarlyResponse("cid1"));
+            storage.deleteEarlyResponse("cid1").get();
+            assertNull(storage.readEarlyResponse("cid1"));
+
+            storage.deleteWorkflowInstance("wf1").get();
+            assertNull(storage.readWorkflowInstance("wf1"));
+        } finally {
+            storage.shutdown();
+        }
+    }
+
+    @Test
+    public void testRecovery() throws Exception {
+        final File dir = folder.newFolder();
+        LogStorage storage = createStorage(dir, new TestAccessor());
+        for (int i = 0; i < 100; i++) {
+            storage.safeWorkflowInstance(createWorkflowInstance("enqueued" + i, ProcessingState.ENQUEUED), true);
+        }
+        for (int i = 0; i < 100; i += 2) {
+            storage.deleteWorkflowInstance("enqueued" + i).get();
+        }
+        storage.safeWorkflowInstance(createWorkflowInstance("waiting1", ProcessingState.WAITING, "cid1", "cid2"), false);
+        storage.safeWorkflowInstance(createWorkflowInstance("waiting2", ProcessingState.WAITING, "cid3"), false);
+        storage.safeEarlyResponse("cid3", "response3").get();
+        storage.safeWorkflowInstance(createWorkflowInstance("error", ProcessingState.ENQUEUED), false);
+        storage.updateWorkflowInstanceState("error", ProcessingState.ERROR).get();
+        storage.shutdown();
+        assertTrue(storage.getNumberOfSegments() > 1);
+
+        final TestAccessor accessor = new TestAccessor();
+        storage = createStorage(dir, accessor);
+        try {
+            assertEquals(51, accessor.enqueued.size());
+            assertTrue(accessor.enqueued.contains("waiting2"));
+            assertTrue(accessor.enqueued.contains("enqueued1"));
+            assertTrue(accessor.correlationIds.contains("cid1"));
+            assertNull(storage.readWorkflowInstance("enqueued0"));
+            assertEquals(ProcessingState.ERROR, storage.readWorkflowInstance("error").state);
+            assertEquals(ProcessingState.WAITING, storage.readWorkflowInstance("waiting1").state);
+            assertEquals(ProcessingState.ENQUEUED, storage.readWorkflowInstance("waiting2").state);
+            assertEquals("response3", storage.readWorkflowInstance("waiting2").cid2ResponseMap.get("cid3"));
+
+            final WorkflowInstanceFilter filter = new WorkflowInstanceFilter();
+            filter.setState(ProcessingState.WAITING.name());
+            assertEquals(1, storage.queryWorkflowInstances(filter).size());
+        } finally {
+            storage.shutdown();
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        final File dir = folder.newFolder();
+        LogStorage storage = createStorage(dir, new TestAccessor());
+        for (int i = 0; i < 200; i++) {
+            storage.safeWorkflowInstance(createWorkflowInstance("wf" + i, ProcessingState.ENQUEUED), true);
+            if (i % 10 != 0) {
+                storage.deleteWorkflowInstance("wf" + i).get();
+            }
+        }
+        storage.updateWorkflowInstanceState("wf0", ProcessingState.ERROR).get();
+        final int before = storage.getNumberOfSegments();
+        storage.compact();
+        assertTrue(storage.getNumberOfSegments() < before);
+        int segmentFiles = 0;
+        for (File file : dir.listFiles()) {
+            if (Segment.isSegmentFile(file))
+                segmentFiles++;
+        }
+        assertEquals(storage.getNumberOfSegments(), segmentFiles);
+        assertEquals(ProcessingState.ERROR, storage.readWorkflowInstance("wf0").state);
+        assertEquals(20, storage.queryWorkflowInstances(new WorkflowInstanceFilter()).size());
+        storage.shutdown();
+
+        final TestAccessor accessor = new TestAccessor();
+        storage = createStorage(dir, accessor);
+        try {
+            assertEquals(19, accessor.enqueued.size());
+            assertNull(storage.readWorkflowInstance("wf1"));
+            assertEquals("data-wf190", storage.readWorkflowInstance("wf190").serializedWorkflow.getData());
+            assertEquals(ProcessingState.ERROR, storage.readWorkflowInstance("wf0").state);
+        } finally {
+            storage.shutdown();
+        }
+    }
+
+    @Test
+    public void testCompactionWithConcurrentStateUpdates() throws Exception {
+        final File dir = folder.newFolder();
+        LogStorage storage = new LogStorage(dir);
+        storage.setSegmentSize(4096);
+        // compact every segment that contains a state record, so that the instances are copied over and over again
+        storage.setCompactionThreshold(1.0);
+        storage.initialize(new TestAccessor(), 1);
+        final int numberOfInstances = 2;
+        final StringBuilder data = new StringBuilder();
+        while (data.length() < 1000) {
+            data.append("0123456789");
+        }
+        for (int i = 0; i < numberOfInstances; i++) {
+            // large records widen the window between reading a record and copying it
+            final WorkflowInstance cw = createWorkflowInstance("wf" + i, ProcessingState.ENQUEUED);
+            cw.serializedWorkflow.setData(data.toString());
+            storage.safeWorkflowInstance(cw, true);
+            // a deleted record, so that the oldest segment is compacted right away
+            storage.safeWorkflowInstance(createWorkflowInstance("deleted" + i, ProcessingState.ENQUEUED), true);
+            storage.deleteWorkflowInstance("deleted" + i).get();
+        }
+        final LogStorage updatedStorage = storage;
+        final ProcessingState[] states = new ProcessingState[numberOfInstances];
+        final AtomicReference<Exception> exception = new AtomicReference<>();
+        final Thread updater = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    for (int n = 0; n < 20000; n++) {
+                        final int i = n % numberOfInstances;
+                        states[i] = n / numberOfInstances % 2 == 0 ? ProcessingState.RUNNING : ProcessingState.WAITING;
+                        updatedStorage.updateWorkflowInstanceState("wf" + i, states[i]).get();
+                    }
+                } catch (Exception e) {
+                    exception.set(e);
+                }
+            }
+        };
+        updater.start();
+        while (updater.isAlive()) {
+            storage.compact();
+        }
+        assertNull(exception.get());
+        storage.shutdown();
+
+        storage = createStorage(dir, new TestAccessor());
+        try {
+            for (int i = 0; i < numberOfInstances; i++) {
+                final WorkflowInstance cw = storage.readWorkflowInstance("wf" + i);
+                assertNotNull("wf" + i, cw);
+                assertEquals("wf" + i, states[i], cw.state);
+            }
+        } finally {
+            storage.shutdown();
+        }
+    }
+}
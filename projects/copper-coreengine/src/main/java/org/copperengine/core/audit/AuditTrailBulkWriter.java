@@ -0,0 +1,222 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.copperengine.core.audit.BatchInsertIntoAutoTrail.Command;
+import org.copperengine.core.audit.BatchInsertIntoAutoTrail.Executor;
+import org.copperengine.core.batcher.BatchCommand;
+import org.copperengine.core.db.utility.JdbcUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Dialect specific bulk insert of a batch of audit trail events, used by {@link BatchInsertIntoAutoTrail.Executor}
+ * instead of a JDBC batch of single row inserts.
+ * <ul>
+ * <li>PostgreSQL: <code>COPY ... FROM STDIN WITH CSV</code> through the copy API of the PostgreSQL JDBC driver. The
+ * driver is accessed by reflection, so that it is not required at compile time. If the connection cannot be
+ * unwrapped to a <code>PGConnection</code>, e.g. because of a connection pool, the multi row insert is used.
+ * <li>MySQL, H2: a single <code>INSERT ... VALUES (...),(...),...</code> statement per batch.
+ * </ul>
+ */
+abstract class AuditTrailBulkWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditTrailBulkWriter.class);
+
+    /**
+     * Upper bound for the number of bind parameters of one statement, MySQL allows at most 65535.
+     */
+    static final int MAX_PARAMETERS = 30000;
+
+    abstract void write(Collection<BatchCommand<Executor, Command>> commands, Connection con) throws Exception;
+
+    /**
+     * @return the bulk writer for the database product, or <code>null</code> if there is none
+     */
+    static AuditTrailBulkWriter create(String databaseProductName, String table, List<String> columns) {
+        final MultiRowInsert multiRowInsert = new MultiRowInsert(table, columns);
+        if ("PostgreSQL".equalsIgnoreCase(databaseProductName)) {
+            try {
+                return new PostgresCopy(table, columns, multiRowInsert);
+            } catch (Exception e) {
+                logger.info("PostgreSQL copy API not available ({}) - using multi row inserts", e.toString());
+                return multiRowInsert;
+            }
+        }
+        if ("MySQL".equalsIgnoreCase(databaseProductName) || "H2".equalsIgnoreCase(databaseProductName)) {
+            return multiRowInsert;
+        }
+        return null;
+    }
+
+    static String join(List<String> columns) {
+        final StringBuilder sb = new StringBuilder();
+        for (String column : columns) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(column);
+        }
+        return sb.toString();
+    }
+
+    static final class MultiRowInsert extends AuditTrailBulkWriter {
+
+        private final String insertPrefix;
+        private final String row;
+        private final int maxRowsPerStatement;
+
+        MultiRowInsert(String table, List<String> columns) {
+            this.insertPrefix = "INSERT INTO " + table + " (" + join(columns) + ") VALUES ";
+            final StringBuilder sb = new StringBuilder("(");
+            for (int i = 0; i < columns.size(); i++) {
+                sb.append(i > 0 ? ",?" : "?");
+            }
+            this.row = sb.append(')').toString();
+            this.maxRowsPerStatement = Math.max(1, MAX_PARAMETERS / Math.max(1, columns.size()));
+        }
+
+        String createSqlStmt(int rows) {
+            final StringBuilder sql = new StringBuilder(insertPrefix.length() + rows * (row.length() + 1));
+            sql.append(insertPrefix);
+            for (int i = 0; i < rows; i++) {
+                if (i > 0) {
+                    sql.append(',');
+                }
+                sql.append(row);
+            }
+            return sql.toString();
+        }
+
+        @Override
+        void write(Collection<BatchCommand<Executor, Command>> commands, Connection con) throws Exception {
+            final List<Command> pending = new ArrayList<Command>(Math.min(commands.size(), maxRowsPerStatement));
+            for (BatchCommand<Executor, Command> _cmd : commands) {
+                pending.add((Command) _cmd);
+                if (pending.size() == maxRowsPerStatement) {
+                    insert(pending, con);
+                    pending.clear();
+                }
+            }
+            if (!pending.isEmpty()) {
+                insert(pending, con);
+            }
+        }
+
+        private void insert(List<Command> commands, Connection con) throws SQLException {
+            PreparedStatement stmt = null;
+            try {
+                stmt = con.prepareStatement(createSqlStmt(commands.size()));
+                int idx = 1;
+                for (Command cmd : commands) {
+                    idx = cmd.binder.bind(stmt, idx, cmd.data, cmd.message());
+                }
+                stmt.executeUpdate();
+            } finally {
+                JdbcUtils.closeStatement(stmt);
+            }
+        }
+    }
+
+    static final class PostgresCopy extends AuditTrailBulkWriter {
+
+        private final String copySql;
+        private final MultiRowInsert fallback;
+        private final Class<?> pgConnectionClass;
+        private final Method getCopyAPI;
+        private final Method copyIn;
+        private final AtomicBoolean fallbackLogged = new AtomicBoolean(false);
+
+        PostgresCopy(String table, List<String> columns, MultiRowInsert fallback) throws ClassNotFoundException, NoSuchMethodException {
+            this.copySql = "COPY " + table + " (" + join(columns) + ") FROM STDIN WITH CSV";
+            this.fallback = fallback;
+            this.pgConnectionClass = Class.forName("org.postgresql.PGConnection");
+            this.getCopyAPI = pgConnectionClass.getMethod("getCopyAPI");
+            this.copyIn = Class.forName("org.postgresql.copy.CopyManager").getMethod("copyIn", String.class, Reader.class);
+        }
+
+        @Override
+        void write(Collection<BatchCommand<Executor, Command>> commands, Connection con) throws Exception {
+            if (!con.isWrapperFor(pgConnectionClass)) {
+                if (fallbackLogged.compareAndSet(false, true)) {
+                    logger.warn("Connection {} is no PGConnection - using multi row inserts instead of COPY", con.getClass().getName());
+                }
+                fallback.write(commands, con);
+                return;
+            }
+            final StringBuilder csv = new StringBuilder(commands.size() * 256);
+            for (BatchCommand<Executor, Command> _cmd : commands) {
+                final Command cmd = (Command) _cmd;
+                // the values are read by the same generated accessor the JDBC binding uses
+                appendRow(csv, cmd.binder.values(cmd.data, cmd.message()));
+            }
+            try {
+                final Object copyManager = getCopyAPI.invoke(con.unwrap(pgConnectionClass));
+                copyIn.invoke(copyManager, copySql, new StringReader(csv.toString()));
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof Exception)
+                    throw (Exception) e.getCause();
+                throw e;
+            }
+        }
+
+        static void appendRow(StringBuilder csv, Object[] values) {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    csv.append(',');
+                }
+                appendValue(csv, values[i]);
+            }
+            csv.append('\n');
+        }
+
+        /**
+         * An unquoted empty value is NULL in PostgreSQL's CSV format, everything else is written as quoted string.
+         */
+        static void appendValue(StringBuilder csv, Object value) {
+            if (value == null)
+                return;
+            if (value instanceof Number) {
+                csv.append(value.toString());
+                return;
+            }
+            final String s = value instanceof Date ? new Timestamp(((Date) value).getTime()).toString() : value.toString();
+            csv.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                final char c = s.charAt(i);
+                if (c == '"') {
+                    csv.append('"');
+                }
+                csv.append(c);
+            }
+            csv.append('"');
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the mapped properties of an {@link AuditTrailEvent} and sets them as parameters of the insert statement used
+ * by {@link BatchInsertIntoAutoTrail}.
+ * <p>
+ * Binders are created once per audit trail event class by {@link #create(Class, List)}. If possible, the property
+ * values are read by a generated class that calls the property getters directly, so that no reflection is involved
+ * when writing the audit trail, and sets them with the typed setters, e.g. <code>setLong</code>, without boxing.
+ * Otherwise the property getters are invoked by reflection and the values are set by <code>setObject</code>. In both
+ * cases <code>null</code> values are set by <code>setNull</code> with the JDBC type
+ * {@link BatchInsertIntoAutoTrail#guessJdbcType(Method)} returns.
+ */
+public abstract class AuditTrailEventBinder {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditTrailEventBinder.class);
+
+    private final Method[] propertyGetters;
+    private final int[] jdbcTypes;
+    private final int messageIndex;
+
+    /**
+     * @param propertyGetters
+     *        the read methods of the mapped properties in the order of the statement's parameters
+     */
+    protected AuditTrailEventBinder(List<Method> propertyGetters) {
+        this.propertyGetters = propertyGetters.toArray(new Method[propertyGetters.size()]);
+        this.jdbcTypes = new int[this.propertyGetters.length];
+        int messageIndex = -1;
+        for (int i = 0; i < jdbcTypes.length; i++) {
+            jdbcTypes[i] = Integer.MIN_VALUE;
+            if ("getMessage".equals(this.propertyGetters[i].getName())) {
+                messageIndex = i;
+            }
+        }
+        this.messageIndex = messageIndex;
+    }
+
+    /**
+     * Stores the values of the mapped properties of <code>event</code> in <code>values</code>, in the order of the
+     * property getters. Properties the event does not have are stored as <code>null</code>.
+     */
+    protected abstract void getValues(AuditTrailEvent event, Object[] values);
+
+    /**
+     * Returns the values of the mapped properties of <code>event</code>, with <code>message</code> as value of the
+     * message property.
+     */
+    public Object[] values(AuditTrailEvent event, String message) {
+        final Object[] values = new Object[propertyGetters.length];
+        getValues(event, values);
+        if (messageIndex >= 0) {
+            values[messageIndex] = message;
+        }
+        return values;
+    }
+
+    /**
+     * Sets the parameters for <code>event</code>, starting at parameter index <code>idx</code>.
+     *
+     * @return the index of the next parameter
+     */
+    public int bind(PreparedStatement stmt, int idx, AuditTrailEvent event) throws SQLException {
+        return bind(stmt, idx, event, event.getMessage());
+    }
+
+    /**
+     * Sets the parameters for <code>event</code>, starting at parameter index <code>idx</code>, with
+     * <code>message</code> as value of the message property, e.g. the post processed message.
+     *
+     * @return the index of the next parameter
+     */
+    public int bind(PreparedStatement stmt, int idx, AuditTrailEvent event, String message) throws SQLException {
+        final Object[] values = values(event, message);
+        for (int i = 0; i < values.length; i++) {
+            Object value = values[i];
+            try {
+                if (value != null) {
+                    if (value instanceof Date) {
+                        value = new Timestamp(((Date) value).getTime());
+                    }
+                    stmt.setObject(idx++, value, jdbcType(i));
+                } else {
+                    stmt.setNull(idx++, jdbcType(i));
+                }
+            } catch (SQLException e) {
+                logger.error("Setting property " + propertyGetters[i] + " failed", e);
+                throw e;
+            }
+        }
+        return idx;
+    }
+
+    private int jdbcType(int i) {
+        // resolved lazily, an unsupported type fails when an event is written - as it always did
+        if (jdbcTypes[i] == Integer.MIN_VALUE) {
+            jdbcTypes[i] = BatchInsertIntoAutoTrail.guessJdbcType(propertyGetters[i]);
+        }
+        return jdbcTypes[i];
+    }
+
+    /**
+     * Creates a binder for events of class <code>eventClass</code>.
+     *
+     * @param eventClass
+     *        the configured audit trail event class
+     * @param propertyGetters
+     *        the read methods of the mapped properties in the order of the statement's parameters
+     */
+    public static AuditTrailEventBinder create(Class<?> eventClass, List<Method> propertyGetters) {
+        final AuditTrailEventBinder reflective = new ReflectiveBinder(propertyGetters);
+        if (!AuditTrailEventBinderGenerator.isSupported(eventClass, propertyGetters)) {
+            logger.info("Using reflection to bind properties of {}", eventClass.getName());
+            return reflective;
+        }
+        try {
+            final AuditTrailEventBinder generated = AuditTrailEventBinderGenerator.generate(eventClass, propertyGetters);
+            logger.info("Generated {} to bind properties of {}", generated.getClass().getName(), eventClass.getName());
+            return new CheckedBinder(eventClass, propertyGetters, generated, reflective);
+        } catch (Exception | LinkageError e) {
+            logger.warn("Unable to generate binder for " + eventClass.getName() + " - using reflection", e);
+            return reflective;
+        }
+    }
+
+    /**
+     * Uses the generated binder for instances of the event class and the reflective binder for any other event, e.g.
+     * a plain {@link AuditTrailEvent} logged to an audit trail configured with a subclass.
+     */
+    static final class CheckedBinder extends AuditTrailEventBinder {
+
+        private final Class<?> eventClass;
+        private final AuditTrailEventBinder generated;
+        private final AuditTrailEventBinder fallback;
+
+        CheckedBinder(Class<?> eventClass, List<Method> propertyGetters, AuditTrailEventBinder generated, AuditTrailEventBinder fallback) {
+            super(propertyGetters);
+            this.eventClass = eventClass;
+            this.generated = generated;
+            this.fallback = fallback;
+        }
+
+        @Override
+        protected void getValues(AuditTrailEvent event, Object[] values) {
+            if (eventClass.isInstance(event)) {
+                generated.getValues(event, values);
+            } else {
+                fallback.getValues(event, values);
+            }
+        }
+
+        @Override
+        public int bind(PreparedStatement stmt, int idx, AuditTrailEvent event, String message) throws SQLException {
+            if (eventClass.isInstance(event)) {
+                return generated.bind(stmt, idx, event, message);
+            }
+            return fallback.bind(stmt, idx, event, message);
+        }
+
+        AuditTrailEventBinder getGenerated() {
+            return generated;
+        }
+    }
+
+    static final class ReflectiveBinder extends AuditTrailEventBinder {
+
+        private final Method[] propertyGetters;
+
+        ReflectiveBinder(List<Method> propertyGetters) {
+            super(propertyGetters);
+            this.propertyGetters = propertyGetters.toArray(new Method[propertyGetters.size()]);
+        }
+
+        @Override
+        protected void getValues(AuditTrailEvent event, Object[] values) {
+            for (int i = 0; i < propertyGetters.length; i++) {
+                final Method m = propertyGetters[i];
+                try {
+                    if (m.getDeclaringClass().isAssignableFrom(event.getClass())) {
+                        values[i] = m.invoke(event, (Object[]) null);
+                    }
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new RuntimeException("Invoking " + m + " failed", e);
+                }
+            }
+        }
+    }
+}
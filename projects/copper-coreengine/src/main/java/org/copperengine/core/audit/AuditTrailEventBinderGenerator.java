@@ -0,0 +1,266 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.Type;
+
+/**
+ * Generates {@link AuditTrailEventBinder} implementations with ASM.
+ * <p>
+ * The generated <code>bind</code> method contains a direct call of each property getter and of the typed setter for
+ * its value, e.g. <code>stmt.setInt(idx++, ((AuditTrailEvent) event).getLogLevel())</code>, so primitive values are
+ * neither boxed nor collected in an array. A <code>null</code> value is set by <code>setNull</code> with the JDBC type
+ * {@link BatchInsertIntoAutoTrail#guessJdbcType(Method)} returns. The generated <code>getValues</code> method, e.g.
+ * <code>values[0] = Integer.valueOf(((AuditTrailEvent) event).getLogLevel())</code>, serves
+ * {@link AuditTrailEventBinder#values(AuditTrailEvent, String)}.
+ */
+class AuditTrailEventBinderGenerator implements Opcodes {
+
+    private static final AtomicInteger counter = new AtomicInteger();
+
+    private static final String BINDER = Type.getInternalName(AuditTrailEventBinder.class);
+    private static final String INIT_DESC = Type.getMethodDescriptor(Type.VOID_TYPE, Type.getType(List.class));
+    private static final String GET_VALUES_DESC = Type.getMethodDescriptor(Type.VOID_TYPE, Type.getType(AuditTrailEvent.class), Type.getType(Object[].class));
+    private static final String BIND_DESC = Type.getMethodDescriptor(Type.INT_TYPE, Type.getType(PreparedStatement.class), Type.INT_TYPE, Type.getType(AuditTrailEvent.class), Type.getType(String.class));
+    private static final String STMT = Type.getInternalName(PreparedStatement.class);
+    private static final String TIMESTAMP = Type.getInternalName(Timestamp.class);
+
+    // locals of getValues
+    private static final int LOCAL_EVENT = 1;
+    private static final int LOCAL_VALUES = 2;
+
+    // locals of bind
+    private static final int LOCAL_STMT = 1;
+    private static final int LOCAL_IDX = 2;
+    private static final int LOCAL_BIND_EVENT = 3;
+    private static final int LOCAL_MESSAGE = 4;
+    private static final int LOCAL_VALUE = 5;
+
+    /**
+     * @return <code>true</code>, if the generated class is able to call all getters and there is a JDBC type for each
+     *         property type
+     */
+    static boolean isSupported(Class<?> eventClass, List<Method> propertyGetters) {
+        if (!AuditTrailEvent.class.isAssignableFrom(eventClass) || !Modifier.isPublic(eventClass.getModifiers()) || eventClass.getClassLoader() == null)
+            return false;
+        for (Method m : propertyGetters) {
+            if (!Modifier.isPublic(m.getModifiers()) || !Modifier.isPublic(m.getDeclaringClass().getModifiers()) || Modifier.isStatic(m.getModifiers()))
+                return false;
+            if (!isSupportedType(m.getReturnType()))
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean isSupportedType(Class<?> type) {
+        return type == String.class
+                || type == Integer.TYPE || type == Integer.class
+                || type == Long.TYPE || type == Long.class
+                || type == Float.TYPE || type == Float.class
+                || type == Double.TYPE || type == Double.class
+                || type == Date.class || type == Timestamp.class || type == java.sql.Date.class;
+    }
+
+    static AuditTrailEventBinder generate(Class<?> eventClass, List<Method> propertyGetters) throws Exception {
+        final String className = AuditTrailEventBinder.class.getName() + "$Generated" + counter.incrementAndGet() + "$" + eventClass.getSimpleName();
+        final byte[] bytes = createClass(className.replace('.', '/'), propertyGetters);
+        final Class<?> binderClass = new BinderClassLoader(eventClass.getClassLoader()).define(className, bytes);
+        return (AuditTrailEventBinder) binderClass.getConstructor(List.class).newInstance(propertyGetters);
+    }
+
+    static byte[] createClass(String internalName, List<Method> propertyGetters) {
+        final ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_6, ACC_PUBLIC | ACC_FINAL | ACC_SUPER, internalName, null, BINDER, null);
+
+        MethodVisitor mv = cw.visitMethod(ACC_PUBLIC, "<init>", INIT_DESC, null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 0);
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitMethodInsn(INVOKESPECIAL, BINDER, "<init>", INIT_DESC, false);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC, "getValues", GET_VALUES_DESC, null, null);
+        mv.visitCode();
+        for (int i = 0; i < propertyGetters.size(); i++) {
+            getValue(mv, i, propertyGetters.get(i));
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        mv = cw.visitMethod(ACC_PUBLIC, "bind", BIND_DESC, null, new String[] { Type.getInternalName(SQLException.class) });
+        mv.visitCode();
+        for (Method m : propertyGetters) {
+            bindValue(mv, m);
+        }
+        mv.visitVarInsn(ILOAD, LOCAL_IDX);
+        mv.visitInsn(IRETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void invokeGetter(MethodVisitor mv, int localEvent, Method m) {
+        final Class<?> owner = m.getDeclaringClass();
+        mv.visitVarInsn(ALOAD, localEvent);
+        mv.visitTypeInsn(CHECKCAST, Type.getInternalName(owner));
+        mv.visitMethodInsn(owner.isInterface() ? INVOKEINTERFACE : INVOKEVIRTUAL, Type.getInternalName(owner), m.getName(), Type.getMethodDescriptor(m), owner.isInterface());
+    }
+
+    private static void bindValue(MethodVisitor mv, Method m) {
+        final Class<?> type = m.getReturnType();
+        final boolean message = "getMessage".equals(m.getName());
+        if (type.isPrimitive()) {
+            // stmt.setXxx(idx, ((DeclaringClass) event).getXxx())
+            mv.visitVarInsn(ALOAD, LOCAL_STMT);
+            mv.visitVarInsn(ILOAD, LOCAL_IDX);
+            invokeGetter(mv, LOCAL_BIND_EVENT, m);
+            invokeSetter(mv, type);
+        }
+        else {
+            // value = ((DeclaringClass) event).getXxx(), or the message passed to bind
+            if (message) {
+                mv.visitVarInsn(ALOAD, LOCAL_MESSAGE);
+            } else {
+                invokeGetter(mv, LOCAL_BIND_EVENT, m);
+            }
+            mv.visitVarInsn(ASTORE, LOCAL_VALUE);
+            final Label notNull = new Label();
+            final Label end = new Label();
+            mv.visitVarInsn(ALOAD, LOCAL_VALUE);
+            mv.visitJumpInsn(IFNONNULL, notNull);
+            // stmt.setNull(idx, jdbcType)
+            mv.visitVarInsn(ALOAD, LOCAL_STMT);
+            mv.visitVarInsn(ILOAD, LOCAL_IDX);
+            mv.visitLdcInsn(Integer.valueOf(BatchInsertIntoAutoTrail.guessJdbcType(m)));
+            mv.visitMethodInsn(INVOKEINTERFACE, STMT, "setNull", "(II)V", true);
+            mv.visitJumpInsn(GOTO, end);
+            // stmt.setXxx(idx, value), unboxing wrappers and converting dates to timestamps
+            mv.visitLabel(notNull);
+            mv.visitVarInsn(ALOAD, LOCAL_STMT);
+            mv.visitVarInsn(ILOAD, LOCAL_IDX);
+            if (Date.class.isAssignableFrom(type) && type != Timestamp.class) {
+                mv.visitTypeInsn(NEW, TIMESTAMP);
+                mv.visitInsn(DUP);
+                mv.visitVarInsn(ALOAD, LOCAL_VALUE);
+                mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(Date.class), "getTime", "()J", false);
+                mv.visitMethodInsn(INVOKESPECIAL, TIMESTAMP, "<init>", "(J)V", false);
+                invokeSetter(mv, Timestamp.class);
+            }
+            else {
+                mv.visitVarInsn(ALOAD, LOCAL_VALUE);
+                mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+                final Class<?> primitive = primitiveOf(type);
+                if (primitive != null) {
+                    mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(type), primitive.getName() + "Value", "()" + Type.getDescriptor(primitive), false);
+                    invokeSetter(mv, primitive);
+                } else {
+                    invokeSetter(mv, type);
+                }
+            }
+            mv.visitLabel(end);
+        }
+        mv.visitIincInsn(LOCAL_IDX, 1);
+    }
+
+    private static void invokeSetter(MethodVisitor mv, Class<?> type) {
+        final String setter;
+        if (type == Integer.TYPE)
+            setter = "setInt";
+        else if (type == Long.TYPE)
+            setter = "setLong";
+        else if (type == Float.TYPE)
+            setter = "setFloat";
+        else if (type == Double.TYPE)
+            setter = "setDouble";
+        else if (type == String.class)
+            setter = "setString";
+        else if (type == Timestamp.class)
+            setter = "setTimestamp";
+        else
+            // excluded by isSupported
+            throw new AssertionError("no mapping for type " + type);
+        mv.visitMethodInsn(INVOKEINTERFACE, STMT, setter, "(I" + Type.getDescriptor(type) + ")V", true);
+    }
+
+    private static Class<?> primitiveOf(Class<?> wrapper) {
+        if (wrapper == Integer.class)
+            return Integer.TYPE;
+        if (wrapper == Long.class)
+            return Long.TYPE;
+        if (wrapper == Float.class)
+            return Float.TYPE;
+        if (wrapper == Double.class)
+            return Double.TYPE;
+        return null;
+    }
+
+    private static void getValue(MethodVisitor mv, int i, Method m) {
+        final Class<?> type = m.getReturnType();
+
+        // values[i] = ((DeclaringClass) event).getXxx()
+        mv.visitVarInsn(ALOAD, LOCAL_VALUES);
+        mv.visitLdcInsn(Integer.valueOf(i));
+        invokeGetter(mv, LOCAL_EVENT, m);
+        if (type.isPrimitive()) {
+            // boxing, e.g. Long.valueOf(value)
+            final String wrapper = wrapperOf(type);
+            mv.visitMethodInsn(INVOKESTATIC, wrapper, "valueOf", "(" + Type.getDescriptor(type) + ")L" + wrapper + ";", false);
+        }
+        mv.visitInsn(AASTORE);
+    }
+
+    private static String wrapperOf(Class<?> primitive) {
+        if (primitive == Integer.TYPE)
+            return Type.getInternalName(Integer.class);
+        if (primitive == Long.TYPE)
+            return Type.getInternalName(Long.class);
+        if (primitive == Float.TYPE)
+            return Type.getInternalName(Float.class);
+        if (primitive == Double.TYPE)
+            return Type.getInternalName(Double.class);
+        // excluded by isSupported
+        throw new AssertionError("no mapping for type " + primitive);
+    }
+
+    private static final class BinderClassLoader extends ClassLoader {
+
+        BinderClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+}
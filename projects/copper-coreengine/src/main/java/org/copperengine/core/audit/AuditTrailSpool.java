@@ -0,0 +1,195 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * File format of the audit trail spool, shared by {@link SpoolingAuditTrail} and {@link AuditTrailSpoolReplayer}.
+ * <p>
+ * The spool is a directory of segment files. Events are appended to the open segment
+ * <code>audit-&lt;seq&gt;.open</code>, which is renamed to <code>audit-&lt;seq&gt;.spool</code> after it has been
+ * forced to disk for the last time. Only those closed segments are replayed, in the order of their sequence number.
+ * <p>
+ * Each event is framed as <code>[int length][int crc32][payload]</code>. Plain {@link AuditTrailEvent}s are written
+ * field by field, strings as UTF-8 with a preceding length, <code>-1</code> standing for <code>null</code>. Subclasses
+ * of {@link AuditTrailEvent} are written with java serialization, so that their additional properties survive.
+ */
+final class AuditTrailSpool {
+
+    static final String OPEN_SUFFIX = ".open";
+    static final String CLOSED_SUFFIX = ".spool";
+    static final String CORRUPT_SUFFIX = ".corrupt";
+    static final String FAILED_SUFFIX = ".failed";
+
+    private static final String PREFIX = "audit-";
+    private static final int HEADER_SIZE = 8;
+    private static final byte EVENT = 1;
+    private static final byte SERIALIZED_EVENT = 2;
+
+    private AuditTrailSpool() {
+    }
+
+    static File segmentFile(File directory, long seq, String suffix) {
+        return new File(directory, String.format("%s%020d%s", PREFIX, seq, suffix));
+    }
+
+    static long sequenceOf(File segment) {
+        final String name = segment.getName();
+        return Long.parseLong(name.substring(PREFIX.length(), name.lastIndexOf('.')));
+    }
+
+    /**
+     * @return the segment files with the specified suffix, ordered by their sequence number
+     */
+    static List<File> listSegments(File directory, final String suffix) {
+        final File[] files = directory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(File dir, String name) {
+                return name.startsWith(PREFIX) && name.endsWith(suffix);
+            }
+        });
+        if (files == null)
+            return new ArrayList<File>();
+        Arrays.sort(files);
+        return new ArrayList<File>(Arrays.asList(files));
+    }
+
+    static byte[] encode(AuditTrailEvent e) throws IOException {
+        final ByteArrayOutputStream bos = new ByteArrayOutputStream(256 + (e.getMessage() == null ? 0 : e.getMessage().length()));
+        final DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(0);
+        out.writeInt(0);
+        if (e.getClass() == AuditTrailEvent.class) {
+            out.writeByte(EVENT);
+            out.writeInt(e.getLogLevel());
+            out.writeLong(e.getOccurrence().getTime());
+            writeString(out, e.getConversationId());
+            writeString(out, e.getContext());
+            writeString(out, e.getInstanceId());
+            writeString(out, e.getCorrelationId());
+            writeString(out, e.getTransactionId());
+            writeString(out, e.getMessage());
+            writeString(out, e.getMessageType());
+            out.writeBoolean(e.getSequenceId() != null);
+            out.writeLong(e.getSequenceId() == null ? 0L : e.getSequenceId().longValue());
+        } else {
+            out.writeByte(SERIALIZED_EVENT);
+            out.flush();
+            final ObjectOutputStream oos = new ObjectOutputStream(bos);
+            oos.writeObject(e);
+            oos.close();
+        }
+        out.flush();
+        final byte[] frame = bos.toByteArray();
+        final CRC32 crc = new CRC32();
+        crc.update(frame, HEADER_SIZE, frame.length - HEADER_SIZE);
+        final ByteBuffer header = ByteBuffer.wrap(frame);
+        header.putInt(frame.length - HEADER_SIZE);
+        header.putInt((int) crc.getValue());
+        return frame;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+        } else {
+            final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reads the events of a segment up to the end of the file, the first empty frame or the first frame with an
+     * invalid checksum.
+     *
+     * @return the number of valid bytes at the start of the segment
+     */
+    static long read(File segment, List<AuditTrailEvent> events) throws IOException {
+        final byte[] data = Files.readAllBytes(segment.toPath());
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        final CRC32 crc = new CRC32();
+        while (buffer.remaining() >= HEADER_SIZE) {
+            final int pos = buffer.position();
+            final int len = buffer.getInt();
+            final int checksum = buffer.getInt();
+            if (len <= 0 || len > buffer.remaining()) {
+                return pos;
+            }
+            crc.reset();
+            crc.update(data, pos + HEADER_SIZE, len);
+            if ((int) crc.getValue() != checksum) {
+                return pos;
+            }
+            if (events != null) {
+                events.add(decode(data, pos + HEADER_SIZE, len));
+            }
+            buffer.position(pos + HEADER_SIZE + len);
+        }
+        return buffer.position();
+    }
+
+    private static AuditTrailEvent decode(byte[] data, int offset, int len) throws IOException {
+        final ByteBuffer in = ByteBuffer.wrap(data, offset, len);
+        final byte type = in.get();
+        if (type == SERIALIZED_EVENT) {
+            try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(data, offset + 1, len - 1))) {
+                return (AuditTrailEvent) ois.readObject();
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Unable to deserialize audit trail event", e);
+            }
+        }
+        if (type != EVENT)
+            throw new IOException("Unknown record type " + type);
+        final int logLevel = in.getInt();
+        final Date occurrence = new Date(in.getLong());
+        final String conversationId = readString(in);
+        final String context = readString(in);
+        final String instanceId = readString(in);
+        final String correlationId = readString(in);
+        final String transactionId = readString(in);
+        final String message = readString(in);
+        final String messageType = readString(in);
+        final boolean hasSequenceId = in.get() != 0;
+        final long sequenceId = in.getLong();
+        return new AuditTrailEvent(logLevel, occurrence, conversationId, context, instanceId, correlationId, transactionId, message, messageType, hasSequenceId ? Long.valueOf(sequenceId) : null);
+    }
+
+    private static String readString(ByteBuffer in) {
+        final int len = in.getInt();
+        if (len < 0)
+            return null;
+        final String s = new String(in.array(), in.arrayOffset() + in.position(), len, StandardCharsets.UTF_8);
+        in.position(in.position() + len);
+        return s;
+    }
+}
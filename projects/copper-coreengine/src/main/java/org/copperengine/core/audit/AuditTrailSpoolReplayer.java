@@ -0,0 +1,200 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.sql.DataSource;
+
+import org.copperengine.core.audit.BatchInsertIntoAutoTrail.Command;
+import org.copperengine.core.audit.BatchInsertIntoAutoTrail.Executor;
+import org.copperengine.core.batcher.BatchCommand;
+import org.copperengine.core.batcher.CommandCallback;
+import org.copperengine.core.batcher.NullCallback;
+import org.copperengine.core.db.utility.JdbcUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the closed segments of a {@link SpoolingAuditTrail}'s spool into the audit trail database.
+ * <p>
+ * The events are inserted with the SQL statement, property mapping and message post processor of the specified
+ * {@link BatchingAuditTrail}, which has to be started up, but does not need a batcher. Each segment is inserted in
+ * JDBC batches of <code>batchSize</code> events within a single transaction and deleted after the transaction has
+ * been committed. Delivery is at least once: if the process dies between the commit and the deletion, the segment is
+ * inserted again.
+ * <p>
+ * A segment that contains an invalid record is renamed to <code>*.corrupt</code> after its valid events have been
+ * inserted. A segment whose insert failed <code>maxAttempts</code> times, e.g. because of an event that violates a
+ * column constraint, is renamed to <code>*.failed</code>, so that it does not block the subsequent segments. Failures
+ * to obtain a connection do not count as attempts. Until then, a failed segment stops the replay of the following
+ * segments, in order to keep the events in order.
+ */
+public class AuditTrailSpoolReplayer {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuditTrailSpoolReplayer.class);
+
+    private final File directory;
+    private final BatchingAuditTrail auditTrail;
+    private int batchSize = 500;
+    private long intervalMillis = 1000;
+    private int maxAttempts = 5;
+    private final Map<String, Integer> failedAttempts = new ConcurrentHashMap<String, Integer>();
+    private Thread thread;
+    private volatile boolean shutdown;
+
+    public AuditTrailSpoolReplayer(File directory, BatchingAuditTrail auditTrail) {
+        if (directory == null)
+            throw new NullPointerException();
+        if (auditTrail == null)
+            throw new NullPointerException();
+        this.directory = directory;
+        this.auditTrail = auditTrail;
+    }
+
+    /**
+     * Sets the number of events per JDBC batch, default is 500.
+     */
+    public void setBatchSize(int batchSize) {
+        if (batchSize <= 0)
+            throw new IllegalArgumentException("batchSize must be > 0");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Sets the interval, in which the spool directory is checked for closed segments, default is 1000 msec.
+     */
+    public void setIntervalMillis(long intervalMillis) {
+        if (intervalMillis <= 0)
+            throw new IllegalArgumentException("intervalMillis must be > 0");
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Sets the number of failed attempts to insert a segment, after which it is renamed to <code>*.failed</code>,
+     * default is 5.
+     */
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts <= 0)
+            throw new IllegalArgumentException("maxAttempts must be > 0");
+        this.maxAttempts = maxAttempts;
+    }
+
+    public synchronized void startup() {
+        if (thread != null)
+            throw new IllegalStateException("already started");
+        shutdown = false;
+        thread = new Thread("copper.AuditTrailSpoolReplayer") {
+            @Override
+            public void run() {
+                while (!shutdown) {
+                    try {
+                        replay();
+                    } catch (Exception e) {
+                        logger.error("Replaying audit trail spool in " + directory + " failed - will retry", e);
+                    }
+                    try {
+                        Thread.sleep(intervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void shutdown() throws InterruptedException {
+        if (thread == null)
+            return;
+        shutdown = true;
+        thread.interrupt();
+        thread.join();
+        thread = null;
+    }
+
+    /**
+     * Inserts all closed segments into the database.
+     *
+     * @return the number of inserted events
+     */
+    public int replay() throws Exception {
+        int count = 0;
+        for (File segment : AuditTrailSpool.listSegments(directory, AuditTrailSpool.CLOSED_SUFFIX)) {
+            if (shutdown)
+                break;
+            final Connection con = auditTrail.getDataSource().getConnection();
+            try {
+                count += replay(segment, con);
+                failedAttempts.remove(segment.getName());
+            } catch (Exception e) {
+                final Integer attempts = failedAttempts.get(segment.getName());
+                final int attempt = attempts == null ? 1 : attempts + 1;
+                if (attempt < maxAttempts) {
+                    failedAttempts.put(segment.getName(), attempt);
+                    throw e;
+                }
+                failedAttempts.remove(segment.getName());
+                final File target = new File(directory, segment.getName() + AuditTrailSpool.FAILED_SUFFIX);
+                Files.move(segment.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                logger.error("Replaying spool segment " + segment + " failed " + attempt + " times - moved it to " + target, e);
+            }
+        }
+        return count;
+    }
+
+    private int replay(File segment, Connection con) throws Exception {
+        final long startTS = System.currentTimeMillis();
+        final List<AuditTrailEvent> events = new ArrayList<AuditTrailEvent>();
+        final long validBytes;
+        try {
+            validBytes = AuditTrailSpool.read(segment, events);
+            con.setAutoCommit(false);
+            final CommandCallback<Command> callback = NullCallback.get();
+            for (int i = 0; i < events.size(); i += batchSize) {
+                final List<BatchCommand<Executor, Command>> commands = new ArrayList<BatchCommand<Executor, Command>>(batchSize);
+                for (AuditTrailEvent e : events.subList(i, Math.min(events.size(), i + batchSize))) {
+                    commands.add(auditTrail.createBatchCommand(e, true, callback));
+                }
+                commands.get(0).executor().doExec(commands, con);
+            }
+            con.commit();
+        } catch (Exception e) {
+            con.rollback();
+            throw e;
+        } finally {
+            JdbcUtils.closeConnection(con);
+        }
+
+        if (validBytes < segment.length()) {
+            final File target = new File(directory, segment.getName() + AuditTrailSpool.CORRUPT_SUFFIX);
+            Files.move(segment.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            logger.error("Spool segment {} contains invalid data after {} bytes, replayed {} events and moved it to {}", segment, validBytes, events.size(), target);
+        } else {
+            Files.delete(segment.toPath());
+        }
+        logger.debug("Replayed {} events of {} in {} msec", events.size(), segment, System.currentTimeMillis() - startTS);
+        return events.size();
+    }
+}
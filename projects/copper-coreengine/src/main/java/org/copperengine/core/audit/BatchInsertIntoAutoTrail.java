@@ -40,42 +40,112 @@ public class BatchInsertIntoAutoTrail {
         final AuditTrailEvent data;
         final boolean isOracle;
         final String sqlStmt;
-        final List<Method> propertyGetters;
+        final AuditTrailEventBinder binder;
+        final MessagePostProcessor messagePostProcessor;
+        final Executor executor;
+        boolean messageProcessed;
+        // the post processed message, the event itself is left unchanged
+        String serializedMessage;
 
         public Command(AuditTrailEvent data, boolean isOracle, String sqlStmt, List<Method> propertyGetters, CommandCallback<Command> callback, int timeout) {
+            this(data, isOracle, sqlStmt, new AuditTrailEventBinder.ReflectiveBinder(propertyGetters), null, Executor.INSTANCE, callback, timeout);
+        }
+
+        /**
+         * @param messagePostProcessor
+         *        applied to the event's message by the executor right before the event is written, or
+         *        <code>null</code> if the message is already post processed
+         */
+        public Command(AuditTrailEvent data, boolean isOracle, String sqlStmt, AuditTrailEventBinder binder, MessagePostProcessor messagePostProcessor, Executor executor, CommandCallback<Command> callback, int timeout) {
             super(callback, System.currentTimeMillis() + timeout);
             if (data == null)
                 throw new NullPointerException();
             if (sqlStmt == null)
                 throw new NullPointerException();
-            if (propertyGetters == null)
+            if (binder == null)
+                throw new NullPointerException();
+            if (executor == null)
                 throw new NullPointerException();
             this.data = data;
             this.isOracle = isOracle;
             this.sqlStmt = sqlStmt;
-            this.propertyGetters = propertyGetters;
+            this.binder = binder;
+            this.messagePostProcessor = messagePostProcessor;
+            this.executor = executor;
+            this.messageProcessed = messagePostProcessor == null;
         }
 
         @Override
         public Executor executor() {
-            return Executor.INSTANCE;
+            return executor;
+        }
+
+        /**
+         * @return the message to write, i.e. the post processed message if a post processor is applied by the executor
+         */
+        String message() {
+            return messagePostProcessor == null ? data.getMessage() : serializedMessage;
         }
 
     }
 
+    /**
+     * Executes batches of audit trail inserts.
+     * <p>
+     * In adaptive mode the preferred batch size is doubled, up to the maximum batch size, whenever a batch filled up
+     * to the preferred size, i.e. while events are arriving faster than they are written. It is halved again, down to
+     * the configured preferred batch size, when batches are less than half full.
+     */
     public static final class Executor extends BatchExecutor<Executor, Command> {
 
         private static final Executor INSTANCE = new Executor();
         private static final Logger logger = LoggerFactory.getLogger(Executor.class);
 
+        private final int minPreferredBatchSize;
+        private final int maximumBatchSize;
+        private final boolean adaptive;
+        private final AuditTrailBulkWriter bulkWriter;
+        private volatile int preferredBatchSize;
+
+        public Executor() {
+            this(20, 50, false);
+        }
+
+        public Executor(int preferredBatchSize, int maximumBatchSize, boolean adaptive) {
+            this(preferredBatchSize, maximumBatchSize, adaptive, null);
+        }
+
+        Executor(int preferredBatchSize, int maximumBatchSize, boolean adaptive, AuditTrailBulkWriter bulkWriter) {
+            if (preferredBatchSize <= 0)
+                throw new IllegalArgumentException("preferredBatchSize must be > 0");
+            if (maximumBatchSize < preferredBatchSize)
+                throw new IllegalArgumentException("maximumBatchSize must not be less than preferredBatchSize");
+            this.minPreferredBatchSize = preferredBatchSize;
+            this.preferredBatchSize = preferredBatchSize;
+            this.maximumBatchSize = maximumBatchSize;
+            this.adaptive = adaptive;
+            this.bulkWriter = bulkWriter;
+        }
+
         @Override
         public int maximumBatchSize() {
-            return 50;
+            return maximumBatchSize;
         }
 
         @Override
         public int preferredBatchSize() {
-            return 20;
+            return preferredBatchSize;
+        }
+
+        void adaptBatchSize(int batchSize) {
+            if (!adaptive)
+                return;
+            final int current = preferredBatchSize;
+            if (batchSize >= current && current < maximumBatchSize) {
+                preferredBatchSize = Math.min(maximumBatchSize, current * 2);
+            } else if (batchSize < current / 2 && current > minPreferredBatchSize) {
+                preferredBatchSize = Math.max(minPreferredBatchSize, current / 2);
+            }
         }
 
         @SuppressWarnings("resource")
@@ -87,7 +157,30 @@ public class BatchInsertIntoAutoTrail {
             final Command firstCommand = (Command) commands.iterator().next();
             final boolean isOracle = firstCommand.isOracle;
             final String sqlStmt = firstCommand.sqlStmt;
-            final List<Method> propertyGetters = firstCommand.propertyGetters;
+
+            for (BatchCommand<Executor, Command> _cmd : commands) {
+                Command cmd = (Command) _cmd;
+                if (!cmd.messageProcessed) {
+                    cmd.serializedMessage = cmd.messagePostProcessor.serialize(cmd.data.getMessage());
+                    cmd.messageProcessed = true;
+                }
+            }
+
+            if (bulkWriter != null && !isOracle) {
+                for (BatchCommand<Executor, Command> _cmd : commands) {
+                    if (((Command) _cmd).data.getSequenceId() != null) {
+                        throw new UnsupportedOperationException("Custom SequenceId currently not supported for this DBMS");
+                    }
+                }
+                try {
+                    bulkWriter.write(commands, con);
+                } catch (SQLException e) {
+                    logger.error("bulk insert into audit trail failed", e);
+                    throw e;
+                }
+                adaptBatchSize(commands.size());
+                return;
+            }
 
             PreparedStatement preparedStmt = null;
             try {
@@ -108,28 +201,11 @@ public class BatchInsertIntoAutoTrail {
                             throw new UnsupportedOperationException("Custom SequenceId currently not supported for this DBMS");
                         }
                     }
-                    for (Method m : propertyGetters) {
-                        try {
-                            Object value = null;
-                            if (m.getDeclaringClass().isAssignableFrom(data.getClass())) {
-                                value = m.invoke(data, (Object[]) null);
-                            }
-                            if (value != null) {
-                                if (value instanceof Date) {
-                                    value = new Timestamp(((Date) value).getTime());
-                                }
-                                preparedStmt.setObject(idx++, value, guessJdbcType(m));
-                            } else {
-                                preparedStmt.setNull(idx++, guessJdbcType(m));
-                            }
-                        } catch (SQLException e) {
-                            logger.error("Setting property " + m + " failed", e);
-                            throw e;
-                        }
-                    }
+                    cmd.binder.bind(preparedStmt, idx, data, cmd.message());
                     preparedStmt.addBatch();
                 }
                 preparedStmt.executeBatch();
+                adaptBatchSize(commands.size());
             } catch (SQLException e) {
                 logger.error(firstCommand.sqlStmt + " failed", e);
                 throw e;
@@ -24,10 +24,11 @@ import java.sql.Connection;
 import java.util.ArrayList;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.sql.DataSource;
 
-import org.copperengine.core.Acknowledge;
+import org.copperengine.core.CopperRuntimeException;
 import org.copperengine.core.batcher.Batcher;
 import org.copperengine.core.batcher.CommandCallback;
 import org.copperengine.core.db.utility.JdbcUtils;
@@ -88,6 +89,12 @@ public class BatchingAuditTrail implements AuditTrail, AuditTrailMXBean {
     // TODO: do not explore the database type, set it as an parameter (isOracle)
     private boolean isOracle;
     private String sqlStmt;
+    private AuditTrailEventBinder binder;
+    private int preferredBatchSize = 20;
+    private int maximumBatchSize = 50;
+    private boolean adaptiveBatchSize = false;
+    private boolean bulkInsert = false;
+    private BatchInsertIntoAutoTrail.Executor executor;
 
     public BatchingAuditTrail() {
         mapping = createDefaultMapping();
@@ -140,6 +147,57 @@ public class BatchingAuditTrail implements AuditTrail, AuditTrailMXBean {
         this.mapping = mapping;
     }
 
+    /**
+     * Sets the number of events that is written as soon as it is available, default is 20.
+     */
+    public void setPreferredBatchSize(int preferredBatchSize) {
+        if (preferredBatchSize <= 0)
+            throw new IllegalArgumentException("preferredBatchSize must be > 0");
+        this.preferredBatchSize = preferredBatchSize;
+    }
+
+    public int getPreferredBatchSize() {
+        return preferredBatchSize;
+    }
+
+    /**
+     * Sets the maximum number of events written in one JDBC batch, default is 50.
+     */
+    public void setMaximumBatchSize(int maximumBatchSize) {
+        if (maximumBatchSize <= 0)
+            throw new IllegalArgumentException("maximumBatchSize must be > 0");
+        this.maximumBatchSize = maximumBatchSize;
+    }
+
+    public int getMaximumBatchSize() {
+        return maximumBatchSize;
+    }
+
+    /**
+     * If <code>true</code>, the preferred batch size grows up to the maximum batch size under load and shrinks back to
+     * the configured preferred batch size when the load decreases. Default is <code>false</code>.
+     */
+    public void setAdaptiveBatchSize(boolean adaptiveBatchSize) {
+        this.adaptiveBatchSize = adaptiveBatchSize;
+    }
+
+    public boolean isAdaptiveBatchSize() {
+        return adaptiveBatchSize;
+    }
+
+    /**
+     * If <code>true</code>, batches are written with <code>COPY</code> on PostgreSQL and with multi row inserts on
+     * MySQL and H2, see {@link AuditTrailBulkWriter}. Other databases always use JDBC batches. Default is
+     * <code>false</code>.
+     */
+    public void setBulkInsert(boolean bulkInsert) {
+        this.bulkInsert = bulkInsert;
+    }
+
+    public boolean isBulkInsert() {
+        return bulkInsert;
+    }
+
     public void setAdditionalMapping(List<Property2ColumnMapping> mapping) {
         ArrayList<Property2ColumnMapping> newMapping = new ArrayList<BatchingAuditTrail.Property2ColumnMapping>();
         newMapping.addAll(mapping);
@@ -150,12 +208,25 @@ public class BatchingAuditTrail implements AuditTrail, AuditTrailMXBean {
     public void startup() throws Exception {
         logger.info("Starting up...");
         final Connection con = dataSource.getConnection();
+        final String databaseProductName;
         try {
-            isOracle = con.getMetaData().getDatabaseProductName().equalsIgnoreCase("oracle");
+            databaseProductName = con.getMetaData().getDatabaseProductName();
+            isOracle = databaseProductName.equalsIgnoreCase("oracle");
         } finally {
             JdbcUtils.closeConnection(con);
         }
         sqlStmt = createSqlStmt();
+        binder = AuditTrailEventBinder.create(auditTrailEventClass, propertyGetters);
+        AuditTrailBulkWriter bulkWriter = null;
+        if (bulkInsert && !isOracle) {
+            final List<String> columns = new ArrayList<String>(mapping.size());
+            for (Property2ColumnMapping entry : mapping) {
+                columns.add(entry.getColumnName());
+            }
+            bulkWriter = AuditTrailBulkWriter.create(databaseProductName, dbTable, columns);
+        }
+        logger.info("Using {} to write audit trail batches", bulkWriter == null ? "JDBC batches" : bulkWriter.getClass().getSimpleName());
+        executor = new BatchInsertIntoAutoTrail.Executor(preferredBatchSize, maximumBatchSize, adaptiveBatchSize, bulkWriter);
     }
 
     private String createSqlStmt() throws IntrospectionException {
@@ -232,28 +303,15 @@ public class BatchingAuditTrail implements AuditTrail, AuditTrailMXBean {
 
     @Override
     public void asynchLog(AuditTrailEvent e) {
-        doLog(e, new Acknowledge.BestEffortAcknowledge(), false);
-    }
-
-    private boolean doLog(AuditTrailEvent e, final Acknowledge ack, boolean immediate) {
-        CommandCallback<BatchInsertIntoAutoTrail.Command> callback = new CommandCallback<BatchInsertIntoAutoTrail.Command>() {
-            @Override
-            public void commandCompleted() {
-                ack.onSuccess();
-            }
-
-            @Override
-            public void unhandledException(Exception e) {
-                ack.onException(e);
-            }
-        };
-        return doLog(e, immediate, callback);
+        doLog(e, false, bestEffortCallback);
     }
 
+    /**
+     * The message post processor is applied by the batcher thread, see {@link BatchInsertIntoAutoTrail.Executor}.
+     */
     private boolean doLog(AuditTrailEvent e, boolean immediate, CommandCallback<BatchInsertIntoAutoTrail.Command> callback) {
         if (isEnabled(e.logLevel)) {
             logger.debug("doLog({})", e);
-            e.setMessage(messagePostProcessor.serialize(e.message));
             batcher.submitBatchCommand(createBatchCommand(e, immediate, callback));
             return true;
         }
@@ -262,7 +320,7 @@ public class BatchingAuditTrail implements AuditTrail, AuditTrailMXBean {
 
     protected BatchInsertIntoAutoTrail.Command createBatchCommand(AuditTrailEvent e, boolean immediate,
             CommandCallback<BatchInsertIntoAutoTrail.Command> callback) {
-        return new BatchInsertIntoAutoTrail.Command(e, isOracle, sqlStmt, propertyGetters, callback, immediate ? 0 : 250);
+        return new BatchInsertIntoAutoTrail.Command(e, isOracle, sqlStmt, binder, messagePostProcessor, executor, callback, immediate ? 0 : 250);
     }
 
     @Override
@@ -283,9 +341,9 @@ public class BatchingAuditTrail implements AuditTrail, AuditTrailMXBean {
 
     @Override
     public void synchLog(final AuditTrailEvent event) {
-        Acknowledge.DefaultAcknowledge ack = new Acknowledge.DefaultAcknowledge();
-        if (doLog(event, ack, true)) {
-            ack.waitForAcknowledge();
+        final SynchCallback callback = new SynchCallback();
+        if (doLog(event, true, callback)) {
+            callback.await();
         }
     }
 
@@ -293,4 +351,50 @@ public class BatchingAuditTrail implements AuditTrail, AuditTrailMXBean {
         return dataSource;
     }
 
+    private static final CommandCallback<BatchInsertIntoAutoTrail.Command> bestEffortCallback = new CommandCallback<BatchInsertIntoAutoTrail.Command>() {
+        @Override
+        public void commandCompleted() {
+        }
+
+        @Override
+        public void unhandledException(Exception e) {
+        }
+    };
+
+    /**
+     * Callback for {@link BatchingAuditTrail#synchLog(AuditTrailEvent)}, parks the logging thread until the batch
+     * containing its event is written.
+     */
+    private static final class SynchCallback implements CommandCallback<BatchInsertIntoAutoTrail.Command> {
+
+        private final Thread waiter = Thread.currentThread();
+        private volatile boolean done;
+        private volatile Exception exception;
+
+        @Override
+        public void commandCompleted() {
+            done = true;
+            LockSupport.unpark(waiter);
+        }
+
+        @Override
+        public void unhandledException(Exception e) {
+            exception = e;
+            done = true;
+            LockSupport.unpark(waiter);
+        }
+
+        void await() {
+            while (!done) {
+                LockSupport.park(this);
+                if (Thread.interrupted()) {
+                    Thread.currentThread().interrupt();
+                    throw new CopperRuntimeException(new InterruptedException());
+                }
+            }
+            if (exception != null)
+                throw new CopperRuntimeException(exception);
+        }
+    }
+
 }
@@ -15,9 +15,20 @@
  */
 package org.copperengine.core.audit;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectStreamConstants;
+import java.io.Reader;
+import java.io.StreamCorruptedException;
+import java.io.UTFDataFormatException;
+import java.util.zip.InflaterInputStream;
+
 import org.copperengine.core.persistent.StandardJavaSerializer;
+import org.copperengine.core.util.Base64;
 
-public class CompressedBase64PostProcessor implements MessagePostProcessor {
+public class CompressedBase64PostProcessor implements StreamingMessagePostProcessor {
 
     private StandardJavaSerializer serializer = new StandardJavaSerializer();
 
@@ -39,4 +50,81 @@ public class CompressedBase64PostProcessor implements MessagePostProcessor {
         }
     }
 
+    /**
+     * Decodes the Base64 text, inflates it and reads the java serialized string while the returned reader is read.
+     */
+    @Override
+    public Reader deserializeStream(Reader msg) throws IOException {
+        final int type = msg.read();
+        if (type == -1)
+            return null;
+        InputStream in = Base64.decodingStream(msg);
+        if (type == 'C') {
+            in = new InflaterInputStream(in);
+        }
+        final DataInputStream data = new DataInputStream(new BufferedInputStream(in));
+        if (data.readShort() != ObjectStreamConstants.STREAM_MAGIC || data.readShort() != ObjectStreamConstants.STREAM_VERSION)
+            throw new StreamCorruptedException("invalid stream header");
+        final byte tc = data.readByte();
+        if (tc == ObjectStreamConstants.TC_NULL)
+            return null;
+        if (tc == ObjectStreamConstants.TC_STRING)
+            return new ModifiedUtf8Reader(data, data.readUnsignedShort());
+        if (tc == ObjectStreamConstants.TC_LONGSTRING)
+            return new ModifiedUtf8Reader(data, data.readLong());
+        throw new StreamCorruptedException("not a serialized string");
+    }
+
+    /**
+     * Reads the modified UTF-8 encoding of a serialized string, see {@link java.io.DataInput}.
+     */
+    private static final class ModifiedUtf8Reader extends Reader {
+
+        private final InputStream in;
+        private long remaining;
+
+        ModifiedUtf8Reader(InputStream in, long length) {
+            this.in = in;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read(char[] cbuf, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            if (remaining <= 0)
+                return -1;
+            int n = 0;
+            while (n < len && remaining > 0) {
+                final int b = next();
+                final char c;
+                if ((b & 0x80) == 0) {
+                    c = (char) b;
+                } else if ((b & 0xE0) == 0xC0) {
+                    c = (char) (((b & 0x1F) << 6) | (next() & 0x3F));
+                } else if ((b & 0xF0) == 0xE0) {
+                    c = (char) (((b & 0x0F) << 12) | ((next() & 0x3F) << 6) | (next() & 0x3F));
+                } else {
+                    throw new UTFDataFormatException("malformed input");
+                }
+                cbuf[off + n++] = c;
+            }
+            return n;
+        }
+
+        private int next() throws IOException {
+            if (remaining-- <= 0)
+                throw new UTFDataFormatException("malformed input: partial character at end");
+            final int b = in.read();
+            if (b < 0)
+                throw new UTFDataFormatException("unexpected end of stream");
+            return b;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
 }
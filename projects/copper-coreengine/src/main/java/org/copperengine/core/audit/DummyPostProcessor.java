@@ -15,7 +15,9 @@
  */
 package org.copperengine.core.audit;
 
-public class DummyPostProcessor implements MessagePostProcessor {
+import java.io.Reader;
+
+public class DummyPostProcessor implements StreamingMessagePostProcessor {
 
     @Override
     public String serialize(String msg) {
@@ -26,4 +28,9 @@ public class DummyPostProcessor implements MessagePostProcessor {
     public String deserialize(String msg) {
         return msg;
     }
+
+    @Override
+    public Reader deserializeStream(Reader msg) {
+        return msg;
+    }
 }
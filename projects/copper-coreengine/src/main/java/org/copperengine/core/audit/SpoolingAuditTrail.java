@@ -0,0 +1,422 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.copperengine.core.CopperRuntimeException;
+import org.copperengine.management.AuditTrailMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Audit trail that appends events to a local file spool instead of writing them to the database.
+ * <p>
+ * Appending an event is a sequential write into a buffered segment file, so a slow audit trail database never slows
+ * down the workflows and audit trail inserts do not compete with the engine's own commands in the {@link
+ * org.copperengine.core.batcher.Batcher}. The events are loaded into the database at its own pace by an
+ * {@link AuditTrailSpoolReplayer}, which may run in this JVM or in a separate process on the same spool directory.
+ * <p>
+ * A single sync thread forces the open segment to disk every <code>syncIntervalMillis</code>, or as soon as a
+ * {@link #synchLog(AuditTrailEvent)} is waiting, and acknowledges all events appended up to that point at once.
+ * <code>synchLog</code> returns after its event has been forced to disk, <code>asynchLog</code> returns immediately
+ * and calls its callback after the event has been forced to disk.
+ * <p>
+ * The open segment is closed when it exceeds <code>segmentSize</code> or when its first event is older than
+ * <code>rollIntervalMillis</code>. Open segments left over by a crash are truncated after their last valid event
+ * and closed by {@link #startup()}.
+ */
+public class SpoolingAuditTrail implements AuditTrail, AuditTrailMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpoolingAuditTrail.class);
+
+    private static final class PendingSync {
+        final long ticket;
+        final AuditTrailCallback callback;
+        boolean done;
+        Exception exception;
+
+        PendingSync(long ticket, AuditTrailCallback callback) {
+            this.ticket = ticket;
+            this.callback = callback;
+        }
+    }
+
+    private final File directory;
+    private int level = 5;
+    private long segmentSize = 16L * 1024 * 1024;
+    private long rollIntervalMillis = 5000;
+    private long syncIntervalMillis = 20;
+
+    // guarded by appendMutex
+    private final Object appendMutex = new Object();
+    private long segmentSeq;
+    private File segmentFile;
+    private FileChannel channel;
+    private OutputStream out;
+    private long segmentBytes;
+    private long segmentFirstAppendTS;
+    private long appendTicket;
+    private volatile boolean rollRequested;
+
+    // guarded by syncMutex
+    private final Object syncMutex = new Object();
+    private final List<PendingSync> pendingSyncs = new ArrayList<PendingSync>();
+    private long syncedTicket;
+    private boolean syncRequested;
+
+    private Thread syncThread;
+    private volatile boolean shutdown;
+
+    public SpoolingAuditTrail(File directory) {
+        if (directory == null)
+            throw new NullPointerException();
+        this.directory = directory;
+    }
+
+    @Override
+    public void setLevel(int level) {
+        this.level = level;
+    }
+
+    @Override
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public boolean isEnabled(int level) {
+        return this.level >= level;
+    }
+
+    /**
+     * Sets the size, at which the open segment is closed, default is 16 MB.
+     */
+    public void setSegmentSize(long segmentSize) {
+        if (segmentSize < 4096)
+            throw new IllegalArgumentException("segmentSize must be >= 4096");
+        this.segmentSize = segmentSize;
+    }
+
+    /**
+     * Sets the maximum age of the first event in the open segment, before the segment is closed and handed over to
+     * the replayer, default is 5000 msec.
+     */
+    public void setRollIntervalMillis(long rollIntervalMillis) {
+        if (rollIntervalMillis <= 0)
+            throw new IllegalArgumentException("rollIntervalMillis must be > 0");
+        this.rollIntervalMillis = rollIntervalMillis;
+    }
+
+    /**
+     * Sets the interval, in which asynchronously logged events are forced to disk, default is 20 msec.
+     */
+    public void setSyncIntervalMillis(long syncIntervalMillis) {
+        if (syncIntervalMillis <= 0)
+            throw new IllegalArgumentException("syncIntervalMillis must be > 0");
+        this.syncIntervalMillis = syncIntervalMillis;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public synchronized void startup() throws IOException {
+        if (syncThread != null)
+            throw new IllegalStateException("already started");
+        logger.info("Starting up spool in {}...", directory);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new IOException("Unable to create directory " + directory);
+        long maxSeq = 0;
+        for (File f : AuditTrailSpool.listSegments(directory, AuditTrailSpool.OPEN_SUFFIX)) {
+            maxSeq = Math.max(maxSeq, AuditTrailSpool.sequenceOf(f));
+            recover(f);
+        }
+        for (File f : AuditTrailSpool.listSegments(directory, AuditTrailSpool.CLOSED_SUFFIX)) {
+            maxSeq = Math.max(maxSeq, AuditTrailSpool.sequenceOf(f));
+        }
+        synchronized (appendMutex) {
+            segmentSeq = maxSeq;
+            openSegment();
+        }
+        shutdown = false;
+        syncThread = new Thread("copper.SpoolingAuditTrail.sync") {
+            @Override
+            public void run() {
+                syncLoop();
+            }
+        };
+        syncThread.setDaemon(true);
+        syncThread.start();
+    }
+
+    /**
+     * Stops the sync thread, forces and closes the open segment.
+     */
+    public synchronized void shutdown() throws InterruptedException {
+        if (syncThread == null)
+            return;
+        logger.info("Shutting down spool in {}...", directory);
+        shutdown = true;
+        synchronized (syncMutex) {
+            syncMutex.notifyAll();
+        }
+        syncThread.join();
+        syncThread = null;
+        try {
+            synchronized (appendMutex) {
+                closeSegment();
+                out = null;
+            }
+            completeSyncs(Long.MAX_VALUE, null);
+        } catch (IOException e) {
+            logger.error("closing segment " + segmentFile + " failed", e);
+            completeSyncs(Long.MAX_VALUE, e);
+        }
+    }
+
+    @Override
+    public void synchLog(int logLevel, Date occurrence, String conversationId, String context, String instanceId, String correlationId, String transactionId, String message, String messageType) {
+        synchLog(new AuditTrailEvent(logLevel, occurrence, conversationId, context, instanceId, correlationId, transactionId, message, messageType, null));
+    }
+
+    @Override
+    public void asynchLog(int logLevel, Date occurrence, String conversationId, String context, String instanceId, String correlationId, String transactionId, String message, String messageType) {
+        asynchLog(new AuditTrailEvent(logLevel, occurrence, conversationId, context, instanceId, correlationId, transactionId, message, messageType, null));
+    }
+
+    @Override
+    public void asynchLog(int logLevel, Date occurrence, String conversationId, String context, String instanceId, String correlationId, String transactionId, String message, String messageType, AuditTrailCallback cb) {
+        asynchLog(new AuditTrailEvent(logLevel, occurrence, conversationId, context, instanceId, correlationId, transactionId, message, messageType, null), cb);
+    }
+
+    @Override
+    public void asynchLog(AuditTrailEvent e) {
+        if (isEnabled(e.getLogLevel())) {
+            append(e);
+        }
+    }
+
+    @Override
+    public void asynchLog(AuditTrailEvent e, AuditTrailCallback cb) {
+        if (!isEnabled(e.getLogLevel())) {
+            cb.done();
+            return;
+        }
+        final long ticket;
+        try {
+            ticket = append(e);
+        } catch (RuntimeException ex) {
+            cb.error(ex);
+            return;
+        }
+        synchronized (syncMutex) {
+            if (syncedTicket < ticket) {
+                pendingSyncs.add(new PendingSync(ticket, cb));
+                return;
+            }
+        }
+        cb.done();
+    }
+
+    @Override
+    public void synchLog(AuditTrailEvent e) {
+        if (!isEnabled(e.getLogLevel()))
+            return;
+        final long ticket = append(e);
+        final PendingSync pendingSync = new PendingSync(ticket, null);
+        synchronized (syncMutex) {
+            if (syncedTicket >= ticket)
+                return;
+            pendingSyncs.add(pendingSync);
+            syncRequested = true;
+            syncMutex.notifyAll();
+            while (!pendingSync.done) {
+                try {
+                    syncMutex.wait();
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new CopperRuntimeException(ie);
+                }
+            }
+        }
+        if (pendingSync.exception != null)
+            throw new CopperRuntimeException(pendingSync.exception);
+    }
+
+    private long append(AuditTrailEvent e) {
+        try {
+            final byte[] frame = AuditTrailSpool.encode(e);
+            synchronized (appendMutex) {
+                if (out == null)
+                    throw new IllegalStateException("SpoolingAuditTrail is not started");
+                out.write(frame);
+                if (segmentBytes == 0) {
+                    segmentFirstAppendTS = System.currentTimeMillis();
+                }
+                segmentBytes += frame.length;
+                if (segmentBytes >= segmentSize) {
+                    rollRequested = true;
+                }
+                return ++appendTicket;
+            }
+        } catch (IOException ex) {
+            throw new CopperRuntimeException("Unable to append audit trail event to spool", ex);
+        }
+    }
+
+    private void syncLoop() {
+        while (!shutdown) {
+            synchronized (syncMutex) {
+                if (!syncRequested) {
+                    try {
+                        syncMutex.wait(syncIntervalMillis);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+                syncRequested = false;
+            }
+            try {
+                final long ticket;
+                final boolean rolled;
+                final FileChannel segmentChannel;
+                synchronized (appendMutex) {
+                    rolled = rollRequested || (segmentBytes > 0 && System.currentTimeMillis() - segmentFirstAppendTS >= rollIntervalMillis);
+                    if (rolled) {
+                        closeSegment();
+                        openSegment();
+                    } else {
+                        out.flush();
+                    }
+                    ticket = appendTicket;
+                    segmentChannel = channel;
+                }
+                if (rolled) {
+                    completeSyncs(ticket, null);
+                } else if (ticket > syncedTicket()) {
+                    // appenders may continue while the segment is forced, only this thread closes segments
+                    segmentChannel.force(false);
+                    completeSyncs(ticket, null);
+                }
+            } catch (Exception e) {
+                logger.error("Syncing audit trail spool failed", e);
+                long ticket;
+                synchronized (appendMutex) {
+                    ticket = appendTicket;
+                }
+                completeSyncs(ticket, e);
+            }
+        }
+    }
+
+    private long syncedTicket() {
+        synchronized (syncMutex) {
+            return syncedTicket;
+        }
+    }
+
+    private void completeSyncs(long ticket, Exception exception) {
+        final List<PendingSync> done = new ArrayList<PendingSync>();
+        synchronized (syncMutex) {
+            if (exception == null && ticket > syncedTicket && ticket != Long.MAX_VALUE) {
+                syncedTicket = ticket;
+            }
+            for (Iterator<PendingSync> iter = pendingSyncs.iterator(); iter.hasNext();) {
+                final PendingSync pendingSync = iter.next();
+                if (pendingSync.ticket <= ticket) {
+                    iter.remove();
+                    pendingSync.done = true;
+                    pendingSync.exception = exception;
+                    if (pendingSync.callback != null) {
+                        done.add(pendingSync);
+                    }
+                }
+            }
+            syncMutex.notifyAll();
+        }
+        for (PendingSync pendingSync : done) {
+            try {
+                if (exception == null) {
+                    pendingSync.callback.done();
+                } else {
+                    pendingSync.callback.error(exception);
+                }
+            } catch (RuntimeException e) {
+                logger.error("AuditTrailCallback failed", e);
+            }
+        }
+    }
+
+    /*
+     * caller must hold appendMutex
+     */
+    private void openSegment() throws IOException {
+        segmentSeq++;
+        segmentFile = AuditTrailSpool.segmentFile(directory, segmentSeq, AuditTrailSpool.OPEN_SUFFIX);
+        final FileOutputStream fos = new FileOutputStream(segmentFile);
+        channel = fos.getChannel();
+        out = new BufferedOutputStream(fos, 64 * 1024);
+        segmentBytes = 0;
+        rollRequested = false;
+    }
+
+    /*
+     * caller must hold appendMutex
+     */
+    private void closeSegment() throws IOException {
+        out.flush();
+        channel.force(false);
+        out.close();
+        if (segmentBytes == 0) {
+            Files.delete(segmentFile.toPath());
+        } else {
+            final File closed = AuditTrailSpool.segmentFile(directory, segmentSeq, AuditTrailSpool.CLOSED_SUFFIX);
+            Files.move(segmentFile.toPath(), closed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            logger.debug("Closed spool segment {} with {} bytes", closed, segmentBytes);
+        }
+    }
+
+    private void recover(File openSegment) throws IOException {
+        final long validBytes = AuditTrailSpool.read(openSegment, null);
+        if (validBytes == 0) {
+            Files.delete(openSegment.toPath());
+            return;
+        }
+        if (validBytes < openSegment.length()) {
+            logger.warn("Truncating spool segment {} from {} to {} bytes", openSegment, openSegment.length(), validBytes);
+            try (RandomAccessFile raf = new RandomAccessFile(openSegment, "rw")) {
+                raf.setLength(validBytes);
+                raf.getFD().sync();
+            }
+        }
+        final File closed = AuditTrailSpool.segmentFile(directory, AuditTrailSpool.sequenceOf(openSegment), AuditTrailSpool.CLOSED_SUFFIX);
+        Files.move(openSegment.toPath(), closed.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        logger.info("Recovered spool segment {}", closed);
+    }
+}
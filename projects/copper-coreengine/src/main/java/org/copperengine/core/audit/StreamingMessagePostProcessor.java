@@ -0,0 +1,35 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * A {@link MessagePostProcessor}, that is able to deserialize a message while it is read, so that only the requested
+ * part of a large message has to be decoded.
+ */
+public interface StreamingMessagePostProcessor extends MessagePostProcessor {
+
+    /**
+     * @param msg
+     *        the serialized message
+     * @return a reader of the deserialized message, or <code>null</code> if the serialized message stands for
+     *         <code>null</code>
+     */
+    public Reader deserializeStream(Reader msg) throws IOException;
+
+}
@@ -25,6 +25,8 @@ import org.copperengine.core.batcher.BatchExecutorBase;
 import org.copperengine.core.batcher.BatchRunner;
 import org.copperengine.core.batcher.Batcher;
 import org.copperengine.core.batcher.impl.BatcherQueue.State;
+import org.copperengine.core.monitoring.EngineEventRecorder;
+import org.copperengine.core.monitoring.EngineEvents;
 import org.copperengine.core.monitoring.NullRuntimeStatisticsCollector;
 import org.copperengine.core.monitoring.RuntimeStatisticsCollector;
 import org.copperengine.management.BatcherMXBean;
@@ -61,9 +63,15 @@ public class BatcherImpl implements Batcher, BatcherMXBean {
                         return;
                     }
                     final BatchExecutorBase e = commands.get(0).executor();
+                    final EngineEventRecorder eventRecorder = EngineEvents.recorder();
+                    final boolean recordEvent = eventRecorder.isEnabled();
+                    final long startNanos = recordEvent ? System.nanoTime() : 0L;
                     final long startTS = System.currentTimeMillis();
                     batchRunner.run(commands, e);
                     statisticsCollector.submit(e.id(), commands.size(), System.currentTimeMillis() - startTS, TimeUnit.MILLISECONDS);
+                    if (recordEvent) {
+                        eventRecorder.batchExecuted(e.id(), commands.size(), startNanos);
+                    }
 
                 } catch (InterruptedException e) {
                     logger.warn("Interrupted", e);
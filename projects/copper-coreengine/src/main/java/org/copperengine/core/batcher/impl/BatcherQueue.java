@@ -49,12 +49,14 @@ class BatcherQueue {
         };
 
         long minTargetTime = Long.MAX_VALUE;
+        final BatchExecutorBase<?, ?> executor;
         int preferredSize;
         int maximumSize;
         BatchCommandArray batch;
         Condition signaller;
 
         BatchInfo(BatchExecutorBase<?, ?> executor) {
+            this.executor = executor;
             this.preferredSize = executor.preferredBatchSize();
             this.maximumSize = executor.maximumBatchSize();
             if (maximumSize < preferredSize)
@@ -63,11 +65,24 @@ class BatcherQueue {
             this.batch = new BatchCommandArray(executor.prioritize(), initialArraySize());
         }
 
+        /**
+         * Executors may adapt their batch sizes at runtime, they are picked up whenever a batch is removed.
+         */
+        void refreshBatchSizes() {
+            final int preferred = executor.preferredBatchSize();
+            final int maximum = executor.maximumBatchSize();
+            if (preferred > 0 && maximum >= preferred) {
+                preferredSize = preferred;
+                maximumSize = maximum;
+            }
+        }
+
         int initialArraySize() {
             return Math.min(preferredSize * 2, maximumSize);
         }
 
         public List<BatchCommand<?, ?>> removeCommands(boolean stopped) {
+            refreshBatchSizes();
             int batchSize = batch.size();
             if (batchSize <= maximumSize) {
                 BatchCommandArray commands = this.batch;
@@ -98,7 +113,7 @@ class BatcherQueue {
          */
         Long add(BatchCommand<?, ?> cmd) {
             batch.add(cmd);
-            if (this.preferredSize == batch.size() && minTargetTime > 0)
+            if (batch.size() >= this.preferredSize && minTargetTime > 0)
                 return (minTargetTime = 0);
             if (cmd.targetTime() < minTargetTime)
                 return (minTargetTime = cmd.targetTime());
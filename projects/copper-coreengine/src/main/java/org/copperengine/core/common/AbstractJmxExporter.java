@@ -16,6 +16,7 @@
 package org.copperengine.core.common;
 
 import java.lang.management.ManagementFactory;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -32,9 +33,11 @@ import org.copperengine.management.AuditTrailMXBean;
 import org.copperengine.management.AuditTrailQueryMXBean;
 import org.copperengine.management.BatcherMXBean;
 import org.copperengine.management.DatabaseDialectMXBean;
+import org.copperengine.management.EarlyResponseContainerMXBean;
 import org.copperengine.management.ProcessingEngineMXBean;
 import org.copperengine.management.ProcessorPoolMXBean;
 import org.copperengine.management.StatisticsCollectorMXBean;
+import org.copperengine.management.StorageCacheMXBean;
 import org.copperengine.management.WorkflowRepositoryMXBean;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -62,6 +65,8 @@ public abstract class AbstractJmxExporter {
         register(mBeanServer, getBatcherMXBeans(), "copper.db");
         register(mBeanServer, getDatabaseDialectMXBeans(), "copper.db");
         register(mBeanServer, getAuditTrailQueryMXBeans(), "copper.audittrail");
+        register(mBeanServer, getEarlyResponseContainerMXBeans(), "copper.engine");
+        register(mBeanServer, getStorageCacheMXBeans(), "copper.db");
     }
 
     public void shutdown() throws MBeanRegistrationException, InstanceNotFoundException {
@@ -111,6 +116,21 @@ public abstract class AbstractJmxExporter {
      */
     protected abstract Map<String, AuditTrailQueryMXBean> getAuditTrailQueryMXBeans();
 
+    /**
+     * @return a map with entries { "name" -&gt; EarlyResponseContainerMXBean }. The map may be empty, which is the
+     *         default.
+     */
+    protected Map<String, EarlyResponseContainerMXBean> getEarlyResponseContainerMXBeans() {
+        return Collections.emptyMap();
+    }
+
+    /**
+     * @return a map with entries { "name" -&gt; StorageCacheMXBean }. The map may be empty, which is the default.
+     */
+    protected Map<String, StorageCacheMXBean> getStorageCacheMXBeans() {
+        return Collections.emptyMap();
+    }
+
     private void register(MBeanServer mBeanServer, Map<String, ?> map, String domain) throws MalformedObjectNameException, InstanceAlreadyExistsException, MBeanRegistrationException, NotCompliantMBeanException {
         for (Map.Entry<String, ?> entry : map.entrySet()) {
             ObjectName name = new ObjectName(domain, "name", entry.getKey());
@@ -39,6 +39,7 @@ public class DefaultProcessorPoolManager<T extends ProcessorPool> implements Pro
     private boolean started = false;
     private boolean stopped = false;
     private ProcessingEngine engine;
+    private SharedExecutionBudget executionBudget;
 
     @Override
     public T getProcessorPool(String poolId) {
@@ -52,6 +53,7 @@ public class DefaultProcessorPoolManager<T extends ProcessorPool> implements Pro
         if (stopped)
             throw new IllegalStateException();
 
+        applyExecutionBudget(pool);
         if (started) {
             pool.setEngine(engine);
             pool.startup();
@@ -123,4 +125,30 @@ public class DefaultProcessorPoolManager<T extends ProcessorPool> implements Pro
         return pools.values();
     }
 
+    /**
+     * Sets a global concurrency budget that is shared by all {@link PriorityProcessorPool}s managed by this manager,
+     * unless a pool has been configured with its own budget. Must be set before the pools are added.
+     *
+     * @param executionBudget
+     *        the shared budget
+     */
+    public void setExecutionBudget(SharedExecutionBudget executionBudget) {
+        if (!pools.isEmpty())
+            throw new IllegalStateException("execution budget must be set before adding processor pools");
+        this.executionBudget = executionBudget;
+    }
+
+    public SharedExecutionBudget getExecutionBudget() {
+        return executionBudget;
+    }
+
+    private void applyExecutionBudget(T pool) {
+        if (executionBudget != null && pool instanceof PriorityProcessorPool) {
+            final PriorityProcessorPool ppool = (PriorityProcessorPool) pool;
+            if (ppool.getExecutionBudget() == null) {
+                ppool.setExecutionBudget(executionBudget);
+            }
+        }
+    }
+
 }
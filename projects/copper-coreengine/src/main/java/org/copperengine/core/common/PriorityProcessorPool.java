@@ -35,7 +35,8 @@ public abstract class PriorityProcessorPool implements ProcessorPool, ProcessorP
 
     private static final Logger logger = LoggerFactory.getLogger(PriorityProcessorPool.class);
 
-    protected final SuspendableQueue<Workflow<?>> queue = new SuspendableQueue<Workflow<?>>(createQueue());
+    private final Queue<Workflow<?>> priorityQueue = createQueue();
+    protected final SuspendableQueue<Workflow<?>> queue = new SuspendableQueue<Workflow<?>>(priorityQueue);
     private final List<Processor> workerThreads = new ArrayList<Processor>();
 
     private ProcessingEngine engine = null;
@@ -43,6 +44,9 @@ public abstract class PriorityProcessorPool implements ProcessorPool, ProcessorP
     private int numberOfThreads = Runtime.getRuntime().availableProcessors();
     private int threadPriority = Thread.NORM_PRIORITY;
     private int shutdownWaitIntervalMSec = 30000;
+    private long agingThresholdMSec = 0;
+    private SharedExecutionBudget executionBudget = null;
+    private int minExecutionShare = 0;
 
     private boolean started = false;
     private boolean shutdown = false;
@@ -134,8 +138,12 @@ public abstract class PriorityProcessorPool implements ProcessorPool, ProcessorP
                 // ignore
             }
         }
+        if (executionBudget != null) {
+            executionBudget.register(id, Math.min(minExecutionShare, numberOfThreads), numberOfThreads);
+        }
         while (numberOfThreads > workerThreads.size()) {
             Processor p = processorFactory.newProcessor(id + "#" + workerThreads.size(), queue, threadPriority, engine);
+            p.setExecutionBudget(executionBudget, id);
             p.start();
             workerThreads.add(p);
         }
@@ -159,6 +167,72 @@ public abstract class PriorityProcessorPool implements ProcessorPool, ProcessorP
         return threadPriority;
     }
 
+    /**
+     * Sets the aging threshold of this pool's in-memory queue. Workflow instances waiting in the queue for longer than
+     * the specified number of milliseconds are processed in FIFO order before any other instance, regardless of their
+     * priority. A value &le; 0 (the default) disables aging, i.e. instances are processed strictly by priority.
+     * Only supported if the queue returned by {@link #createQueue()} is a {@link WfPriorityQueue}, otherwise the value is
+     * ignored.
+     *
+     * @param agingThresholdMSec
+     *        aging threshold in milliseconds
+     */
+    public synchronized void setAgingThresholdMSec(long agingThresholdMSec) {
+        if (!(priorityQueue instanceof WfPriorityQueue)) {
+            logger.warn("ProcessorPool " + id + ": Aging is not supported by " + priorityQueue.getClass().getName() + " - ignoring aging threshold " + agingThresholdMSec + " msec");
+            return;
+        }
+        if (agingThresholdMSec != this.agingThresholdMSec) {
+            logger.info("ProcessorPool " + id + ": Setting new aging threshold to " + agingThresholdMSec + " msec");
+            this.agingThresholdMSec = agingThresholdMSec;
+            synchronized (queue) {
+                ((WfPriorityQueue) priorityQueue).setAgingThresholdMSec(agingThresholdMSec);
+            }
+        }
+    }
+
+    public synchronized long getAgingThresholdMSec() {
+        return agingThresholdMSec;
+    }
+
+    /**
+     * Lets this pool take part in a global concurrency budget shared with other processor pools. The number of workflow
+     * instances executing concurrently in this pool is then limited by its share of the budget, i.e. by the number of
+     * processor threads as maximum share and {@link #setMinExecutionShare(int)} as reserved minimum share.
+     * Must be set before startup.
+     *
+     * @param executionBudget
+     *        the shared budget
+     */
+    public synchronized void setExecutionBudget(SharedExecutionBudget executionBudget) {
+        if (started)
+            throw new IllegalStateException("processor pool " + id + " is already started");
+        this.executionBudget = executionBudget;
+    }
+
+    public synchronized SharedExecutionBudget getExecutionBudget() {
+        return executionBudget;
+    }
+
+    /**
+     * Sets the number of execution permits of the shared budget that are reserved for this pool. Defaults to 0.
+     *
+     * @param minExecutionShare
+     *        reserved share, must not exceed the number of threads of this pool
+     */
+    public synchronized void setMinExecutionShare(int minExecutionShare) {
+        if (minExecutionShare < 0)
+            throw new IllegalArgumentException();
+        this.minExecutionShare = minExecutionShare;
+        if (started && executionBudget != null) {
+            executionBudget.register(id, Math.min(minExecutionShare, numberOfThreads), numberOfThreads);
+        }
+    }
+
+    public synchronized int getMinExecutionShare() {
+        return minExecutionShare;
+    }
+
     @Override
     public String getId() {
         return id;
@@ -194,6 +268,9 @@ public abstract class PriorityProcessorPool implements ProcessorPool, ProcessorP
                 logger.warn("Unexpected InterruptedException while waiting for 'join' to return", e);
             }
         }
+        if (executionBudget != null) {
+            executionBudget.unregister(id);
+        }
         
         state = ProcessorPoolState.down;
     }
@@ -18,8 +18,11 @@ package org.copperengine.core.common;
 import java.util.Queue;
 
 import org.copperengine.core.ProcessingEngine;
+import org.copperengine.core.ProcessingState;
 import org.copperengine.core.Workflow;
 import org.copperengine.core.instrument.Transformed;
+import org.copperengine.core.monitoring.EngineEventRecorder;
+import org.copperengine.core.monitoring.EngineEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,6 +39,8 @@ public abstract class Processor extends Thread {
     protected final ProcessingEngine engine;
     protected ProcessingHook processingHook = new MDCProcessingHook();
     private boolean idle = false; 
+    private volatile SharedExecutionBudget executionBudget;
+    private volatile String processorPoolId;
 
     public Processor(String name, Queue<Workflow<?>> queue, int prio, final ProcessingEngine engine) {
         super(name);
@@ -48,6 +53,19 @@ public abstract class Processor extends Thread {
         this.processingHook = processingHook;
     }
 
+    /**
+     * Lets this processor obtain an execution permit from the specified budget before executing a workflow instance.
+     *
+     * @param executionBudget
+     *        the shared budget or <code>null</code> to execute workflow instances without obtaining a permit
+     * @param processorPoolId
+     *        id of the processor pool under which this processor is registered in the budget
+     */
+    public void setExecutionBudget(SharedExecutionBudget executionBudget, String processorPoolId) {
+        this.executionBudget = executionBudget;
+        this.processorPoolId = processorPoolId;
+    }
+
     public synchronized void shutdown() {
         if (shutdown)
             return;
@@ -77,11 +95,37 @@ public abstract class Processor extends Thread {
                     if (wf.getClass().getAnnotation(Transformed.class) == null) {
                         throw new RuntimeException(wf.getClass().getName() + " has not been transformed");
                     }
-                    preProcess(wf);
+                    final SharedExecutionBudget budget = executionBudget;
+                    final String poolId = processorPoolId;
+                    if (budget != null) {
+                        try {
+                            budget.acquire(poolId);
+                        } catch (InterruptedException e) {
+                            // the workflow instance has already been taken from the queue - put it back
+                            synchronized (queue) {
+                                queue.offer(wf);
+                                queue.notify();
+                            }
+                            throw e;
+                        }
+                    }
+                    final EngineEventRecorder eventRecorder = EngineEvents.recorder();
+                    final boolean recordEvent = eventRecorder.isEnabled();
+                    final long startNanos = recordEvent ? System.nanoTime() : 0L;
                     try {
-                        process(wf);
+                        preProcess(wf);
+                        try {
+                            process(wf);
+                        } finally {
+                            postProcess(wf);
+                        }
                     } finally {
-                        postProcess(wf);
+                        if (recordEvent) {
+                            eventRecorder.workflowProcessed(wf, wf.getProcessingState() == ProcessingState.FINISHED, startNanos);
+                        }
+                        if (budget != null) {
+                            budget.release(poolId);
+                        }
                     }
                 }
             } catch (InterruptedException e) {
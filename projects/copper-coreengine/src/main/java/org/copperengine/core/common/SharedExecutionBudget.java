@@ -0,0 +1,240 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.common;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Global concurrency budget shared by multiple {@link PriorityProcessorPool}s.
+ * <p>
+ * The budget holds a fixed number of execution permits. Before a {@link Processor} executes a workflow instance, it
+ * obtains a permit on behalf of its processor pool and releases it afterwards, so the total number of workflow
+ * instances executing concurrently in all participating pools never exceeds the budget.
+ * <p>
+ * Each pool is registered with a minimum and a maximum share. The minimum share is reserved for the pool, i.e. it is
+ * always available to the pool, even if all other permits are in use. Permits that are not reserved, or that are
+ * reserved but currently not in use, are shared and flow to whichever pool needs them, up to the pool's maximum
+ * share. Thus, a large number of processor pools can be configured without over-provisioning the overall number of
+ * concurrently running workflow instances.
+ */
+public class SharedExecutionBudget {
+
+    private static final Logger logger = LoggerFactory.getLogger(SharedExecutionBudget.class);
+
+    private static final class Share {
+        int minShare;
+        int maxShare;
+        int used;
+
+        int reserved() {
+            return Math.max(minShare, used);
+        }
+    }
+
+    private final Map<String, Share> shares = new HashMap<String, Share>();
+    private final List<Runnable> releaseListeners = new CopyOnWriteArrayList<Runnable>();
+    private int capacity;
+    // sum of Share.reserved() of all registered pools
+    private int reserved;
+
+    public SharedExecutionBudget(int capacity) {
+        setCapacity(capacity);
+    }
+
+    /**
+     * Changes the total number of execution permits. The new capacity must not be smaller than the sum of the minimum
+     * shares of all registered pools.
+     *
+     * @param capacity
+     *        total number of execution permits
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be > 0");
+        int sumMinShares = 0;
+        for (Share share : shares.values()) {
+            sumMinShares += share.minShare;
+        }
+        if (sumMinShares > capacity)
+            throw new IllegalArgumentException("capacity " + capacity + " is smaller than the sum of the minimum shares (" + sumMinShares + ")");
+        logger.info("Setting capacity to {}", capacity);
+        this.capacity = capacity;
+        notifyAll();
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Registers a processor pool or updates its shares, if the pool is already registered.
+     *
+     * @param poolId
+     *        id of the processor pool
+     * @param minShare
+     *        number of permits reserved for the pool
+     * @param maxShare
+     *        maximum number of permits the pool may use concurrently
+     */
+    public synchronized void register(String poolId, int minShare, int maxShare) {
+        if (poolId == null)
+            throw new NullPointerException();
+        if (minShare < 0 || maxShare <= 0 || minShare > maxShare)
+            throw new IllegalArgumentException("invalid shares for pool " + poolId + ": min=" + minShare + ", max=" + maxShare);
+        Share share = shares.get(poolId);
+        final int oldMinShare = share != null ? share.minShare : 0;
+        int sumMinShares = minShare - oldMinShare;
+        for (Share s : shares.values()) {
+            sumMinShares += s.minShare;
+        }
+        if (sumMinShares > capacity)
+            throw new IllegalArgumentException("sum of minimum shares (" + sumMinShares + ") exceeds capacity " + capacity);
+        if (share == null) {
+            share = new Share();
+            shares.put(poolId, share);
+        } else {
+            reserved -= share.reserved();
+        }
+        logger.info("Registering pool {} with minShare={}, maxShare={}", poolId, minShare, maxShare);
+        share.minShare = minShare;
+        share.maxShare = maxShare;
+        reserved += share.reserved();
+        notifyAll();
+    }
+
+    public synchronized void unregister(String poolId) {
+        final Share share = shares.remove(poolId);
+        if (share != null) {
+            logger.info("Unregistering pool {}", poolId);
+            reserved -= share.reserved();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Obtains an execution permit for the specified pool, waiting until one is available.
+     *
+     * @param poolId
+     *        id of a registered processor pool
+     * @throws InterruptedException
+     *         if the calling thread is interrupted while waiting
+     */
+    public synchronized void acquire(String poolId) throws InterruptedException {
+        final Share share = getShare(poolId);
+        while (!canAcquire(share)) {
+            wait();
+        }
+        reserved -= share.reserved();
+        share.used++;
+        reserved += share.reserved();
+    }
+
+    /**
+     * Obtains an execution permit for the specified pool, if one is available immediately.
+     *
+     * @param poolId
+     *        id of a registered processor pool
+     * @return <code>true</code> if a permit was obtained
+     */
+    public synchronized boolean tryAcquire(String poolId) {
+        final Share share = getShare(poolId);
+        if (!canAcquire(share)) {
+            return false;
+        }
+        reserved -= share.reserved();
+        share.used++;
+        reserved += share.reserved();
+        return true;
+    }
+
+    public void release(String poolId) {
+        synchronized (this) {
+            final Share share = shares.get(poolId);
+            if (share == null || share.used == 0) {
+                // pool was unregistered meanwhile
+                return;
+            }
+            reserved -= share.reserved();
+            share.used--;
+            reserved += share.reserved();
+            notifyAll();
+        }
+        for (Runnable listener : releaseListeners) {
+            listener.run();
+        }
+    }
+
+    /**
+     * Adds a listener that is called after a permit has been released, e.g. to wake up a thread that waits for free
+     * capacity without blocking in {@link #acquire(String)}. The listener is called outside of the budget's lock by
+     * the releasing thread, so it has to return quickly.
+     *
+     * @param listener
+     *        the listener
+     */
+    public void addReleaseListener(Runnable listener) {
+        if (listener == null)
+            throw new NullPointerException();
+        releaseListeners.add(listener);
+    }
+
+    public void removeReleaseListener(Runnable listener) {
+        releaseListeners.remove(listener);
+    }
+
+    /**
+     * @return <code>true</code> if the specified pool could currently obtain an execution permit without waiting
+     */
+    public synchronized boolean hasCapacity(String poolId) {
+        final Share share = shares.get(poolId);
+        return share != null && canAcquire(share);
+    }
+
+    public synchronized int getUsed(String poolId) {
+        final Share share = shares.get(poolId);
+        return share != null ? share.used : 0;
+    }
+
+    public synchronized int getUsed() {
+        int used = 0;
+        for (Share share : shares.values()) {
+            used += share.used;
+        }
+        return used;
+    }
+
+    private boolean canAcquire(Share share) {
+        if (share.used >= share.maxShare)
+            return false;
+        if (share.used < share.minShare)
+            return true;
+        return reserved < capacity;
+    }
+
+    private Share getShare(String poolId) {
+        final Share share = shares.get(poolId);
+        if (share == null)
+            throw new IllegalStateException("pool " + poolId + " is not registered");
+        return share;
+    }
+
+}
@@ -22,9 +22,11 @@ import org.copperengine.management.AuditTrailMXBean;
 import org.copperengine.management.AuditTrailQueryMXBean;
 import org.copperengine.management.BatcherMXBean;
 import org.copperengine.management.DatabaseDialectMXBean;
+import org.copperengine.management.EarlyResponseContainerMXBean;
 import org.copperengine.management.ProcessingEngineMXBean;
 import org.copperengine.management.ProcessorPoolMXBean;
 import org.copperengine.management.StatisticsCollectorMXBean;
+import org.copperengine.management.StorageCacheMXBean;
 import org.copperengine.management.WorkflowRepositoryMXBean;
 
 /**
@@ -44,6 +46,8 @@ public class SimpleJmxExporter extends AbstractJmxExporter {
     private BatcherMXBean batcherMXBean;
     private DatabaseDialectMXBean databaseDialectMXBean;
     private AuditTrailQueryMXBean auditTrailQueryMXBean;
+    private EarlyResponseContainerMXBean earlyResponseContainerMXBean;
+    private StorageCacheMXBean storageCacheMXBean;
 
     public void setWorkflowRepositoryMXBean(WorkflowRepositoryMXBean workflowRepositoryMXBean) {
         this.workflowRepositoryMXBean = workflowRepositoryMXBean;
@@ -77,6 +81,14 @@ public class SimpleJmxExporter extends AbstractJmxExporter {
         this.auditTrailQueryMXBean = auditTrailQueryMXBean;
     }
 
+    public void setEarlyResponseContainerMXBean(EarlyResponseContainerMXBean earlyResponseContainerMXBean) {
+        this.earlyResponseContainerMXBean = earlyResponseContainerMXBean;
+    }
+
+    public void setStorageCacheMXBean(StorageCacheMXBean storageCacheMXBean) {
+        this.storageCacheMXBean = storageCacheMXBean;
+    }
+
     @Override
     protected Map<String, WorkflowRepositoryMXBean> getWorkflowRepositoryMXBeans() {
         return createSingletonMap("workflowRepositoryMXBean", workflowRepositoryMXBean);
@@ -117,6 +129,16 @@ public class SimpleJmxExporter extends AbstractJmxExporter {
         return createSingletonMap("auditTrailQueryMXBean", auditTrailQueryMXBean);
     }
 
+    @Override
+    protected Map<String, EarlyResponseContainerMXBean> getEarlyResponseContainerMXBeans() {
+        return createSingletonMap("earlyResponseContainerMXBean", earlyResponseContainerMXBean);
+    }
+
+    @Override
+    protected Map<String, StorageCacheMXBean> getStorageCacheMXBeans() {
+        return createSingletonMap("storageCacheMXBean", storageCacheMXBean);
+    }
+
     private static <T> Map<String, T> createSingletonMap(String key, T object) {
         if (object != null) {
             return Collections.singletonMap(key, object);
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.common;
+
+import java.util.List;
+
+/**
+ * Internally used class.
+ * Open addressing hash map of (timeout tick, key) pairs to an optional payload, stored in parallel arrays so that a
+ * pending timeout costs no object of its own. The payload array is only allocated for the first non null payload.
+ */
+final class TimeoutBucket<T> {
+
+    private static final int INITIAL_CAPACITY = 8;
+
+    private String[] keys = new String[INITIAL_CAPACITY];
+    private long[] ticks = new long[INITIAL_CAPACITY];
+    private Object[] payloads;
+    private int size;
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return <code>false</code> if the bucket already contains the key for the tick - the payload is replaced in this
+     *         case
+     */
+    public boolean add(long tick, String key, T payload) {
+        if ((size + 1) * 2 > keys.length) {
+            resize(keys.length * 2);
+        }
+        if (payload != null && payloads == null) {
+            payloads = new Object[keys.length];
+        }
+        final int mask = keys.length - 1;
+        int i = slot(tick, key, mask);
+        while (keys[i] != null) {
+            if (ticks[i] == tick && keys[i].equals(key)) {
+                if (payloads != null)
+                    payloads[i] = payload;
+                return false;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        ticks[i] = tick;
+        if (payloads != null)
+            payloads[i] = payload;
+        size++;
+        return true;
+    }
+
+    public boolean remove(long tick, String key) {
+        final int mask = keys.length - 1;
+        int i = slot(tick, key, mask);
+        while (keys[i] != null) {
+            if (ticks[i] == tick && keys[i].equals(key)) {
+                removeAt(i, mask);
+                return true;
+            }
+            i = (i + 1) & mask;
+        }
+        return false;
+    }
+
+    /**
+     * Re-inserts all entries of this bucket into the specified wheel.
+     */
+    public void moveTo(TimingWheel<T> wheel) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                wheel.place(ticks[i], keys[i], payload(i));
+            }
+        }
+    }
+
+    public void drainTo(List<String> keyTarget, List<T> payloadTarget) {
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                keyTarget.add(keys[i]);
+                if (payloadTarget != null)
+                    payloadTarget.add(payload(i));
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private T payload(int i) {
+        return payloads == null ? null : (T) payloads[i];
+    }
+
+    private void removeAt(int i, int mask) {
+        // backward shift deletion - keeps probe sequences intact without tombstones
+        int j = i;
+        for (;;) {
+            j = (j + 1) & mask;
+            if (keys[j] == null)
+                break;
+            final int k = slot(ticks[j], keys[j], mask);
+            if (i <= j ? (i < k && k <= j) : (i < k || k <= j))
+                continue;
+            keys[i] = keys[j];
+            ticks[i] = ticks[j];
+            if (payloads != null)
+                payloads[i] = payloads[j];
+            i = j;
+        }
+        keys[i] = null;
+        if (payloads != null)
+            payloads[i] = null;
+        size--;
+    }
+
+    private void resize(int newCapacity) {
+        final String[] oldKeys = keys;
+        final long[] oldTicks = ticks;
+        final Object[] oldPayloads = payloads;
+        keys = new String[newCapacity];
+        ticks = new long[newCapacity];
+        payloads = oldPayloads == null ? null : new Object[newCapacity];
+        final int mask = newCapacity - 1;
+        for (int n = 0; n < oldKeys.length; n++) {
+            if (oldKeys[n] != null) {
+                int i = slot(oldTicks[n], oldKeys[n], mask);
+                while (keys[i] != null) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[n];
+                ticks[i] = oldTicks[n];
+                if (payloads != null)
+                    payloads[i] = oldPayloads[n];
+            }
+        }
+    }
+
+    private static int slot(long tick, String key, int mask) {
+        int h = key.hashCode() * 31 + (int) (tick ^ (tick >>> 32));
+        h *= 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+}
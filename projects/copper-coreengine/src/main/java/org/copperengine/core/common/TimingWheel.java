@@ -0,0 +1,167 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.common;
+
+import java.util.List;
+
+/**
+ * Hierarchical timing wheel working on abstract ticks, used by the timing wheel based timeout managers. Each entry is
+ * identified by its tick and a key and may carry an optional payload.
+ * <p>
+ * Level 0 has 256 buckets of one tick each, the levels 1 to 3 have 64 buckets each covering a complete window of the
+ * level below. Timeouts beyond the top level (2^26 ticks) are kept in an overflow bucket. An entry is always located in the bucket computed from its tick and the current tick, so removal
+ * does not need any index besides the wheel itself.
+ * <p>
+ * Not thread safe - meant to be owned by a single timeout manager thread.
+ */
+public final class TimingWheel<T> {
+
+    private static final int LEVELS = 4;
+    private static final int[] SHIFT = { 0, 8, 14, 20, 26 };
+
+    private final TimeoutBucket<T>[][] buckets;
+    private TimeoutBucket<T> overflow;
+    private long currentTick;
+    private int size;
+
+    @SuppressWarnings("unchecked")
+    public TimingWheel(long currentTick) {
+        this.currentTick = currentTick;
+        this.buckets = new TimeoutBucket[LEVELS][];
+        for (int level = 0; level < LEVELS; level++) {
+            buckets[level] = new TimeoutBucket[1 << (SHIFT[level + 1] - SHIFT[level])];
+        }
+    }
+
+    public long getCurrentTick() {
+        return currentTick;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return <code>false</code> if the tick has already been processed, i.e. the timeout is due immediately
+     */
+    public boolean add(long tick, String key) {
+        return add(tick, key, null);
+    }
+
+    /**
+     * @return <code>false</code> if the tick has already been processed, i.e. the timeout is due immediately
+     */
+    public boolean add(long tick, String key, T payload) {
+        if (tick <= currentTick)
+            return false;
+        place(tick, key, payload);
+        return true;
+    }
+
+    public boolean remove(long tick, String key) {
+        if (tick <= currentTick)
+            return false;
+        final int level = level(tick);
+        final TimeoutBucket<T> bucket;
+        if (level == LEVELS) {
+            bucket = overflow;
+        } else {
+            bucket = buckets[level][index(tick, level)];
+        }
+        if (bucket == null || !bucket.remove(tick, key))
+            return false;
+        size--;
+        if (bucket.size() == 0) {
+            if (level == LEVELS) {
+                overflow = null;
+            } else {
+                buckets[level][index(tick, level)] = null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Processes all ticks up to and including <code>toTick</code> and collects the keys of the expired entries in
+     * <code>expiredKeys</code> and - if not <code>null</code> - their payloads in <code>expiredPayloads</code>.
+     */
+    public void advance(long toTick, List<String> expiredKeys, List<T> expiredPayloads) {
+        while (currentTick < toTick) {
+            if (size == 0) {
+                currentTick = toTick;
+                return;
+            }
+            final long tick = ++currentTick;
+            if ((tick & ((1L << SHIFT[LEVELS]) - 1)) == 0 && overflow != null) {
+                final TimeoutBucket<T> bucket = overflow;
+                overflow = null;
+                size -= bucket.size();
+                bucket.moveTo(this);
+            }
+            for (int level = LEVELS - 1; level > 0; level--) {
+                if ((tick & ((1L << SHIFT[level]) - 1)) == 0) {
+                    final int idx = index(tick, level);
+                    final TimeoutBucket<T> bucket = buckets[level][idx];
+                    if (bucket != null) {
+                        buckets[level][idx] = null;
+                        size -= bucket.size();
+                        bucket.moveTo(this);
+                    }
+                }
+            }
+            final int idx = index(tick, 0);
+            final TimeoutBucket<T> bucket = buckets[0][idx];
+            if (bucket != null) {
+                buckets[0][idx] = null;
+                size -= bucket.size();
+                bucket.drainTo(expiredKeys, expiredPayloads);
+            }
+        }
+    }
+
+    void place(long tick, String key, T payload) {
+        final int level = level(tick);
+        TimeoutBucket<T> bucket;
+        if (level == LEVELS) {
+            if (overflow == null) {
+                overflow = new TimeoutBucket<T>();
+            }
+            bucket = overflow;
+        } else {
+            final int idx = index(tick, level);
+            bucket = buckets[level][idx];
+            if (bucket == null) {
+                bucket = new TimeoutBucket<T>();
+                buckets[level][idx] = bucket;
+            }
+        }
+        if (bucket.add(tick, key, payload)) {
+            size++;
+        }
+    }
+
+    private int level(long tick) {
+        for (int level = 0; level < LEVELS; level++) {
+            if ((tick >>> SHIFT[level + 1]) == (currentTick >>> SHIFT[level + 1]))
+                return level;
+        }
+        return LEVELS;
+    }
+
+    private int index(long tick, int level) {
+        return (int) ((tick >>> SHIFT[level]) & (buckets[level].length - 1));
+    }
+}
@@ -15,66 +15,87 @@
  */
 package org.copperengine.core.common;
 
+import java.util.ArrayDeque;
 import java.util.Collection;
-import java.util.Comparator;
 import java.util.Iterator;
-import java.util.PriorityQueue;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Queue;
+import java.util.TreeMap;
 
 import org.copperengine.core.Workflow;
 
 /**
  * Priority queue for {@link Workflow} instances.
- * Entries in the queue are ordered using their priority and enqueue timestamp
+ * Entries in the queue are ordered using their priority and enqueue timestamp.
+ * <p>
+ * Optionally, an aging threshold may be configured. Entries that have been waiting in the queue for longer than this
+ * threshold are considered as aged and are returned in FIFO order <b>before</b> any non aged entry, regardless of
+ * their priority. This bounds the waiting time of low priority workflow instances under sustained high priority load.
+ * By default, aging is disabled and the queue is ordered strictly by priority and enqueue timestamp.
  *
  * @author austermann
  */
 public class WfPriorityQueue implements Queue<Workflow<?>> {
 
     private static class QueueEntry {
-        long enqueueTS = System.currentTimeMillis();
-        Workflow<?> workflow;
+        final long enqueueTS;
+        final Workflow<?> workflow;
 
-        public QueueEntry(Workflow<?> workflow) {
+        public QueueEntry(Workflow<?> workflow, long enqueueTS) {
             this.workflow = workflow;
+            this.enqueueTS = enqueueTS;
         }
     }
 
-    private Queue<QueueEntry> queue;
+    // one FIFO per priority level, ordered by priority
+    private final TreeMap<Integer, ArrayDeque<QueueEntry>> levels = new TreeMap<Integer, ArrayDeque<QueueEntry>>();
+    private final int initialLevelSize;
+    private int size = 0;
+    private volatile long agingThresholdMSec = 0;
 
     public WfPriorityQueue() {
         this(10000);
     }
 
     public WfPriorityQueue(final int initialSize) {
-        queue = new PriorityQueue<QueueEntry>(initialSize, new Comparator<QueueEntry>() {
-            public int compare(QueueEntry o1, QueueEntry o2) {
-                if (o1.workflow.getPriority() != o2.workflow.getPriority()) {
-                    return o1.workflow.getPriority() - o2.workflow.getPriority();
-                } else {
-                    if (o1.enqueueTS == o2.enqueueTS)
-                        return 0;
-                    if (o1.enqueueTS > o2.enqueueTS)
-                        return 1;
-                    return -1;
-                }
-            }
-        });
+        this.initialLevelSize = Math.max(16, initialSize / 8);
+    }
+
+    /**
+     * Sets the aging threshold. Entries that have been waiting for longer than the specified number of milliseconds
+     * are dequeued in FIFO order before any other entry. A value &le; 0 disables aging.
+     *
+     * @param agingThresholdMSec
+     *        aging threshold in milliseconds
+     */
+    public void setAgingThresholdMSec(long agingThresholdMSec) {
+        this.agingThresholdMSec = agingThresholdMSec;
+    }
+
+    public long getAgingThresholdMSec() {
+        return agingThresholdMSec;
     }
 
     @Override
     public int size() {
-        return queue.size();
+        return size;
     }
 
     @Override
     public boolean isEmpty() {
-        return queue.isEmpty();
+        return size == 0;
     }
 
     @Override
     public boolean contains(Object o) {
-        return queue.contains(o);
+        for (ArrayDeque<QueueEntry> level : levels.values()) {
+            for (QueueEntry e : level) {
+                if (e.workflow == o)
+                    return true;
+            }
+        }
+        return false;
     }
 
     @Override
@@ -122,41 +143,96 @@ public class WfPriorityQueue implements Queue<Workflow<?>> {
 
     @Override
     public void clear() {
-        queue.clear();
+        levels.clear();
+        size = 0;
     }
 
     @Override
     public boolean add(Workflow<?> e) {
-        return queue.add(new QueueEntry(e));
+        return offer(e);
     }
 
     @Override
     public boolean offer(Workflow<?> e) {
-        return queue.offer(new QueueEntry(e));
+        if (e == null)
+            throw new NullPointerException();
+        ArrayDeque<QueueEntry> level = levels.get(e.getPriority());
+        if (level == null) {
+            level = new ArrayDeque<QueueEntry>(initialLevelSize);
+            levels.put(e.getPriority(), level);
+        }
+        level.add(new QueueEntry(e, currentTimeMillis()));
+        size++;
+        return true;
     }
 
     @Override
     public Workflow<?> remove() {
-        QueueEntry e = queue.remove();
-        return e != null ? e.workflow : null;
+        Workflow<?> wf = poll();
+        if (wf == null)
+            throw new NoSuchElementException();
+        return wf;
     }
 
     @Override
     public Workflow<?> poll() {
-        QueueEntry e = queue.poll();
-        return e != null ? e.workflow : null;
+        final Map.Entry<Integer, ArrayDeque<QueueEntry>> level = next();
+        if (level == null)
+            return null;
+        final QueueEntry e = level.getValue().poll();
+        if (level.getValue().isEmpty()) {
+            levels.remove(level.getKey());
+        }
+        size--;
+        return e.workflow;
     }
 
     @Override
     public Workflow<?> element() {
-        QueueEntry e = queue.element();
-        return e != null ? e.workflow : null;
+        Workflow<?> wf = peek();
+        if (wf == null)
+            throw new NoSuchElementException();
+        return wf;
     }
 
     @Override
     public Workflow<?> peek() {
-        QueueEntry e = queue.peek();
-        return e != null ? e.workflow : null;
+        final Map.Entry<Integer, ArrayDeque<QueueEntry>> level = next();
+        return level != null ? level.getValue().peek().workflow : null;
+    }
+
+    /**
+     * Returns the priority level holding the next entry to be dequeued, or <code>null</code> if the queue is empty.
+     * If aging is enabled and the oldest entry in the queue has been waiting for longer than the aging threshold, the
+     * level of this entry is returned, otherwise the highest priority level.
+     */
+    private Map.Entry<Integer, ArrayDeque<QueueEntry>> next() {
+        if (size == 0)
+            return null;
+        final Map.Entry<Integer, ArrayDeque<QueueEntry>> first = levels.firstEntry();
+        final long threshold = agingThresholdMSec;
+        if (threshold <= 0 || levels.size() == 1)
+            return first;
+
+        // the heads of the levels are the oldest entries of their priority
+        Map.Entry<Integer, ArrayDeque<QueueEntry>> oldest = first;
+        for (Map.Entry<Integer, ArrayDeque<QueueEntry>> level : levels.entrySet()) {
+            if (level.getValue().peek().enqueueTS < oldest.getValue().peek().enqueueTS) {
+                oldest = level;
+            }
+        }
+        if (oldest != first && oldest.getValue().peek().enqueueTS <= currentTimeMillis() - threshold) {
+            return oldest;
+        }
+        return first;
+    }
+
+    /**
+     * Returns the current time in milliseconds, used for the enqueue timestamps and the aging check. May be overridden,
+     * e.g. by tests.
+     */
+    protected long currentTimeMillis() {
+        return System.currentTimeMillis();
     }
 
 }
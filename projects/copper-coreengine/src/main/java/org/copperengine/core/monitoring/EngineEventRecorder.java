@@ -0,0 +1,69 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.monitoring;
+
+import org.copperengine.core.Workflow;
+
+/**
+ * Receives events from the hot paths of the engine for the purpose of profiling, e.g. as Java Flight Recorder events,
+ * see module <code>copper-jfr</code>. The recorder in use is obtained from {@link EngineEvents}.
+ * <p>
+ * Callers take the start timestamp with {@link System#nanoTime()} only if {@link #isEnabled()} returns
+ * <code>true</code>, so a disabled recorder costs a single call. Implementations must be thread safe and must not
+ * throw exceptions.
+ */
+public interface EngineEventRecorder {
+
+    /**
+     * @return <code>true</code>, if events are currently recorded
+     */
+    public boolean isEnabled();
+
+    /**
+     * A bulk of workflow instances has been dequeued from the database for a processor pool.
+     */
+    public void dequeued(String processorPoolId, int count, long startNanos);
+
+    /**
+     * A cycle of <code>updateQueueState</code> has moved <code>count</code> workflow instances into the queue.
+     */
+    public void queueStateUpdated(int count, long startNanos);
+
+    /**
+     * A batch of commands has been executed by the batcher.
+     */
+    public void batchExecuted(String executorId, int size, long startNanos);
+
+    /**
+     * An object has been serialized to <code>length</code> characters.
+     */
+    public void serialized(Class<?> type, int length, long startNanos);
+
+    /**
+     * An object has been deserialized from <code>length</code> characters.
+     */
+    public void deserialized(Class<?> type, int length, long startNanos);
+
+    /**
+     * A processor has executed a workflow instance until it finished or until the next interrupt, e.g. a wait.
+     */
+    public void workflowProcessed(Workflow<?> workflow, boolean finished, long startNanos);
+
+    /**
+     * A timeout manager has delivered <code>count</code> expired timeouts.
+     */
+    public void timeoutsExpired(int count, long startNanos);
+}
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.monitoring;
+
+import java.util.Iterator;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the {@link EngineEventRecorder} used by all engines of the JVM.
+ * <p>
+ * At class initialization, the first recorder registered as service in
+ * <code>META-INF/services/org.copperengine.core.monitoring.EngineEventRecorder</code> is used, i.e. putting e.g. the
+ * <code>copper-jfr</code> module onto the classpath is sufficient. Otherwise the {@link NullEngineEventRecorder} is
+ * used. The recorder may be replaced with {@link #setRecorder(EngineEventRecorder)}.
+ */
+public final class EngineEvents {
+
+    private static final Logger logger = LoggerFactory.getLogger(EngineEvents.class);
+
+    private static volatile EngineEventRecorder recorder = load();
+
+    private EngineEvents() {
+    }
+
+    public static EngineEventRecorder recorder() {
+        return recorder;
+    }
+
+    public static void setRecorder(EngineEventRecorder recorder) {
+        if (recorder == null)
+            throw new NullPointerException();
+        logger.info("Using engine event recorder {}", recorder.getClass().getName());
+        EngineEvents.recorder = recorder;
+    }
+
+    private static EngineEventRecorder load() {
+        try {
+            final Iterator<EngineEventRecorder> iterator = ServiceLoader.load(EngineEventRecorder.class, EngineEvents.class.getClassLoader()).iterator();
+            if (iterator.hasNext()) {
+                final EngineEventRecorder r = iterator.next();
+                logger.info("Using engine event recorder {}", r.getClass().getName());
+                return r;
+            }
+        } catch (ServiceConfigurationError | LinkageError e) {
+            logger.warn("Unable to load engine event recorder, events are not recorded", e);
+        }
+        return new NullEngineEventRecorder();
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.monitoring;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.monitoring.LoggingStatisticCollector.Filter;
+import org.copperengine.management.StatisticsCollectorMXBean;
+import org.copperengine.management.model.MeasurePointData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects runtime statistics including histograms of the elapsed time per execution, and logs them to the logging
+ * system in a configurable time interval.
+ * <p>
+ * In contrast to the {@link LoggingStatisticCollector}, submissions neither lock nor allocate memory, once a measure
+ * point is known. The counters and histograms are striped, see {@link StripedHistogram}, and snapshots are taken
+ * without stopping the submitting threads. Besides count and average, the maximum and the 50th, 90th, 99th and 99.9th
+ * percentile are reported.
+ */
+public class HistogramStatisticsCollector implements RuntimeStatisticsCollector, StatisticsCollectorMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(HistogramStatisticsCollector.class);
+    private static final Logger statLogger = LoggerFactory.getLogger("stat");
+
+    private final ConcurrentMap<String, StripedHistogram> map = new ConcurrentHashMap<String, StripedHistogram>();
+    private final int maxStripes;
+
+    private Filter dataFilter = null;
+    private int loggingIntervalSec = 15;
+    private boolean resetAfterLogging = false;
+
+    private Thread thread;
+    private volatile boolean shutdown = false;
+
+    public HistogramStatisticsCollector() {
+        this(Math.min(Runtime.getRuntime().availableProcessors(), 16));
+    }
+
+    /**
+     * @param concurrency
+     *        expected number of concurrently submitting threads, rounded up to a power of two for the maximum number
+     *        of stripes. A measure point starts with one stripe of about 6 KB and adds stripes only when submitting
+     *        threads contend on it.
+     */
+    public HistogramStatisticsCollector(int concurrency) {
+        if (concurrency <= 0)
+            throw new IllegalArgumentException();
+        this.maxStripes = Integer.highestOneBit(Math.min(concurrency, 1 << 16) * 2 - 1);
+    }
+
+    public void setLoggingIntervalSec(int loggingIntervalSec) {
+        if (loggingIntervalSec <= 0)
+            throw new IllegalArgumentException();
+        this.loggingIntervalSec = loggingIntervalSec;
+    }
+
+    /**
+     * @param resetAfterLogging
+     *        If set to true, the internal statistics are reseted after a each periodical logging.
+     */
+    public void setResetAfterLogging(boolean resetAfterLogging) {
+        this.resetAfterLogging = resetAfterLogging;
+    }
+
+    public Filter getDataFilter() {
+        return dataFilter;
+    }
+
+    public void setDataFilter(Filter dataFilter) {
+        this.dataFilter = dataFilter;
+    }
+
+    public synchronized void start() {
+        if (thread != null)
+            throw new IllegalStateException();
+        thread = new Thread("HistogramStatisticsCollector") {
+            @Override
+            public void run() {
+                while (!shutdown) {
+                    try {
+                        Thread.sleep(loggingIntervalSec * 1000L);
+                        log();
+                        if (resetAfterLogging) {
+                            reset();
+                        }
+                    } catch (InterruptedException e) {
+                        // ignore
+                    } catch (Exception e) {
+                        logger.error("", e);
+                    }
+                }
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    public synchronized void shutdown() {
+        if (shutdown)
+            return;
+        shutdown = true;
+        if (thread != null) {
+            thread.interrupt();
+        }
+        log();
+    }
+
+    @Override
+    public void submit(String measurePointId, int elementCount, long elapsedTime, TimeUnit timeUnit) {
+        if (measurePointId == null)
+            throw new NullPointerException();
+        if (measurePointId.isEmpty())
+            throw new IllegalArgumentException();
+        if (elapsedTime < 0)
+            throw new IllegalArgumentException();
+        if (elementCount < 0)
+            throw new IllegalArgumentException();
+        if (timeUnit == null)
+            throw new NullPointerException();
+
+        if ((dataFilter != null) && !dataFilter.accept(measurePointId, elementCount, elapsedTime, timeUnit)) {
+            return;
+        }
+        StripedHistogram histogram = map.get(measurePointId);
+        if (histogram == null) {
+            final StripedHistogram newHistogram = new StripedHistogram(maxStripes);
+            histogram = map.putIfAbsent(measurePointId, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        histogram.record(timeUnit.toMicros(elapsedTime), elementCount);
+    }
+
+    @Override
+    public void reset() {
+        logger.debug("Attention! Resetting current statistics");
+        for (StripedHistogram histogram : map.values()) {
+            histogram.reset();
+        }
+    }
+
+    @Override
+    public String print() {
+        final StringBuilder sb = new StringBuilder(1024);
+        for (Map.Entry<String, StripedHistogram> entry : sortedEntries()) {
+            sb.append(toString(entry.getKey(), entry.getValue().snapshot()));
+            sb.append("\n");
+        }
+        if (sb.length() > 0) {
+            sb.deleteCharAt(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String print(String measurePointId) {
+        final StripedHistogram histogram = map.get(measurePointId);
+        if (histogram == null) {
+            return "-";
+        }
+        return toString(measurePointId, histogram.snapshot());
+    }
+
+    private void log() {
+        for (Map.Entry<String, StripedHistogram> entry : sortedEntries()) {
+            statLogger.info(toString(entry.getKey(), entry.getValue().snapshot()));
+        }
+    }
+
+    private List<Map.Entry<String, StripedHistogram>> sortedEntries() {
+        final Map<String, StripedHistogram> sorted = new TreeMap<String, StripedHistogram>(String.CASE_INSENSITIVE_ORDER);
+        sorted.putAll(map);
+        return new ArrayList<Map.Entry<String, StripedHistogram>>(sorted.entrySet());
+    }
+
+    private static String toString(String mpId, StripedHistogram.Snapshot s) {
+        final String DOTS = ".................................................1";
+        final long count = s.count > 0 ? s.count : 1;
+        final double avgTimePerElement = s.elementCount > 0 ? (double) s.sum / (double) s.elementCount / 1000.0 : 0.0;
+        final double avgTimePerExecution = (double) s.sum / (double) count / 1000.0;
+        return String.format("%1$55.55s #exec=%2$6d; #elements=%3$6d; avgCount=%4$6d; avgTime/Element=%5$12.5f msec; avgTime/Exec=%6$12.5f msec; p50=%7$10.3f; p99=%8$10.3f; p99.9=%9$10.3f; max=%10$10.3f msec",
+                mpId + DOTS, s.count, s.elementCount, s.elementCount / count, avgTimePerElement, avgTimePerExecution,
+                s.percentile(50.0) / 1000.0, s.percentile(99.0) / 1000.0, s.percentile(99.9) / 1000.0, s.max / 1000.0);
+    }
+
+    @Override
+    public List<MeasurePointData> queryAll() {
+        final List<MeasurePointData> resultList = new ArrayList<MeasurePointData>(map.size());
+        for (Map.Entry<String, StripedHistogram> entry : map.entrySet()) {
+            resultList.add(convert(entry.getKey(), entry.getValue().snapshot()));
+        }
+        Collections.sort(resultList, new Comparator<MeasurePointData>() {
+            @Override
+            public int compare(MeasurePointData data1, MeasurePointData data2) {
+                return data1.getMpId().compareTo(data2.getMpId());
+            }
+        });
+        return resultList;
+    }
+
+    @Override
+    public MeasurePointData query(String measurePointId) {
+        final StripedHistogram histogram = map.get(measurePointId);
+        if (histogram == null)
+            return null;
+        return convert(measurePointId, histogram.snapshot());
+    }
+
+    @Override
+    public long queryPercentileMicros(String measurePointId, double percentile) {
+        if (percentile < 0.0 || percentile > 100.0)
+            throw new IllegalArgumentException();
+        final StripedHistogram histogram = map.get(measurePointId);
+        if (histogram == null)
+            return -1L;
+        return histogram.snapshot().percentile(percentile);
+    }
+
+    private static MeasurePointData convert(String mpId, StripedHistogram.Snapshot s) {
+        return new MeasurePointData(mpId, s.elementCount, s.sum, s.count, s.max, s.percentile(50.0), s.percentile(90.0), s.percentile(99.0), s.percentile(99.9));
+    }
+}
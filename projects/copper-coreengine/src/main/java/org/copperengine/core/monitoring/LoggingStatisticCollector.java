@@ -260,6 +260,15 @@ public class LoggingStatisticCollector implements RuntimeStatisticsCollector, St
         return measurePointData;
     }
 
+    /**
+     * @return always <code>-1</code>, this collector does not record histograms, see
+     *         {@link HistogramStatisticsCollector}
+     */
+    @Override
+    public long queryPercentileMicros(String measurePointId, double percentile) {
+        return -1L;
+    }
+
     public Filter getDataFilter() {
         return dataFilter;
     }
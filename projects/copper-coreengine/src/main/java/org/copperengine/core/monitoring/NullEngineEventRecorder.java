@@ -0,0 +1,58 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.monitoring;
+
+import org.copperengine.core.Workflow;
+
+/**
+ * Mock implementation of the {@link EngineEventRecorder} interface. It is never enabled and all events are ignored.
+ */
+public class NullEngineEventRecorder implements EngineEventRecorder {
+
+    @Override
+    public boolean isEnabled() {
+        return false;
+    }
+
+    @Override
+    public void dequeued(String processorPoolId, int count, long startNanos) {
+    }
+
+    @Override
+    public void queueStateUpdated(int count, long startNanos) {
+    }
+
+    @Override
+    public void batchExecuted(String executorId, int size, long startNanos) {
+    }
+
+    @Override
+    public void serialized(Class<?> type, int length, long startNanos) {
+    }
+
+    @Override
+    public void deserialized(Class<?> type, int length, long startNanos) {
+    }
+
+    @Override
+    public void workflowProcessed(Workflow<?> workflow, boolean finished, long startNanos) {
+    }
+
+    @Override
+    public void timeoutsExpired(int count, long startNanos) {
+    }
+
+}
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.monitoring;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Count, element count, sum and maximum of the elapsed time and a log-bucketed histogram of the elapsed time of a
+ * single measure point.
+ * <p>
+ * All values are striped over several cells, a submitting thread only updates the cells of its stripe, so that threads
+ * do not contend on the same cache lines. A histogram starts with a single stripe of about 6 KB and doubles the number
+ * of stripes, up to the configured maximum, whenever a thread fails to update the count of its stripe because of a
+ * concurrent update, i.e. only measure points that are actually contended pay for more stripes. Apart from adding
+ * stripes, recording neither locks nor allocates. A {@link Snapshot} sums up the stripes while writers go on - it is
+ * not an atomic view of all values, which is fine for statistics.
+ * <p>
+ * Values below 16 have a bucket of their own, larger values are split into 16 buckets per power of two, i.e. the
+ * relative error of a percentile is below 6.25%.
+ */
+final class StripedHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_MAGNITUDE = 47;
+    static final int BUCKETS = SUB_BUCKETS + (MAX_MAGNITUDE - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private static final int COUNT = 0;
+    private static final int ELEMENTS = 1;
+    private static final int SUM = 2;
+    private static final int MAX = 3;
+    private static final int HEADER = 4;
+    private static final int STRIPE_LENGTH = HEADER + BUCKETS;
+
+    static final class Snapshot {
+        long count;
+        long elementCount;
+        long sum;
+        long max;
+        final long[] buckets = new long[BUCKETS];
+
+        /**
+         * @return the upper bound of the bucket containing the percentile, but not more than the maximum
+         */
+        long percentile(double percentile) {
+            long total = 0L;
+            for (long b : buckets) {
+                total += b;
+            }
+            if (total == 0L)
+                return 0L;
+            final long rank = Math.max(1L, (long) Math.ceil(percentile / 100.0 * total));
+            long cumulated = 0L;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulated += buckets[i];
+                if (cumulated >= rank) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+
+    private final int maxStripes;
+    // length is a power of two, only grows
+    private volatile AtomicLongArray[] stripes;
+
+    /**
+     * @param maxStripes
+     *        maximum number of stripes, must be a power of two
+     */
+    StripedHistogram(int maxStripes) {
+        if (maxStripes <= 0 || Integer.bitCount(maxStripes) != 1)
+            throw new IllegalArgumentException();
+        this.maxStripes = maxStripes;
+        this.stripes = new AtomicLongArray[] { new AtomicLongArray(STRIPE_LENGTH) };
+    }
+
+    void record(long value, int elementCount) {
+        final AtomicLongArray[] stripes = this.stripes;
+        final AtomicLongArray cells = stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+        final long count = cells.get(COUNT);
+        if (!cells.compareAndSet(COUNT, count, count + 1)) {
+            cells.incrementAndGet(COUNT);
+            if (stripes.length < maxStripes) {
+                grow(stripes);
+            }
+        }
+        cells.addAndGet(ELEMENTS, elementCount);
+        cells.addAndGet(SUM, value);
+        cells.incrementAndGet(HEADER + bucketIndex(value));
+        long max;
+        while (value > (max = cells.get(MAX)) && !cells.compareAndSet(MAX, max, value)) {
+            // retry
+        }
+    }
+
+    private synchronized void grow(AtomicLongArray[] current) {
+        if (stripes != current)
+            return; // grown by another thread in the meantime
+        final AtomicLongArray[] grown = new AtomicLongArray[current.length * 2];
+        System.arraycopy(current, 0, grown, 0, current.length);
+        for (int i = current.length; i < grown.length; i++) {
+            grown[i] = new AtomicLongArray(STRIPE_LENGTH);
+        }
+        stripes = grown;
+    }
+
+    int getNumberOfStripes() {
+        return stripes.length;
+    }
+
+    Snapshot snapshot() {
+        final Snapshot s = new Snapshot();
+        for (AtomicLongArray cells : stripes) {
+            s.count += cells.get(COUNT);
+            s.elementCount += cells.get(ELEMENTS);
+            s.sum += cells.get(SUM);
+            s.max = Math.max(s.max, cells.get(MAX));
+            for (int i = 0; i < BUCKETS; i++) {
+                s.buckets[i] += cells.get(HEADER + i);
+            }
+        }
+        return s;
+    }
+
+    /**
+     * Resets all cells. Values recorded concurrently may partially survive the reset.
+     */
+    void reset() {
+        for (AtomicLongArray cells : stripes) {
+            for (int i = 0; i < cells.length(); i++) {
+                cells.set(i, 0L);
+            }
+        }
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKETS)
+            return value < 0 ? 0 : (int) value;
+        final int magnitude = 63 - Long.numberOfLeadingZeros(value);
+        if (magnitude > MAX_MAGNITUDE)
+            return BUCKETS - 1;
+        final int subBucket = (int) (value >>> (magnitude - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return SUB_BUCKETS + (magnitude - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+    }
+
+    static long upperBound(int bucketIndex) {
+        if (bucketIndex < SUB_BUCKETS)
+            return bucketIndex;
+        if (bucketIndex == BUCKETS - 1)
+            return Long.MAX_VALUE;
+        final int shift = (bucketIndex - SUB_BUCKETS) / SUB_BUCKETS;
+        final long subBucket = (bucketIndex - SUB_BUCKETS) % SUB_BUCKETS;
+        return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+    }
+}
@@ -43,6 +43,8 @@ import org.copperengine.core.batcher.BatchCommand;
 import org.copperengine.core.common.WorkflowRepository;
 import org.copperengine.core.db.utility.JdbcUtils;
 import org.copperengine.core.internal.WorkflowAccessor;
+import org.copperengine.core.monitoring.EngineEventRecorder;
+import org.copperengine.core.monitoring.EngineEvents;
 import org.copperengine.core.monitoring.NullRuntimeStatisticsCollector;
 import org.copperengine.core.monitoring.RuntimeStatisticsCollector;
 import org.copperengine.core.monitoring.StmtStatistic;
@@ -72,6 +74,7 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
     protected final int ACQUIRE_BLOCKING_WAIT_SEC = 10;
     protected Serializer serializer = new StandardJavaSerializer();
     protected int dbBatchingLatencyMSec = 20;
+    protected volatile long dequeueAgingThresholdMSec = 0;
     private WorkflowPersistencePlugin workflowPersistencePlugin = WorkflowPersistencePlugin.NULL_PLUGIN;
     protected String queryUpdateQueueState = getResourceAsString("/sql-query-ready-bpids.sql");
     private String engineId;
@@ -141,6 +144,45 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
         return defaultStaleResponseRemovalTimeout;
     }
 
+    @Override
+    public void setDequeueAgingThresholdMSec(long dequeueAgingThresholdMSec) {
+        logger.info("setDequeueAgingThresholdMSec({})", dequeueAgingThresholdMSec);
+        this.dequeueAgingThresholdMSec = dequeueAgingThresholdMSec;
+    }
+
+    @Override
+    public long getDequeueAgingThresholdMSec() {
+        return dequeueAgingThresholdMSec;
+    }
+
+    /**
+     * Returns the ORDER BY expression for selecting entries from COP_QUEUE. If aging is enabled, aged entries come
+     * first in FIFO order, and the expression contains two bind parameters that have to be set using
+     * {@link #setDequeueAgingParameter(PreparedStatement, int)}.
+     * 
+     * @return the order by expression without the leading "order by"
+     */
+    protected String getDequeueOrderBy() {
+        if (dequeueAgingThresholdMSec > 0) {
+            return "case when last_mod_ts <= ? then 0 else 1 end, case when last_mod_ts <= ? then 0 else priority end, last_mod_ts";
+        }
+        return "priority, last_mod_ts";
+    }
+
+    /**
+     * Sets the aging bind parameters of the expression returned by {@link #getDequeueOrderBy()}, if aging is enabled.
+     * 
+     * @return the index of the next bind parameter
+     */
+    protected int setDequeueAgingParameter(PreparedStatement stmt, int parameterIndex) throws SQLException {
+        if (dequeueAgingThresholdMSec > 0) {
+            final Timestamp agedTS = new Timestamp(System.currentTimeMillis() - dequeueAgingThresholdMSec);
+            stmt.setTimestamp(parameterIndex++, agedTS);
+            stmt.setTimestamp(parameterIndex++, agedTS);
+        }
+        return parameterIndex;
+    }
+
     public void setSerializer(Serializer serializer) {
         this.serializer = serializer;
     }
@@ -234,6 +276,9 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
         PreparedStatement selectResponsesStmt = null;
         PreparedStatement updateBpStmt = null;
         final String lockContext = "dequeue#" + ppoolId;
+        final EngineEventRecorder eventRecorder = EngineEvents.recorder();
+        final boolean recordEvent = eventRecorder.isEnabled();
+        final long startNanos = recordEvent ? System.nanoTime() : 0L;
         try {
             final long startTS = System.currentTimeMillis();
             lock(con, lockContext);
@@ -244,6 +289,8 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
             updateQueueStmt = con.prepareStatement("update COP_QUEUE set ENGINE_ID=? where WORKFLOW_INSTANCE_ID=?");
             dequeueStmtStatistic.start();
             final ResultSet rs = dequeueStmt.executeQuery();
+            final boolean withQueueTS = rs.getMetaData().getColumnCount() >= 7;
+            final long dequeueTS = System.currentTimeMillis();
             final Map<String, Workflow<?>> map = new HashMap<String, Workflow<?>>(max * 3);
             while (rs.next()) {
                 final String id = rs.getString(1);
@@ -263,6 +310,11 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
                     wf.setPriority(prio);
                     WorkflowAccessor.setCreationTS(wf, new Date(rs.getTimestamp(5).getTime()));
                     WorkflowAccessor.setLastActivityTS(wf, new Date(rs.getTimestamp(6).getTime()));
+                    if (withQueueTS) {
+                        final Timestamp queueTS = rs.getTimestamp(7);
+                        wf.enqueueTS = queueTS != null ? queueTS.getTime() : 0L;
+                    }
+                    wf.dequeueTS = dequeueTS;
                     map.put(wf.getId(), wf);
                 } catch (Exception e) {
                     logger.error("decoding of '" + id + "' failed: " + e.toString(), e);
@@ -274,7 +326,7 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
             dequeueStmtStatistic.stop(map.size());
 
             if (!map.isEmpty()) {
-                selectResponsesStmt = con.prepareStatement("select w.WORKFLOW_INSTANCE_ID, w.correlation_id, w.timeout_ts, r.response from (select WORKFLOW_INSTANCE_ID, correlation_id, timeout_ts from COP_WAIT where WORKFLOW_INSTANCE_ID in (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)) w LEFT OUTER JOIN COP_RESPONSE r ON w.correlation_id = r.correlation_id order by r.correlation_id, r.response_id");
+                selectResponsesStmt = con.prepareStatement("select w.WORKFLOW_INSTANCE_ID, w.correlation_id, w.timeout_ts, r.response, r.response_ts from (select WORKFLOW_INSTANCE_ID, correlation_id, timeout_ts from COP_WAIT where WORKFLOW_INSTANCE_ID in (?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)) w LEFT OUTER JOIN COP_RESPONSE r ON w.correlation_id = r.correlation_id order by r.correlation_id, r.response_id");
                 List<List<String>> ids = splitt(map.keySet(), 25);
                 for (List<String> id : ids) {
                     selectResponsesStmt.clearParameters();
@@ -293,9 +345,11 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
                         if (response != null) {
                             r = serializer.deserializeResponse(response);
                             wf.addResponseId(r.getResponseId());
+                            wf.responseArrived(rsResponses.getTimestamp(5));
                         } else if (isTimeout) {
                             // timeout
                             r = new Response<Object>(cid);
+                            wf.responseArrived(timeoutTS);
                         }
                         if (r != null) {
                             wf.putResponse(r);
@@ -319,6 +373,9 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
 
             logger.trace("dequeue for pool {} returns {} element(s)", ppoolId, rv.size());
             logger.debug("{} in {} msec", rv.size(), (System.currentTimeMillis() - startTS));
+            if (recordEvent) {
+                eventRecorder.dequeued(ppoolId, rv.size(), startNanos);
+            }
             return rv;
         } finally {
             JdbcUtils.closeStatement(updateBpStmt);
@@ -344,6 +401,9 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
         PreparedStatement updStmt = null;
         PreparedStatement insStmt = null;
         final String lockContext = "updateQueueState";
+        final EngineEventRecorder eventRecorder = EngineEvents.recorder();
+        final boolean recordEvent = eventRecorder.isEnabled();
+        final long startNanos = recordEvent ? System.nanoTime() : 0L;
 
         try {
             int rowcount = 0;
@@ -381,6 +441,9 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
             }
             enqueueUpdateStateStmtStatistic.stop(rowcount == 0 ? 1 : rowcount);
             logger.debug("Queue update in {} msec", (System.currentTimeMillis() - startTS));
+            if (recordEvent) {
+                eventRecorder.queueStateUpdated(rowcount, startNanos);
+            }
             return rowcount;
         } catch (SQLException e) {
             ResultSet rs = con.createStatement().executeQuery("SELECT WORKFLOW_INSTANCE_ID FROM COP_QUEUE");
@@ -709,6 +772,11 @@ public abstract class AbstractSqlDialect implements DatabaseDialect, DatabaseDia
 
     protected abstract PreparedStatement createUpdateStateStmt(final Connection c, final int max) throws SQLException;
 
+    /**
+     * Creates the statement selecting the next workflow instances from COP_QUEUE. The columns are
+     * <code>ID, PRIORITY, DATA, OBJECT_STATE, CREATION_TS, LAST_MOD_TS</code> of the workflow instance, optionally
+     * followed by the <code>LAST_MOD_TS</code> of the queue entry, which is used for the resume latency statistics.
+     */
     protected abstract PreparedStatement createDequeueStmt(final Connection c, final String ppoolId, final int max) throws SQLException;
 
     protected abstract PreparedStatement createDeleteStaleResponsesStmt(final Connection c, final int MAX_ROWS) throws SQLException;
@@ -83,8 +83,9 @@ public class H2Dialect extends AbstractSqlDialect {
 
     @Override
     protected PreparedStatement createDequeueStmt(final Connection c, final String ppoolId, final int maxRows) throws SQLException {
-        PreparedStatement dequeueStmt = c.prepareStatement("select id,priority,data,object_state,creation_ts,last_mod_ts from COP_WORKFLOW_INSTANCE where id in (select WORKFLOW_INSTANCE_ID from COP_QUEUE where ppool_id = ? and engine_id is NULL order by priority, last_mod_ts) LIMIT " + maxRows);
+        PreparedStatement dequeueStmt = c.prepareStatement("select w.id,w.priority,w.data,w.object_state,w.creation_ts,w.last_mod_ts,q.last_mod_ts from COP_WORKFLOW_INSTANCE w join (select WORKFLOW_INSTANCE_ID,last_mod_ts from COP_QUEUE where ppool_id = ? and engine_id is NULL order by " + getDequeueOrderBy() + " LIMIT " + maxRows + ") q on w.id = q.WORKFLOW_INSTANCE_ID");
         dequeueStmt.setString(1, ppoolId);
+        setDequeueAgingParameter(dequeueStmt, 2);
         return dequeueStmt;
     }
 
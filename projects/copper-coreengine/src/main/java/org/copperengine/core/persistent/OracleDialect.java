@@ -42,6 +42,8 @@ import org.copperengine.core.batcher.BatchCommand;
 import org.copperengine.core.common.WorkflowRepository;
 import org.copperengine.core.db.utility.JdbcUtils;
 import org.copperengine.core.internal.WorkflowAccessor;
+import org.copperengine.core.monitoring.EngineEventRecorder;
+import org.copperengine.core.monitoring.EngineEvents;
 import org.copperengine.core.monitoring.NullRuntimeStatisticsCollector;
 import org.copperengine.core.monitoring.RuntimeStatisticsCollector;
 import org.copperengine.core.monitoring.StmtStatistic;
@@ -86,6 +88,7 @@ public class OracleDialect implements DatabaseDialect, DatabaseDialectMXBean {
     private long defaultStaleResponseRemovalTimeout = 60 * 60 * 1000;
     private int dbBatchingLatencyMSec = 0;
     private boolean concurrentResponseLoading = true;
+    private volatile long dequeueAgingThresholdMSec = 0;
 
     public OracleDialect() {
     }
@@ -179,6 +182,16 @@ public class OracleDialect implements DatabaseDialect, DatabaseDialectMXBean {
         return defaultStaleResponseRemovalTimeout;
     }
 
+    @Override
+    public void setDequeueAgingThresholdMSec(long dequeueAgingThresholdMSec) {
+        this.dequeueAgingThresholdMSec = dequeueAgingThresholdMSec;
+    }
+
+    @Override
+    public long getDequeueAgingThresholdMSec() {
+        return dequeueAgingThresholdMSec;
+    }
+
     @Override
     public void resumeBrokenBusinessProcesses(Connection con) throws Exception {
         logger.info("Reactivating queue entries...");
@@ -197,6 +210,9 @@ public class OracleDialect implements DatabaseDialect, DatabaseDialectMXBean {
         logger.trace("dequeue({},{})", ppoolId, max);
 
         final long startTS = System.currentTimeMillis();
+        final EngineEventRecorder eventRecorder = EngineEvents.recorder();
+        final boolean recordEvent = eventRecorder.isEnabled();
+        final long startNanos = recordEvent ? System.nanoTime() : 0L;
         final List<Workflow<?>> rv = new ArrayList<Workflow<?>>(max);
 
         lock(con, "dequeue#" + ppoolId);
@@ -208,11 +224,19 @@ public class OracleDialect implements DatabaseDialect, DatabaseDialectMXBean {
         responseLoader.beginTxn();
 
         final List<OracleSetToError.Command> invalidWorkflowInstances = new ArrayList<OracleSetToError.Command>();
-        final PreparedStatement dequeueStmt = con.prepareStatement("select id,priority,data,rowid,long_data,creation_ts,object_state,long_object_state,last_mod_ts from COP_WORKFLOW_INSTANCE where rowid in (select * from (select WFI_ROWID from COP_QUEUE where ppool_id=? and engine_id is null order by ppool_id, priority, last_mod_ts) where rownum <= ?)");
+        final long agingThresholdMSec = dequeueAgingThresholdMSec;
+        final String orderBy = agingThresholdMSec > 0 ? "ppool_id, case when last_mod_ts <= ? then 0 else 1 end, case when last_mod_ts <= ? then 0 else priority end, last_mod_ts" : "ppool_id, priority, last_mod_ts";
+        final PreparedStatement dequeueStmt = con.prepareStatement("select id,priority,data,rowid,long_data,creation_ts,object_state,long_object_state,last_mod_ts from COP_WORKFLOW_INSTANCE where rowid in (select * from (select WFI_ROWID from COP_QUEUE where ppool_id=? and engine_id is null order by " + orderBy + ") where rownum <= ?)");
         final Map<String, Workflow<?>> map = new HashMap<String, Workflow<?>>(max * 3);
         try {
-            dequeueStmt.setString(1, ppoolId);
-            dequeueStmt.setInt(2, max);
+            int idx = 1;
+            dequeueStmt.setString(idx++, ppoolId);
+            if (agingThresholdMSec > 0) {
+                final Timestamp agedTS = new Timestamp(System.currentTimeMillis() - agingThresholdMSec);
+                dequeueStmt.setTimestamp(idx++, agedTS);
+                dequeueStmt.setTimestamp(idx++, agedTS);
+            }
+            dequeueStmt.setInt(idx, max);
             dequeueStmt.setFetchSize(500);
             dequeueAllStmtStatistic.start();
             logger.trace("Query next {} elements from queue", max);
@@ -245,6 +269,7 @@ public class OracleDialect implements DatabaseDialect, DatabaseDialectMXBean {
                     wf.oldProcessorPoolId = ppoolId;
                     WorkflowAccessor.setCreationTS(wf, new Date(creationTS.getTime()));
                     WorkflowAccessor.setLastActivityTS(wf, new Date(lastModTS.getTime()));
+                    wf.dequeueTS = System.currentTimeMillis();
                     map.put(wf.getId(), wf);
                     responseLoader.enqueue(wf);
                 } catch (Exception e) {
@@ -271,6 +296,9 @@ public class OracleDialect implements DatabaseDialect, DatabaseDialectMXBean {
         handleInvalidWorkflowInstances(con, invalidWorkflowInstances);
 
         logger.debug("dequeue for pool {} returns {} element(s) in {} msec.", ppoolId, rv.size(), (System.currentTimeMillis() - startTS));
+        if (recordEvent) {
+            eventRecorder.dequeued(ppoolId, rv.size(), startNanos);
+        }
         return rv;
     }
 
@@ -286,6 +314,9 @@ public class OracleDialect implements DatabaseDialect, DatabaseDialectMXBean {
     @Override
     public int updateQueueState(final int max, final Connection con) throws SQLException {
         CallableStatement stmt = null;
+        final EngineEventRecorder eventRecorder = EngineEvents.recorder();
+        final boolean recordEvent = eventRecorder.isEnabled();
+        final long startNanos = recordEvent ? System.nanoTime() : 0L;
         try {
             final long startTS = System.currentTimeMillis();
             lock(con, "updateQueueState");
@@ -297,6 +328,9 @@ public class OracleDialect implements DatabaseDialect, DatabaseDialectMXBean {
             int rowcount = stmt.getInt(2);
             enqueueUpdateStateStmtStatistic.stop(rowcount == 0 ? 1 : rowcount);
             logger.debug("Queue update in {} msec", System.currentTimeMillis() - startTS);
+            if (recordEvent) {
+                eventRecorder.queueStateUpdated(rowcount, startNanos);
+            }
             return rowcount;
         } finally {
             JdbcUtils.closeStatement(stmt);
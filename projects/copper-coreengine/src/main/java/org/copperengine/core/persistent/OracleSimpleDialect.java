@@ -51,9 +51,10 @@ public class OracleSimpleDialect extends AbstractSqlDialect {
 
     @Override
     protected PreparedStatement createDequeueStmt(final Connection c, final String ppoolId, final int max) throws SQLException {
-        String sql = "select id,priority,data,object_state,creation_ts,last_mod_ts from COP_WORKFLOW_INSTANCE where id in (select * from (select WORKFLOW_INSTANCE_ID from COP_QUEUE where ppool_id = ? and engine_id is NULL order by priority, last_mod_ts) where rownum <= " + max + ")";
+        String sql = "select w.id,w.priority,w.data,w.object_state,w.creation_ts,w.last_mod_ts,q.last_mod_ts from COP_WORKFLOW_INSTANCE w join (select * from (select WORKFLOW_INSTANCE_ID,last_mod_ts from COP_QUEUE where ppool_id = ? and engine_id is NULL order by " + getDequeueOrderBy() + ") where rownum <= " + max + ") q on w.id = q.WORKFLOW_INSTANCE_ID";
         PreparedStatement dequeueStmt = c.prepareStatement(sql);
         dequeueStmt.setString(1, ppoolId);
+        setDequeueAgingParameter(dequeueStmt, 2);
         return dequeueStmt;
     }
 
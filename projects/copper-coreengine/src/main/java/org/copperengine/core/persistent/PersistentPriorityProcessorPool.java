@@ -22,6 +22,7 @@ import java.util.Queue;
 import org.copperengine.core.ProcessingState;
 import org.copperengine.core.Workflow;
 import org.copperengine.core.common.PriorityProcessorPool;
+import org.copperengine.core.common.SharedExecutionBudget;
 import org.copperengine.core.common.WfPriorityQueue;
 import org.copperengine.core.internal.WorkflowAccessor;
 import org.copperengine.core.persistent.txn.TransactionController;
@@ -46,6 +47,12 @@ public class PersistentPriorityProcessorPool extends PriorityProcessorPool imple
     private volatile boolean shutdown = false;
     private final Object mutexEnqueue = new Object();
     private final Object mutexQueueSize = new Object();
+    private final Runnable executionPermitReleased = new Runnable() {
+        @Override
+        public void run() {
+            signalQueueSizeBelowLowerThreshold();
+        }
+    };
 
     private volatile int lowerThreshold = 3000;
     private volatile int upperThreshold = 6000;
@@ -117,6 +124,11 @@ public class PersistentPriorityProcessorPool extends PriorityProcessorPool imple
         super.startup();
         if (transactionController == null)
             throw new NullPointerException("property transactionController is null");
+        final SharedExecutionBudget budget = getExecutionBudget();
+        if (budget != null) {
+            // wake up the DBReader as soon as the budget has capacity again
+            budget.addReleaseListener(executionPermitReleased);
+        }
         thread = new Thread(new Runnable() {
             @Override
             public void run() {
@@ -131,6 +143,10 @@ public class PersistentPriorityProcessorPool extends PriorityProcessorPool imple
         super.shutdown();
         shutdown = true;
         thread.interrupt();
+        final SharedExecutionBudget budget = getExecutionBudget();
+        if (budget != null) {
+            budget.removeReleaseListener(executionPermitReleased);
+        }
     }
 
     private void run() {
@@ -144,10 +160,10 @@ public class PersistentPriorityProcessorPool extends PriorityProcessorPool imple
                     synchronized (queue) {
                         queueSize = queue.size();
                     }
-                    if (queueSize < upperThreshold) {
+                    if (queueSize < upperThreshold && (queueSize == 0 || hasExecutionCapacity())) {
                         break;
                     }
-                    logger.trace("Queue size {} >= upper threshold {}. Waiting...", queueSize, upperThreshold);
+                    logger.trace("Queue size {} >= upper threshold {} or execution budget exhausted. Waiting...", queueSize, upperThreshold);
                     wait4QueueSizeBelowLowerThreshold();
                 }
                 List<Workflow<?>> rv;
@@ -185,6 +201,16 @@ public class PersistentPriorityProcessorPool extends PriorityProcessorPool imple
         logger.info("stopped");
     }
 
+    /**
+     * @return <code>true</code>, if this pool takes part in no execution budget or if its share of the budget is not
+     *         exhausted. Workflow instances are not dequeued while the share is exhausted and instances are still
+     *         waiting in the memory queue.
+     */
+    private boolean hasExecutionCapacity() {
+        final SharedExecutionBudget budget = getExecutionBudget();
+        return budget == null || budget.hasCapacity(getId());
+    }
+
     @Override
     public void doNotify() {
         logger.trace("doNotify");
@@ -17,6 +17,7 @@ package org.copperengine.core.persistent;
 
 import java.util.Date;
 import java.util.Queue;
+import java.util.concurrent.TimeUnit;
 
 import org.copperengine.core.Acknowledge;
 import org.copperengine.core.Interrupt;
@@ -25,9 +26,29 @@ import org.copperengine.core.ProcessingState;
 import org.copperengine.core.Workflow;
 import org.copperengine.core.common.Processor;
 import org.copperengine.core.internal.WorkflowAccessor;
+import org.copperengine.core.monitoring.NullRuntimeStatisticsCollector;
+import org.copperengine.core.monitoring.RuntimeStatisticsCollector;
 import org.copperengine.core.persistent.txn.Transaction;
 import org.copperengine.core.persistent.txn.TransactionController;
 
+/**
+ * Processor of the persistent engine.
+ * <p>
+ * Before a workflow instance is processed, the latency of its resume is submitted to the engine's
+ * {@link RuntimeStatisticsCollector}, split into the stages
+ * <ul>
+ * <li><code>responseToQueue</code> - from inserting the response into COP_RESPONSE until the workflow instance is put
+ * into COP_QUEUE by <code>updateQueueState</code>
+ * <li><code>queueToDequeue</code> - from COP_QUEUE until it is dequeued by the processor pool
+ * <li><code>dequeueToStart</code> - from the processor pool's in memory queue until a processor starts it
+ * <li><code>responseToStart</code> - all of the above
+ * </ul>
+ * The measure points are <code>&lt;engineId&gt;.&lt;processorPoolId&gt;.resume.&lt;stage&gt;</code> and
+ * <code>&lt;engineId&gt;.&lt;workflowClass&gt;.resume.&lt;stage&gt;</code>. The timestamps are taken from the
+ * clocks of the engines inserting the response, updating the queue state and dequeuing, so in a multi engine
+ * setup the first two stages include the clock skew. Stages that are not known, e.g. the response for a newly
+ * launched workflow instance, are skipped.
+ */
 public class PersistentProcessor extends Processor {
 
     private final PersistentScottyEngine engine;
@@ -46,6 +67,7 @@ public class PersistentProcessor extends Processor {
     @Override
     protected void process(final Workflow<?> wf) {
         final PersistentWorkflow<?> pw = (PersistentWorkflow<?>) wf;
+        submitResumeLatency(pw, System.currentTimeMillis());
         try {
             transactionController.run(new Transaction<Void>() {
                 @Override
@@ -79,6 +101,34 @@ public class PersistentProcessor extends Processor {
         }
     }
 
+    void submitResumeLatency(final PersistentWorkflow<?> pw, final long startTS) {
+        final RuntimeStatisticsCollector statisticsCollector = engine.getStatisticsCollector();
+        if (pw.dequeueTS == 0L || statisticsCollector == null || statisticsCollector instanceof NullRuntimeStatisticsCollector)
+            return;
+        final String poolPrefix = engine.getEngineId() + "." + pw.getProcessorPoolId() + ".resume.";
+        final String classPrefix = engine.getEngineId() + "." + pw.getClass().getSimpleName() + ".resume.";
+        if (pw.responseTS != 0L && pw.enqueueTS != 0L) {
+            submit(statisticsCollector, poolPrefix, classPrefix, "responseToQueue", pw.enqueueTS - pw.responseTS);
+        }
+        if (pw.enqueueTS != 0L) {
+            submit(statisticsCollector, poolPrefix, classPrefix, "queueToDequeue", pw.dequeueTS - pw.enqueueTS);
+        }
+        submit(statisticsCollector, poolPrefix, classPrefix, "dequeueToStart", startTS - pw.dequeueTS);
+        if (pw.responseTS != 0L) {
+            submit(statisticsCollector, poolPrefix, classPrefix, "responseToStart", startTS - pw.responseTS);
+        }
+        pw.responseTS = 0L;
+        pw.enqueueTS = 0L;
+        pw.dequeueTS = 0L;
+    }
+
+    private static void submit(RuntimeStatisticsCollector statisticsCollector, String poolPrefix, String classPrefix, String stage, long elapsedMSec) {
+        // timestamps of different engines may be skewed
+        final long elapsed = Math.max(0L, elapsedMSec);
+        statisticsCollector.submit(poolPrefix + stage, 1, elapsed, TimeUnit.MILLISECONDS);
+        statisticsCollector.submit(classPrefix + stage, 1, elapsed, TimeUnit.MILLISECONDS);
+    }
+
     protected void handleError(PersistentWorkflow<?> wf, Exception exception) {
         logger.error("Storing error information for workflow instance...");
         try {
@@ -16,6 +16,7 @@
 package org.copperengine.core.persistent;
 
 import java.io.Serializable;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -49,6 +50,10 @@ public abstract class PersistentWorkflow<E extends Serializable> extends Workflo
     transient ArrayList<Acknowledge.DefaultAcknowledge> checkpointAcknowledges = null;
     transient ArrayList<SavepointAware> savepointAwares = null;
     transient ErrorData errorData;
+    // timestamps of the last resume, used for the resume latency statistics, see PersistentProcessor
+    transient long responseTS;
+    transient long enqueueTS;
+    transient long dequeueTS;
 
     void addWaitCorrelationId(final String cid) {
         if (waitCidList == null)
@@ -56,6 +61,19 @@ public abstract class PersistentWorkflow<E extends Serializable> extends Workflo
         waitCidList.add(cid);
     }
 
+    /**
+     * Keeps the latest response, that arrived before the workflow instance was put into the queue, as the one that
+     * triggered the resume.
+     */
+    void responseArrived(final Timestamp ts) {
+        if (ts == null)
+            return;
+        final long t = ts.getTime();
+        if (t > responseTS && (enqueueTS == 0L || t <= enqueueTS)) {
+            responseTS = t;
+        }
+    }
+
     void addResponseId(final String responseId) {
         if (responseIdList == null)
             responseIdList = new ArrayList<String>();
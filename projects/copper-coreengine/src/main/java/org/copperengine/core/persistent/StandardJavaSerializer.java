@@ -27,6 +27,8 @@ import java.util.zip.Deflater;
 import org.copperengine.core.Response;
 import org.copperengine.core.Workflow;
 import org.copperengine.core.common.WorkflowRepository;
+import org.copperengine.core.monitoring.EngineEventRecorder;
+import org.copperengine.core.monitoring.EngineEvents;
 import org.copperengine.core.util.Base64;
 
 /**
@@ -77,6 +79,9 @@ public class StandardJavaSerializer implements Serializer {
     private String serialize(final Object o) throws IOException {
         if (o == null)
             return null;
+        final EngineEventRecorder eventRecorder = EngineEvents.recorder();
+        final boolean recordEvent = eventRecorder.isEnabled();
+        final long startNanos = recordEvent ? System.nanoTime() : 0L;
         final ByteArrayOutputStream baos = new ByteArrayOutputStream(1024);
         final ObjectOutputStream oos = new ObjectOutputStream(baos);
         oos.writeObject(o);
@@ -91,12 +96,18 @@ public class StandardJavaSerializer implements Serializer {
         final String encoded = Base64.encode(data);
         final StringBuilder sb = new StringBuilder(encoded.length() + 4);
         sb.append(isCompressed ? 'C' : 'U').append(encoded);
+        if (recordEvent) {
+            eventRecorder.serialized(o.getClass(), sb.length(), startNanos);
+        }
         return sb.toString();
     }
 
     private Serializable deserialize(String _data, final WorkflowRepository wfRepo) throws IOException, ClassNotFoundException, DataFormatException {
         if (_data == null)
             return null;
+        final EngineEventRecorder eventRecorder = EngineEvents.recorder();
+        final boolean recordEvent = eventRecorder.isEnabled();
+        final long startNanos = recordEvent ? System.nanoTime() : 0L;
         boolean isCompressed = _data.charAt(0) == 'C';
         byte[] data = Base64.decode(_data.substring(1));
         if (isCompressed) {
@@ -116,6 +127,9 @@ public class StandardJavaSerializer implements Serializer {
         };
         Serializable o = (Serializable) ois.readObject();
         ois.close();
+        if (recordEvent) {
+            eventRecorder.deserialized(o != null ? o.getClass() : null, _data.length(), startNanos);
+        }
         return o;
     }
 
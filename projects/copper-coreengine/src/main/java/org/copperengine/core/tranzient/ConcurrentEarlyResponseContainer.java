@@ -0,0 +1,411 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.tranzient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import org.copperengine.core.Response;
+import org.copperengine.core.common.TimingWheel;
+import org.copperengine.management.EarlyResponseContainerMXBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Concurrent implementation of the {@link EarlyResponseContainer} interface.
+ * <p>
+ * The responses are distributed over a number of independently locked segments by their correlation id, so
+ * <code>put</code> and <code>get</code> for different correlation ids do not block each other. Expiry of the hold back
+ * time is driven by a {@link TimingWheel} owned by the housekeeping thread, i.e. only responses that are actually due
+ * are looked at. The capacity is limited by the number of responses and optionally by their estimated size in bytes.
+ * When a segment exceeds its share of the limits, its oldest responses are evicted.
+ */
+public class ConcurrentEarlyResponseContainer implements EarlyResponseContainer, EarlyResponseContainerMXBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(ConcurrentEarlyResponseContainer.class);
+
+    static final class EarlyResponse {
+        final long ts;
+        final int size;
+        final Response<?> response;
+
+        EarlyResponse(final Response<?> response, final long holdBackTime, final int size) {
+            this.response = response;
+            this.size = size;
+            long ts = System.currentTimeMillis() + holdBackTime;
+            if (ts <= 0) {
+                ts = Long.MAX_VALUE;
+            }
+            this.ts = ts;
+        }
+    }
+
+    private static final class Segment {
+        final LinkedHashMap<String, List<EarlyResponse>> responseMap = new LinkedHashMap<String, List<EarlyResponse>>();
+        int numberOfResponses;
+        long bytes;
+    }
+
+    private final Segment[] segments;
+    private final Queue<EarlyResponse> pendingExpiries = new ConcurrentLinkedQueue<EarlyResponse>();
+    private final AtomicInteger numberOfResponses = new AtomicInteger();
+    private final AtomicLong estimatedBytes = new AtomicLong();
+    private final AtomicLong putCount = new AtomicLong();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong expirationCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    private volatile int maxResponses = 25000;
+    private volatile long maxBytes = 0;
+    private volatile long minHoldBackTime = 30000;
+    private int checkInterval = 250;
+    private Thread thread;
+    private volatile boolean shutdown = false;
+    private volatile boolean idle = false;
+
+    public ConcurrentEarlyResponseContainer() {
+        this(64);
+    }
+
+    /**
+     * @param numberOfSegments
+     *        number of independently locked segments, rounded up to the next power of two
+     */
+    public ConcurrentEarlyResponseContainer(int numberOfSegments) {
+        if (numberOfSegments <= 0)
+            throw new IllegalArgumentException();
+        int n = 1;
+        while (n < numberOfSegments) {
+            n <<= 1;
+        }
+        segments = new Segment[n];
+        for (int i = 0; i < n; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    @Override
+    public void put(final Response<?> response) {
+        if (response == null)
+            throw new NullPointerException();
+
+        final long holdBackTime = response.getInternalProcessingTimeout() == null ? minHoldBackTime : response.getInternalProcessingTimeout();
+        final EarlyResponse earlyResponse = new EarlyResponse(response, holdBackTime, estimateSize(response));
+        final Segment segment = segmentFor(response.getCorrelationId());
+        final int maxResponsesPerSegment = Math.max(1, maxResponses / segments.length);
+        final long maxBytesPerSegment = maxBytes / segments.length;
+        List<EarlyResponse> evicted = null;
+        synchronized (segment) {
+            List<EarlyResponse> list = segment.responseMap.get(response.getCorrelationId());
+            if (list == null) {
+                list = new ArrayList<EarlyResponse>(3);
+                segment.responseMap.put(response.getCorrelationId(), list);
+            }
+            list.add(earlyResponse);
+            added(segment, earlyResponse);
+
+            while (segment.numberOfResponses > maxResponsesPerSegment || (maxBytesPerSegment > 0 && segment.bytes > maxBytesPerSegment && segment.numberOfResponses > 0)) {
+                if (evicted == null) {
+                    evicted = new ArrayList<EarlyResponse>();
+                }
+                evicted.add(evictOldest(segment));
+            }
+        }
+        putCount.incrementAndGet();
+
+        if (evicted != null) {
+            evictionCount.addAndGet(evicted.size());
+            if (logger.isDebugEnabled()) {
+                for (EarlyResponse er : evicted) {
+                    logger.debug("Evicted early response with correlationId {} and responseId {}", er.response.getCorrelationId(), er.response.getResponseId());
+                }
+            }
+        }
+
+        pendingExpiries.offer(earlyResponse);
+        if (idle) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    @Override
+    public List<Response<?>> get(final String correlationId) {
+        if (correlationId == null)
+            throw new NullPointerException();
+        if (correlationId.length() == 0)
+            throw new IllegalArgumentException();
+
+        final Segment segment = segmentFor(correlationId);
+        final List<EarlyResponse> erList;
+        synchronized (segment) {
+            erList = segment.responseMap.remove(correlationId);
+            if (erList == null || erList.isEmpty()) {
+                return Collections.emptyList();
+            }
+            for (EarlyResponse earlyResponse : erList) {
+                removed(segment, earlyResponse);
+            }
+        }
+        hitCount.addAndGet(erList.size());
+        final List<Response<?>> rv = new ArrayList<Response<?>>(erList.size());
+        for (EarlyResponse earlyResponse : erList) {
+            rv.add(earlyResponse.response);
+        }
+        return rv;
+    }
+
+    @Override
+    public synchronized void startup() {
+        if (thread != null)
+            throw new IllegalStateException();
+        thread = new Thread("EarlyResponseManager") {
+            @Override
+            public void run() {
+                doHousekeeping();
+            }
+        };
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        shutdown = true;
+        LockSupport.unpark(thread);
+        thread = null;
+    }
+
+    /**
+     * Estimates the memory footprint of a response. Used for the optional byte limit of the container, may be
+     * overwritten for more specific response types.
+     */
+    protected int estimateSize(Response<?> response) {
+        int size = 96 + 2 * length(response.getCorrelationId()) + 2 * length(response.getResponseId()) + 2 * length(response.getMetaData());
+        final Object data = response.getResponse();
+        if (data instanceof String) {
+            size += 40 + 2 * ((String) data).length();
+        } else if (data instanceof byte[]) {
+            size += 16 + ((byte[]) data).length;
+        } else if (data != null) {
+            size += 64;
+        }
+        return size;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    @Override
+    public int getNumberOfResponses() {
+        return numberOfResponses.get();
+    }
+
+    @Override
+    public long getEstimatedBytes() {
+        return estimatedBytes.get();
+    }
+
+    @Override
+    public int getMaxResponses() {
+        return maxResponses;
+    }
+
+    /**
+     * Sets the maximum number of responses held in the container. Each segment may hold its share of this number.
+     */
+    @Override
+    public void setMaxResponses(int maxResponses) {
+        if (maxResponses <= 0)
+            throw new IllegalArgumentException();
+        this.maxResponses = maxResponses;
+    }
+
+    @Override
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the upper limit for the estimated memory footprint of all responses held in the container. 0 means no
+     * limit, which is the default.
+     */
+    @Override
+    public void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0)
+            throw new IllegalArgumentException();
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public long getMinHoldBackTime() {
+        return minHoldBackTime;
+    }
+
+    @Override
+    public void setMinHoldBackTime(long minHoldBackTime) {
+        if (minHoldBackTime <= 0)
+            throw new IllegalArgumentException();
+        this.minHoldBackTime = minHoldBackTime;
+    }
+
+    /**
+     * Sets the resolution of the expiry in milliseconds. Must be called before startup.
+     */
+    public synchronized void setCheckInterval(int checkInterval) {
+        if (checkInterval <= 0)
+            throw new IllegalArgumentException();
+        if (thread != null)
+            throw new IllegalStateException("Already started");
+        this.checkInterval = checkInterval;
+    }
+
+    public int getCheckInterval() {
+        return checkInterval;
+    }
+
+    @Override
+    public long getPutCount() {
+        return putCount.get();
+    }
+
+    @Override
+    public long getHitCount() {
+        return hitCount.get();
+    }
+
+    @Override
+    public long getExpirationCount() {
+        return expirationCount.get();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    private Segment segmentFor(String correlationId) {
+        int h = correlationId.hashCode();
+        h ^= (h >>> 16);
+        return segments[h & (segments.length - 1)];
+    }
+
+    private void added(Segment segment, EarlyResponse earlyResponse) {
+        segment.numberOfResponses++;
+        segment.bytes += earlyResponse.size;
+        numberOfResponses.incrementAndGet();
+        estimatedBytes.addAndGet(earlyResponse.size);
+    }
+
+    private void removed(Segment segment, EarlyResponse earlyResponse) {
+        segment.numberOfResponses--;
+        segment.bytes -= earlyResponse.size;
+        numberOfResponses.decrementAndGet();
+        estimatedBytes.addAndGet(-earlyResponse.size);
+    }
+
+    private EarlyResponse evictOldest(Segment segment) {
+        final Iterator<List<EarlyResponse>> iterator = segment.responseMap.values().iterator();
+        final List<EarlyResponse> erList = iterator.next();
+        final EarlyResponse earlyResponse = erList.remove(0);
+        if (erList.isEmpty()) {
+            iterator.remove();
+        }
+        removed(segment, earlyResponse);
+        return earlyResponse;
+    }
+
+    private void expire(String correlationId, long now, List<EarlyResponse> expired) {
+        final Segment segment = segmentFor(correlationId);
+        synchronized (segment) {
+            final List<EarlyResponse> erList = segment.responseMap.get(correlationId);
+            if (erList == null)
+                return;
+            final Iterator<EarlyResponse> iterator = erList.iterator();
+            while (iterator.hasNext()) {
+                final EarlyResponse earlyResponse = iterator.next();
+                if (earlyResponse.ts <= now) {
+                    iterator.remove();
+                    removed(segment, earlyResponse);
+                    expired.add(earlyResponse);
+                }
+            }
+            if (erList.isEmpty()) {
+                segment.responseMap.remove(correlationId);
+            }
+        }
+    }
+
+    private void doHousekeeping() {
+        logger.info("started");
+        // the wheel only holds the correlation ids to check at a certain tick, not the responses themselves - a
+        // response handed out by get() before its expiry is therefore not retained by the wheel
+        final TimingWheel<Void> wheel = new TimingWheel<Void>(System.currentTimeMillis() / checkInterval);
+        final List<String> dueCorrelationIds = new ArrayList<String>();
+        final List<EarlyResponse> expired = new ArrayList<EarlyResponse>();
+        while (!shutdown) {
+            try {
+                EarlyResponse earlyResponse;
+                while ((earlyResponse = pendingExpiries.poll()) != null) {
+                    final String cid = earlyResponse.response.getCorrelationId();
+                    final long tick = earlyResponse.ts == Long.MAX_VALUE ? Long.MAX_VALUE : (earlyResponse.ts / checkInterval) + 1;
+                    if (!wheel.add(tick, cid)) {
+                        dueCorrelationIds.add(cid);
+                    }
+                }
+                final long now = System.currentTimeMillis();
+                wheel.advance(now / checkInterval, dueCorrelationIds, null);
+                for (String cid : dueCorrelationIds) {
+                    expire(cid, now, expired);
+                }
+                dueCorrelationIds.clear();
+                if (!expired.isEmpty()) {
+                    expirationCount.addAndGet(expired.size());
+                    for (EarlyResponse er : expired) {
+                        logger.info("Removed early response with correlationId {} and responseId {}", er.response.getCorrelationId(), er.response.getResponseId());
+                    }
+                    expired.clear();
+                }
+
+                if (wheel.size() == 0) {
+                    idle = true;
+                    if (pendingExpiries.isEmpty() && !shutdown) {
+                        LockSupport.park(this);
+                    }
+                    idle = false;
+                } else {
+                    final long delay = (wheel.getCurrentTick() + 1) * checkInterval - System.currentTimeMillis();
+                    if (delay > 0) {
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(delay));
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("Unexpected exception:", e);
+            }
+        }
+        logger.info("stopped");
+    }
+}
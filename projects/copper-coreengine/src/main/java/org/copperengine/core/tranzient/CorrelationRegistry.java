@@ -0,0 +1,130 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.tranzient;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Internally used class.
+ * <p>
+ * Concurrent registry of {@link CorrelationSet}s by correlation id. Access to a correlation id is serialized by one of
+ * a fixed number of lock stripes, so that registrations and notifications for unrelated correlation ids may proceed
+ * in parallel. A registration covering multiple correlation ids locks all corresponding stripes in ascending order,
+ * which makes it atomic with respect to concurrent notifications for any of these ids.
+ */
+class CorrelationRegistry {
+
+    private final ConcurrentHashMap<String, CorrelationSet> map;
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    public CorrelationRegistry(int initialCapacity, int numberOfStripes) {
+        if (numberOfStripes <= 0)
+            throw new IllegalArgumentException();
+        int n = 1;
+        while (n < numberOfStripes) {
+            n <<= 1;
+        }
+        this.stripes = new ReentrantLock[n];
+        for (int i = 0; i < n; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = n - 1;
+        this.map = new ConcurrentHashMap<String, CorrelationSet>(initialCapacity, 0.75f, n);
+    }
+
+    private int stripe(String correlationId) {
+        int h = correlationId.hashCode();
+        h ^= (h >>> 16);
+        return h & mask;
+    }
+
+    /**
+     * Locks the stripe of the specified correlation id.
+     */
+    public void lock(String correlationId) {
+        stripes[stripe(correlationId)].lock();
+    }
+
+    public void unlock(String correlationId) {
+        stripes[stripe(correlationId)].unlock();
+    }
+
+    /**
+     * Locks the stripes of all specified correlation ids in ascending order.
+     *
+     * @return the locked stripes, to be passed to {@link #unlock(int[])}
+     */
+    public int[] lock(String[] correlationIds) {
+        int[] idx = new int[correlationIds.length];
+        for (int i = 0; i < correlationIds.length; i++) {
+            idx[i] = stripe(correlationIds[i]);
+        }
+        Arrays.sort(idx);
+        int n = 0;
+        for (int i = 0; i < idx.length; i++) {
+            if (i == 0 || idx[i] != idx[i - 1]) {
+                idx[n++] = idx[i];
+            }
+        }
+        final int[] locked = n == idx.length ? idx : Arrays.copyOf(idx, n);
+        for (int i : locked) {
+            stripes[i].lock();
+        }
+        return locked;
+    }
+
+    public void unlock(int[] lockedStripes) {
+        for (int i = lockedStripes.length - 1; i >= 0; i--) {
+            stripes[lockedStripes[i]].unlock();
+        }
+    }
+
+    /**
+     * Returns the correlation set registered for the specified correlation id. The caller should hold the lock of
+     * the correlation id's stripe.
+     */
+    public CorrelationSet get(String correlationId) {
+        return map.get(correlationId);
+    }
+
+    /**
+     * Registers the correlation set for all of its correlation ids. The caller must hold the locks of the stripes of
+     * all correlation ids, see {@link #lock(String[])}.
+     */
+    public void register(CorrelationSet cs) {
+        for (String cid : cs.getCorrelationIds()) {
+            map.put(cid, cs);
+        }
+    }
+
+    /**
+     * Removes the correlation set for all of its correlation ids that are still mapped to it. Does not require the
+     * stripe locks of the correlation ids, as entries are removed only if they still refer to the specified set.
+     */
+    public void remove(CorrelationSet cs) {
+        for (String cid : cs.getCorrelationIds()) {
+            map.remove(cid, cs);
+        }
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+}
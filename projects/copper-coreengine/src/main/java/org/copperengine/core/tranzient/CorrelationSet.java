@@ -34,6 +34,7 @@ class CorrelationSet {
     private List<String> missingCorrelationIds;
     private WaitMode mode;
     private Long timeoutTS;
+    private boolean done = false;
 
     public CorrelationSet(Workflow<?> workflow, List<String> missingCorrelationIds, WaitMode mode, Long timeoutTS) {
         this.workflowId = workflow.getId();
@@ -74,4 +75,16 @@ class CorrelationSet {
         return correlationIds;
     }
 
+    /**
+     * @return <code>true</code> if the waiting workflow instance has been enqueued, i.e. further responses for this
+     *         correlation set are no longer relevant for it.
+     */
+    public boolean isDone() {
+        return done;
+    }
+
+    public void setDone() {
+        this.done = true;
+    }
+
 }
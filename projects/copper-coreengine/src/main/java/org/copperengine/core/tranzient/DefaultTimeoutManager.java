@@ -25,6 +25,8 @@ import java.util.TreeMap;
 import org.copperengine.core.Acknowledge;
 import org.copperengine.core.ProcessingEngine;
 import org.copperengine.core.Response;
+import org.copperengine.core.monitoring.EngineEventRecorder;
+import org.copperengine.core.monitoring.EngineEvents;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -72,6 +74,9 @@ public final class DefaultTimeoutManager extends Thread implements TimeoutManage
         while (!shutdown) {
             try {
                 List<String> expiredCorrelationIds = new ArrayList<String>(32);
+                final EngineEventRecorder eventRecorder = EngineEvents.recorder();
+                final boolean recordEvent = eventRecorder.isEnabled();
+                final long startNanos = recordEvent ? System.nanoTime() : 0L;
                 synchronized (slots) {
                     if (shutdown)
                         break;
@@ -96,6 +101,9 @@ public final class DefaultTimeoutManager extends Thread implements TimeoutManage
                     Response<?> r = new Response(cid);
                     engine.notify(r, new Acknowledge.BestEffortAcknowledge());
                 }
+                if (recordEvent && !expiredCorrelationIds.isEmpty()) {
+                    eventRecorder.timeoutsExpired(expiredCorrelationIds.size(), startNanos);
+                }
 
                 synchronized (slots) {
                     if (shutdown)
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.tranzient;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.copperengine.core.Acknowledge;
+import org.copperengine.core.ProcessingEngine;
+import org.copperengine.core.Response;
+import org.copperengine.core.common.TimingWheel;
+import org.copperengine.core.monitoring.EngineEventRecorder;
+import org.copperengine.core.monitoring.EngineEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of the {@link TimeoutManager} interface based on a hierarchical timing wheel.
+ * <p>
+ * Registering and unregistering a timeout is O(1) and lock free - the calling thread only appends a command to a
+ * concurrent queue, which is applied to the wheel by the timeout manager thread. Timeouts are rounded up to the next
+ * tick (default 25 msec, like {@link DefaultTimeoutManager}) and expired timeouts are delivered to the engine in
+ * batches, one batch per tick.
+ */
+public final class TimingWheelTimeoutManager extends Thread implements TimeoutManager {
+
+    private final static Logger logger = LoggerFactory.getLogger(TimeoutManager.class);
+
+    private final Queue<Command> commands = new ConcurrentLinkedQueue<Command>();
+    private final Acknowledge ack = new Acknowledge.BestEffortAcknowledge();
+    private long tickMSec = 25;
+    private ProcessingEngine engine;
+    private volatile boolean shutdown = false;
+    private volatile boolean idle = false;
+    private volatile int size;
+
+    public TimingWheelTimeoutManager() {
+        super("copper.Timeoutmanager");
+    }
+
+    /**
+     * Sets the resolution of the timing wheel in milliseconds. Must be called before startup.
+     */
+    public void setTickMSec(long tickMSec) {
+        if (tickMSec <= 0)
+            throw new IllegalArgumentException("tickMSec must be > 0");
+        if (isAlive())
+            throw new IllegalStateException("Timeout manager is already running");
+        this.tickMSec = tickMSec;
+    }
+
+    public long getTickMSec() {
+        return tickMSec;
+    }
+
+    /**
+     * @return the number of pending timeouts, as seen by the timeout manager thread
+     */
+    public int getNumberOfPendingTimeouts() {
+        return size;
+    }
+
+    long tick(long timeoutTS) {
+        return (timeoutTS / tickMSec) + 1;
+    }
+
+    public synchronized void startup() {
+        if (engine == null)
+            throw new NullPointerException();
+        this.setDaemon(true);
+        this.start();
+    }
+
+    public synchronized void shutdown() {
+        if (shutdown)
+            return;
+        shutdown = true;
+        LockSupport.unpark(this);
+    }
+
+    @Override
+    public void setEngine(ProcessingEngine engine) {
+        this.engine = engine;
+    }
+
+    @Override
+    public void registerTimeout(long timeoutTS, String correlationId) {
+        enqueue(new Command(true, tick(timeoutTS), Collections.singletonList(correlationId)));
+    }
+
+    @Override
+    public void registerTimeout(long timeoutTS, List<String> correlationIds) {
+        enqueue(new Command(true, tick(timeoutTS), new ArrayList<String>(correlationIds)));
+    }
+
+    @Override
+    public void unregisterTimeout(long timeoutTS, String correlationId) {
+        enqueue(new Command(false, tick(timeoutTS), Collections.singletonList(correlationId)));
+    }
+
+    @Override
+    public void unregisterTimeout(long timeoutTS, List<String> correlationIds) {
+        enqueue(new Command(false, tick(timeoutTS), new ArrayList<String>(correlationIds)));
+    }
+
+    private void enqueue(Command command) {
+        commands.offer(command);
+        if (idle) {
+            LockSupport.unpark(this);
+        }
+    }
+
+    public void run() {
+        logger.info("started");
+        final TimingWheel<Void> wheel = new TimingWheel<Void>(System.currentTimeMillis() / tickMSec);
+        final List<String> expiredCorrelationIds = new ArrayList<String>(32);
+        while (!shutdown) {
+            try {
+                final EngineEventRecorder eventRecorder = EngineEvents.recorder();
+                final boolean recordEvent = eventRecorder.isEnabled();
+                final long startNanos = recordEvent ? System.nanoTime() : 0L;
+                applyCommands(wheel, expiredCorrelationIds);
+                wheel.advance(System.currentTimeMillis() / tickMSec, expiredCorrelationIds, null);
+                size = wheel.size();
+
+                if (!expiredCorrelationIds.isEmpty()) {
+                    if (logger.isDebugEnabled())
+                        logger.debug("Delivering " + expiredCorrelationIds.size() + " expired timeouts at tick " + wheel.getCurrentTick());
+                    for (String cid : expiredCorrelationIds) {
+                        @SuppressWarnings("rawtypes")
+                        Response<?> r = new Response(cid);
+                        engine.notify(r, ack);
+                    }
+                    if (recordEvent) {
+                        eventRecorder.timeoutsExpired(expiredCorrelationIds.size(), startNanos);
+                    }
+                    expiredCorrelationIds.clear();
+                }
+
+                if (wheel.size() == 0) {
+                    idle = true;
+                    if (commands.isEmpty() && !shutdown) {
+                        logger.debug("There are currently no timeouts - waiting indefinitely...");
+                        LockSupport.park(this);
+                    }
+                    idle = false;
+                } else {
+                    long delay = (wheel.getCurrentTick() + 1) * tickMSec - System.currentTimeMillis();
+                    if (delay > 0) {
+                        LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(delay));
+                    }
+                }
+            } catch (Exception e) {
+                logger.error("Unexpected exception:", e);
+            }
+        }
+        logger.info("stopped");
+    }
+
+    private void applyCommands(TimingWheel<Void> wheel, List<String> expiredCorrelationIds) {
+        Command command;
+        while ((command = commands.poll()) != null) {
+            for (String cid : command.correlationIds) {
+                if (command.register) {
+                    if (!wheel.add(command.tick, cid)) {
+                        expiredCorrelationIds.add(cid);
+                    }
+                } else if (!wheel.remove(command.tick, cid) && !expiredCorrelationIds.isEmpty()) {
+                    // registered and unregistered again before the timeout could be delivered
+                    expiredCorrelationIds.remove(cid);
+                }
+            }
+        }
+    }
+
+    private static final class Command {
+        final boolean register;
+        final long tick;
+        final List<String> correlationIds;
+
+        Command(boolean register, long tick, List<String> correlationIds) {
+            this.register = register;
+            this.tick = tick;
+            this.correlationIds = correlationIds;
+        }
+    }
+}
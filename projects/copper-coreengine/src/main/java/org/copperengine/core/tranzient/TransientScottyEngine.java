@@ -18,9 +18,7 @@ package org.copperengine.core.tranzient;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
@@ -61,8 +59,8 @@ public class TransientScottyEngine extends AbstractProcessingEngine implements P
 
     private static final Logger logger = LoggerFactory.getLogger(TransientScottyEngine.class);
 
-    private final Map<String, CorrelationSet> correlationMap = new HashMap<String, CorrelationSet>(50000);
-    private final Map<String, Workflow<?>> workflowMap = new ConcurrentHashMap<String, Workflow<?>>(50000);
+    private final CorrelationRegistry correlationRegistry = new CorrelationRegistry(50000, 256);
+    private final ConcurrentHashMap<String, Workflow<?>> workflowMap = new ConcurrentHashMap<String, Workflow<?>>(50000);
     private ProcessorPoolManager<TransientProcessorPool> poolManager;
     private TimeoutManager timeoutManager;
     private EarlyResponseContainer earlyResponseContainer;
@@ -110,44 +108,56 @@ public class TransientScottyEngine extends AbstractProcessingEngine implements P
                 // ignore
             }
 
-            synchronized (correlationMap) {
-                final CorrelationSet cs = correlationMap.get(response.getCorrelationId());
-                if (cs == null) {
-                    if (response.isEarlyResponseHandling()) {
-                        earlyResponseContainer.put(response);
-                    }
-                    ack.onSuccess();
-                    return;
-                }
-                final Workflow<?> wf = workflowMap.get(cs.getWorkflowId());
-                if (wf == null) {
-                    logger.error("Workflow with id " + cs.getWorkflowId() + " not found");
-                    ack.onException(new CopperException("Workflow with id " + cs.getWorkflowId() + " not found"));
-                    return;
-                }
-                cs.getMissingCorrelationIds().remove(response.getCorrelationId());
-                if (cs.getTimeoutTS() != null && !response.isTimeout())
-                    timeoutManager.unregisterTimeout(cs.getTimeoutTS(), response.getCorrelationId());
-                wf.putResponse(response);
-
-                boolean doEnqueue = false;
-                if (cs.getMode() == WaitMode.FIRST) {
-                    if (!cs.getMissingCorrelationIds().isEmpty() && cs.getTimeoutTS() != null && !response.isTimeout()) {
-                        timeoutManager.unregisterTimeout(cs.getTimeoutTS(), cs.getMissingCorrelationIds());
+            final String correlationId = response.getCorrelationId();
+            Workflow<?> wfToEnqueue = null;
+            correlationRegistry.lock(correlationId);
+            try {
+                final CorrelationSet cs = correlationRegistry.get(correlationId);
+                boolean waiting = false;
+                if (cs != null) {
+                    synchronized (cs) {
+                        // the correlation set may have been completed by a concurrent response for another correlation id
+                        if (!cs.isDone()) {
+                            waiting = true;
+                            final Workflow<?> wf = workflowMap.get(cs.getWorkflowId());
+                            if (wf == null) {
+                                logger.error("Workflow with id " + cs.getWorkflowId() + " not found");
+                                ack.onException(new CopperException("Workflow with id " + cs.getWorkflowId() + " not found"));
+                                return;
+                            }
+                            cs.getMissingCorrelationIds().remove(correlationId);
+                            if (cs.getTimeoutTS() != null && !response.isTimeout())
+                                timeoutManager.unregisterTimeout(cs.getTimeoutTS(), correlationId);
+                            wf.putResponse(response);
+
+                            boolean doEnqueue = false;
+                            if (cs.getMode() == WaitMode.FIRST) {
+                                if (!cs.getMissingCorrelationIds().isEmpty() && cs.getTimeoutTS() != null && !response.isTimeout()) {
+                                    timeoutManager.unregisterTimeout(cs.getTimeoutTS(), cs.getMissingCorrelationIds());
+                                }
+                                doEnqueue = true;
+                            }
+
+                            if (cs.getMissingCorrelationIds().isEmpty()) {
+                                doEnqueue = true;
+                            }
+
+                            if (doEnqueue) {
+                                cs.setDone();
+                                correlationRegistry.remove(cs);
+                                wfToEnqueue = wf;
+                            }
+                        }
                     }
-                    doEnqueue = true;
                 }
-
-                if (cs.getMissingCorrelationIds().isEmpty()) {
-                    doEnqueue = true;
-                }
-
-                if (doEnqueue) {
-                    for (String correlationId : cs.getCorrelationIds()) {
-                        correlationMap.remove(correlationId);
-                    }
-                    enqueue(wf);
+                if (!waiting && response.isEarlyResponseHandling()) {
+                    earlyResponseContainer.put(response);
                 }
+            } finally {
+                correlationRegistry.unlock(correlationId);
+            }
+            if (wfToEnqueue != null) {
+                enqueue(wfToEnqueue);
             }
             ack.onSuccess();
         } catch (RuntimeException e) {
@@ -175,10 +185,10 @@ public class TransientScottyEngine extends AbstractProcessingEngine implements P
             if (w.getProcessorPoolId() == null) {
                 w.setProcessorPoolId(TransientProcessorPool.DEFAULT_POOL_ID);
             }
-            synchronized (workflowMap) {
-                if (!newId && workflowMap.containsKey(w.getId()))
-                    throw new DuplicateIdException("engine already contains a workflow with id '" + w.getId() + "'");
+            if (newId) {
                 workflowMap.put(w.getId(), w);
+            } else if (workflowMap.putIfAbsent(w.getId(), w) != null) {
+                throw new DuplicateIdException("engine already contains a workflow with id '" + w.getId() + "'");
             }
             injectDependencies(w);
             enqueue(w);
@@ -248,7 +258,8 @@ public class TransientScottyEngine extends AbstractProcessingEngine implements P
         
         boolean doEnqueue = false;
         CorrelationSet cs = new CorrelationSet(w, correlationIds, mode, timeoutMsec > 0 ? System.currentTimeMillis() + timeoutMsec : null);
-        synchronized (correlationMap) {
+        final int[] lockedStripes = correlationRegistry.lock(correlationIds);
+        try {
             for (String cid : correlationIds) {
                 List<Response<?>> earlyResponses = earlyResponseContainer.get(cid);
                 if (earlyResponses != null && !earlyResponses.isEmpty()) {
@@ -261,9 +272,7 @@ public class TransientScottyEngine extends AbstractProcessingEngine implements P
             if (cs.getMissingCorrelationIds().isEmpty() || (cs.getMissingCorrelationIds().size() < correlationIds.length && mode == WaitMode.FIRST)) {
                 doEnqueue = true;
             } else {
-                for (String cid : cs.getCorrelationIds()) {
-                    correlationMap.put(cid, cs);
-                }
+                correlationRegistry.register(cs);
                 if (cs.getTimeoutTS() != null) {
                     if (mode == WaitMode.FIRST)
                         timeoutManager.registerTimeout(cs.getTimeoutTS().longValue(), cs.getMissingCorrelationIds().get(0));
@@ -271,6 +280,8 @@ public class TransientScottyEngine extends AbstractProcessingEngine implements P
                         timeoutManager.registerTimeout(cs.getTimeoutTS().longValue(), cs.getMissingCorrelationIds());
                 }
             }
+        } finally {
+            correlationRegistry.unlock(lockedStripes);
         }
         if (doEnqueue) {
             enqueue(w);
@@ -15,6 +15,11 @@
  */
 package org.copperengine.core.util;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.Arrays;
+
 import javax.xml.bind.DatatypeConverter;
 
 /**
@@ -47,4 +52,111 @@ public class Base64 {
         return DatatypeConverter.parseBase64Binary(data);
     }
 
+    /**
+     * Decodes the characters of a reader while the returned stream is read. Characters outside of the Base64
+     * alphabet, e.g. line breaks, are skipped, the first padding character ends the data.
+     *
+     * @param in
+     *         a reader of Base64 character data
+     * @return a stream of the decoded binary data
+     */
+    public static InputStream decodingStream(Reader in) {
+        return new DecodingInputStream(in);
+    }
+
+    private static final class DecodingInputStream extends InputStream {
+
+        private static final int[] VALUES = new int[128];
+
+        static {
+            Arrays.fill(VALUES, -1);
+            final String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+            for (int i = 0; i < alphabet.length(); i++) {
+                VALUES[alphabet.charAt(i)] = i;
+            }
+        }
+
+        private final Reader in;
+        private final char[] chars = new char[4096];
+        private int charPos;
+        private int charLen;
+        private final byte[] decoded = new byte[3];
+        private int decodedPos;
+        private int decodedLen;
+        private boolean eof;
+
+        DecodingInputStream(Reader in) {
+            this.in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (decodedPos == decodedLen && !decodeQuantum())
+                return -1;
+            return decoded[decodedPos++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0)
+                return 0;
+            int n = 0;
+            while (n < len) {
+                if (decodedPos == decodedLen && !decodeQuantum())
+                    break;
+                final int count = Math.min(len - n, decodedLen - decodedPos);
+                System.arraycopy(decoded, decodedPos, b, off + n, count);
+                decodedPos += count;
+                n += count;
+            }
+            return n == 0 ? -1 : n;
+        }
+
+        /**
+         * Decodes the next four characters into up to three bytes.
+         */
+        private boolean decodeQuantum() throws IOException {
+            int bits = 0;
+            int n = 0;
+            while (n < 4 && !eof) {
+                final int c = nextChar();
+                if (c < 0 || c == '=') {
+                    eof = true;
+                    break;
+                }
+                final int value = c < VALUES.length ? VALUES[c] : -1;
+                if (value < 0)
+                    continue;
+                bits = (bits << 6) | value;
+                n++;
+            }
+            if (n < 2)
+                return false;
+            bits <<= 6 * (4 - n);
+            decodedLen = n - 1;
+            decoded[0] = (byte) (bits >> 16);
+            decoded[1] = (byte) (bits >> 8);
+            decoded[2] = (byte) bits;
+            decodedPos = 0;
+            return true;
+        }
+
+        private int nextChar() throws IOException {
+            if (charPos == charLen) {
+                charLen = in.read(chars);
+                charPos = 0;
+                if (charLen <= 0) {
+                    charLen = 0;
+                    return -1;
+                }
+            }
+            return chars[charPos++];
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.copperengine.core.audit.BatchInsertIntoAutoTrail.Command;
+import org.copperengine.core.audit.BatchInsertIntoAutoTrail.Executor;
+import org.copperengine.core.batcher.BatchCommand;
+import org.copperengine.core.batcher.NullCallback;
+import org.junit.Test;
+
+public class AuditTrailBulkWriterTest {
+
+    private static final List<String> columns = Arrays.asList("CONVERSATION_ID", "LOGLEVEL");
+
+    @Test
+    public void testCreate() throws Exception {
+        assertTrue(AuditTrailBulkWriter.create("MySQL", "T", columns) instanceof AuditTrailBulkWriter.MultiRowInsert);
+        assertTrue(AuditTrailBulkWriter.create("H2", "T", columns) instanceof AuditTrailBulkWriter.MultiRowInsert);
+        assertNull(AuditTrailBulkWriter.create("Apache Derby", "T", columns));
+    }
+
+    @Test
+    public void testMultiRowInsert() throws Exception {
+        final AuditTrailBulkWriter.MultiRowInsert writer = new AuditTrailBulkWriter.MultiRowInsert("COP_AUDIT_TRAIL_EVENT", columns);
+        final String sql = "INSERT INTO COP_AUDIT_TRAIL_EVENT (CONVERSATION_ID,LOGLEVEL) VALUES (?,?),(?,?),(?,?)";
+        assertEquals(sql, writer.createSqlStmt(3));
+
+        final PreparedStatement stmt = mock(PreparedStatement.class);
+        final Connection con = mock(Connection.class);
+        when(con.prepareStatement(sql)).thenReturn(stmt);
+        final List<Method> getters = Arrays.asList(AuditTrailEvent.class.getMethod("getConversationId"), AuditTrailEvent.class.getMethod("getLogLevel"));
+        final AuditTrailEventBinder binder = AuditTrailEventBinder.create(AuditTrailEvent.class, getters);
+        final Executor executor = new Executor(20, 50, false, writer);
+
+        final List<BatchCommand<Executor, Command>> commands = new ArrayList<BatchCommand<Executor, Command>>();
+        for (int i = 0; i < 3; i++) {
+            AuditTrailEvent e = new AuditTrailEvent(i, new Date(), "conv" + i, "ctx", null, null, null, null, null);
+            commands.add(new Command(e, false, "unused", binder, null, executor, NullCallback.<Command>get(), 0));
+        }
+        executor.doExec(commands, con);
+
+        verify(stmt).setString(1, "conv0");
+        verify(stmt).setInt(2, 0);
+        verify(stmt).setString(5, "conv2");
+        verify(stmt).setInt(6, 2);
+        verify(stmt, times(1)).executeUpdate();
+        verify(stmt).close();
+    }
+
+    @Test
+    public void testCsvValues() throws Exception {
+        final StringBuilder csv = new StringBuilder();
+        AuditTrailBulkWriter.PostgresCopy.appendValue(csv, null);
+        csv.append(',');
+        AuditTrailBulkWriter.PostgresCopy.appendValue(csv, "");
+        csv.append(',');
+        AuditTrailBulkWriter.PostgresCopy.appendValue(csv, "a \"quoted\",\nmessage");
+        csv.append(',');
+        AuditTrailBulkWriter.PostgresCopy.appendValue(csv, Long.valueOf(42));
+        csv.append(',');
+        final Date date = new Date();
+        AuditTrailBulkWriter.PostgresCopy.appendValue(csv, date);
+        assertEquals(",\"\",\"a \"\"quoted\"\",\nmessage\",42,\"" + new Timestamp(date.getTime()) + "\"", csv.toString());
+    }
+
+    @Test
+    public void testCsvRow() throws Exception {
+        final List<Method> getters = Arrays.asList(AuditTrailEvent.class.getMethod("getConversationId"), AuditTrailEvent.class.getMethod("getLogLevel"), AuditTrailEvent.class.getMethod("getCorrelationId"), AuditTrailEvent.class.getMethod("getMessage"));
+        final AuditTrailEventBinder binder = AuditTrailEventBinder.create(AuditTrailEvent.class, getters);
+        final AuditTrailEvent event = new AuditTrailEvent(3, new Date(), "conv", "ctx", null, null, null, "msg", null);
+
+        final StringBuilder csv = new StringBuilder();
+        AuditTrailBulkWriter.PostgresCopy.appendRow(csv, binder.values(event, "serialized"));
+        assertEquals("\"conv\",3,,\"serialized\"\n", csv.toString());
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+
+import java.beans.Introspector;
+import java.beans.PropertyDescriptor;
+import java.lang.reflect.Method;
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Test;
+
+public class AuditTrailEventBinderTest {
+
+    public static class ExtendedAuditTrailEvent extends AuditTrailEvent {
+        private static final long serialVersionUID = 1L;
+
+        private long amount;
+        private Double rate;
+        private Integer retries;
+
+        public ExtendedAuditTrailEvent(Date occurrence, long amount, Double rate, Integer retries) {
+            super(3, occurrence, "conv", "ctx", "inst", null, null, "msg", null);
+            this.amount = amount;
+            this.rate = rate;
+            this.retries = retries;
+        }
+
+        public long getAmount() {
+            return amount;
+        }
+
+        public Double getRate() {
+            return rate;
+        }
+
+        public Integer getRetries() {
+            return retries;
+        }
+    }
+
+    private static List<Method> getters(Class<?> eventClass, String... properties) throws Exception {
+        List<Method> getters = new ArrayList<Method>();
+        for (String property : properties) {
+            for (PropertyDescriptor pd : Introspector.getBeanInfo(eventClass).getPropertyDescriptors()) {
+                if (pd.getName().equals(property)) {
+                    getters.add(pd.getReadMethod());
+                }
+            }
+        }
+        assertEquals(properties.length, getters.size());
+        return getters;
+    }
+
+    @Test
+    public void testGeneratedBinder() throws Exception {
+        final List<Method> getters = getters(ExtendedAuditTrailEvent.class, "logLevel", "occurrence", "conversationId", "correlationId", "amount", "rate", "retries");
+        final AuditTrailEventBinder binder = AuditTrailEventBinder.create(ExtendedAuditTrailEvent.class, getters);
+        assertTrue(binder instanceof AuditTrailEventBinder.CheckedBinder);
+
+        final Date occurrence = new Date();
+        final PreparedStatement stmt = mock(PreparedStatement.class);
+        assertEquals(9, binder.bind(stmt, 2, new ExtendedAuditTrailEvent(occurrence, 4711L, 0.5, null)));
+        // typed setters, null values with the same JDBC types as the reflective binder
+        verify(stmt).setInt(2, 3);
+        verify(stmt).setTimestamp(3, new Timestamp(occurrence.getTime()));
+        verify(stmt).setString(4, "conv");
+        verify(stmt).setNull(5, Types.VARCHAR);
+        verify(stmt).setLong(6, 4711L);
+        verify(stmt).setDouble(7, 0.5);
+        verify(stmt).setNull(8, Types.INTEGER);
+        verifyNoMoreInteractions(stmt);
+
+        // wrappers are unboxed
+        final PreparedStatement stmt2 = mock(PreparedStatement.class);
+        assertEquals(8, binder.bind(stmt2, 1, new ExtendedAuditTrailEvent(occurrence, 1L, null, 2)));
+        verify(stmt2).setNull(6, Types.NUMERIC);
+        verify(stmt2).setInt(7, 2);
+    }
+
+    @Test
+    public void testGeneratedValues() throws Exception {
+        final List<Method> getters = getters(ExtendedAuditTrailEvent.class, "logLevel", "occurrence", "amount", "rate", "message");
+        final AuditTrailEventBinder binder = AuditTrailEventBinder.create(ExtendedAuditTrailEvent.class, getters);
+        final ExtendedAuditTrailEvent event = new ExtendedAuditTrailEvent(new Date(), 4711L, null, null);
+        assertArrayEquals(new Object[] { 3, event.getOccurrence(), 4711L, null, "serialized" }, binder.values(event, "serialized"));
+        assertArrayEquals(new AuditTrailEventBinder.ReflectiveBinder(getters).values(event, "serialized"), binder.values(event, "serialized"));
+    }
+
+    @Test
+    public void testMessageIsReplaced() throws Exception {
+        final List<Method> getters = getters(ExtendedAuditTrailEvent.class, "conversationId", "message");
+        final AuditTrailEventBinder binder = AuditTrailEventBinder.create(ExtendedAuditTrailEvent.class, getters);
+
+        final PreparedStatement stmt = mock(PreparedStatement.class);
+        final ExtendedAuditTrailEvent event = new ExtendedAuditTrailEvent(new Date(), 1L, null, null);
+        assertEquals(3, binder.bind(stmt, 1, event, "serialized"));
+        verify(stmt).setString(1, "conv");
+        verify(stmt).setString(2, "serialized");
+        verifyNoMoreInteractions(stmt);
+        assertEquals("msg", event.getMessage());
+    }
+
+    @Test
+    public void testFallbackForOtherEventClasses() throws Exception {
+        final List<Method> getters = getters(ExtendedAuditTrailEvent.class, "conversationId", "amount");
+        final AuditTrailEventBinder binder = AuditTrailEventBinder.create(ExtendedAuditTrailEvent.class, getters);
+
+        final PreparedStatement stmt = mock(PreparedStatement.class);
+        assertEquals(3, binder.bind(stmt, 1, new AuditTrailEvent(1, new Date(), "conv", "ctx", null, null, null, null, null)));
+        verify(stmt).setObject(1, "conv", Types.VARCHAR);
+        verify(stmt).setNull(2, Types.NUMERIC);
+        verifyNoMoreInteractions(stmt);
+    }
+
+    @Test
+    public void testReflectiveBinderForNonPublicClass() throws Exception {
+        final List<Method> getters = getters(PrivateAuditTrailEvent.class, "logLevel");
+        final AuditTrailEventBinder binder = AuditTrailEventBinder.create(PrivateAuditTrailEvent.class, getters);
+        assertTrue(binder instanceof AuditTrailEventBinder.ReflectiveBinder);
+
+        final PreparedStatement stmt = mock(PreparedStatement.class);
+        binder.bind(stmt, 1, new PrivateAuditTrailEvent());
+        verify(stmt).setObject(eq(1), any(), eq(Types.INTEGER));
+    }
+
+    private static class PrivateAuditTrailEvent extends AuditTrailEvent {
+        private static final long serialVersionUID = 1L;
+
+        PrivateAuditTrailEvent() {
+            super(1, new Date(), "conv", "ctx", null, null, null, null, null);
+        }
+    }
+}
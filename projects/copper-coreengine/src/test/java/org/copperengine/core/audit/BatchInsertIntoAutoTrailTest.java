@@ -0,0 +1,93 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import org.copperengine.core.audit.BatchInsertIntoAutoTrail.Command;
+import org.copperengine.core.audit.BatchInsertIntoAutoTrail.Executor;
+import org.copperengine.core.batcher.BatchCommand;
+import org.copperengine.core.batcher.NullCallback;
+import org.junit.Test;
+
+public class BatchInsertIntoAutoTrailTest {
+
+    @Test
+    public void testAdaptiveBatchSize() throws Exception {
+        Executor executor = new Executor(10, 80, true);
+        assertEquals(10, executor.preferredBatchSize());
+        executor.adaptBatchSize(10);
+        assertEquals(20, executor.preferredBatchSize());
+        executor.adaptBatchSize(25);
+        executor.adaptBatchSize(40);
+        assertEquals(80, executor.preferredBatchSize());
+        executor.adaptBatchSize(80);
+        assertEquals(80, executor.preferredBatchSize());
+        executor.adaptBatchSize(30);
+        assertEquals(40, executor.preferredBatchSize());
+        executor.adaptBatchSize(1);
+        executor.adaptBatchSize(1);
+        executor.adaptBatchSize(1);
+        assertEquals(10, executor.preferredBatchSize());
+
+        Executor fixed = new Executor(10, 80, false);
+        fixed.adaptBatchSize(80);
+        assertEquals(10, fixed.preferredBatchSize());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBatchSizes() throws Exception {
+        new Executor(50, 20, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    @Test
+    public void testMessagePostProcessedOnceByExecutor() throws Exception {
+        final Connection con = mock(Connection.class);
+        final PreparedStatement stmt = mock(PreparedStatement.class);
+        when(con.prepareStatement("INSERT")).thenReturn(stmt);
+        final AuditTrailEventBinder binder = mock(AuditTrailEventBinder.class);
+        final MessagePostProcessor postProcessor = mock(MessagePostProcessor.class);
+        when(postProcessor.serialize("msg")).thenReturn("serialized");
+        final Executor executor = new Executor();
+
+        final AuditTrailEvent event = new AuditTrailEvent(1, new Date(), "conv", "ctx", null, null, null, "msg", null);
+        final Command cmd = new Command(event, false, "INSERT", binder, postProcessor, executor, NullCallback.instance, 0);
+        assertEquals("msg", event.getMessage());
+
+        final List<BatchCommand<Executor, Command>> commands = new ArrayList<BatchCommand<Executor, Command>>();
+        commands.add(cmd);
+        executor.doExec(commands, con);
+
+        // a retried batch must not post process the message again
+        executor.doExec(commands, con);
+        // the event belongs to the caller and is not modified
+        assertEquals("msg", event.getMessage());
+        verify(postProcessor, times(1)).serialize("msg");
+        verify(binder, times(2)).bind(stmt, 1, event, "serialized");
+        verify(stmt, times(2)).executeBatch();
+    }
+}
@@ -19,6 +19,10 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+
 import org.junit.Test;
 
 public class CompressedBase64PostProcessorTest {
@@ -43,6 +47,37 @@ public class CompressedBase64PostProcessorTest {
         assertNull("Deserialized repsesentation of null must be null again.", nullDeserialization);
     }
 
+    @Test
+    public void testStream() throws Exception {
+        streamTest("");
+        streamTest("1234567890abcdefghij");
+        streamTest("\u00e4\u00f6\u00fc \u20ac \u0000 \ud83d\ude00");
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 20000; i++) {
+            sb.append("line ").append(i).append(" \u00e4\n");
+        }
+        // longer than 65535 bytes, serialized as long string
+        streamTest(sb.toString());
+    }
+
+    @Test
+    public void testStreamNull() throws Exception {
+        CompressedBase64PostProcessor compressor = new CompressedBase64PostProcessor();
+        assertNull(compressor.deserializeStream(new StringReader("")));
+    }
+
+    private void streamTest(String msg) throws Exception {
+        CompressedBase64PostProcessor compressor = new CompressedBase64PostProcessor();
+        Reader reader = compressor.deserializeStream(new StringReader(compressor.serialize(msg)));
+        StringWriter out = new StringWriter();
+        char[] buffer = new char[333];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        assertEquals(msg, out.toString());
+    }
+
     private void simpleTest(String msg) {
         CompressedBase64PostProcessor compressor = new CompressedBase64PostProcessor();
         String nmsgSerialization = compressor.serialize(msg);
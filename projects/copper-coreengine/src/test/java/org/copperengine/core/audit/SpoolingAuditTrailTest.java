@@ -0,0 +1,224 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.audit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SpoolingAuditTrailTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = Files.createTempDirectory("copper-audit-spool").toFile();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        for (File f : dir.listFiles()) {
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    private static AuditTrailEvent createEvent(int i) {
+        return new AuditTrailEvent(1, new Date(1000L * i), "conv" + i, "ctx", "inst", null, null, "message " + i + " äöü", "TXT", i % 2 == 0 ? Long.valueOf(i) : null);
+    }
+
+    private List<AuditTrailEvent> readClosedSegments() throws Exception {
+        List<AuditTrailEvent> events = new ArrayList<AuditTrailEvent>();
+        for (File segment : AuditTrailSpool.listSegments(dir, AuditTrailSpool.CLOSED_SUFFIX)) {
+            assertEquals(segment.length(), AuditTrailSpool.read(segment, events));
+        }
+        return events;
+    }
+
+    @Test
+    public void testSpoolAndRoll() throws Exception {
+        SpoolingAuditTrail auditTrail = new SpoolingAuditTrail(dir);
+        auditTrail.setSegmentSize(4096);
+        auditTrail.startup();
+        try {
+            final CountDownLatch latch = new CountDownLatch(100);
+            for (int i = 0; i < 100; i++) {
+                if (i % 10 == 0) {
+                    auditTrail.synchLog(createEvent(i));
+                    latch.countDown();
+                    continue;
+                }
+                auditTrail.asynchLog(createEvent(i), new AuditTrailCallback() {
+                    @Override
+                    public void done() {
+                        latch.countDown();
+                    }
+
+                    @Override
+                    public void error(Exception e) {
+                    }
+                });
+            }
+            auditTrail.synchLog(createEvent(100));
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+            auditTrail.synchLog(9, new Date(), "conv", "ctx", null, null, null, "filtered", null);
+        } finally {
+            auditTrail.shutdown();
+        }
+        assertTrue(AuditTrailSpool.listSegments(dir, AuditTrailSpool.CLOSED_SUFFIX).size() > 1);
+        assertTrue(AuditTrailSpool.listSegments(dir, AuditTrailSpool.OPEN_SUFFIX).isEmpty());
+
+        List<AuditTrailEvent> events = readClosedSegments();
+        assertEquals(101, events.size());
+        for (int i = 0; i < events.size(); i++) {
+            AuditTrailEvent expected = createEvent(i);
+            AuditTrailEvent e = events.get(i);
+            assertEquals(expected.getOccurrence(), e.getOccurrence());
+            assertEquals(expected.getConversationId(), e.getConversationId());
+            assertEquals(expected.getMessage(), e.getMessage());
+            assertEquals(expected.getCorrelationId(), e.getCorrelationId());
+            assertEquals(expected.getSequenceId(), e.getSequenceId());
+        }
+    }
+
+    @Test
+    public void testRecoverOpenSegment() throws Exception {
+        byte[] frame1 = AuditTrailSpool.encode(createEvent(1));
+        byte[] frame2 = AuditTrailSpool.encode(createEvent(2));
+        File open = AuditTrailSpool.segmentFile(dir, 7, AuditTrailSpool.OPEN_SUFFIX);
+        try (RandomAccessFile raf = new RandomAccessFile(open, "rw")) {
+            raf.write(frame1);
+            // torn write of the second event
+            raf.write(frame2, 0, frame2.length - 3);
+        }
+
+        SpoolingAuditTrail auditTrail = new SpoolingAuditTrail(dir);
+        auditTrail.startup();
+        auditTrail.synchLog(createEvent(3));
+        auditTrail.shutdown();
+
+        List<File> segments = AuditTrailSpool.listSegments(dir, AuditTrailSpool.CLOSED_SUFFIX);
+        assertEquals(2, segments.size());
+        assertEquals(7, AuditTrailSpool.sequenceOf(segments.get(0)));
+        assertEquals(frame1.length, segments.get(0).length());
+        List<AuditTrailEvent> events = readClosedSegments();
+        assertEquals(2, events.size());
+        assertEquals("conv1", events.get(0).getConversationId());
+        assertEquals("conv3", events.get(1).getConversationId());
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        SpoolingAuditTrail auditTrail = new SpoolingAuditTrail(dir);
+        auditTrail.startup();
+        for (int i = 0; i < 25; i++) {
+            auditTrail.asynchLog(new AuditTrailEvent(1, new Date(), "conv" + i, "ctx", null, null, null, "message", null));
+        }
+        auditTrail.shutdown();
+
+        final PreparedStatement stmt = mock(PreparedStatement.class);
+        final DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+        when(metaData.getDatabaseProductName()).thenReturn("H2");
+        final Connection con = mock(Connection.class);
+        when(con.getMetaData()).thenReturn(metaData);
+        when(con.prepareStatement(anyString())).thenReturn(stmt);
+        final DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(con);
+
+        BatchingAuditTrail target = new BatchingAuditTrail();
+        target.setDataSource(dataSource);
+        target.setBulkInsert(false);
+        target.startup();
+
+        AuditTrailSpoolReplayer replayer = new AuditTrailSpoolReplayer(dir, target);
+        replayer.setBatchSize(10);
+        assertEquals(25, replayer.replay());
+        verify(stmt, times(25)).addBatch();
+        verify(stmt, times(3)).executeBatch();
+        verify(con).commit();
+        assertTrue(AuditTrailSpool.listSegments(dir, AuditTrailSpool.CLOSED_SUFFIX).isEmpty());
+        assertEquals(0, replayer.replay());
+        assertFalse(dir.list().length > 0);
+    }
+
+    @Test
+    public void testReplayMovesFailingSegment() throws Exception {
+        final AuditTrailEvent bad = new AuditTrailEvent(1, new Date(), "bad", "ctx", null, null, null, "message", null);
+        final AuditTrailEvent good = new AuditTrailEvent(1, new Date(), "good", "ctx", null, null, null, "message", null);
+        final File badSegment = AuditTrailSpool.segmentFile(dir, 1, AuditTrailSpool.CLOSED_SUFFIX);
+        Files.write(badSegment.toPath(), AuditTrailSpool.encode(bad));
+        Files.write(AuditTrailSpool.segmentFile(dir, 2, AuditTrailSpool.CLOSED_SUFFIX).toPath(), AuditTrailSpool.encode(good));
+
+        final PreparedStatement stmt = mock(PreparedStatement.class);
+        doThrow(new SQLException("value too long")).when(stmt).setString(anyInt(), eq("bad"));
+        final DatabaseMetaData metaData = mock(DatabaseMetaData.class);
+        when(metaData.getDatabaseProductName()).thenReturn("H2");
+        final Connection con = mock(Connection.class);
+        when(con.getMetaData()).thenReturn(metaData);
+        when(con.prepareStatement(anyString())).thenReturn(stmt);
+        final DataSource dataSource = mock(DataSource.class);
+        when(dataSource.getConnection()).thenReturn(con);
+
+        BatchingAuditTrail target = new BatchingAuditTrail();
+        target.setDataSource(dataSource);
+        target.setBulkInsert(false);
+        target.startup();
+
+        AuditTrailSpoolReplayer replayer = new AuditTrailSpoolReplayer(dir, target);
+        replayer.setMaxAttempts(2);
+        try {
+            replayer.replay();
+            fail("SQLException expected");
+        } catch (SQLException e) {
+            // the following segment is not replayed before the failed one
+            assertEquals(2, AuditTrailSpool.listSegments(dir, AuditTrailSpool.CLOSED_SUFFIX).size());
+        }
+        assertEquals(1, replayer.replay());
+        verify(con, times(2)).rollback();
+        verify(con).commit();
+        verify(stmt).setString(anyInt(), eq("good"));
+        assertTrue(AuditTrailSpool.listSegments(dir, AuditTrailSpool.CLOSED_SUFFIX).isEmpty());
+        assertTrue(new File(dir, badSegment.getName() + AuditTrailSpool.FAILED_SUFFIX).exists());
+    }
+}
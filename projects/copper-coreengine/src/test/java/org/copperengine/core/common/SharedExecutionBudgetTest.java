@@ -0,0 +1,162 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Queue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.copperengine.core.Interrupt;
+import org.copperengine.core.Workflow;
+import org.copperengine.core.instrument.Transformed;
+import org.junit.Test;
+
+public class SharedExecutionBudgetTest {
+
+    @Transformed
+    private static class TestWorkflow extends Workflow<Object> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void main() throws Interrupt {
+        }
+    }
+
+    @Test
+    public void testSharesAndReservation() {
+        SharedExecutionBudget budget = new SharedExecutionBudget(4);
+        budget.register("A", 1, 4);
+        budget.register("B", 1, 2);
+
+        // A may use all shared permits, but not the one reserved for B
+        assertTrue(budget.tryAcquire("A"));
+        assertTrue(budget.tryAcquire("A"));
+        assertTrue(budget.tryAcquire("A"));
+        assertFalse(budget.tryAcquire("A"));
+        assertEquals(3, budget.getUsed("A"));
+
+        // B still gets its reserved permit
+        assertTrue(budget.tryAcquire("B"));
+        assertFalse(budget.tryAcquire("B"));
+
+        // released capacity flows to the busy pool
+        budget.release("A");
+        assertTrue(budget.hasCapacity("B"));
+        assertTrue(budget.tryAcquire("B"));
+        assertFalse(budget.tryAcquire("B"));
+        assertEquals(4, budget.getUsed());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testMinSharesExceedCapacity() {
+        SharedExecutionBudget budget = new SharedExecutionBudget(2);
+        budget.register("A", 2, 2);
+        budget.register("B", 1, 1);
+    }
+
+    @Test
+    public void testBlockingAcquire() throws Exception {
+        final SharedExecutionBudget budget = new SharedExecutionBudget(1);
+        budget.register("A", 0, 1);
+        budget.register("B", 0, 1);
+        budget.acquire("A");
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread t = new Thread() {
+            @Override
+            public void run() {
+                try {
+                    budget.acquire("B");
+                    acquired.countDown();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        };
+        t.start();
+        assertFalse(acquired.await(100, TimeUnit.MILLISECONDS));
+        budget.release("A");
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+        t.join();
+    }
+
+    @Test
+    public void testReleaseListener() throws Exception {
+        SharedExecutionBudget budget = new SharedExecutionBudget(1);
+        budget.register("A", 0, 1);
+        final AtomicInteger released = new AtomicInteger();
+        Runnable listener = new Runnable() {
+            @Override
+            public void run() {
+                released.incrementAndGet();
+            }
+        };
+        budget.addReleaseListener(listener);
+        budget.acquire("A");
+        budget.release("A");
+        assertEquals(1, released.get());
+        budget.removeReleaseListener(listener);
+        budget.acquire("A");
+        budget.release("A");
+        assertEquals(1, released.get());
+    }
+
+    @Test
+    public void testProcessorInterruptedWhileWaitingForPermit() throws Exception {
+        final SharedExecutionBudget budget = new SharedExecutionBudget(1);
+        budget.register("A", 0, 1);
+        budget.acquire("A");
+
+        final Queue<Workflow<?>> queue = new WfPriorityQueue();
+        final AtomicInteger processed = new AtomicInteger();
+        final Processor processor = new Processor("A#0", queue, Thread.NORM_PRIORITY, null) {
+            @Override
+            protected void process(Workflow<?> wf) {
+                processed.incrementAndGet();
+            }
+        };
+        processor.setExecutionBudget(budget, "A");
+        final TestWorkflow wf = new TestWorkflow();
+        synchronized (queue) {
+            queue.add(wf);
+        }
+        processor.start();
+
+        // wait until the processor took the workflow instance and blocks in acquire
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            synchronized (queue) {
+                if (queue.isEmpty() && processor.getState() == Thread.State.WAITING)
+                    break;
+            }
+            Thread.sleep(5);
+        }
+        processor.shutdown();
+        processor.join(5000);
+        assertFalse(processor.isAlive());
+
+        assertEquals(0, processed.get());
+        synchronized (queue) {
+            assertEquals(1, queue.size());
+            assertTrue(queue.contains(wf));
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+public class TimingWheelTest {
+
+    @Test
+    public void testWheelExpiresInTickOrder() {
+        final TimingWheel<Void> wheel = new TimingWheel<Void>(1000);
+        assertTrue(wheel.add(1001, "a"));
+        assertTrue(wheel.add(1300, "b"));
+        assertTrue(wheel.add(1000 + (1 << 15), "c"));
+        assertTrue(wheel.add(1000 + (1L << 27), "d"));
+        assertFalse(wheel.add(1000, "e"));
+        assertEquals(4, wheel.size());
+
+        final List<String> expired = new ArrayList<String>();
+        wheel.advance(1001, expired, null);
+        assertEquals(Arrays.asList("a"), expired);
+        wheel.advance(1299, expired, null);
+        assertEquals(Arrays.asList("a"), expired);
+        wheel.advance(1300, expired, null);
+        assertEquals(Arrays.asList("a", "b"), expired);
+        wheel.advance(999 + (1 << 15), expired, null);
+        assertEquals(2, expired.size());
+        wheel.advance(1000 + (1 << 15), expired, null);
+        assertEquals(Arrays.asList("a", "b", "c"), expired);
+        wheel.advance(999 + (1L << 27), expired, null);
+        assertEquals(3, expired.size());
+        wheel.advance(1000 + (1L << 27), expired, null);
+        assertEquals(Arrays.asList("a", "b", "c", "d"), expired);
+        assertEquals(0, wheel.size());
+    }
+
+    @Test
+    public void testWheelRemoveAfterCascade() {
+        final TimingWheel<Void> wheel = new TimingWheel<Void>(0);
+        for (int i = 0; i < 1000; i++) {
+            wheel.add(100 + i * 97, "cid" + i);
+        }
+        final List<String> expired = new ArrayList<String>();
+        wheel.advance(50000, expired, null);
+        for (int i = 0; i < 1000; i += 2) {
+            final boolean pending = 100 + i * 97 > 50000;
+            assertEquals(pending, wheel.remove(100 + i * 97, "cid" + i));
+        }
+        wheel.advance(200000, expired, null);
+        assertEquals(0, wheel.size());
+        for (int i = 0; i < 1000; i++) {
+            final boolean removed = 100 + i * 97 > 50000 && i % 2 == 0;
+            assertEquals(!removed, expired.contains("cid" + i));
+        }
+    }
+
+    @Test
+    public void testBucketAddRemove() {
+        final TimeoutBucket<Void> bucket = new TimeoutBucket<Void>();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(bucket.add(i % 7, "cid" + i, null));
+        }
+        assertFalse(bucket.add(0, "cid0", null));
+        assertTrue(bucket.add(1, "cid0", null));
+        for (int i = 0; i < 100; i += 3) {
+            assertTrue(bucket.remove(i % 7, "cid" + i));
+            assertFalse(bucket.remove(i % 7, "cid" + i));
+        }
+        assertEquals(101 - 34, bucket.size());
+        final List<String> all = new ArrayList<String>();
+        bucket.drainTo(all, null);
+        assertEquals(bucket.size(), all.size());
+        for (int i = 1; i < 100; i++) {
+            assertEquals(i % 3 != 0, all.contains("cid" + i));
+        }
+    }
+
+    @Test
+    public void testPayloadsFollowCascades() {
+        final TimingWheel<Integer> wheel = new TimingWheel<Integer>(0);
+        wheel.add(10, "a");
+        wheel.add(70000, "b", 2);
+        wheel.add(300, "c", 3);
+        final List<String> keys = new ArrayList<String>();
+        final List<Integer> payloads = new ArrayList<Integer>();
+        wheel.advance(100000, keys, payloads);
+        assertEquals(Arrays.asList("a", "c", "b"), keys);
+        assertEquals(Arrays.asList(null, 3, 2), payloads);
+    }
+}
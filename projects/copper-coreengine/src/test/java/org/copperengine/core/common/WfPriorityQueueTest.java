@@ -0,0 +1,102 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.copperengine.core.Workflow;
+import org.junit.Test;
+
+public class WfPriorityQueueTest {
+
+    private static class ManualClockQueue extends WfPriorityQueue {
+        long now = 1000000L;
+
+        @Override
+        protected long currentTimeMillis() {
+            return now;
+        }
+    }
+
+    private static Workflow<?> createWorkflow(int prio) {
+        Workflow<?> wf = mock(Workflow.class);
+        when(wf.getPriority()).thenReturn(prio);
+        return wf;
+    }
+
+    @Test
+    public void testPriorityOrder() {
+        WfPriorityQueue queue = new WfPriorityQueue();
+        Workflow<?> low1 = createWorkflow(5);
+        Workflow<?> high1 = createWorkflow(1);
+        Workflow<?> low2 = createWorkflow(5);
+        Workflow<?> high2 = createWorkflow(1);
+        queue.add(low1);
+        queue.add(high1);
+        queue.add(low2);
+        queue.add(high2);
+        assertEquals(4, queue.size());
+        assertTrue(queue.contains(low2));
+        assertSame(high1, queue.peek());
+        assertSame(high1, queue.poll());
+        assertSame(high2, queue.poll());
+        assertSame(low1, queue.poll());
+        assertSame(low2, queue.poll());
+        assertNull(queue.poll());
+        assertTrue(queue.isEmpty());
+    }
+
+    @Test
+    public void testAging() throws Exception {
+        ManualClockQueue queue = new ManualClockQueue();
+        queue.setAgingThresholdMSec(50);
+        Workflow<?> low = createWorkflow(5);
+        queue.add(low);
+        Workflow<?> high1 = createWorkflow(1);
+        queue.add(high1);
+        // not yet aged
+        assertSame(high1, queue.poll());
+        queue.now += 49;
+        Workflow<?> high2 = createWorkflow(1);
+        queue.add(high2);
+        // still not aged
+        assertSame(high2, queue.peek());
+        queue.now += 1;
+        // low priority entry has been waiting for the aging threshold
+        assertSame(low, queue.peek());
+        assertSame(low, queue.poll());
+        assertSame(high2, queue.poll());
+        assertEquals(0, queue.size());
+    }
+
+    @Test
+    public void testAgingDisabled() throws Exception {
+        ManualClockQueue queue = new ManualClockQueue();
+        Workflow<?> low = createWorkflow(5);
+        queue.add(low);
+        queue.now += 60000;
+        Workflow<?> high = createWorkflow(1);
+        queue.add(high);
+        assertSame(high, queue.poll());
+        assertSame(low, queue.poll());
+    }
+
+}
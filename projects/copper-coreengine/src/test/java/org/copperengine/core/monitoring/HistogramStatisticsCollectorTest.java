@@ -0,0 +1,140 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.management.model.MeasurePointData;
+import org.junit.Test;
+
+public class HistogramStatisticsCollectorTest {
+
+    @Test
+    public void testBuckets() {
+        long lastUpperBound = -1;
+        for (int i = 0; i < StripedHistogram.BUCKETS - 1; i++) {
+            final long upperBound = StripedHistogram.upperBound(i);
+            assertEquals(i, StripedHistogram.bucketIndex(lastUpperBound + 1));
+            assertEquals(i, StripedHistogram.bucketIndex(upperBound));
+            assertTrue(upperBound - lastUpperBound <= Math.max(1, (lastUpperBound + 1) / 16));
+            lastUpperBound = upperBound;
+        }
+        assertEquals(StripedHistogram.BUCKETS - 1, StripedHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void testPercentiles() {
+        HistogramStatisticsCollector collector = new HistogramStatisticsCollector(4);
+        for (int i = 1; i <= 100000; i++) {
+            collector.submit("insert", 2, i, TimeUnit.MICROSECONDS);
+        }
+        MeasurePointData data = collector.query("insert");
+        assertEquals(100000, data.getCount());
+        assertEquals(200000, data.getElementCount());
+        assertEquals(100000L * 100001L / 2, data.getElapsedTimeMicros());
+        assertEquals(100000, data.getMaxElapsedTimeMicros());
+        assertWithin(50000, data.getElapsedTimeMicrosP50());
+        assertWithin(90000, data.getElapsedTimeMicrosP90());
+        assertWithin(99000, data.getElapsedTimeMicrosP99());
+        assertWithin(99900, data.getElapsedTimeMicrosP999());
+        assertWithin(99900, collector.queryPercentileMicros("insert", 99.9));
+        assertEquals(-1, collector.queryPercentileMicros("unknown", 99.9));
+        assertNull(collector.query("unknown"));
+
+        collector.reset();
+        data = collector.query("insert");
+        assertEquals(0, data.getCount());
+        assertEquals(0, data.getElapsedTimeMicrosP99());
+    }
+
+    @Test
+    public void testConcurrentSubmit() throws Exception {
+        final HistogramStatisticsCollector collector = new HistogramStatisticsCollector(2);
+        final int threads = 8;
+        final int submits = 20000;
+        final List<Thread> list = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final String mpId = "mp" + (t % 3);
+            list.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < submits; i++) {
+                        collector.submit(mpId, 1, i % 1000, TimeUnit.MILLISECONDS);
+                    }
+                }
+            });
+        }
+        for (Thread t : list) {
+            t.start();
+        }
+        long total = 0;
+        for (Thread t : list) {
+            t.join();
+        }
+        for (MeasurePointData data : collector.queryAll()) {
+            total += data.getCount();
+            assertEquals(999000, data.getMaxElapsedTimeMicros());
+        }
+        assertEquals(threads * submits, total);
+        assertEquals(3, collector.queryAll().size());
+        assertEquals(3, collector.print().split("\n").length);
+    }
+
+    @Test
+    public void testStripesGrowOnContentionOnly() throws Exception {
+        final StripedHistogram uncontended = new StripedHistogram(8);
+        for (int i = 0; i < 100000; i++) {
+            uncontended.record(i, 1);
+        }
+        assertEquals(1, uncontended.getNumberOfStripes());
+        assertEquals(100000, uncontended.snapshot().count);
+
+        final StripedHistogram contended = new StripedHistogram(4);
+        final int threads = 8;
+        final int records = 50000;
+        final List<Thread> list = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            list.add(new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < records; i++) {
+                        contended.record(i, 1);
+                    }
+                }
+            });
+        }
+        for (Thread t : list) {
+            t.start();
+        }
+        for (Thread t : list) {
+            t.join();
+        }
+        assertTrue(contended.getNumberOfStripes() <= 4);
+        final StripedHistogram.Snapshot snapshot = contended.snapshot();
+        assertEquals(threads * records, snapshot.count);
+        assertEquals(records - 1, snapshot.max);
+    }
+
+    private static void assertWithin(long expected, long actual) {
+        assertTrue("expected " + expected + " but was " + actual, Math.abs(actual - expected) <= expected / 16);
+    }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.tranzient;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.copperengine.core.Response;
+import org.junit.Test;
+
+public class ConcurrentEarlyResponseContainerTest {
+
+    @Test
+    public void testPutAndGet() {
+        final ConcurrentEarlyResponseContainer container = new ConcurrentEarlyResponseContainer();
+        container.put(new Response<String>("a", "1", null));
+        container.put(new Response<String>("a", "2", null));
+        container.put(new Response<String>("b", "3", null));
+        assertEquals(3, container.getNumberOfResponses());
+        assertTrue(container.getEstimatedBytes() > 0);
+
+        final List<Response<?>> responses = container.get("a");
+        assertEquals(2, responses.size());
+        assertEquals("1", responses.get(0).getResponse());
+        assertEquals("2", responses.get(1).getResponse());
+        assertTrue(container.get("a").isEmpty());
+        assertEquals(1, container.getNumberOfResponses());
+        assertEquals(2, container.getHitCount());
+        assertEquals(3, container.getPutCount());
+
+        container.get("b");
+        assertEquals(0, container.getEstimatedBytes());
+    }
+
+    @Test
+    public void testEvictionCountsResponsesNotKeys() {
+        final ConcurrentEarlyResponseContainer container = new ConcurrentEarlyResponseContainer(1);
+        container.setMaxResponses(10);
+        for (int i = 0; i < 25; i++) {
+            container.put(new Response<String>("same", Integer.toString(i), null));
+        }
+        assertEquals(10, container.getNumberOfResponses());
+        assertEquals(15, container.getEvictionCount());
+        final List<Response<?>> responses = container.get("same");
+        assertEquals(10, responses.size());
+        assertEquals("15", responses.get(0).getResponse());
+    }
+
+    @Test
+    public void testEvictionByBytes() {
+        final ConcurrentEarlyResponseContainer container = new ConcurrentEarlyResponseContainer(1);
+        container.setMaxBytes(10000);
+        for (int i = 0; i < 10; i++) {
+            container.put(new Response<byte[]>("cid" + i, new byte[3000], null));
+        }
+        assertTrue(container.getEstimatedBytes() <= 10000);
+        assertEquals(3, container.getNumberOfResponses());
+        assertEquals(7, container.getEvictionCount());
+        assertEquals(1, container.get("cid9").size());
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+        final ConcurrentEarlyResponseContainer container = new ConcurrentEarlyResponseContainer();
+        container.setCheckInterval(5);
+        container.setMinHoldBackTime(20);
+        container.startup();
+        try {
+            container.put(new Response<String>("short", "x", null));
+            container.put(new Response<String>("long", "y", null, false, null, 60000L, null));
+            final long start = System.currentTimeMillis();
+            while (container.getExpirationCount() == 0 && System.currentTimeMillis() < start + 5000) {
+                Thread.sleep(5);
+            }
+            assertEquals(1, container.getExpirationCount());
+            assertTrue(container.get("short").isEmpty());
+            assertEquals(1, container.get("long").size());
+        } finally {
+            container.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.tranzient;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.argThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+
+import java.util.Arrays;
+
+import org.copperengine.core.Acknowledge;
+import org.copperengine.core.ProcessingEngine;
+import org.copperengine.core.Response;
+import org.hamcrest.BaseMatcher;
+import org.hamcrest.Description;
+import org.hamcrest.Matcher;
+import org.junit.Test;
+
+public class TimingWheelTimeoutManagerTest {
+
+    @Test
+    public void testTimeoutDelivery() throws Exception {
+        final ProcessingEngine engine = mock(ProcessingEngine.class);
+        final TimingWheelTimeoutManager timeoutManager = new TimingWheelTimeoutManager();
+        timeoutManager.setTickMSec(5);
+        timeoutManager.setEngine(engine);
+        timeoutManager.startup();
+        try {
+            final long now = System.currentTimeMillis();
+            timeoutManager.registerTimeout(now + 50, "expired");
+            timeoutManager.registerTimeout(now + 50, "cancelled");
+            timeoutManager.registerTimeout(now + 50, Arrays.asList("list1", "list2"));
+            timeoutManager.registerTimeout(now - 1000, "immediately");
+            timeoutManager.unregisterTimeout(now + 50, "cancelled");
+
+            verify(engine, timeout(2000)).notify(argThat(responseFor("immediately")), any(Acknowledge.class));
+            verify(engine, timeout(2000)).notify(argThat(responseFor("expired")), any(Acknowledge.class));
+            verify(engine, timeout(2000)).notify(argThat(responseFor("list1")), any(Acknowledge.class));
+            verify(engine, timeout(2000)).notify(argThat(responseFor("list2")), any(Acknowledge.class));
+            Thread.sleep(50);
+            verify(engine, never()).notify(argThat(responseFor("cancelled")), any(Acknowledge.class));
+            assertEquals(0, timeoutManager.getNumberOfPendingTimeouts());
+        } finally {
+            timeoutManager.shutdown();
+        }
+    }
+
+    private static Matcher<Response<?>> responseFor(final String correlationId) {
+        return new BaseMatcher<Response<?>>() {
+            @Override
+            public boolean matches(Object item) {
+                return item instanceof Response && correlationId.equals(((Response<?>) item).getCorrelationId());
+            }
+
+            @Override
+            public void describeTo(Description description) {
+                description.appendText("response for " + correlationId);
+            }
+        };
+    }
+}
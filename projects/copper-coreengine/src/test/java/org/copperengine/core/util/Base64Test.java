@@ -18,6 +18,9 @@ package org.copperengine.core.util;
 import static java.util.Arrays.asList;
 import static org.junit.Assert.assertArrayEquals;
 
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.StringReader;
 import java.util.Collection;
 import java.util.Random;
 
@@ -44,6 +47,20 @@ public class Base64Test {
         assertArrayEquals(data, result);
     }
 
+    @Test
+    public void testEncodeThenDecodeStream() throws Exception {
+        byte[] data = createRandomData(length);
+        String s = Base64.encode(data);
+        InputStream in = Base64.decodingStream(new StringReader(s));
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        byte[] buffer = new byte[777];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            result.write(buffer, 0, read);
+        }
+        assertArrayEquals(data, result.toByteArray());
+    }
+
     private byte[] createRandomData(int length) {
         byte[] data = new byte[length];
         Random random = new Random();
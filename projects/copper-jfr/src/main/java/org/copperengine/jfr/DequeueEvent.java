@@ -0,0 +1,36 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.copperengine.Dequeue")
+@Label("Dequeue")
+@Description("Bulk of workflow instances dequeued from the database for a processor pool")
+@Category({ "COPPER", "Persistence" })
+@StackTrace(false)
+class DequeueEvent extends CopperEvent {
+
+    @Label("Processor Pool")
+    String processorPoolId;
+
+    @Label("Workflow Instances")
+    int count;
+}
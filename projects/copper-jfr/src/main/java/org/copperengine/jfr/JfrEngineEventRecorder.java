@@ -0,0 +1,162 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jfr;
+
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.FlightRecorderListener;
+import jdk.jfr.Recording;
+import jdk.jfr.RecordingState;
+
+import org.copperengine.core.Workflow;
+import org.copperengine.core.monitoring.EngineEventRecorder;
+import org.copperengine.core.monitoring.EngineEvents;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Emits the engine events as Java Flight Recorder events in category "COPPER".
+ * <p>
+ * This recorder is registered as service, so {@link EngineEvents} picks it up as soon as this module is on the
+ * classpath. It is enabled only while a flight recording is running, otherwise the engine does not even take
+ * timestamps. Within a recording, each event type may be enabled or disabled as usual, e.g.
+ * 
+ * <pre>
+ * -XX:StartFlightRecording=settings=profile,filename=copper.jfr
+ * jcmd &lt;pid&gt; JFR.start settings=copper.jfc
+ * </pre>
+ * 
+ * The elapsed time is an event field, as the engine measures it itself. So the <code>threshold</code> setting does not
+ * apply, filter by the field <code>elapsed</code> instead.
+ */
+public class JfrEngineEventRecorder implements EngineEventRecorder {
+
+    private static final Logger logger = LoggerFactory.getLogger(JfrEngineEventRecorder.class);
+
+    private volatile boolean enabled = false;
+
+    public JfrEngineEventRecorder() {
+        try {
+            FlightRecorder.addListener(new FlightRecorderListener() {
+                @Override
+                public void recorderInitialized(FlightRecorder recorder) {
+                    update(recorder);
+                }
+
+                @Override
+                public void recordingStateChanged(Recording recording) {
+                    update(FlightRecorder.getFlightRecorder());
+                }
+            });
+        } catch (Exception | LinkageError e) {
+            logger.warn("Java Flight Recorder is not available, COPPER events are not recorded", e);
+        }
+    }
+
+    private void update(FlightRecorder recorder) {
+        boolean running = false;
+        for (Recording recording : recorder.getRecordings()) {
+            if (recording.getState() == RecordingState.RUNNING) {
+                running = true;
+                break;
+            }
+        }
+        if (running != enabled) {
+            logger.info("{} recording COPPER events", running ? "Start" : "Stop");
+            enabled = running;
+        }
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public void dequeued(String processorPoolId, int count, long startNanos) {
+        final DequeueEvent event = new DequeueEvent();
+        if (event.isEnabled()) {
+            event.elapsed = System.nanoTime() - startNanos;
+            event.processorPoolId = processorPoolId;
+            event.count = count;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void queueStateUpdated(int count, long startNanos) {
+        final QueueStateUpdateEvent event = new QueueStateUpdateEvent();
+        if (event.isEnabled()) {
+            event.elapsed = System.nanoTime() - startNanos;
+            event.count = count;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void batchExecuted(String executorId, int size, long startNanos) {
+        final BatchExecutionEvent event = new BatchExecutionEvent();
+        if (event.isEnabled()) {
+            event.elapsed = System.nanoTime() - startNanos;
+            event.executor = executorId;
+            event.size = size;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void serialized(Class<?> type, int length, long startNanos) {
+        final SerializationEvent event = new SerializationEvent();
+        if (event.isEnabled()) {
+            event.elapsed = System.nanoTime() - startNanos;
+            event.type = type;
+            event.length = length;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void deserialized(Class<?> type, int length, long startNanos) {
+        final DeserializationEvent event = new DeserializationEvent();
+        if (event.isEnabled()) {
+            event.elapsed = System.nanoTime() - startNanos;
+            event.type = type;
+            event.length = length;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void workflowProcessed(Workflow<?> workflow, boolean finished, long startNanos) {
+        final WorkflowProcessingEvent event = new WorkflowProcessingEvent();
+        if (event.isEnabled()) {
+            event.elapsed = System.nanoTime() - startNanos;
+            event.workflowClass = workflow.getClass();
+            event.workflowId = workflow.getId();
+            event.finished = finished;
+            event.commit();
+        }
+    }
+
+    @Override
+    public void timeoutsExpired(int count, long startNanos) {
+        final TimeoutExpiryEvent event = new TimeoutExpiryEvent();
+        if (event.isEnabled()) {
+            event.elapsed = System.nanoTime() - startNanos;
+            event.count = count;
+            event.commit();
+        }
+    }
+}
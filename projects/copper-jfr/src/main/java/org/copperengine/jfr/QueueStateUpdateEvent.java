@@ -0,0 +1,33 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.copperengine.QueueStateUpdate")
+@Label("Queue State Update")
+@Description("Cycle of updateQueueState, moving workflow instances with arrived responses or timeouts into the queue")
+@Category({ "COPPER", "Persistence" })
+@StackTrace(false)
+class QueueStateUpdateEvent extends CopperEvent {
+
+    @Label("Workflow Instances")
+    int count;
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.copperengine.Serialization")
+@Label("Serialization")
+@Description("Object serialized by the StandardJavaSerializer")
+@Category({ "COPPER", "Serialization" })
+@StackTrace(false)
+class SerializationEvent extends CopperEvent {
+
+    @Label("Type")
+    Class<?> type;
+
+    @Label("Length")
+    @Description("Length of the serialized form in characters")
+    int length;
+}
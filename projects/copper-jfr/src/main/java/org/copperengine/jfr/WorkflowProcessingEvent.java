@@ -0,0 +1,39 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jfr;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+@Name("org.copperengine.WorkflowProcessing")
+@Label("Workflow Processing")
+@Description("Execution of a workflow instance by a processor until it finished or until the next interrupt")
+@Category({ "COPPER", "Processor" })
+@StackTrace(false)
+class WorkflowProcessingEvent extends CopperEvent {
+
+    @Label("Workflow Class")
+    Class<?> workflowClass;
+
+    @Label("Workflow Instance")
+    String workflowId;
+
+    @Label("Finished")
+    boolean finished;
+}
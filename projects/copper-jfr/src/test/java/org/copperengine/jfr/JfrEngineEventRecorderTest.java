@@ -0,0 +1,87 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jfr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+import org.copperengine.core.monitoring.EngineEventRecorder;
+import org.copperengine.core.monitoring.EngineEvents;
+import org.junit.Test;
+
+public class JfrEngineEventRecorderTest {
+
+    @Test
+    public void testServiceRegistration() {
+        assertEquals(JfrEngineEventRecorder.class, EngineEvents.recorder().getClass());
+    }
+
+    @Test
+    public void testRecording() throws Exception {
+        final EngineEventRecorder recorder = new JfrEngineEventRecorder();
+        assertFalse(recorder.isEnabled());
+
+        final File file = File.createTempFile("copper", ".jfr");
+        try {
+            final Recording recording = new Recording();
+            recording.enable("org.copperengine.Dequeue");
+            recording.enable("org.copperengine.BatchExecution");
+            recording.enable("org.copperengine.Serialization");
+            recording.disable("org.copperengine.TimeoutExpiry");
+            recording.start();
+            assertTrue(recorder.isEnabled());
+
+            final long startNanos = System.nanoTime() - 1000000L;
+            recorder.dequeued("P#DEFAULT", 42, startNanos);
+            recorder.batchExecuted("SqlNotify", 7, startNanos);
+            recorder.serialized(String.class, 100, startNanos);
+            // disabled in the recording
+            recorder.timeoutsExpired(3, startNanos);
+
+            recording.stop();
+            assertFalse(recorder.isEnabled());
+            recording.dump(file.toPath());
+            recording.close();
+
+            final Map<String, RecordedEvent> events = new HashMap<String, RecordedEvent>();
+            final List<RecordedEvent> list = RecordingFile.readAllEvents(file.toPath());
+            for (RecordedEvent event : list) {
+                if (event.getEventType().getName().startsWith("org.copperengine.")) {
+                    events.put(event.getEventType().getName(), event);
+                }
+            }
+            assertEquals(3, events.size());
+            assertEquals("P#DEFAULT", events.get("org.copperengine.Dequeue").getString("processorPoolId"));
+            assertEquals(42, events.get("org.copperengine.Dequeue").getInt("count"));
+            assertTrue(events.get("org.copperengine.Dequeue").getDuration("elapsed").toNanos() >= 1000000L);
+            assertEquals(7, events.get("org.copperengine.BatchExecution").getInt("size"));
+            assertEquals("java.lang.String", events.get("org.copperengine.Serialization").getClass("type").getName());
+        } finally {
+            file.delete();
+        }
+    }
+
+}
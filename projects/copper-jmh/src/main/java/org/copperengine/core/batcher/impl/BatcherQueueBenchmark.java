@@ -0,0 +1,164 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.batcher.impl;
+
+import java.sql.Connection;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.batcher.BatchCommand;
+import org.copperengine.core.batcher.BatchExecutorBase;
+import org.copperengine.core.batcher.CommandCallback;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link BatcherQueue} of the batcher: each invocation submits <code>batchSize</code> commands and
+ * drains one batch, for an increasing number of concurrent threads. Each thread uses its own executor with preferred
+ * and maximum batch size <code>batchSize</code>. The commands have no target time, so a batch is ready as soon as it
+ * holds <code>batchSize</code> commands, and <code>poll</code> never has to wait, as there is at least one ready batch
+ * for every polling thread. The score is the number of batches per millisecond.
+ * <p>
+ * This benchmark lives in the package of the batcher, as {@link BatcherQueue} is package private.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BatcherQueueBenchmark {
+
+    static final class NoopExecutor implements BatchExecutorBase<NoopExecutor, NoopCommand> {
+        private final String id;
+        private final int batchSize;
+
+        NoopExecutor(String id, int batchSize) {
+            this.id = id;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public void doExec(Collection<BatchCommand<NoopExecutor, NoopCommand>> commands, Connection connection) {
+        }
+
+        @Override
+        public int preferredBatchSize() {
+            return batchSize;
+        }
+
+        @Override
+        public int maximumBatchSize() {
+            return batchSize;
+        }
+
+        @Override
+        public boolean prioritize() {
+            return false;
+        }
+
+        @Override
+        public String id() {
+            return id;
+        }
+    }
+
+    static final class NoopCommand implements BatchCommand<NoopExecutor, NoopCommand> {
+        private final NoopExecutor executor;
+
+        NoopCommand(NoopExecutor executor) {
+            this.executor = executor;
+        }
+
+        @Override
+        public NoopExecutor executor() {
+            return executor;
+        }
+
+        @Override
+        public CommandCallback<NoopCommand> callback() {
+            return null;
+        }
+
+        @Override
+        public long targetTime() {
+            return Long.MAX_VALUE;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class QueueState {
+        @Param({ "1", "50" })
+        int batchSize;
+
+        BatcherQueue queue;
+
+        @Setup
+        public void setup() {
+            queue = new BatcherQueue();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        NoopCommand[] commands;
+
+        @Setup
+        public void setup(QueueState qs) {
+            final NoopExecutor executor = new NoopExecutor(Thread.currentThread().getName(), qs.batchSize);
+            commands = new NoopCommand[qs.batchSize];
+            for (int i = 0; i < commands.length; i++) {
+                commands[i] = new NoopCommand(executor);
+            }
+        }
+    }
+
+    private List<BatchCommand<?, ?>> submitAndPoll(QueueState qs, ThreadState ts) throws InterruptedException {
+        for (NoopCommand cmd : ts.commands) {
+            qs.queue.submitBatchCommand(cmd);
+        }
+        return qs.queue.poll();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public List<BatchCommand<?, ?>> submitAndPoll_1thread(QueueState qs, ThreadState ts) throws InterruptedException {
+        return submitAndPoll(qs, ts);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public List<BatchCommand<?, ?>> submitAndPoll_4threads(QueueState qs, ThreadState ts) throws InterruptedException {
+        return submitAndPoll(qs, ts);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public List<BatchCommand<?, ?>> submitAndPoll_16threads(QueueState qs, ThreadState ts) throws InterruptedException {
+        return submitAndPoll(qs, ts);
+    }
+
+}
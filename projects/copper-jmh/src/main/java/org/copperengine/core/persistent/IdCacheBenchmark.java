@@ -0,0 +1,106 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link IdCache} of the persistent engine's early response handling. Like <code>ScottyDBStorage</code>,
+ * each invocation puts a response id (notify), looks up its correlation id (wait) and removes it again (dequeue). The
+ * cache is half filled with other entries.
+ * <p>
+ * This benchmark lives in the package of the persistent engine, as {@link IdCache} is package private.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class IdCacheBenchmark {
+
+    private static final int IDS_PER_THREAD = 1000;
+
+    @State(Scope.Benchmark)
+    public static class CacheState {
+        @Param({ "1000", "100000" })
+        int maxSize;
+
+        IdCache cache;
+        final AtomicInteger threadCounter = new AtomicInteger();
+
+        @Setup
+        public void setup() {
+            cache = new IdCache(maxSize, 1, TimeUnit.HOURS);
+            for (int i = 0; i < maxSize / 2; i++) {
+                cache.put("RID-" + i, "CID-" + i);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        String[] responseIds;
+        String[] correlationIds;
+        int next = 0;
+
+        @Setup
+        public void setup(CacheState cs) {
+            final int threadNo = cs.threadCounter.incrementAndGet();
+            responseIds = new String[IDS_PER_THREAD];
+            correlationIds = new String[IDS_PER_THREAD];
+            for (int i = 0; i < IDS_PER_THREAD; i++) {
+                responseIds[i] = "T" + threadNo + "-RID" + i;
+                correlationIds[i] = "T" + threadNo + "-CID" + i;
+            }
+        }
+    }
+
+    private boolean putContainsRemove(CacheState cs, ThreadState ts) {
+        final int i = ts.next;
+        cs.cache.put(ts.responseIds[i], ts.correlationIds[i]);
+        final boolean found = cs.cache.contains(ts.correlationIds[i]);
+        cs.cache.remove(ts.responseIds[i]);
+        ts.next = (i + 1) % IDS_PER_THREAD;
+        return found;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean putContainsRemove_1thread(CacheState cs, ThreadState ts) {
+        return putContainsRemove(cs, ts);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public boolean putContainsRemove_4threads(CacheState cs, ThreadState ts) {
+        return putContainsRemove(cs, ts);
+    }
+
+}
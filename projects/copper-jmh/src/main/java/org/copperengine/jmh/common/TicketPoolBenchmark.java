@@ -0,0 +1,79 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jmh.common;
+
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.common.TicketPool;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link TicketPool#obtain()} + {@link TicketPool#release()} cycles for an increasing number of concurrent
+ * threads. With a <code>capacity</code> of 4 tickets, the threads beyond the fourth have to wait for a ticket.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TicketPoolBenchmark {
+
+    @Param({ "4", "10000" })
+    int capacity;
+
+    TicketPool ticketPool;
+
+    @Setup
+    public void setup() {
+        ticketPool = new TicketPool("benchmark", capacity);
+    }
+
+    private void obtainAndRelease() {
+        ticketPool.obtain();
+        ticketPool.release();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public void obtainAndRelease_1thread() {
+        obtainAndRelease();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void obtainAndRelease_4threads() {
+        obtainAndRelease();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public void obtainAndRelease_16threads() {
+        obtainAndRelease();
+    }
+
+}
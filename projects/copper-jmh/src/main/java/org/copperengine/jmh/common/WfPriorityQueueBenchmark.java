@@ -0,0 +1,100 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jmh.common;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.Workflow;
+import org.copperengine.core.common.WfPriorityQueue;
+import org.copperengine.jmh.support.BenchmarkData;
+import org.copperengine.jmh.support.NoopWorkflow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures <code>poll</code> + <code>offer</code> cycles on a {@link WfPriorityQueue} holding <code>queueSize</code>
+ * workflow instances with <code>priorities</code> different priorities, for an increasing number of concurrent
+ * threads. Like the processor pools, all threads synchronize on the queue.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class WfPriorityQueueBenchmark {
+
+    @Param({ "1000", "100000" })
+    int queueSize;
+
+    @Param({ "1", "10" })
+    int priorities;
+
+    @Param({ "0", "10" })
+    long agingThresholdMSec;
+
+    WfPriorityQueue queue;
+
+    @Setup
+    public void setup() {
+        final Random random = BenchmarkData.random();
+        queue = new WfPriorityQueue();
+        queue.setAgingThresholdMSec(agingThresholdMSec);
+        for (int i = 0; i < queueSize; i++) {
+            final NoopWorkflow wf = new NoopWorkflow("WF" + i);
+            wf.setPriority(1 + random.nextInt(priorities));
+            queue.offer(wf);
+        }
+    }
+
+    private Workflow<?> pollAndOffer() {
+        synchronized (queue) {
+            final Workflow<?> wf = queue.poll();
+            queue.offer(wf);
+            return wf;
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Workflow<?> pollAndOffer_1thread() {
+        return pollAndOffer();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Workflow<?> pollAndOffer_4threads() {
+        return pollAndOffer();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Workflow<?> pollAndOffer_16threads() {
+        return pollAndOffer();
+    }
+
+}
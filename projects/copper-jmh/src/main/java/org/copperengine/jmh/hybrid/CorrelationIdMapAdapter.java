@@ -0,0 +1,101 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jmh.hybrid;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.copperengine.core.persistent.hybrid.CorrelationIdMap;
+
+/**
+ * Common view on the {@link CorrelationIdMap} and the previous, <code>HashMap</code> based implementation, which
+ * serves as baseline for the benchmarks.
+ */
+abstract class CorrelationIdMapAdapter {
+
+    abstract String getWorkflowId(String correlationId);
+
+    abstract void addCorrelationId(String workflowId, String correlationId);
+
+    abstract void removeAll4Workflow(String workflowId);
+
+    static CorrelationIdMapAdapter create(String impl) {
+        if ("hashmap".equals(impl))
+            return new HashMapAdapter();
+        if ("compact".equals(impl))
+            return new CompactAdapter();
+        throw new IllegalArgumentException("unknown implementation " + impl);
+    }
+
+    private static final class CompactAdapter extends CorrelationIdMapAdapter {
+        private final CorrelationIdMap map = new CorrelationIdMap();
+
+        @Override
+        String getWorkflowId(String correlationId) {
+            return map.getWorkflowId(correlationId);
+        }
+
+        @Override
+        void addCorrelationId(String workflowId, String correlationId) {
+            map.addCorrelationId(workflowId, correlationId);
+        }
+
+        @Override
+        void removeAll4Workflow(String workflowId) {
+            map.removeAll4Workflow(workflowId);
+        }
+    }
+
+    private static final class HashMapAdapter extends CorrelationIdMapAdapter {
+        private final Object mutex = new Object();
+        private final Map<String, String> correlationId2wfIdMap = new HashMap<>();
+        private final Map<String, List<String>> wfId2correlationIdMap = new HashMap<>();
+
+        @Override
+        String getWorkflowId(String correlationId) {
+            synchronized (mutex) {
+                return correlationId2wfIdMap.get(correlationId);
+            }
+        }
+
+        @Override
+        void addCorrelationId(String workflowId, String correlationId) {
+            synchronized (mutex) {
+                List<String> list = wfId2correlationIdMap.remove(workflowId);
+                if (list == null) {
+                    list = new ArrayList<String>();
+                }
+                wfId2correlationIdMap.put(workflowId, list);
+                list.add(correlationId);
+                correlationId2wfIdMap.put(correlationId, workflowId);
+            }
+        }
+
+        @Override
+        void removeAll4Workflow(String workflowId) {
+            synchronized (mutex) {
+                List<String> list = wfId2correlationIdMap.remove(workflowId);
+                if (list == null)
+                    return;
+                for (String cid : list) {
+                    correlationId2wfIdMap.remove(cid);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jmh.hybrid;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.copperengine.core.persistent.hybrid.CorrelationIdMap;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link CorrelationIdMap} of the hybrid engine against the previous <code>HashMap</code> based
+ * implementation. The map holds one million waiting workflow instances. Each operation picks a random workflow
+ * instance, removes its correlation id like a <code>dequeue</code> does, registers a new one like the next
+ * <code>wait</code> does and looks it up with a different string instance like a <code>notify</code> does. So the
+ * map size stays constant and the accesses are spread over the whole map, like in an engine with many waiting
+ * workflow instances. See {@link CorrelationIdMapFootprint} for the memory per entry.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+public class CorrelationIdMapBenchmark {
+
+    private static final int WORKFLOWS = 1000000;
+
+    @State(Scope.Benchmark)
+    public static class MapState {
+        @Param({ "hashmap", "compact" })
+        String impl;
+
+        CorrelationIdMapAdapter map;
+        final String[] workflowIds = new String[WORKFLOWS];
+        final AtomicInteger threadCounter = new AtomicInteger();
+
+        @Setup
+        public void setup() {
+            map = CorrelationIdMapAdapter.create(impl);
+            for (int i = 0; i < WORKFLOWS; i++) {
+                workflowIds[i] = "WF" + i;
+                map.addCorrelationId(workflowIds[i], "CID" + i);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        Random random;
+        String prefix;
+        long sequence = 0;
+
+        @Setup
+        public void setup(MapState ms) {
+            final int threadNo = ms.threadCounter.incrementAndGet();
+            random = new Random(threadNo);
+            prefix = "T" + threadNo + "-CID";
+        }
+    }
+
+    private String registerNotifyDequeue(MapState ms, ThreadState ts) {
+        final String wfId = ms.workflowIds[ts.random.nextInt(WORKFLOWS)];
+        final String cid = ts.prefix + (ts.sequence++);
+        ms.map.removeAll4Workflow(wfId);
+        ms.map.addCorrelationId(wfId, cid);
+        return ms.map.getWorkflowId(new String(cid));
+    }
+
+    @Benchmark
+    @Threads(1)
+    public String cycle_1thread(MapState ms, ThreadState ts) {
+        return registerNotifyDequeue(ms, ts);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public String cycle_4threads(MapState ms, ThreadState ts) {
+        return registerNotifyDequeue(ms, ts);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public String cycle_16threads(MapState ms, ThreadState ts) {
+        return registerNotifyDequeue(ms, ts);
+    }
+
+}
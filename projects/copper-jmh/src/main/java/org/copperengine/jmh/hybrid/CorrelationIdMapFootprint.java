@@ -0,0 +1,56 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jmh.hybrid;
+
+/**
+ * Prints the heap used per waiting workflow instance with one correlation id for the correlation id map
+ * implementations. The id strings themselves are not counted, as they are referenced by the workflow instances
+ * anyway.
+ * <p>
+ * Usage: <code>java -Xmx4g org.copperengine.jmh.hybrid.CorrelationIdMapFootprint [numberOfEntries]</code>
+ */
+public class CorrelationIdMapFootprint {
+
+    public static void main(String[] args) {
+        final int n = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+        final String[] workflowIds = new String[n];
+        final String[] correlationIds = new String[n];
+        for (int i = 0; i < n; i++) {
+            workflowIds[i] = "WF" + i;
+            correlationIds[i] = "CID" + i;
+        }
+        for (String impl : new String[] { "hashmap", "compact" }) {
+            final long before = usedHeap();
+            CorrelationIdMapAdapter map = CorrelationIdMapAdapter.create(impl);
+            for (int i = 0; i < n; i++) {
+                map.addCorrelationId(workflowIds[i], correlationIds[i]);
+            }
+            final long after = usedHeap();
+            System.out.printf("%-8s %,d entries: %.1f bytes per entry%n", impl, n, (after - before) / (double) n);
+            if (map.getWorkflowId(correlationIds[n - 1]) == null)
+                throw new IllegalStateException();
+            map = null;
+        }
+    }
+
+    private static long usedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jmh.hybrid;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.copperengine.core.Acknowledge;
+import org.copperengine.core.Response;
+import org.copperengine.core.WaitHook;
+import org.copperengine.core.WaitMode;
+import org.copperengine.core.Workflow;
+import org.copperengine.core.persistent.RegisterCall;
+import org.copperengine.core.persistent.StandardJavaSerializer;
+import org.copperengine.core.persistent.hybrid.DefaultTimeoutManager;
+import org.copperengine.core.persistent.hybrid.HybridDBStorage;
+import org.copperengine.core.persistent.hybrid.InMemoryStorage;
+import org.copperengine.core.persistent.hybrid.TimeoutManager;
+import org.copperengine.jmh.support.BenchmarkWorkflowRepository;
+import org.copperengine.jmh.support.NoopPersistentWorkflow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.google.common.util.concurrent.MoreExecutors;
+
+/**
+ * Measures the hot paths of the {@link HybridDBStorage} on top of an {@link InMemoryStorage}, so that the overhead of
+ * the hybrid engine itself - locking, correlation id map, ready queues and workflow serialization - is visible
+ * without a Cassandra cluster. The storage latency is selected by the <code>storageLatencyMicros</code> parameter.
+ * <ul>
+ * <li><code>insertCycle</code>: <code>insert</code> of a new workflow instance, <code>dequeue</code> and
+ * <code>finish</code>.
+ * <li><code>waitCycle</code>: <code>registerCallback</code> of a waiting workflow instance, <code>notify</code> and
+ * <code>dequeue</code>.
+ * </ul>
+ * Each thread uses a processor pool of its own, so a thread dequeues exactly the workflow instance it has enqueued.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HybridDBStorageBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class EngineState {
+        @Param({ "0", "100" })
+        long storageLatencyMicros;
+
+        HybridDBStorage dbStorage;
+        InMemoryStorage storage;
+        TimeoutManager timeoutManager;
+        final AtomicInteger threadCounter = new AtomicInteger();
+
+        @Setup
+        public void setup() {
+            storage = new InMemoryStorage();
+            storage.setReadLatencyMicros(storageLatencyMicros);
+            storage.setWriteLatencyMicros(storageLatencyMicros);
+            timeoutManager = new DefaultTimeoutManager().startup();
+            dbStorage = new HybridDBStorage(new StandardJavaSerializer(), new BenchmarkWorkflowRepository(), storage, timeoutManager, MoreExecutors.directExecutor());
+            dbStorage.startup();
+        }
+
+        @TearDown
+        public void tearDown() {
+            dbStorage.shutdown();
+            timeoutManager.shutdown();
+            storage.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        final Acknowledge ack = new Acknowledge.BestEffortAcknowledge();
+        String ppoolId;
+        String prefix;
+        long sequence = 0;
+        NoopPersistentWorkflow waitingWorkflow;
+
+        @Setup
+        public void setup(EngineState es) throws Exception {
+            final int threadNo = es.threadCounter.incrementAndGet();
+            ppoolId = "P" + threadNo;
+            prefix = "T" + threadNo + "-";
+            waitingWorkflow = new NoopPersistentWorkflow(prefix + "WAITING", ppoolId);
+            es.dbStorage.insert(waitingWorkflow, ack);
+            es.dbStorage.dequeue(ppoolId, 1);
+        }
+    }
+
+    private static Workflow<?> insertDequeueFinish(EngineState es, ThreadState ts) throws Exception {
+        es.dbStorage.insert(new NoopPersistentWorkflow(ts.prefix + (ts.sequence++), ts.ppoolId), ts.ack);
+        final List<Workflow<?>> dequeued = es.dbStorage.dequeue(ts.ppoolId, 1);
+        es.dbStorage.finish(dequeued.get(0), ts.ack);
+        return dequeued.get(0);
+    }
+
+    private static Workflow<?> registerNotifyDequeue(EngineState es, ThreadState ts) throws Exception {
+        final String cid = ts.prefix + "CID" + (ts.sequence++);
+        es.dbStorage.registerCallback(new RegisterCall(ts.waitingWorkflow, WaitMode.ALL, null, new String[] { cid }, Collections.<WaitHook> emptyList()), ts.ack);
+        es.dbStorage.notify(new Response<Object>(cid, null, null), ts.ack);
+        return es.dbStorage.dequeue(ts.ppoolId, 1).get(0);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Workflow<?> insertCycle_1thread(EngineState es, ThreadState ts) throws Exception {
+        return insertDequeueFinish(es, ts);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Workflow<?> insertCycle_4threads(EngineState es, ThreadState ts) throws Exception {
+        return insertDequeueFinish(es, ts);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Workflow<?> insertCycle_16threads(EngineState es, ThreadState ts) throws Exception {
+        return insertDequeueFinish(es, ts);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public Workflow<?> waitCycle_1thread(EngineState es, ThreadState ts) throws Exception {
+        return registerNotifyDequeue(es, ts);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Workflow<?> waitCycle_4threads(EngineState es, ThreadState ts) throws Exception {
+        return registerNotifyDequeue(es, ts);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Workflow<?> waitCycle_16threads(EngineState es, ThreadState ts) throws Exception {
+        return registerNotifyDequeue(es, ts);
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jmh.persistent;
+
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DataFormatException;
+
+import org.copperengine.core.persistent.Compressor;
+import org.copperengine.jmh.support.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Compressor#compress(byte[])} and {@link Compressor#uncompress(byte[])} for text of
+ * <code>size</code> bytes with the fastest and the best compression level. The <code>StandardJavaSerializer</code> uses the
+ * best compression level.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class CompressorBenchmark {
+
+    @Param({ "1000", "100000" })
+    int size;
+
+    @Param({ "1", "9" })
+    int level;
+
+    Compressor compressor;
+    byte[] data;
+    byte[] compressedData;
+
+    @Setup
+    public void setup() throws Exception {
+        compressor = new Compressor(level, size + 1024);
+        data = BenchmarkData.text(size).getBytes("UTF-8");
+        compressedData = compressor.compress(data);
+    }
+
+    @Benchmark
+    public byte[] compress() {
+        return compressor.compress(data);
+    }
+
+    @Benchmark
+    public byte[] uncompress() throws DataFormatException {
+        return compressor.uncompress(compressedData);
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jmh.persistent;
+
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.Response;
+import org.copperengine.core.Workflow;
+import org.copperengine.core.persistent.SerializedWorkflow;
+import org.copperengine.core.persistent.StandardJavaSerializer;
+import org.copperengine.jmh.support.BenchmarkData;
+import org.copperengine.jmh.support.NoopPersistentWorkflow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the {@link StandardJavaSerializer}, i.e. Java serialization plus optional compression plus Base64, for
+ * workflow instances and responses. The payload is text of <code>dataSize</code> characters, which is the workflow's
+ * data resp. the response's data.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SerializerBenchmark {
+
+    @Param({ "100", "10000" })
+    int dataSize;
+
+    @Param({ "true", "false" })
+    boolean compress;
+
+    StandardJavaSerializer serializer;
+    NoopPersistentWorkflow workflow;
+    Response<String> response;
+    SerializedWorkflow serializedWorkflow;
+    String serializedResponse;
+
+    @Setup
+    public void setup() throws Exception {
+        serializer = new StandardJavaSerializer();
+        serializer.setCompress(compress);
+        final String data = BenchmarkData.text(dataSize);
+        workflow = new NoopPersistentWorkflow("WF-4711", "P#DEFAULT");
+        workflow.setData(data);
+        response = new Response<String>("CID-4711", data, null);
+        serializedWorkflow = serializer.serializeWorkflow(workflow);
+        serializedResponse = serializer.serializeResponse(response);
+    }
+
+    @Benchmark
+    public SerializedWorkflow serializeWorkflow() throws Exception {
+        return serializer.serializeWorkflow(workflow);
+    }
+
+    @Benchmark
+    public Workflow<?> deserializeWorkflow() throws Exception {
+        return serializer.deserializeWorkflow(serializedWorkflow, null);
+    }
+
+    @Benchmark
+    public Workflow<?> workflowRoundTrip() throws Exception {
+        return serializer.deserializeWorkflow(serializer.serializeWorkflow(workflow), null);
+    }
+
+    @Benchmark
+    public Response<?> responseRoundTrip() throws Exception {
+        return serializer.deserializeResponse(serializer.serializeResponse(response));
+    }
+
+    @Benchmark
+    public Response<?> deserializeResponse() throws Exception {
+        return serializer.deserializeResponse(serializedResponse);
+    }
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jmh.support;
+
+import java.util.Random;
+
+/**
+ * Reproducible benchmark payloads. All data is derived from a fixed seed, so that every run of a benchmark works on
+ * exactly the same input.
+ */
+public final class BenchmarkData {
+
+    public static final long SEED = 4711L;
+
+    private static final String[] WORDS = { "copper", "workflow", "engine", "response", "correlation", "id", "wait",
+            "notify", "timeout", "batch", "queue", "priority", "order", "customer", "4711", "42", "true", "false" };
+
+    private BenchmarkData() {
+    }
+
+    /**
+     * @return a new random number generator with the fixed benchmark seed
+     */
+    public static Random random() {
+        return new Random(SEED);
+    }
+
+    /**
+     * Creates text of the specified length made of a small vocabulary, i.e. text that compresses about as well as
+     * typical workflow data.
+     */
+    public static String text(int length) {
+        final Random random = random();
+        final StringBuilder sb = new StringBuilder(length + 16);
+        while (sb.length() < length) {
+            sb.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextBoolean() ? ' ' : ';');
+        }
+        sb.setLength(length);
+        return sb.toString();
+    }
+
+    /**
+     * Creates random bytes of the specified length, i.e. data that does not compress at all.
+     */
+    public static byte[] bytes(int length) {
+        final byte[] data = new byte[length];
+        random().nextBytes(data);
+        return data;
+    }
+
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jmh.support;
+
+import java.io.IOException;
+
+import org.copperengine.core.CopperException;
+import org.copperengine.core.ProcessingEngine;
+import org.copperengine.core.Workflow;
+import org.copperengine.core.WorkflowFactory;
+import org.copperengine.core.WorkflowVersion;
+import org.copperengine.core.common.WorkflowRepository;
+import org.copperengine.core.instrument.ClassInfo;
+
+/**
+ * {@link WorkflowRepository} for benchmarks that create their workflow instances directly. The benchmark passes the
+ * instance to {@link #launch(ProcessingEngine, Workflow)}, which starts it in the engine through the workflow factory
+ * of this repository, so the benchmark keeps a reference to the running instance.
+ */
+public class BenchmarkWorkflowRepository implements WorkflowRepository {
+
+    private static final String WORKFLOW_NAME = "benchmark";
+
+    private final ThreadLocal<Workflow<?>> nextInstance = new ThreadLocal<Workflow<?>>();
+
+    /**
+     * Starts the specified workflow instance in the specified engine. The engine must use this repository.
+     *
+     * @return the id of the workflow instance
+     */
+    public String launch(ProcessingEngine engine, Workflow<?> wf) throws CopperException {
+        nextInstance.set(wf);
+        try {
+            return engine.run(WORKFLOW_NAME, wf.getData());
+        } finally {
+            nextInstance.remove();
+        }
+    }
+
+    @Override
+    public <E> WorkflowFactory<E> createWorkflowFactory(final String wfName) throws ClassNotFoundException {
+        if (!WORKFLOW_NAME.equals(wfName))
+            throw new ClassNotFoundException(wfName);
+        return new WorkflowFactory<E>() {
+            @SuppressWarnings("unchecked")
+            @Override
+            public Workflow<E> newInstance() throws InstantiationException, IllegalAccessException {
+                final Workflow<E> wf = (Workflow<E>) nextInstance.get();
+                if (wf == null)
+                    throw new InstantiationException("no workflow instance to launch");
+                return wf;
+            }
+        };
+    }
+
+    @Override
+    public <E> WorkflowFactory<E> createWorkflowFactory(String wfName, WorkflowVersion version) throws ClassNotFoundException {
+        return createWorkflowFactory(wfName);
+    }
+
+    @Override
+    public WorkflowVersion findLatestMajorVersion(String wfName, long majorVersion) {
+        return null;
+    }
+
+    @Override
+    public WorkflowVersion findLatestMinorVersion(String wfName, long majorVersion, long minorVersion) {
+        return null;
+    }
+
+    @Override
+    public Class<?> resolveClass(String classname) throws IOException, ClassNotFoundException {
+        return Class.forName(classname);
+    }
+
+    @Override
+    public ClassInfo getClassInfo(@SuppressWarnings("rawtypes") Class<? extends Workflow> wfClazz) throws IOException, ClassNotFoundException {
+        return null;
+    }
+
+    @Override
+    public void start() {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+}
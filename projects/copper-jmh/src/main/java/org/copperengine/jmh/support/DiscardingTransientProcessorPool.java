@@ -0,0 +1,66 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jmh.support;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.copperengine.core.ProcessingEngine;
+import org.copperengine.core.Workflow;
+import org.copperengine.core.tranzient.TransientProcessorPool;
+
+/**
+ * {@link TransientProcessorPool} that only counts and discards enqueued workflow instances, so that benchmarks
+ * measure the engine's own overhead without workflow execution.
+ */
+public class DiscardingTransientProcessorPool implements TransientProcessorPool {
+
+    private final AtomicLong enqueued = new AtomicLong();
+
+    @Override
+    public void setEngine(ProcessingEngine engine) {
+    }
+
+    @Override
+    public String getId() {
+        return DEFAULT_POOL_ID;
+    }
+
+    @Override
+    public void startup() {
+    }
+
+    @Override
+    public void shutdown() {
+    }
+
+    @Override
+    public void suspend() {
+    }
+
+    @Override
+    public void resume() {
+    }
+
+    @Override
+    public void enqueue(Workflow<?> wf) {
+        enqueued.incrementAndGet();
+    }
+
+    public long getEnqueued() {
+        return enqueued.get();
+    }
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jmh.support;
+
+import java.io.Serializable;
+
+import org.copperengine.core.Interrupt;
+import org.copperengine.core.instrument.Transformed;
+import org.copperengine.core.persistent.PersistentWorkflow;
+
+/**
+ * Persistent workflow that is never executed, for benchmarks of persistent storages. It is marked as
+ * {@link Transformed}, so that benchmarks may instantiate it directly without a workflow repository.
+ */
+@Transformed
+public class NoopPersistentWorkflow extends PersistentWorkflow<Serializable> {
+
+    private static final long serialVersionUID = 1L;
+
+    public NoopPersistentWorkflow(String id, String ppoolId) {
+        setId(id);
+        setProcessorPoolId(ppoolId);
+    }
+
+    @Override
+    public void main() throws Interrupt {
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jmh.tranzient;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.copperengine.core.tranzient.DefaultTimeoutManager;
+import org.copperengine.core.tranzient.TransientScottyEngine;
+import org.copperengine.jmh.support.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures <code>registerTimeout</code> + <code>unregisterTimeout</code> cycles of the transient engine's
+ * {@link DefaultTimeoutManager} with <code>pendingTimeouts</code> other timeouts registered, for an increasing number
+ * of concurrent threads. All timeouts are between one and two hours in the future, so none of them expires during a
+ * run and the engine is never notified.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimeoutManagerBenchmark {
+
+    private static final int TIMEOUTS_PER_THREAD = 1000;
+    private static final long ONE_HOUR = 60L * 60L * 1000L;
+
+    static long[] timeouts(Random random, long base, int count) {
+        final long[] timeouts = new long[count];
+        for (int i = 0; i < count; i++) {
+            timeouts[i] = base + (long) (random.nextDouble() * ONE_HOUR);
+        }
+        return timeouts;
+    }
+
+    @State(Scope.Benchmark)
+    public static class TimeoutManagerState {
+        @Param({ "0", "100000" })
+        int pendingTimeouts;
+
+        DefaultTimeoutManager timeoutManager;
+        long base;
+        final AtomicInteger threadCounter = new AtomicInteger();
+
+        @Setup
+        public void setup() {
+            base = System.currentTimeMillis() + ONE_HOUR;
+            timeoutManager = new DefaultTimeoutManager();
+            timeoutManager.setEngine(new TransientScottyEngine());
+            timeoutManager.startup();
+            final long[] timeouts = timeouts(BenchmarkData.random(), base, pendingTimeouts);
+            for (int i = 0; i < pendingTimeouts; i++) {
+                timeoutManager.registerTimeout(timeouts[i], "PENDING-" + i);
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            timeoutManager.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        long[] timeouts;
+        String[] correlationIds;
+        int next = 0;
+
+        @Setup
+        public void setup(TimeoutManagerState tms) {
+            final int threadNo = tms.threadCounter.incrementAndGet();
+            timeouts = timeouts(new Random(BenchmarkData.SEED + threadNo), tms.base, TIMEOUTS_PER_THREAD);
+            correlationIds = new String[TIMEOUTS_PER_THREAD];
+            for (int i = 0; i < TIMEOUTS_PER_THREAD; i++) {
+                correlationIds[i] = "T" + threadNo + "-CID" + i;
+            }
+        }
+    }
+
+    private int registerAndUnregister(TimeoutManagerState tms, ThreadState ts) {
+        final int i = ts.next;
+        tms.timeoutManager.registerTimeout(ts.timeouts[i], ts.correlationIds[i]);
+        tms.timeoutManager.unregisterTimeout(ts.timeouts[i], ts.correlationIds[i]);
+        ts.next = (i + 1) % TIMEOUTS_PER_THREAD;
+        return i;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public int registerAndUnregister_1thread(TimeoutManagerState tms, ThreadState ts) {
+        return registerAndUnregister(tms, ts);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public int registerAndUnregister_4threads(TimeoutManagerState tms, ThreadState ts) {
+        return registerAndUnregister(tms, ts);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public int registerAndUnregister_16threads(TimeoutManagerState tms, ThreadState ts) {
+        return registerAndUnregister(tms, ts);
+    }
+
+}
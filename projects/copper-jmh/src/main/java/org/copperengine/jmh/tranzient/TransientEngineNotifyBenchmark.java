@@ -0,0 +1,171 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jmh.tranzient;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.copperengine.core.Acknowledge;
+import org.copperengine.core.EngineIdProviderBean;
+import org.copperengine.core.Response;
+import org.copperengine.core.WaitMode;
+import org.copperengine.core.common.DefaultProcessorPoolManager;
+import org.copperengine.core.common.DefaultTicketPoolManager;
+import org.copperengine.core.common.TicketPool;
+import org.copperengine.core.tranzient.ConcurrentEarlyResponseContainer;
+import org.copperengine.core.tranzient.DefaultEarlyResponseContainer;
+import org.copperengine.core.tranzient.DefaultTimeoutManager;
+import org.copperengine.core.tranzient.TransientProcessorPool;
+import org.copperengine.core.tranzient.TransientScottyEngine;
+import org.copperengine.core.util.PojoDependencyInjector;
+import org.copperengine.jmh.support.BenchmarkWorkflowRepository;
+import org.copperengine.jmh.support.DiscardingTransientProcessorPool;
+import org.copperengine.jmh.support.NoopWorkflow;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures wait registration and response delivery in the {@link TransientScottyEngine}, i.e.
+ * <code>registerCallbacks</code> followed by <code>notify</code>, for an increasing number of concurrent threads.
+ * Each thread works on its own set of workflow instances and correlation ids. Enqueued workflow instances are
+ * discarded, so only the engine's correlation handling is measured. The early response container implementation is
+ * selected by the <code>earlyResponseContainer</code> parameter.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransientEngineNotifyBenchmark {
+
+    private static final int WORKFLOWS_PER_THREAD = 1000;
+
+    @State(Scope.Benchmark)
+    public static class EngineState {
+        @Param({ "default", "concurrent" })
+        String earlyResponseContainer;
+
+        TransientScottyEngine engine;
+        final BenchmarkWorkflowRepository repository = new BenchmarkWorkflowRepository();
+        final AtomicInteger threadCounter = new AtomicInteger();
+
+        @Setup
+        public void setup() {
+            DefaultProcessorPoolManager<TransientProcessorPool> poolManager = new DefaultProcessorPoolManager<TransientProcessorPool>();
+            poolManager.addProcessorPool(new DiscardingTransientProcessorPool());
+            DefaultTicketPoolManager ticketPoolManager = new DefaultTicketPoolManager();
+            ticketPoolManager.add(new TicketPool(DefaultTicketPoolManager.DEFAULT_POOL_ID, Integer.MAX_VALUE));
+
+            engine = new TransientScottyEngine();
+            engine.setDependencyInjector(new PojoDependencyInjector());
+            engine.setEarlyResponseContainer("concurrent".equals(earlyResponseContainer) ? new ConcurrentEarlyResponseContainer() : new DefaultEarlyResponseContainer());
+            engine.setEngineIdProvider(new EngineIdProviderBean("benchmark"));
+            engine.setPoolManager(poolManager);
+            engine.setTicketPoolManager(ticketPoolManager);
+            engine.setTimeoutManager(new DefaultTimeoutManager());
+            engine.setWfRepository(repository);
+            engine.startup();
+        }
+
+        @TearDown
+        public void tearDown() {
+            engine.shutdown();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+        NoopWorkflow[] workflows;
+        String[] correlationIds;
+        int next = 0;
+        long sequence = 0;
+
+        @Setup
+        public void setup(EngineState es) throws Exception {
+            final int threadNo = es.threadCounter.incrementAndGet();
+            workflows = new NoopWorkflow[WORKFLOWS_PER_THREAD];
+            correlationIds = new String[WORKFLOWS_PER_THREAD];
+            for (int i = 0; i < WORKFLOWS_PER_THREAD; i++) {
+                workflows[i] = new NoopWorkflow("T" + threadNo + "-WF" + i);
+                es.repository.launch(es.engine, workflows[i]);
+            }
+        }
+
+        NoopWorkflow nextWorkflow() {
+            final NoopWorkflow wf = workflows[next];
+            correlationIds[next] = wf.getId() + "-" + (sequence++);
+            return wf;
+        }
+
+        String correlationId() {
+            final String cid = correlationIds[next];
+            next = (next + 1) % WORKFLOWS_PER_THREAD;
+            return cid;
+        }
+    }
+
+    private long registerAndNotify(EngineState es, ThreadState ts) {
+        final NoopWorkflow wf = ts.nextWorkflow();
+        final String cid = ts.correlationId();
+        es.engine.registerCallbacks(wf, WaitMode.ALL, 0, cid);
+        es.engine.notify(new Response<String>(cid, "response", null), new Acknowledge.BestEffortAcknowledge());
+        // drop the response again, so that the workflow instance may be reused for the next invocation
+        wf.clearResponses(cid);
+        return ts.sequence;
+    }
+
+    @Benchmark
+    @Threads(1)
+    public long notify_1thread(EngineState es, ThreadState ts) {
+        return registerAndNotify(es, ts);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public long notify_2threads(EngineState es, ThreadState ts) {
+        return registerAndNotify(es, ts);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long notify_4threads(EngineState es, ThreadState ts) {
+        return registerAndNotify(es, ts);
+    }
+
+    @Benchmark
+    @Threads(8)
+    public long notify_8threads(EngineState es, ThreadState ts) {
+        return registerAndNotify(es, ts);
+    }
+
+    @Benchmark
+    @Threads(16)
+    public long notify_16threads(EngineState es, ThreadState ts) {
+        return registerAndNotify(es, ts);
+    }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.jmh.util;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.util.Base64;
+import org.copperengine.jmh.support.BenchmarkData;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@link Base64#encode(byte[])}, {@link Base64#decode(String)} and {@link Base64#decodingStream} for random
+ * data of <code>size</code> bytes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class Base64Benchmark {
+
+    @Param({ "100", "10000", "1000000" })
+    int size;
+
+    byte[] data;
+    String encodedData;
+    byte[] buffer;
+
+    @Setup
+    public void setup() {
+        data = BenchmarkData.bytes(size);
+        encodedData = Base64.encode(data);
+        buffer = new byte[8192];
+    }
+
+    @Benchmark
+    public String encode() {
+        return Base64.encode(data);
+    }
+
+    @Benchmark
+    public byte[] decode() {
+        return Base64.decode(encodedData);
+    }
+
+    @Benchmark
+    public long decodingStream() throws IOException {
+        long length = 0;
+        try (InputStream in = Base64.decodingStream(new StringReader(encodedData))) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                length += n;
+            }
+        }
+        return length;
+    }
+
+}
@@ -23,5 +23,23 @@ public interface AuditTrailQueryMXBean {
 
     List<AuditTrailInfo> getAuditTrails(String transactionId, String conversationId, String correlationId, Integer level, int maxResult);
 
+    /**
+     * Keyset pagination over the audit trail, ordered by occurrence and id. Pass <code>null</code> as
+     * <code>afterOccurrence</code> and <code>afterSeqId</code> for the first page and the occurrence and id of the
+     * last event of the previous page for all subsequent pages.
+     */
+    List<AuditTrailInfo> getAuditTrailsAfter(String transactionId, String conversationId, String correlationId, Integer level, Long afterOccurrence, Long afterSeqId, int pageSize);
+
+    /**
+     * Counts the matching audit trail events, but stops counting at <code>maxCount</code>.
+     */
+    long countAuditTrails(String transactionId, String conversationId, String correlationId, Integer level, int maxCount);
+
     byte[] getMessage(long id);
+
+    /**
+     * @return the first <code>maxLength</code> characters of the deserialized message, or the whole message if
+     *         <code>maxLength</code> is not positive
+     */
+    String getMessageText(long id, int maxLength);
 }
@@ -36,6 +36,17 @@ public interface DatabaseDialectMXBean {
 
     public boolean isRemoveWhenFinished();
 
+    /**
+     * Sets the aging threshold for dequeueing workflow instances from the database queue. Queue entries waiting for
+     * longer than the specified amount of time are dequeued in FIFO order before any other entry, regardless of their
+     * priority. A value &le; 0 disables aging, i.e. entries are dequeued strictly by priority.
+     *
+     * @param dequeueAgingThresholdMSec Aging threshold in Milliseconds.
+     */
+    public void setDequeueAgingThresholdMSec(long dequeueAgingThresholdMSec);
+
+    public long getDequeueAgingThresholdMSec();
+
     public String getDialectDescription();
 
 }
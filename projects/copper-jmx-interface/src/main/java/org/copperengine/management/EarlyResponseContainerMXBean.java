@@ -0,0 +1,58 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.management;
+
+public interface EarlyResponseContainerMXBean {
+
+    public int getNumberOfResponses();
+
+    /**
+     * @return the estimated memory footprint of all responses currently held in the container
+     */
+    public long getEstimatedBytes();
+
+    public int getMaxResponses();
+
+    public void setMaxResponses(int maxResponses);
+
+    /**
+     * @return the upper limit for the estimated memory footprint, or 0 if there is no such limit
+     */
+    public long getMaxBytes();
+
+    public void setMaxBytes(long maxBytes);
+
+    public long getMinHoldBackTime();
+
+    public void setMinHoldBackTime(long minHoldBackTime);
+
+    public long getPutCount();
+
+    /**
+     * @return number of responses handed out to a waiting workflow instance
+     */
+    public long getHitCount();
+
+    /**
+     * @return number of responses removed after their hold back time expired
+     */
+    public long getExpirationCount();
+
+    /**
+     * @return number of responses removed before their hold back time expired, because the container was full
+     */
+    public long getEvictionCount();
+}
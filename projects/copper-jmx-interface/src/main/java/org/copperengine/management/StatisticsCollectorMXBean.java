@@ -31,4 +31,12 @@ public interface StatisticsCollectorMXBean {
 
     public MeasurePointData query(String measurePointId);
 
+    /**
+     * @param percentile
+     *        the percentile, e.g. <code>99.9</code>
+     * @return the percentile of the elapsed time per execution of the measure point in microseconds, or <code>-1</code>
+     *         if the measure point is unknown or the collector does not record histograms
+     */
+    public long queryPercentileMicros(String measurePointId, double percentile);
+
 }
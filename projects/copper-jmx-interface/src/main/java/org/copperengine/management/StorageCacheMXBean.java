@@ -0,0 +1,62 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.management;
+
+public interface StorageCacheMXBean {
+
+    public int getWorkflowInstanceCacheSize();
+
+    /**
+     * @return the estimated memory footprint of all cached workflow instances
+     */
+    public long getWorkflowInstanceCacheBytes();
+
+    public long getWorkflowInstanceCacheMaxBytes();
+
+    public long getWorkflowInstanceCacheHits();
+
+    public long getWorkflowInstanceCacheMisses();
+
+    /**
+     * @return number of workflow instances removed from or not admitted to the cache, because the cache was full
+     */
+    public long getWorkflowInstanceCacheEvictions();
+
+    public int getEarlyResponseCacheSize();
+
+    /**
+     * @return the estimated memory footprint of all cached early responses
+     */
+    public long getEarlyResponseCacheBytes();
+
+    public long getEarlyResponseCacheMaxBytes();
+
+    public long getEarlyResponseCacheHits();
+
+    public long getEarlyResponseCacheMisses();
+
+    /**
+     * @return number of early responses removed from or not admitted to the cache, because the cache was full
+     */
+    public long getEarlyResponseCacheEvictions();
+
+    /**
+     * @return number of early responses removed after their time to live expired
+     */
+    public long getEarlyResponseCacheExpirations();
+
+    public long getEarlyResponseCacheTtlSeconds();
+}
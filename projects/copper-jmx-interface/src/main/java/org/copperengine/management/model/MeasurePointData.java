@@ -26,6 +26,11 @@ public class MeasurePointData implements Serializable {
     private long elementCount = 0L;
     private long elapsedTimeMicros = 0L;
     private long count = 0L;
+    private long maxElapsedTimeMicros = 0L;
+    private long elapsedTimeMicrosP50 = 0L;
+    private long elapsedTimeMicrosP90 = 0L;
+    private long elapsedTimeMicrosP99 = 0L;
+    private long elapsedTimeMicrosP999 = 0L;
 
     public MeasurePointData() {
     }
@@ -39,6 +44,16 @@ public class MeasurePointData implements Serializable {
         this.count = count;
     }
 
+    @ConstructorProperties({ "mpId", "elementCount", "elapsedTimeMicros", "count", "maxElapsedTimeMicros", "elapsedTimeMicrosP50", "elapsedTimeMicrosP90", "elapsedTimeMicrosP99", "elapsedTimeMicrosP999" })
+    public MeasurePointData(String mpId, long elementCount, long elapsedTimeMicros, long count, long maxElapsedTimeMicros, long elapsedTimeMicrosP50, long elapsedTimeMicrosP90, long elapsedTimeMicrosP99, long elapsedTimeMicrosP999) {
+        this(mpId, elementCount, elapsedTimeMicros, count);
+        this.maxElapsedTimeMicros = maxElapsedTimeMicros;
+        this.elapsedTimeMicrosP50 = elapsedTimeMicrosP50;
+        this.elapsedTimeMicrosP90 = elapsedTimeMicrosP90;
+        this.elapsedTimeMicrosP99 = elapsedTimeMicrosP99;
+        this.elapsedTimeMicrosP999 = elapsedTimeMicrosP999;
+    }
+
     public String getMpId() {
         return mpId;
     }
@@ -71,4 +86,48 @@ public class MeasurePointData implements Serializable {
         this.count = count;
     }
 
+    /**
+     * The maximum and the percentiles of the elapsed time per execution are only available, if the statistics
+     * collector records histograms - they are <code>0</code> otherwise.
+     */
+    public long getMaxElapsedTimeMicros() {
+        return maxElapsedTimeMicros;
+    }
+
+    public void setMaxElapsedTimeMicros(long maxElapsedTimeMicros) {
+        this.maxElapsedTimeMicros = maxElapsedTimeMicros;
+    }
+
+    public long getElapsedTimeMicrosP50() {
+        return elapsedTimeMicrosP50;
+    }
+
+    public void setElapsedTimeMicrosP50(long elapsedTimeMicrosP50) {
+        this.elapsedTimeMicrosP50 = elapsedTimeMicrosP50;
+    }
+
+    public long getElapsedTimeMicrosP90() {
+        return elapsedTimeMicrosP90;
+    }
+
+    public void setElapsedTimeMicrosP90(long elapsedTimeMicrosP90) {
+        this.elapsedTimeMicrosP90 = elapsedTimeMicrosP90;
+    }
+
+    public long getElapsedTimeMicrosP99() {
+        return elapsedTimeMicrosP99;
+    }
+
+    public void setElapsedTimeMicrosP99(long elapsedTimeMicrosP99) {
+        this.elapsedTimeMicrosP99 = elapsedTimeMicrosP99;
+    }
+
+    public long getElapsedTimeMicrosP999() {
+        return elapsedTimeMicrosP999;
+    }
+
+    public void setElapsedTimeMicrosP999(long elapsedTimeMicrosP999) {
+        this.elapsedTimeMicrosP999 = elapsedTimeMicrosP999;
+    }
+
 }
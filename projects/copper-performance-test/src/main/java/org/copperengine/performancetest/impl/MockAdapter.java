@@ -85,6 +85,21 @@ public class MockAdapter {
         }
     }
 
+    // do some work; delayed response to engine object, containing the System.nanoTime() of the notification
+    public void fooWithNotifyTimestamp(final String cid) {
+        invokationCounter.incrementAndGet();
+        if (delay <= 0) {
+            engine.notify(new Response<Long>(cid, System.nanoTime(), null), bestEffortAck);
+        } else {
+            pool.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    engine.notify(new Response<Long>(cid, System.nanoTime(), null), bestEffortAck);
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
     // do some work; delayed response to engine object
     public void fooWithMultiResponse(final String param, final String cid, final int numbOfResponse) {
         invokationCounter.incrementAndGet();
@@ -0,0 +1,56 @@
+/**
+ * Copyright 2002-2017 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.performancetest.impl;
+
+import java.io.Serializable;
+
+/**
+ * Data of the workflow instances launched by the open loop performance test.
+ */
+public class OpenLoopPerfTestData implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String payload;
+    private final long launchNanos;
+    private final int numberOfWaits;
+
+    /**
+     * @param payload
+     *        payload, which is passed to the adapter mock
+     * @param launchNanos
+     *        the <code>System.nanoTime()</code> at which the instance was scheduled to be launched
+     * @param numberOfWaits
+     *        number of wait/notify cycles of the instance
+     */
+    public OpenLoopPerfTestData(String payload, long launchNanos, int numberOfWaits) {
+        this.payload = payload;
+        this.launchNanos = launchNanos;
+        this.numberOfWaits = numberOfWaits;
+    }
+
+    public String getPayload() {
+        return payload;
+    }
+
+    public long getLaunchNanos() {
+        return launchNanos;
+    }
+
+    public int getNumberOfWaits() {
+        return numberOfWaits;
+    }
+}
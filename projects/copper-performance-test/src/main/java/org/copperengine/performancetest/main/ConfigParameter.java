@@ -28,6 +28,7 @@ public enum ConfigParameter {
     PROC_DEQUEUE_BULK_SIZE("procPool.dequeueBulkSize", "Max. bulk size when fetching workflow instances from the underlying DB", Integer.valueOf(PersistentPriorityProcessorPool.DEFAULT_DEQUEUE_SIZE), ConfigParameterGroup.common),
     MOCK_ADAPTER_NUMB_OF_THREADS("mockAdapter.numberOfThreads", "Number of processor threads in adapter mock", Integer.valueOf(Runtime.getRuntime().availableProcessors()), ConfigParameterGroup.common),
     COMPRESSION("compression", "compress workflow instances in DB?", StandardJavaSerializer.DEFAULT_COMPRESS, ConfigParameterGroup.common),
+    RESULT_DIR("resultDir", "Directory for the JSON and CSV result files", ".", ConfigParameterGroup.common),
 
     // configuration parameters used only for RDBMS, e.g. Oracle
     DS_JDBC_URL("ds.jdbcURL", "jdbc URL", null, ConfigParameterGroup.rdbms, "mandatory when testing RDBMS"),
@@ -52,7 +53,18 @@ public enum ConfigParameter {
 
     // configuration parameters used only in the latency performance test
     LATENCY_NUMBER_OF_WORKFLOW_INSTANCES("latency.numberOfWfI", "Number of workflow instances to process in the test", 50, ConfigParameterGroup.latency),
-    LATENCY_DATA_SIZE("latency.dataSize", "Size of the data argument passed to the workflow instances", 1000, ConfigParameterGroup.latency);
+    LATENCY_DATA_SIZE("latency.dataSize", "Size of the data argument passed to the workflow instances", 1000, ConfigParameterGroup.latency),
+
+    // configuration parameters used only in the open loop performance test
+    OPENLOOP_ARRIVAL_RATE("openloop.arrivalRate", "Number of workflow instances launched per second, regardless of how fast they are processed", 50, ConfigParameterGroup.openloop),
+    OPENLOOP_DURATION_SEC("openloop.durationSec", "Duration of the launch phase in seconds", 60, ConfigParameterGroup.openloop),
+    OPENLOOP_NUMBER_OF_WAITS("openloop.numberOfWaits", "Number of wait/notify cycles per workflow instance", 5, ConfigParameterGroup.openloop),
+    OPENLOOP_ADAPTER_DELAY("openloop.adapterDelayMSec", "Delay of the responses of the adapter mock in milliseconds", 10, ConfigParameterGroup.openloop),
+    OPENLOOP_NUMBER_OF_LAUNCH_THREADS("openloop.numberOfLaunchThreads", "Number of threads launching the workflow instances", 4, ConfigParameterGroup.openloop),
+    OPENLOOP_DATA_SIZE("openloop.dataSize", "Size of the data argument passed to the workflow instances", 100, ConfigParameterGroup.openloop),
+
+    // configuration parameters used only when comparing results
+    COMPARE_THRESHOLD_PERCENT("compare.thresholdPercent", "Deterioration of a latency or throughput metric in percent, that is reported as regression", 10, ConfigParameterGroup.compare);
 
     private ConfigParameter(String key, String description, Object defaultValue, ConfigParameterGroup grp) {
         this.key = key;
@@ -20,7 +20,9 @@ public enum ConfigParameterGroup {
     rdbms("configuration parameters used only for RDBMS, e.g. Oracle, MySQL"),
     cassandra("configuration parameters used only for Apache Cassandra DB"),
     latency("configuration parameters used only in the latency performance test"),
-    throughput("configuration parameters used only in the throughput performance test");
+    throughput("configuration parameters used only in the throughput performance test"),
+    openloop("configuration parameters used only in the open loop performance test"),
+    compare("configuration parameters used only when comparing results");
 
     private final String description;
 
@@ -16,6 +16,8 @@
 package org.copperengine.performancetest.main;
 
 import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Properties;
 
 import org.slf4j.Logger;
@@ -69,6 +71,22 @@ public class ConfigurationManager {
         }
     }
 
+    /**
+     * @return the configuration parameters of the specified groups, without the database password
+     */
+    public Map<String, String> toMap(ConfigParameterGroup... grps) {
+        Map<String, String> map = new LinkedHashMap<>();
+        for (ConfigParameterGroup grp : grps) {
+            for (ConfigParameter p : ConfigParameter.all4group(grp)) {
+                if (p == ConfigParameter.DS_PASSWORD)
+                    continue;
+                Object v = getConfig(p);
+                map.put(p.getKey(), v == null ? null : v.toString());
+            }
+        }
+        return map;
+    }
+
     public void log(Logger logger, ConfigParameterGroup... grps) {
         logger.info("Configuration parameters:");
         for (ConfigParameterGroup grp : grps) {
@@ -15,6 +15,7 @@
  */
 package org.copperengine.performancetest.main;
 
+import java.io.File;
 import java.util.Random;
 import java.util.concurrent.TimeUnit;
 
@@ -45,7 +46,8 @@ public class LatencyPerformanceTest {
             final PersistentProcessingEngine engine = context.getEngine();
             final Random random = new Random();
 
-            context.getConfigManager().log(logger, ConfigParameterGroup.latency, ConfigParameterGroup.common, context.isCassandraTest() ? ConfigParameterGroup.cassandra : ConfigParameterGroup.rdbms);
+            final ConfigParameterGroup[] groups = { ConfigParameterGroup.latency, ConfigParameterGroup.common, context.isCassandraTest() ? ConfigParameterGroup.cassandra : ConfigParameterGroup.rdbms };
+            context.getConfigManager().log(logger, groups);
             logger.info("Starting latency performance test with {} workflow instances and data size {} chars ...", numbOfWfI, dataSize);
             final long startTS = System.currentTimeMillis();
             for (int i = 0; i < numbOfWfI; i++) {
@@ -61,6 +63,10 @@ public class LatencyPerformanceTest {
             Thread.sleep(5000); // drain the batcher, etc.
             logger.info("statistics:\n{}", context.getStatisticsCollector().print());
 
+            final PerformanceTestResult result = new PerformanceTestResult("latency", context.getConfigManager().toMap(groups));
+            result.addMeasurePoints(context.getStatisticsCollector());
+            result.write(new File(context.getConfigManager().getConfigString(ConfigParameter.RESULT_DIR)));
+
         } catch (Exception e) {
             logger.error("performance test failed", e);
         }
@@ -15,6 +15,7 @@
  */
 package org.copperengine.performancetest.main;
 
+import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
@@ -22,6 +23,7 @@ public class Main {
 
     public static void main(String[] args) {
         System.setProperty("ts", new SimpleDateFormat("yyyyMMdd_HHmmSS").format(new Date()));
+        int exitCode = 0;
         try {
             if (args.length == 0) {
                 usage();
@@ -32,6 +34,13 @@ public class Main {
             else if ("throughput".equalsIgnoreCase(args[0])) {
                 new ThroughputPerformanceTest().run();
             }
+            else if ("openloop".equalsIgnoreCase(args[0])) {
+                new OpenLoopPerformanceTest().run();
+            }
+            else if ("compare".equalsIgnoreCase(args[0]) && args.length == 3) {
+                final int threshold = new ConfigurationManager(System.getProperties()).getConfigInt(ConfigParameter.COMPARE_THRESHOLD_PERCENT);
+                exitCode = new PerformanceTestComparison(threshold).exitStatus(new File(args[1]), new File(args[2]));
+            }
             else {
                 usage();
             }
@@ -39,13 +48,17 @@ public class Main {
             e.printStackTrace();
             usage();
         }
-        System.exit(0);
+        System.exit(exitCode);
     }
 
     private static void usage() {
-        System.out.println("Usage: java <parameters> -jar copper-performance-test.jar (latency|throughput)");
+        System.out.println("Usage: java <parameters> -jar copper-performance-test.jar (latency|throughput|openloop|compare <baseline.json> <current.json>)");
         System.out.println("  latency    - measures the latency for executing resubmit/savepoints in an otherwise idle system");
         System.out.println("  throughput - executes a large amount of workflow instances, each with 10 wait/notifies, to measure the avg. number of wait/notify cycles per second");
+        System.out.println("  openloop   - launches workflow instances at a fixed rate to measure the percentiles of the launch->finish and notify->resume latency");
+        System.out.println("  compare    - compares two result files and exits with status 1, if a latency or throughput metric deteriorated");
+        System.out.println();
+        System.out.println("  latency, throughput and openloop write their results as JSON and CSV files to the result directory");
         System.out.println();
         System.out.println("  with <parameters> as follows");
         for (ConfigParameterGroup grp : ConfigParameterGroup.values()) {
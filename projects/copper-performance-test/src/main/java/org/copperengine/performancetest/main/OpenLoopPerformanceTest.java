@@ -0,0 +1,126 @@
+/**
+ * Copyright 2002-2017 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.performancetest.main;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+import org.copperengine.core.PersistentProcessingEngine;
+import org.copperengine.core.WorkflowInstanceDescr;
+import org.copperengine.performancetest.impl.OpenLoopPerfTestData;
+import org.copperengine.performancetest.workflows.OpenLoopPerfTestWorkflow;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Launches workflow instances at a fixed arrival rate, regardless of how fast the engine processes them, and records
+ * histograms of the launch to finish and the notify to resume latency.
+ * <p>
+ * The launch to finish latency is measured from the time at which an instance was scheduled to be launched, not from
+ * the time it was actually launched. So if the launching threads are delayed, e.g. because the database is
+ * overloaded, this delay is part of the latency instead of being hidden (coordinated omission). The delay itself is
+ * recorded as <code>openloop.launchLag</code>.
+ */
+public class OpenLoopPerformanceTest {
+
+    private static final Logger logger = LoggerFactory.getLogger(OpenLoopPerformanceTest.class);
+
+    static final String MP_LAUNCH_LAG = "openloop.launchLag";
+
+    protected String createTestData(int size) {
+        StringBuilder sb = new StringBuilder(size);
+        Random r = new Random();
+        for (int i = 0; i < size; i++) {
+            sb.append(r.nextInt(2) == 0 ? "0" : "1");
+        }
+        return sb.toString();
+    }
+
+    public void run() {
+        try (PerformanceTestContext context = new PerformanceTestContext()) {
+            final ConfigurationManager configManager = context.getConfigManager();
+            final int arrivalRate = configManager.getConfigInt(ConfigParameter.OPENLOOP_ARRIVAL_RATE);
+            final int durationSec = configManager.getConfigInt(ConfigParameter.OPENLOOP_DURATION_SEC);
+            final int numberOfWaits = configManager.getConfigInt(ConfigParameter.OPENLOOP_NUMBER_OF_WAITS);
+            final int launchThreads = configManager.getConfigInt(ConfigParameter.OPENLOOP_NUMBER_OF_LAUNCH_THREADS);
+            final String data = createTestData(configManager.getConfigInt(ConfigParameter.OPENLOOP_DATA_SIZE));
+            final int numbOfWfI = arrivalRate * durationSec;
+            final PersistentProcessingEngine engine = context.getEngine();
+            final Semaphore semaphore = new Semaphore(0);
+            context.registerBean("semaphore", semaphore);
+            context.getMockAdapter().setDelayMSec(configManager.getConfigInt(ConfigParameter.OPENLOOP_ADAPTER_DELAY));
+
+            final ConfigParameterGroup[] groups = { ConfigParameterGroup.openloop, ConfigParameterGroup.common, context.isCassandraTest() ? ConfigParameterGroup.cassandra : ConfigParameterGroup.rdbms };
+            configManager.log(logger, groups);
+            logger.info("Starting open loop performance test with {} workflow instances per second for {} seconds ...", arrivalRate, durationSec);
+
+            final double intervalNanos = 1000000000.0 / arrivalRate;
+            final long startNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(100);
+            final AtomicInteger next = new AtomicInteger();
+            final ExecutorService pool = Executors.newFixedThreadPool(launchThreads);
+            for (int i = 0; i < launchThreads; i++) {
+                pool.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        int n;
+                        while ((n = next.getAndIncrement()) < numbOfWfI) {
+                            final long scheduledNanos = startNanos + (long) (n * intervalNanos);
+                            long delay;
+                            while ((delay = scheduledNanos - System.nanoTime()) > 0) {
+                                LockSupport.parkNanos(delay);
+                            }
+                            context.getStatisticsCollector().submit(MP_LAUNCH_LAG, 1, -delay, TimeUnit.NANOSECONDS);
+                            try {
+                                engine.run(new WorkflowInstanceDescr<>(OpenLoopPerfTestWorkflow.class.getName(), new OpenLoopPerfTestData(data, scheduledNanos, numberOfWaits)));
+                            } catch (Exception e) {
+                                logger.error("launch failed", e);
+                                semaphore.release();
+                            }
+                        }
+                    }
+                });
+            }
+            pool.shutdown();
+            pool.awaitTermination(durationSec + 600L, TimeUnit.SECONDS);
+            final long launchedNanos = System.nanoTime() - startNanos;
+
+            logger.info("Workflow instances launched, waiting...");
+            if (!semaphore.tryAcquire(numbOfWfI, 10, TimeUnit.MINUTES)) {
+                logger.warn("Only {} of {} workflow instances finished", semaphore.availablePermits(), numbOfWfI);
+            }
+            final long finishedNanos = System.nanoTime() - startNanos;
+            logger.info("Finished performance test with {} workflow instances in {} msec", numbOfWfI, TimeUnit.NANOSECONDS.toMillis(finishedNanos));
+
+            Thread.sleep(5000); // drain the batcher
+            logger.info("statistics:\n{}", context.getStatisticsCollector().print());
+
+            final PerformanceTestResult result = new PerformanceTestResult("openloop", configManager.toMap(groups));
+            result.addMetric("launchedPerSec", numbOfWfI * 1.0E9 / launchedNanos);
+            result.addMetric("finishedPerSec", numbOfWfI * 1.0E9 / finishedNanos);
+            result.addMeasurePoints(context.getStatisticsCollector());
+            result.write(new File(configManager.getConfigString(ConfigParameter.RESULT_DIR)));
+
+        } catch (Exception e) {
+            logger.error("performance test failed", e);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright 2002-2017 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.performancetest.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares the result of a performance test run with a baseline result, and reports each latency metric that rose
+ * and each throughput metric that fell by more than the configured threshold as regression.
+ */
+public class PerformanceTestComparison {
+
+    private static final Logger logger = LoggerFactory.getLogger(PerformanceTestComparison.class);
+
+    private final double thresholdPercent;
+
+    public PerformanceTestComparison(double thresholdPercent) {
+        if (thresholdPercent < 0)
+            throw new IllegalArgumentException();
+        this.thresholdPercent = thresholdPercent;
+    }
+
+    /**
+     * @return the exit status of the <code>compare</code> command, i.e. 1 if there is at least one regression, 0
+     *         otherwise
+     */
+    public int exitStatus(File baselineFile, File currentFile) throws IOException {
+        return compare(baselineFile, currentFile) > 0 ? 1 : 0;
+    }
+
+    /**
+     * @return the number of regressions
+     */
+    public int compare(File baselineFile, File currentFile) throws IOException {
+        final PerformanceTestResult baseline = PerformanceTestResult.read(baselineFile);
+        final PerformanceTestResult current = PerformanceTestResult.read(currentFile);
+        if (!baseline.getTest().equals(current.getTest())) {
+            logger.warn("Comparing results of different tests: {} and {}", baseline.getTest(), current.getTest());
+        }
+        for (Map.Entry<String, String> e : baseline.getConfiguration().entrySet()) {
+            final String currentValue = current.getConfiguration().get(e.getKey());
+            if (currentValue != null && !currentValue.equals(e.getValue())) {
+                logger.warn("Configuration differs: {}={} (baseline) vs. {} (current)", e.getKey(), e.getValue(), currentValue);
+            }
+        }
+
+        int regressions = 0;
+        logger.info(String.format("%-70s %15s %15s %9s", "metric", "baseline", "current", "change"));
+        for (Map.Entry<String, Double> e : baseline.getMetrics().entrySet()) {
+            final String metric = e.getKey();
+            final Double currentValue = current.getMetrics().get(metric);
+            if (currentValue == null)
+                continue;
+            final double deterioration = deteriorationPercent(metric, e.getValue(), currentValue);
+            final boolean regression = deterioration > thresholdPercent;
+            if (regression) {
+                regressions++;
+            }
+            final double change = e.getValue() == 0.0 ? 0.0 : (currentValue - e.getValue()) * 100.0 / e.getValue();
+            logger.info(String.format("%-70s %15.1f %15.1f %+8.1f%%%s", metric, e.getValue(), currentValue, change, regression ? "  REGRESSION" : ""));
+        }
+        logger.info("{} regression(s) with a threshold of {}%", regressions, thresholdPercent);
+        return regressions;
+    }
+
+    /**
+     * @return the deterioration in percent, which is negative for an improvement and zero for metrics that are
+     *         neither latencies nor throughputs
+     */
+    static double deteriorationPercent(String metric, double baseline, double current) {
+        if (baseline <= 0.0)
+            return 0.0;
+        if (metric.endsWith("Micros"))
+            return (current - baseline) * 100.0 / baseline;
+        if (metric.endsWith("PerSec"))
+            return (baseline - current) * 100.0 / baseline;
+        return 0.0;
+    }
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright 2002-2017 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.performancetest.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.copperengine.core.monitoring.HistogramStatisticsCollector;
+import org.copperengine.management.model.MeasurePointData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+/**
+ * Result of a performance test run, i.e. the test's configuration and its metrics, written to a JSON and a CSV file.
+ * <p>
+ * Metrics with names ending in <code>Micros</code> are latencies, metrics ending in <code>PerSec</code> are
+ * throughputs. For each measure point of the statistics collector, the count, the average, the maximum and a
+ * percentile distribution of the elapsed time per execution is recorded.
+ */
+public class PerformanceTestResult {
+
+    private static final Logger logger = LoggerFactory.getLogger(PerformanceTestResult.class);
+
+    static final double[] PERCENTILES = { 50.0, 75.0, 90.0, 95.0, 99.0, 99.9, 99.99 };
+
+    private final String test;
+    private final long timestamp;
+    private final Map<String, String> configuration;
+    private final Map<String, Double> metrics;
+
+    public PerformanceTestResult(String test, Map<String, String> configuration) {
+        this(test, System.currentTimeMillis(), configuration, new LinkedHashMap<String, Double>());
+    }
+
+    private PerformanceTestResult(String test, long timestamp, Map<String, String> configuration, Map<String, Double> metrics) {
+        this.test = test;
+        this.timestamp = timestamp;
+        this.configuration = configuration;
+        this.metrics = metrics;
+    }
+
+    public String getTest() {
+        return test;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public Map<String, String> getConfiguration() {
+        return configuration;
+    }
+
+    public Map<String, Double> getMetrics() {
+        return metrics;
+    }
+
+    public void addMetric(String name, double value) {
+        metrics.put(name, value);
+    }
+
+    /**
+     * Adds the count, average, maximum and percentiles of all measure points of the specified statistics collector.
+     */
+    public void addMeasurePoints(HistogramStatisticsCollector statisticsCollector) {
+        for (MeasurePointData mp : statisticsCollector.queryAll()) {
+            if (mp.getCount() == 0)
+                continue;
+            final String prefix = mp.getMpId() + ".";
+            addMetric(prefix + "count", mp.getCount());
+            addMetric(prefix + "avgMicros", (double) mp.getElapsedTimeMicros() / mp.getCount());
+            for (double percentile : PERCENTILES) {
+                addMetric(prefix + percentileName(percentile) + "Micros", statisticsCollector.queryPercentileMicros(mp.getMpId(), percentile));
+            }
+            addMetric(prefix + "maxMicros", mp.getMaxElapsedTimeMicros());
+        }
+    }
+
+    static String percentileName(double percentile) {
+        final String s = Double.toString(percentile);
+        return "p" + (s.endsWith(".0") ? s.substring(0, s.length() - 2) : s.replace('.', '_'));
+    }
+
+    /**
+     * Writes the result to <code>&lt;test&gt;-&lt;timestamp&gt;.json</code> and <code>.csv</code> in the specified
+     * directory.
+     *
+     * @return the JSON file
+     */
+    public File write(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Unable to create directory " + dir);
+        final String basename = test + "-" + new SimpleDateFormat("yyyyMMdd_HHmmss").format(new Date(timestamp));
+        final File jsonFile = new File(dir, basename + ".json");
+        final Map<String, Object> root = new LinkedHashMap<>();
+        root.put("test", test);
+        root.put("timestamp", timestamp);
+        root.put("configuration", configuration);
+        root.put("metrics", metrics);
+        new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT).writeValue(jsonFile, root);
+
+        final File csvFile = new File(dir, basename + ".csv");
+        try (PrintWriter pw = new PrintWriter(csvFile, "UTF-8")) {
+            pw.println("metric,value");
+            for (Map.Entry<String, Double> e : metrics.entrySet()) {
+                pw.println("\"" + e.getKey() + "\"," + e.getValue());
+            }
+        }
+        logger.info("Results written to {} and {}", jsonFile, csvFile);
+        return jsonFile;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static PerformanceTestResult read(File jsonFile) throws IOException {
+        final Map<String, Object> root = new ObjectMapper().readValue(jsonFile, Map.class);
+        final Map<String, Double> metrics = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> e : ((Map<String, Object>) root.get("metrics")).entrySet()) {
+            metrics.put(e.getKey(), ((Number) e.getValue()).doubleValue());
+        }
+        return new PerformanceTestResult((String) root.get("test"), ((Number) root.get("timestamp")).longValue(), (Map<String, String>) root.get("configuration"), metrics);
+    }
+}
@@ -15,6 +15,7 @@
  */
 package org.copperengine.performancetest.main;
 
+import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -63,7 +64,8 @@ public class ThroughputPerformanceTest {
                 context.getProcessorPoolManager().addProcessorPool(pool);
             }
 
-            context.getConfigManager().log(logger, ConfigParameterGroup.throughput, ConfigParameterGroup.common, context.isCassandraTest() ? ConfigParameterGroup.cassandra : ConfigParameterGroup.rdbms);
+            final ConfigParameterGroup[] groups = { ConfigParameterGroup.throughput, ConfigParameterGroup.common, context.isCassandraTest() ? ConfigParameterGroup.cassandra : ConfigParameterGroup.rdbms };
+            context.getConfigManager().log(logger, groups);
             logger.debug("number of insert threads is {}", insertThreads);
             logger.debug("insert batch size is {}", insertBatchSize);
             logger.debug("numberOfExtraProcessorPools is {}", numberOfExtraProcessorPools);
@@ -115,6 +117,12 @@ public class ThroughputPerformanceTest {
             Thread.sleep(5000); // drain the batcher
             logger.info("statistics:\n{}", context.getStatisticsCollector().print());
 
+            final PerformanceTestResult result = new PerformanceTestResult("throughput", context.getConfigManager().toMap(groups));
+            result.addMetric("workflowInstancesPerSec", numbOfWfI * 1000.0 / et);
+            result.addMetric("waitNotifyCyclesPerSec", numbOfWfI * 10L * 1000.0 / et);
+            result.addMeasurePoints(context.getStatisticsCollector());
+            result.write(new File(context.getConfigManager().getConfigString(ConfigParameter.RESULT_DIR)));
+
         } catch (Exception e) {
             logger.error("performance test failed", e);
         }
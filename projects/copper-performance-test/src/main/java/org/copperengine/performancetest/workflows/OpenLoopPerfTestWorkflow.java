@@ -0,0 +1,83 @@
+/**
+ * Copyright 2002-2017 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.performancetest.workflows;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.AutoWire;
+import org.copperengine.core.Interrupt;
+import org.copperengine.core.Response;
+import org.copperengine.core.WaitMode;
+import org.copperengine.core.monitoring.RuntimeStatisticsCollector;
+import org.copperengine.core.persistent.PersistentWorkflow;
+import org.copperengine.performancetest.impl.MockAdapter;
+import org.copperengine.performancetest.impl.OpenLoopPerfTestData;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class OpenLoopPerfTestWorkflow extends PersistentWorkflow<OpenLoopPerfTestData> {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger logger = LoggerFactory.getLogger(OpenLoopPerfTestWorkflow.class);
+
+    public static final String MP_LAUNCH_TO_FINISH = "openloop.launchToFinish";
+    public static final String MP_NOTIFY_TO_RESUME = "openloop.notifyToResume";
+
+    private transient Semaphore semaphore;
+    private transient MockAdapter mockAdapter;
+    private transient RuntimeStatisticsCollector statisticsCollector;
+
+    @AutoWire
+    public void setSemaphore(Semaphore semaphore) {
+        this.semaphore = semaphore;
+    }
+
+    @AutoWire
+    public void setMockAdapter(MockAdapter mockAdapter) {
+        this.mockAdapter = mockAdapter;
+    }
+
+    @AutoWire
+    public void setStatisticsCollector(RuntimeStatisticsCollector statisticsCollector) {
+        this.statisticsCollector = statisticsCollector;
+    }
+
+    @Override
+    public void main() throws Interrupt {
+        logger.debug("Starting....");
+        for (int i = 0; i < getData().getNumberOfWaits(); i++) {
+            final String cid = getEngine().createUUID();
+            mockAdapter.fooWithNotifyTimestamp(cid);
+            inner: for (;;) {
+                wait(WaitMode.ALL, 10000, cid);
+                Response<Long> r = getAndRemoveResponse(cid);
+                if (r.isTimeout()) {
+                    logger.warn("Timeout");
+                }
+                else {
+                    statisticsCollector.submit(MP_NOTIFY_TO_RESUME, 1, System.nanoTime() - r.getResponse(), TimeUnit.NANOSECONDS);
+                    break inner;
+                }
+            }
+        }
+        // measured from the scheduled launch time, so that a launcher falling behind does not hide any latency
+        statisticsCollector.submit(MP_LAUNCH_TO_FINISH, 1, System.nanoTime() - getData().getLaunchNanos(), TimeUnit.NANOSECONDS);
+        logger.debug("Finished!");
+        semaphore.release();
+    }
+}
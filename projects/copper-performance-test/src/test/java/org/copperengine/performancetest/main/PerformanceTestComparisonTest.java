@@ -0,0 +1,95 @@
+/**
+ * Copyright 2002-2017 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.performancetest.main;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.util.Collections;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PerformanceTestComparisonTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File writeResult(String dir, double latencyMicros, double throughputPerSec, double count) throws Exception {
+        final PerformanceTestResult result = new PerformanceTestResult("latency", Collections.<String, String> emptyMap());
+        result.addMetric("wf.resume.p99Micros", latencyMicros);
+        result.addMetric("wfPerSec", throughputPerSec);
+        result.addMetric("wf.resume.count", count);
+        return result.write(folder.newFolder(dir));
+    }
+
+    @Test
+    public void testDeteriorationPercent() {
+        assertEquals(10.0, PerformanceTestComparison.deteriorationPercent("x.p99Micros", 100.0, 110.0), 1e-9);
+        assertEquals(-10.0, PerformanceTestComparison.deteriorationPercent("x.p99Micros", 100.0, 90.0), 1e-9);
+        assertEquals(10.0, PerformanceTestComparison.deteriorationPercent("wfPerSec", 100.0, 90.0), 1e-9);
+        assertEquals(-10.0, PerformanceTestComparison.deteriorationPercent("wfPerSec", 100.0, 110.0), 1e-9);
+        // neither latency nor throughput
+        assertEquals(0.0, PerformanceTestComparison.deteriorationPercent("x.count", 100.0, 1.0), 1e-9);
+        // no baseline
+        assertEquals(0.0, PerformanceTestComparison.deteriorationPercent("x.p99Micros", 0.0, 100.0), 1e-9);
+    }
+
+    @Test
+    public void testNoRegression() throws Exception {
+        final File baseline = writeResult("baseline", 1000.0, 500.0, 100.0);
+        // exactly at the threshold is not a regression, nor is a change in a count
+        final File current = writeResult("current", 1100.0, 450.0, 10.0);
+        final PerformanceTestComparison comparison = new PerformanceTestComparison(10);
+        assertEquals(0, comparison.compare(baseline, current));
+        assertEquals(0, comparison.exitStatus(baseline, current));
+    }
+
+    @Test
+    public void testLatencyRegression() throws Exception {
+        final File baseline = writeResult("baseline", 1000.0, 500.0, 100.0);
+        final File current = writeResult("current", 1101.0, 500.0, 100.0);
+        final PerformanceTestComparison comparison = new PerformanceTestComparison(10);
+        assertEquals(1, comparison.compare(baseline, current));
+        assertEquals(1, comparison.exitStatus(baseline, current));
+        // a higher threshold tolerates it
+        assertEquals(0, new PerformanceTestComparison(20).exitStatus(baseline, current));
+    }
+
+    @Test
+    public void testThroughputRegression() throws Exception {
+        final File baseline = writeResult("baseline", 1000.0, 500.0, 100.0);
+        final File current = writeResult("current", 1500.0, 400.0, 100.0);
+        final PerformanceTestComparison comparison = new PerformanceTestComparison(10);
+        assertEquals(2, comparison.compare(baseline, current));
+        assertEquals(1, comparison.exitStatus(baseline, current));
+    }
+
+    @Test
+    public void testMissingMetricIsIgnored() throws Exception {
+        final File baseline = writeResult("baseline", 1000.0, 500.0, 100.0);
+        final PerformanceTestResult result = new PerformanceTestResult("latency", Collections.<String, String> emptyMap());
+        result.addMetric("wfPerSec", 500.0);
+        final File current = result.write(folder.newFolder("current"));
+        assertEquals(0, new PerformanceTestComparison(10).exitStatus(baseline, current));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testNegativeThreshold() {
+        new PerformanceTestComparison(-1);
+    }
+}
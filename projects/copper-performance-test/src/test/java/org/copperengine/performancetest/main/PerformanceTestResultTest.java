@@ -0,0 +1,87 @@
+/**
+ * Copyright 2002-2017 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.performancetest.main;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class PerformanceTestResultTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static PerformanceTestResult createResult() {
+        final Map<String, String> configuration = new LinkedHashMap<>();
+        configuration.put("numbOfWfI", "1000");
+        configuration.put("dsJdbcUrl", "jdbc:h2:mem:perftest");
+        final PerformanceTestResult result = new PerformanceTestResult("latency", configuration);
+        result.addMetric("wf.resume.p99Micros", 1234.5);
+        result.addMetric("wf.resume.count", 1000);
+        result.addMetric("wfPerSec", 42.0);
+        return result;
+    }
+
+    @Test
+    public void testJsonRoundTrip() throws Exception {
+        final PerformanceTestResult result = createResult();
+        final File jsonFile = result.write(new File(folder.getRoot(), "results"));
+        assertTrue(jsonFile.getName().startsWith("latency-"));
+        assertTrue(jsonFile.getName().endsWith(".json"));
+
+        final PerformanceTestResult read = PerformanceTestResult.read(jsonFile);
+        assertEquals(result.getTest(), read.getTest());
+        assertEquals(result.getTimestamp(), read.getTimestamp());
+        assertEquals(result.getConfiguration(), read.getConfiguration());
+        assertEquals(result.getMetrics(), read.getMetrics());
+        // metrics keep their order
+        assertEquals(Arrays.asList(result.getMetrics().keySet().toArray()), Arrays.asList(read.getMetrics().keySet().toArray()));
+    }
+
+    @Test
+    public void testCsv() throws Exception {
+        final PerformanceTestResult result = createResult();
+        final File jsonFile = result.write(folder.getRoot());
+        final File csvFile = new File(folder.getRoot(), jsonFile.getName().replace(".json", ".csv"));
+
+        final List<String> lines = Files.readAllLines(csvFile.toPath(), StandardCharsets.UTF_8);
+        assertEquals("metric,value", lines.get(0));
+        final Map<String, Double> metrics = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            final int idx = line.lastIndexOf(',');
+            metrics.put(line.substring(1, idx - 1), Double.valueOf(line.substring(idx + 1)));
+        }
+        assertEquals(result.getMetrics(), metrics);
+    }
+
+    @Test
+    public void testPercentileName() {
+        assertEquals("p50", PerformanceTestResult.percentileName(50.0));
+        assertEquals("p99_9", PerformanceTestResult.percentileName(99.9));
+        assertEquals("p99_99", PerformanceTestResult.percentileName(99.99));
+    }
+}
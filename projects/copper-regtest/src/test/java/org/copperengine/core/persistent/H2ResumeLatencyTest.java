@@ -0,0 +1,215 @@
+/*
+ * Copyright 2002-2015 SCOOP Software GmbH
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.copperengine.core.persistent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.copperengine.core.Interrupt;
+import org.copperengine.core.Response;
+import org.copperengine.core.Workflow;
+import org.copperengine.core.common.WorkflowRepository;
+import org.copperengine.core.db.utility.JdbcUtils;
+import org.copperengine.core.instrument.Transformed;
+import org.copperengine.core.monitoring.RuntimeStatisticsCollector;
+import org.copperengine.core.persistent.txn.TransactionController;
+import org.h2.jdbcx.JdbcDataSource;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+/**
+ * Dequeues resumed workflow instances from H2 and checks the timestamps of the resume latency statistics.
+ */
+public class H2ResumeLatencyTest {
+
+    private static final String PPOOL_ID = "P#DEFAULT";
+
+    @Transformed
+    static class ResumedWorkflow extends PersistentWorkflow<Serializable> {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public void main() throws Interrupt {
+        }
+    }
+
+    private JdbcDataSource dataSource;
+    private Connection con;
+
+    @Before
+    public void setUp() throws Exception {
+        dataSource = new JdbcDataSource();
+        dataSource.setURL("jdbc:h2:mem:" + getClass().getSimpleName() + System.nanoTime() + ";DB_CLOSE_DELAY=-1");
+        H2Dialect.checkAndCreateSchema(dataSource);
+        con = dataSource.getConnection();
+        con.setAutoCommit(false);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        con.close();
+    }
+
+    private H2Dialect createDialect(H2Dialect dialect) throws Exception {
+        final Serializer serializer = mock(Serializer.class);
+        when(serializer.deserializeWorkflow(any(SerializedWorkflow.class), any(WorkflowRepository.class))).thenAnswer(new Answer<Workflow<?>>() {
+            @Override
+            public Workflow<?> answer(InvocationOnMock invocation) throws Throwable {
+                return new ResumedWorkflow();
+            }
+        });
+        when(serializer.deserializeResponse(anyString())).thenAnswer(new Answer<Response<?>>() {
+            @Override
+            public Response<?> answer(InvocationOnMock invocation) throws Throwable {
+                return new Response<Object>("cid");
+            }
+        });
+        dialect.setDataSource(dataSource);
+        dialect.setSerializer(serializer);
+        dialect.setWfRepository(mock(WorkflowRepository.class));
+        dialect.startup();
+        return dialect;
+    }
+
+    /**
+     * Inserts a workflow instance waiting for one correlation id, the responses for it and its queue entry.
+     */
+    private void insertResumedInstance(String id, long queueTS, long... responseTS) throws SQLException {
+        final String cid = id + "-cid";
+        final Timestamp creationTS = new Timestamp(queueTS - 60000L);
+        PreparedStatement stmt = con.prepareStatement("insert into COP_WORKFLOW_INSTANCE (ID,STATE,PRIORITY,LAST_MOD_TS,PPOOL_ID,DATA,OBJECT_STATE,CS_WAITMODE,MIN_NUMB_OF_RESP,NUMB_OF_WAITS,TIMEOUT,CREATION_TS,CLASSNAME) values (?,?,5,?,?,'data',null,0,1,1,null,?,'Dummy')");
+        stmt.setString(1, id);
+        stmt.setInt(2, DBProcessingState.WAITING.ordinal());
+        stmt.setTimestamp(3, creationTS);
+        stmt.setString(4, PPOOL_ID);
+        stmt.setTimestamp(5, creationTS);
+        stmt.execute();
+        JdbcUtils.closeStatement(stmt);
+
+        stmt = con.prepareStatement("insert into COP_WAIT (CORRELATION_ID,WORKFLOW_INSTANCE_ID,MIN_NUMB_OF_RESP,TIMEOUT_TS,STATE,PRIORITY,PPOOL_ID) values (?,?,1,null,0,5,?)");
+        stmt.setString(1, cid);
+        stmt.setString(2, id);
+        stmt.setString(3, PPOOL_ID);
+        stmt.execute();
+        JdbcUtils.closeStatement(stmt);
+
+        stmt = con.prepareStatement("insert into COP_RESPONSE (RESPONSE_ID,CORRELATION_ID,RESPONSE_TS,RESPONSE) values (?,?,?,'response')");
+        for (int i = 0; i < responseTS.length; i++) {
+            stmt.setString(1, id + "-r" + i);
+            stmt.setString(2, cid);
+            stmt.setTimestamp(3, new Timestamp(responseTS[i]));
+            stmt.execute();
+        }
+        JdbcUtils.closeStatement(stmt);
+
+        stmt = con.prepareStatement("insert into COP_QUEUE (PPOOL_ID,PRIORITY,LAST_MOD_TS,WORKFLOW_INSTANCE_ID,ENGINE_ID) values (?,5,?,?,null)");
+        stmt.setString(1, PPOOL_ID);
+        stmt.setTimestamp(2, new Timestamp(queueTS));
+        stmt.setString(3, id);
+        stmt.execute();
+        JdbcUtils.closeStatement(stmt);
+    }
+
+    private PersistentWorkflow<?> dequeueSingle(H2Dialect dialect) throws Exception {
+        final List<Workflow<?>> workflows = dialect.dequeue(PPOOL_ID, 10, con);
+        assertEquals(1, workflows.size());
+        return (PersistentWorkflow<?>) workflows.get(0);
+    }
+
+    @Test
+    public void testDequeueWithQueueTimestamp() throws Exception {
+        final H2Dialect dialect = createDialect(new H2Dialect());
+        final long now = System.currentTimeMillis();
+        // the last response arrived while the instance was already queued
+        insertResumedInstance("wf1", now - 1000L, now - 5000L, now - 3000L, now + 60000L);
+
+        final PersistentWorkflow<?> wf = dequeueSingle(dialect);
+        assertEquals(now - 1000L, wf.enqueueTS);
+        // the latest response before the queue entry triggered the resume
+        assertEquals(now - 3000L, wf.responseTS);
+        final long dequeueTS = wf.dequeueTS;
+        assertTrue(dequeueTS >= now);
+
+        final RuntimeStatisticsCollector statisticsCollector = submitResumeLatency(wf, dequeueTS + 250L);
+        final long queueToDequeue = dequeueTS - (now - 1000L);
+        verifyStage(statisticsCollector, "responseToQueue", 2000L);
+        verifyStage(statisticsCollector, "queueToDequeue", queueToDequeue);
+        verifyStage(statisticsCollector, "dequeueToStart", 250L);
+        verifyStage(statisticsCollector, "responseToStart", 2000L + queueToDequeue + 250L);
+    }
+
+    @Test
+    public void testDequeueWithoutQueueTimestamp() throws Exception {
+        // a custom dialect with the dequeue statement used before the queue timestamp was added
+        final H2Dialect dialect = createDialect(new H2Dialect() {
+            @Override
+            protected PreparedStatement createDequeueStmt(Connection c, String ppoolId, int maxRows) throws SQLException {
+                final PreparedStatement dequeueStmt = c.prepareStatement("select id,priority,data,object_state,creation_ts,last_mod_ts from COP_WORKFLOW_INSTANCE where id in (select WORKFLOW_INSTANCE_ID from COP_QUEUE where ppool_id = ? and engine_id is NULL order by priority, last_mod_ts LIMIT " + maxRows + ")");
+                dequeueStmt.setString(1, ppoolId);
+                return dequeueStmt;
+            }
+        });
+        final long now = System.currentTimeMillis();
+        insertResumedInstance("wf1", now - 1000L, now - 5000L, now - 3000L);
+
+        final PersistentWorkflow<?> wf = dequeueSingle(dialect);
+        assertEquals(0L, wf.enqueueTS);
+        assertEquals(now - 3000L, wf.responseTS);
+        final long dequeueTS = wf.dequeueTS;
+        assertTrue(dequeueTS >= now);
+
+        final RuntimeStatisticsCollector statisticsCollector = submitResumeLatency(wf, dequeueTS + 250L);
+        verifyStage(statisticsCollector, "dequeueToStart", 250L);
+        verifyStage(statisticsCollector, "responseToStart", dequeueTS + 250L - (now - 3000L));
+        verify(statisticsCollector, never()).submit(eq("engine1." + PPOOL_ID + ".resume.responseToQueue"), eq(1), anyLong(), eq(TimeUnit.MILLISECONDS));
+        verify(statisticsCollector, never()).submit(eq("engine1." + PPOOL_ID + ".resume.queueToDequeue"), eq(1), anyLong(), eq(TimeUnit.MILLISECONDS));
+    }
+
+    private static RuntimeStatisticsCollector submitResumeLatency(PersistentWorkflow<?> wf, long startTS) {
+        final RuntimeStatisticsCollector statisticsCollector = mock(RuntimeStatisticsCollector.class);
+        final PersistentScottyEngine engine = mock(PersistentScottyEngine.class);
+        when(engine.getStatisticsCollector()).thenReturn(statisticsCollector);
+        when(engine.getEngineId()).thenReturn("engine1");
+        new PersistentProcessor("test", null, Thread.NORM_PRIORITY, engine, mock(TransactionController.class)).submitResumeLatency(wf, startTS);
+        // submitted once per resume
+        assertEquals(0L, wf.responseTS + wf.enqueueTS + wf.dequeueTS);
+        return statisticsCollector;
+    }
+
+    private static void verifyStage(RuntimeStatisticsCollector statisticsCollector, String stage, long elapsedMSec) {
+        verify(statisticsCollector).submit("engine1." + PPOOL_ID + ".resume." + stage, 1, elapsedMSec, TimeUnit.MILLISECONDS);
+        verify(statisticsCollector).submit("engine1.ResumedWorkflow.resume." + stage, 1, elapsedMSec, TimeUnit.MILLISECONDS);
+    }
+}
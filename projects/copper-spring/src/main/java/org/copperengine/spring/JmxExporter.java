@@ -22,9 +22,11 @@ import org.copperengine.management.AuditTrailMXBean;
 import org.copperengine.management.AuditTrailQueryMXBean;
 import org.copperengine.management.BatcherMXBean;
 import org.copperengine.management.DatabaseDialectMXBean;
+import org.copperengine.management.EarlyResponseContainerMXBean;
 import org.copperengine.management.ProcessingEngineMXBean;
 import org.copperengine.management.ProcessorPoolMXBean;
 import org.copperengine.management.StatisticsCollectorMXBean;
+import org.copperengine.management.StorageCacheMXBean;
 import org.copperengine.management.WorkflowRepositoryMXBean;
 import org.springframework.beans.BeansException;
 import org.springframework.context.ApplicationContext;
@@ -85,4 +87,14 @@ public class JmxExporter extends AbstractJmxExporter implements ApplicationConte
         return applicationContext.getBeansOfType(AuditTrailQueryMXBean.class);
     }
 
+    @Override
+    protected Map<String, EarlyResponseContainerMXBean> getEarlyResponseContainerMXBeans() {
+        return applicationContext.getBeansOfType(EarlyResponseContainerMXBean.class);
+    }
+
+    @Override
+    protected Map<String, StorageCacheMXBean> getStorageCacheMXBeans() {
+        return applicationContext.getBeansOfType(StorageCacheMXBean.class);
+    }
+
 }
@@ -18,111 +18,131 @@ package org.copperengine.spring.audit;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.copperengine.core.audit.DummyPostProcessor;
+import org.copperengine.core.audit.MessagePostProcessor;
+import org.copperengine.core.audit.StreamingMessagePostProcessor;
 import org.copperengine.management.AuditTrailQueryMXBean;
 import org.copperengine.management.model.AuditTrailInfo;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import org.springframework.batch.item.database.PagingQueryProvider;
-import org.springframework.batch.item.database.support.SqlPagingQueryProviderFactoryBean;
+import org.springframework.batch.support.DatabaseType;
 import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.ResultSetExtractor;
 import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.core.support.JdbcDaoSupport;
 import org.springframework.util.StringUtils;
 
+/**
+ * Queries the audit trail table.
+ * <p>
+ * {@link #getAuditTrailsAfter(String, String, String, Integer, Long, Long, int)} pages through the audit trail with a
+ * keyset (seek) predicate on <code>(OCCURRENCE, SEQ_ID)</code> instead of offsets, so that every page costs the same,
+ * no matter how deep the operator pages. The equality filters are placed first, as they are the selective ones. An
+ * index on <code>(OCCURRENCE, SEQ_ID)</code>, or on e.g. <code>(CONVERSATION_ID, OCCURRENCE, SEQ_ID)</code> for the
+ * common filters, serves both the filter and the order without sorting.
+ * <p>
+ * The queries are built here, as the paging query providers of Spring Batch support a single sort key only. Databases
+ * that support row value comparisons get <code>(OCCURRENCE, SEQ_ID) &gt; (?, ?)</code>, the others the equivalent
+ * <code>OCCURRENCE &gt; ? or (OCCURRENCE = ? and SEQ_ID &gt; ?)</code>. The number of rows is limited with the
+ * database's own syntax.
+ * <p>
+ * Messages are read as character streams and deserialized by the configured {@link MessagePostProcessor} while they
+ * are read. If it is a {@link StreamingMessagePostProcessor}, e.g. the {@link
+ * org.copperengine.core.audit.CompressedBase64PostProcessor}, only the requested part of a message is decompressed.
+ */
 public class AuditTrailQueryEngine extends JdbcDaoSupport implements AuditTrailQueryMXBean {
     private static final Logger logger = LoggerFactory.getLogger(AuditTrailQueryEngine.class);
 
-    @Override
-    public List<AuditTrailInfo> getAuditTrails(String transactionId, String conversationId, String correlationId, Integer level, int maxResult) {
+    private static final String SELECT_CLAUSE = "select "
+            + "SEQ_ID,"
+            + "TRANSACTION_ID,"
+            + "CONVERSATION_ID,"
+            + "CORRELATION_ID,"
+            + "OCCURRENCE,"
+            + "LOGLEVEL,"
+            + "CONTEXT,"
+            + "INSTANCE_ID,"
+            + "MESSAGE_TYPE";
 
-        SqlPagingQueryProviderFactoryBean factory = new SqlPagingQueryProviderFactoryBean();
+    private static final RowMapper<AuditTrailInfo> rowMapper = new RowMapper<AuditTrailInfo>() {
 
-        String sortClause = "SEQ_ID";
-        String whereClause = "where 1=1 ";
-        List<Object> args = new ArrayList<Object>();
-
-        if (level != null) {
-            whereClause += " and LOGLEVEL <= ? ";
-            sortClause = "LOGLEVEL";
-            args.add(level);
-        }
-        if (StringUtils.hasText(correlationId)) {
-            whereClause += " and CORRELATION_ID = ? ";
-            sortClause = "CORRELATION_ID";
-            args.add(correlationId);
-        }
+        public AuditTrailInfo mapRow(ResultSet rs, int arg1)
+                throws SQLException {
 
-        if (StringUtils.hasText(conversationId)) {
-            whereClause += " and CONVERSATION_ID = ? ";
-            sortClause = "CONVERSATION_ID";
-            args.add(conversationId);
+            return new AuditTrailInfo(
+                    rs.getLong("SEQ_ID"),
+                    rs.getString("TRANSACTION_ID"),
+                    rs.getString("CONVERSATION_ID"),
+                    rs.getString("CORRELATION_ID"),
+                    rs.getTimestamp("OCCURRENCE").getTime(),
+                    rs.getInt("LOGLEVEL"),
+                    rs.getString("CONTEXT"),
+                    rs.getString("INSTANCE_ID"),
+                    rs.getString("MESSAGE_TYPE")
+            );
         }
 
-        if (StringUtils.hasText(transactionId)) {
-            whereClause += " and TRANSACTION_ID = ? ";
-            sortClause = "TRANSACTION_ID";
-            args.add(transactionId);
-        }
+    };
 
-        String selectClause = "select "
-                + "SEQ_ID,"
-                + "TRANSACTION_ID,"
-                + "CONVERSATION_ID,"
-                + "CORRELATION_ID,"
-                + "OCCURRENCE,"
-                + "LOGLEVEL,"
-                + "CONTEXT,"
-                + "INSTANCE_ID,"
-                + "MESSAGE_TYPE";
+    private static final String FROM_CLAUSE = " from COP_AUDIT_TRAIL_EVENT ";
+    private static final String ORDER_BY_CLAUSE = " order by OCCURRENCE, SEQ_ID";
 
-        factory.setDataSource(getDataSource());
-        factory.setFromClause("from COP_AUDIT_TRAIL_EVENT ");
+    private MessagePostProcessor messagePostProcessor = new DummyPostProcessor();
+    private volatile DatabaseType databaseType;
 
-        factory.setSelectClause(selectClause);
+    /**
+     * Sets the post processor, that was used to write the messages, default is {@link DummyPostProcessor}.
+     */
+    public void setMessagePostProcessor(MessagePostProcessor messagePostProcessor) {
+        if (messagePostProcessor == null)
+            throw new NullPointerException();
+        this.messagePostProcessor = messagePostProcessor;
+    }
 
-        factory.setWhereClause(whereClause);
-        factory.setSortKey(sortClause);
+    @Override
+    public List<AuditTrailInfo> getAuditTrails(String transactionId, String conversationId, String correlationId, Integer level, int maxResult) {
+        return getAuditTrailsAfter(transactionId, conversationId, correlationId, level, null, null, maxResult);
+    }
 
-        PagingQueryProvider queryProvider = null;
+    @Override
+    public List<AuditTrailInfo> getAuditTrailsAfter(String transactionId, String conversationId, String correlationId, Integer level, Long afterOccurrence, Long afterSeqId, int pageSize) {
+        final List<Object> args = new ArrayList<Object>();
+        final StringBuilder whereClause = createWhereClause(transactionId, conversationId, correlationId, level, args);
+        final DatabaseType type;
         try {
-            queryProvider = (PagingQueryProvider) factory.getObject();
+            type = getDatabaseType();
         } catch (Exception e) {
             logger.error(e.getMessage(), e);
             return null;
         }
+        if (afterOccurrence != null) {
+            if (afterSeqId == null)
+                throw new IllegalArgumentException("afterSeqId must not be null if afterOccurrence is set");
+            final Timestamp ts = new Timestamp(afterOccurrence);
+            if (supportsRowValueComparison(type)) {
+                whereClause.append(" and (OCCURRENCE, SEQ_ID) > (?, ?) ");
+            } else {
+                whereClause.append(" and (OCCURRENCE > ? or (OCCURRENCE = ? and SEQ_ID > ?)) ");
+                args.add(ts);
+            }
+            args.add(ts);
+            args.add(afterSeqId);
+        }
 
-        String query = queryProvider.generateFirstPageQuery(maxResult);
-
-        // this.getJdbcTemplate().setQueryTimeout(1000);
+        final String query = createQuery(type, SELECT_CLAUSE, whereClause.toString(), pageSize);
 
         long start = System.currentTimeMillis();
-        RowMapper<AuditTrailInfo> rowMapper = new RowMapper<AuditTrailInfo>() {
-
-            public AuditTrailInfo mapRow(ResultSet rs, int arg1)
-                    throws SQLException {
-
-                return new AuditTrailInfo(
-                        rs.getLong("SEQ_ID"),
-                        rs.getString("TRANSACTION_ID"),
-                        rs.getString("CONVERSATION_ID"),
-                        rs.getString("CORRELATION_ID"),
-                        rs.getTimestamp("OCCURRENCE").getTime(),
-                        rs.getInt("LOGLEVEL"),
-                        rs.getString("CONTEXT"),
-                        rs.getString("INSTANCE_ID"),
-                        rs.getString("MESSAGE_TYPE")
-                );
-            }
-
-        };
         List<AuditTrailInfo> res = this.getJdbcTemplate().query(query, rowMapper, args.toArray());
-
         long end = System.currentTimeMillis();
 
         logger.info("query took: " + (end - start) + " ms : " + query);
@@ -130,6 +150,74 @@ public class AuditTrailQueryEngine extends JdbcDaoSupport implements AuditTrailQ
         return res;
     }
 
+    @Override
+    public long countAuditTrails(String transactionId, String conversationId, String correlationId, Integer level, int maxCount) {
+        final List<Object> args = new ArrayList<Object>();
+        final StringBuilder whereClause = createWhereClause(transactionId, conversationId, correlationId, level, args);
+        final String query;
+        try {
+            // counting a limited sub query stops at maxCount rows, an unlimited count(*) scans all matching rows
+            query = "select count(*) from (" + createQuery(getDatabaseType(), "select SEQ_ID, OCCURRENCE", whereClause.toString(), maxCount) + ") X";
+        } catch (Exception e) {
+            logger.error(e.getMessage(), e);
+            return -1;
+        }
+        return this.getJdbcTemplate().queryForLong(query, args.toArray());
+    }
+
+    private static StringBuilder createWhereClause(String transactionId, String conversationId, String correlationId, Integer level, List<Object> args) {
+        final StringBuilder whereClause = new StringBuilder("where 1=1 ");
+        if (StringUtils.hasText(conversationId)) {
+            whereClause.append(" and CONVERSATION_ID = ? ");
+            args.add(conversationId);
+        }
+        if (StringUtils.hasText(transactionId)) {
+            whereClause.append(" and TRANSACTION_ID = ? ");
+            args.add(transactionId);
+        }
+        if (StringUtils.hasText(correlationId)) {
+            whereClause.append(" and CORRELATION_ID = ? ");
+            args.add(correlationId);
+        }
+        if (level != null) {
+            whereClause.append(" and LOGLEVEL <= ? ");
+            args.add(level);
+        }
+        return whereClause;
+    }
+
+    private DatabaseType getDatabaseType() throws Exception {
+        DatabaseType type = databaseType;
+        if (type == null) {
+            type = DatabaseType.fromMetaData(getDataSource());
+            databaseType = type;
+        }
+        return type;
+    }
+
+    private static boolean supportsRowValueComparison(DatabaseType type) {
+        return type == DatabaseType.POSTGRES || type == DatabaseType.MYSQL || type == DatabaseType.H2 || type == DatabaseType.HSQL;
+    }
+
+    /**
+     * @return the query for the first <code>maxRows</code> rows, ordered by <code>(OCCURRENCE, SEQ_ID)</code>
+     */
+    static String createQuery(DatabaseType type, String selectClause, String whereClause, int maxRows) {
+        switch (type) {
+        case ORACLE:
+            return "select * from (" + selectClause + FROM_CLAUSE + whereClause + ORDER_BY_CLAUSE + ") where ROWNUM <= " + maxRows;
+        case SQLSERVER:
+        case SYBASE:
+            return selectClause.replaceFirst("(?i)^select ", "select top " + maxRows + " ") + FROM_CLAUSE + whereClause + ORDER_BY_CLAUSE;
+        case DERBY:
+        case DB2:
+        case DB2ZOS:
+            return selectClause + FROM_CLAUSE + whereClause + ORDER_BY_CLAUSE + " fetch first " + maxRows + " rows only";
+        default:
+            return selectClause + FROM_CLAUSE + whereClause + ORDER_BY_CLAUSE + " limit " + maxRows;
+        }
+    }
+
     public byte[] getMessage(long id) {
         String customSelect = "select LONG_MESSAGE from COP_AUDIT_TRAIL_EVENT where SEQ_ID = ? ";
 
@@ -147,6 +235,74 @@ public class AuditTrailQueryEngine extends JdbcDaoSupport implements AuditTrailQ
         return this.getJdbcTemplate().query(customSelect, rse, new Object[] { id });
     }
 
+    @Override
+    public String getMessageText(long id, int maxLength) {
+        final StringWriter out = new StringWriter();
+        return writeMessage(id, out, maxLength) ? out.toString() : null;
+    }
+
+    /**
+     * Streams the deserialized message to <code>out</code>.
+     *
+     * @return <code>false</code>, if there is no such audit trail event or its message is <code>null</code>
+     */
+    public boolean writeMessage(long id, Writer out) {
+        return writeMessage(id, out, 0);
+    }
+
+    private boolean writeMessage(long id, final Writer out, final int maxLength) {
+        String customSelect = "select LONG_MESSAGE from COP_AUDIT_TRAIL_EVENT where SEQ_ID = ? ";
+
+        ResultSetExtractor<Boolean> rse = new ResultSetExtractor<Boolean>() {
+
+            @Override
+            public Boolean extractData(ResultSet rs) throws SQLException,
+                    DataAccessException {
+                if (!rs.next())
+                    return false;
+                final Reader stored = rs.getCharacterStream("LONG_MESSAGE");
+                if (stored == null)
+                    return false;
+                try {
+                    final Reader message = deserialize(stored);
+                    if (message == null)
+                        return false;
+                    try {
+                        copy(message, out, maxLength);
+                    } finally {
+                        message.close();
+                    }
+                    return true;
+                } catch (IOException e) {
+                    throw new SQLException("reading message of audit trail event failed", e);
+                }
+            }
+
+        };
+
+        return this.getJdbcTemplate().query(customSelect, rse, new Object[] { id });
+    }
+
+    private Reader deserialize(Reader stored) throws IOException {
+        if (messagePostProcessor instanceof StreamingMessagePostProcessor) {
+            return ((StreamingMessagePostProcessor) messagePostProcessor).deserializeStream(stored);
+        }
+        final StringWriter sw = new StringWriter();
+        copy(stored, sw, 0);
+        final String message = messagePostProcessor.deserialize(sw.toString());
+        return message == null ? null : new StringReader(message);
+    }
+
+    private static void copy(Reader in, Writer out, int maxLength) throws IOException {
+        final char[] buffer = new char[4096];
+        int remaining = maxLength > 0 ? maxLength : Integer.MAX_VALUE;
+        int read;
+        while (remaining > 0 && (read = in.read(buffer, 0, Math.min(buffer.length, remaining))) > 0) {
+            out.write(buffer, 0, read);
+            remaining -= read;
+        }
+    }
+
     private byte[] convertToArray(InputStream messageStream) {
         if (messageStream == null) {
             return new byte[0];
@@ -155,11 +311,9 @@ public class AuditTrailQueryEngine extends JdbcDaoSupport implements AuditTrailQ
         byte[] bytes = new byte[1024];
         ByteArrayOutputStream out = new ByteArrayOutputStream();
         int read = 0;
-        int off = 0;
         try {
             while ((read = messageStream.read(bytes)) > 0) {
-                out.write(bytes, off, read);
-                off += read;
+                out.write(bytes, 0, read);
             }
             messageStream.close();
             return out.toByteArray();
@@ -46,7 +46,6 @@ public class SpringTxnAuditTrail extends BatchingAuditTrail {
     public void synchLog(final AuditTrailEvent e) {
         if (isEnabled(e.getLogLevel())) {
             logger.debug("doLog({})", e);
-            e.setMessage(messagePostProcessor.serialize(e.getMessage()));
             try {
                 new SpringTransaction() {
                     @Override